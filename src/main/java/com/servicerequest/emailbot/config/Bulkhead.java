@@ -0,0 +1,168 @@
+package com.servicerequest.emailbot.config;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Concurrency limit for one downstream. At most maxConcurrent requests run at once, up to
+ * maxQueue more wait (at most maxWaitMs) for a slot, anything beyond that is rejected
+ * right away. A slow service tracker then fills its own slots and queue instead of every
+ * worker, and Slack or Graph calls keep going. Waiting is a queued future, so blocking
+ * and async callers share the same slots.
+ */
+class Bulkhead {
+
+    private final String name;
+    private final int maxConcurrent;
+    private final int maxQueue;
+    private final long maxWaitMs;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    // Guarded by lock
+    private final Deque<Waiter> waiters = new ArrayDeque<>();
+    private int active = 0;
+    private int peakActive = 0;
+    private int peakQueued = 0;
+
+    private final AtomicLong admitted = new AtomicLong();
+    private final AtomicLong queuedCalls = new AtomicLong();
+    private final AtomicLong rejectedQueueFull = new AtomicLong();
+    private final AtomicLong rejectedTimeout = new AtomicLong();
+    private final AtomicLong totalWaitMs = new AtomicLong();
+
+    Bulkhead(String name, int maxConcurrent, int maxQueue, long maxWaitMs) {
+        this.name = name;
+        this.maxConcurrent = maxConcurrent;
+        this.maxQueue = maxQueue;
+        this.maxWaitMs = maxWaitMs;
+    }
+
+    private static class Waiter {
+        final CompletableFuture<Void> slot = new CompletableFuture<>();
+        final long queuedAt = System.currentTimeMillis();
+    }
+
+    boolean isUnbounded() {
+        return maxConcurrent <= 0;
+    }
+
+    void acquire() throws BulkheadFullException, InterruptedException {
+        CompletableFuture<Void> slot = acquireAsync();
+        try {
+            slot.get();
+        } catch (ExecutionException e) {
+            throw (BulkheadFullException) e.getCause();
+        } catch (InterruptedException e) {
+            // Nobody will use the slot if it is granted later
+            slot.thenRun(this::release);
+            throw e;
+        }
+    }
+
+    /**
+     * Completes once a slot is held; fails with BulkheadFullException when rejected.
+     * Every successful acquire must be paired with one release().
+     */
+    CompletableFuture<Void> acquireAsync() {
+        if (isUnbounded()) {
+            admitted.incrementAndGet();
+            return CompletableFuture.completedFuture(null);
+        }
+
+        Waiter waiter;
+        lock.lock();
+        try {
+            if (active < maxConcurrent && waiters.isEmpty()) {
+                active++;
+                peakActive = Math.max(peakActive, active);
+                admitted.incrementAndGet();
+                return CompletableFuture.completedFuture(null);
+            }
+            if (waiters.size() >= maxQueue) {
+                rejectedQueueFull.incrementAndGet();
+                return CompletableFuture.failedFuture(new BulkheadFullException(
+                        "Bulkhead " + name + " full (" + active + " active, " + waiters.size() + " queued)"));
+            }
+            waiter = new Waiter();
+            waiters.addLast(waiter);
+            peakQueued = Math.max(peakQueued, waiters.size());
+        } finally {
+            lock.unlock();
+        }
+        queuedCalls.incrementAndGet();
+
+        waiter.slot.orTimeout(maxWaitMs, TimeUnit.MILLISECONDS).whenComplete((ignored, error) -> {
+            totalWaitMs.addAndGet(System.currentTimeMillis() - waiter.queuedAt);
+            if (error != null) {
+                lock.lock();
+                try {
+                    waiters.remove(waiter);
+                } finally {
+                    lock.unlock();
+                }
+                rejectedTimeout.incrementAndGet();
+            }
+        });
+        // Callers see a BulkheadFullException rather than the bare TimeoutException
+        return waiter.slot.exceptionallyCompose(error -> CompletableFuture.failedFuture(new BulkheadFullException(
+                "Bulkhead " + name + ": no slot within " + maxWaitMs + "ms")));
+    }
+
+    void release() {
+        if (isUnbounded()) {
+            return;
+        }
+        while (true) {
+            Waiter next;
+            lock.lock();
+            try {
+                next = waiters.pollFirst();
+                if (next == null) {
+                    active--;
+                    return;
+                }
+                // The slot passes straight to the next waiter, active stays the same
+            } finally {
+                lock.unlock();
+            }
+            // Completed outside the lock, its dependent stages run on this thread
+            if (next.slot.complete(null)) {
+                admitted.incrementAndGet();
+                return;
+            }
+            // That waiter timed out in the meantime, offer the slot to the next one
+        }
+    }
+
+    Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("maxConcurrent", maxConcurrent);
+        stats.put("maxQueue", maxQueue);
+        stats.put("maxWaitMs", maxWaitMs);
+        lock.lock();
+        try {
+            stats.put("active", active);
+            stats.put("queued", waiters.size());
+            stats.put("peakActive", peakActive);
+            stats.put("peakQueued", peakQueued);
+            // Share of the slots in use right now
+            stats.put("saturation", maxConcurrent <= 0 ? 0.0 : (double) active / maxConcurrent);
+        } finally {
+            lock.unlock();
+        }
+        stats.put("admitted", admitted.get());
+        stats.put("queuedCalls", queuedCalls.get());
+        stats.put("rejectedQueueFull", rejectedQueueFull.get());
+        stats.put("rejectedTimeout", rejectedTimeout.get());
+        long queued = queuedCalls.get();
+        stats.put("avgQueueWaitMs", queued == 0 ? 0 : totalWaitMs.get() / queued);
+        return stats;
+    }
+}
@@ -0,0 +1,16 @@
+package com.servicerequest.emailbot.config;
+
+import java.io.IOException;
+
+/**
+ * Thrown instead of sending a request when its downstream's bulkhead has no free slot
+ * and its wait queue is full, or the wait for a slot timed out.
+ */
+public class BulkheadFullException extends IOException {
+
+    private static final long serialVersionUID = 1L;
+
+    public BulkheadFullException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,207 @@
+package com.servicerequest.emailbot.config;
+
+import io.github.cdimascio.dotenv.Dotenv;
+import org.springframework.core.env.Environment;
+
+import java.net.URI;
+import java.net.http.HttpHeaders;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+/**
+ * Timeouts, retry rules and bulkhead for one downstream, read from app.http.endpoint.&lt;name&gt;.*
+ * with app.http.endpoint.default.* (and then the built-in values) as fallback. Requests
+ * are matched to an endpoint by URL prefix; the prefixes come from the urls property
+ * or from the .env keys listed in url-env.
+ */
+public class EndpointPolicy {
+
+    static final String DEFAULT = "default";
+
+    private final String name;
+    private final List<String> urlPrefixes;
+    private final Duration connectTimeout;
+    private final Duration readTimeout;
+    private final int maxRetries;
+    private final long baseBackoffMs;
+    private final long maxBackoffMs;
+    private final Set<String> retryMethods;
+    private final Set<Integer> retryStatuses;
+    private final Bulkhead bulkhead;
+
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong timeouts = new AtomicLong();
+    private final AtomicLong retries = new AtomicLong();
+    private final AtomicLong retryableFailures = new AtomicLong();
+    private final AtomicLong deadlineExceeded = new AtomicLong();
+
+    EndpointPolicy(String name, List<String> urlPrefixes, Duration connectTimeout, Duration readTimeout,
+                   int maxRetries, long baseBackoffMs, long maxBackoffMs,
+                   Set<String> retryMethods, Set<Integer> retryStatuses, Bulkhead bulkhead) {
+        this.name = name;
+        this.urlPrefixes = urlPrefixes;
+        this.connectTimeout = connectTimeout;
+        this.readTimeout = readTimeout;
+        this.maxRetries = maxRetries;
+        this.baseBackoffMs = baseBackoffMs;
+        this.maxBackoffMs = maxBackoffMs;
+        this.retryMethods = retryMethods;
+        this.retryStatuses = retryStatuses;
+        this.bulkhead = bulkhead;
+    }
+
+    static EndpointPolicy load(String name, Environment env, Dotenv dotenv) {
+        List<String> prefixes = new ArrayList<>();
+        for (String url : list(property(env, name, "urls", ""))) {
+            prefixes.add(url);
+        }
+        for (String key : list(property(env, name, "url-env", ""))) {
+            String url = dotenv.get(key);
+            if (url != null && !url.isBlank()) {
+                prefixes.add(url.trim());
+            }
+        }
+
+        return new EndpointPolicy(
+                name,
+                prefixes,
+                Duration.ofMillis(Long.parseLong(property(env, name, "connect-timeout",
+                        env.getProperty("app.http.connect-timeout", "15000")))),
+                Duration.ofMillis(Long.parseLong(property(env, name, "read-timeout",
+                        env.getProperty("app.http.request-timeout", "60000")))),
+                Integer.parseInt(property(env, name, "max-retries", "2")),
+                Long.parseLong(property(env, name, "base-backoff", "500")),
+                Long.parseLong(property(env, name, "max-backoff", "8000")),
+                // Only calls that are safe to repeat; POSTs create things
+                list(property(env, name, "retry-methods", "GET,HEAD,PUT,DELETE,OPTIONS")).stream()
+                        .map(String::toUpperCase).collect(Collectors.toSet()),
+                list(property(env, name, "retry-statuses", "408,429,500,502,503,504")).stream()
+                        .map(Integer::valueOf).collect(Collectors.toSet()),
+                // max-concurrent 0 = no limit
+                new Bulkhead(name,
+                        Integer.parseInt(property(env, name, "max-concurrent", "0")),
+                        Integer.parseInt(property(env, name, "max-queue", "50")),
+                        Long.parseLong(property(env, name, "max-wait", "10000"))));
+    }
+
+    private static String property(Environment env, String name, String key, String fallback) {
+        String value = env.getProperty("app.http.endpoint." + name + "." + key);
+        if (value == null && !DEFAULT.equals(name)) {
+            value = env.getProperty("app.http.endpoint." + DEFAULT + "." + key);
+        }
+        return value != null ? value : fallback;
+    }
+
+    private static List<String> list(String value) {
+        return Arrays.stream(value.split(","))
+                .map(String::trim)
+                .filter(v -> !v.isEmpty())
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Length of the longest configured prefix the URI starts with, or -1
+     */
+    int matchLength(URI uri) {
+        String url = uri.toString();
+        int best = -1;
+        for (String prefix : urlPrefixes) {
+            if (url.startsWith(prefix) && prefix.length() > best) {
+                best = prefix.length();
+            }
+        }
+        return best;
+    }
+
+    boolean isRetryableMethod(String method) {
+        return retryMethods.contains(method.toUpperCase());
+    }
+
+    boolean hasRetriesLeft(int attempt) {
+        return attempt < maxRetries;
+    }
+
+    boolean isRetryableStatus(int status) {
+        return retryStatuses.contains(status);
+    }
+
+    /**
+     * Retry-After (in seconds) when the server sends one, otherwise exponential backoff with full jitter
+     */
+    long backoffMs(int attempt, HttpHeaders headers) {
+        if (headers != null) {
+            String retryAfter = headers.firstValue("retry-after").orElse(null);
+            if (retryAfter != null) {
+                try {
+                    return Math.min(maxBackoffMs, Long.parseLong(retryAfter.trim()) * 1000);
+                } catch (NumberFormatException e) {
+                    // HTTP-date form, fall back to our own backoff
+                }
+            }
+        }
+        long ceiling = Math.min(maxBackoffMs, baseBackoffMs << Math.min(attempt, 20));
+        return ceiling / 2 + ThreadLocalRandom.current().nextLong(ceiling / 2 + 1);
+    }
+
+    String getName() {
+        return name;
+    }
+
+    Duration getConnectTimeout() {
+        return connectTimeout;
+    }
+
+    Duration getReadTimeout() {
+        return readTimeout;
+    }
+
+    Bulkhead getBulkhead() {
+        return bulkhead;
+    }
+
+    void recordRequest() {
+        requests.incrementAndGet();
+    }
+
+    void recordTimeout() {
+        timeouts.incrementAndGet();
+    }
+
+    void recordRetry() {
+        retries.incrementAndGet();
+    }
+
+    void recordRetryableFailure() {
+        retryableFailures.incrementAndGet();
+    }
+
+    void recordDeadlineExceeded() {
+        deadlineExceeded.incrementAndGet();
+    }
+
+    Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("urlPrefixes", urlPrefixes);
+        stats.put("connectTimeoutMs", connectTimeout.toMillis());
+        stats.put("readTimeoutMs", readTimeout.toMillis());
+        stats.put("maxRetries", maxRetries);
+        stats.put("retryMethods", retryMethods);
+        stats.put("retryStatuses", retryStatuses);
+        stats.put("requests", requests.get());
+        stats.put("timeouts", timeouts.get());
+        stats.put("retries", retries.get());
+        // Still failing with a retryable status/error once the retries ran out
+        stats.put("retryableFailures", retryableFailures.get());
+        stats.put("deadlineExceeded", deadlineExceeded.get());
+        stats.put("bulkhead", bulkhead.getStats());
+        return stats;
+    }
+}
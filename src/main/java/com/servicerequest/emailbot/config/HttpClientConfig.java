@@ -0,0 +1,91 @@
+package com.servicerequest.emailbot.config;
+
+import io.github.cdimascio.dotenv.Dotenv;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.env.Environment;
+
+import java.net.http.HttpClient;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Builds the single outbound HttpClient used by Graph, Claude, the service tracker,
+ * comments, questionnaires, Slack and auth. One client means one connection pool and
+ * one selector thread, so connections to the same host are reused across services.
+ * Each downstream listed in app.http.endpoints gets its own timeouts and retry rules
+ * (see EndpointPolicy).
+ */
+@Configuration
+public class HttpClientConfig {
+
+    @Autowired
+    private Environment environment;
+
+    // Downstreams with their own app.http.endpoint.<name>.* policy; anything else uses "default"
+    @Value("${app.http.endpoints:}")
+    private String endpointNames;
+
+    // Idle connections are closed after this long
+    @Value("${app.http.keep-alive-seconds:30}")
+    private long keepAliveSeconds;
+
+    @Value("${app.http.executor-threads:8}")
+    private int executorThreads;
+
+    @Bean
+    public InstrumentedHttpClient httpClient() {
+        // Read by the JDK client when its connection pool is first created
+        if (System.getProperty("jdk.httpclient.keepalive.timeout") == null) {
+            System.setProperty("jdk.httpclient.keepalive.timeout", String.valueOf(keepAliveSeconds));
+        }
+
+        AtomicInteger threadNumber = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(executorThreads, runnable -> {
+            Thread thread = new Thread(runnable, "http-client-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        Dotenv dotenv = Dotenv.configure().ignoreIfMissing().load();
+        EndpointPolicy defaultPolicy = EndpointPolicy.load(EndpointPolicy.DEFAULT, environment, dotenv);
+        HttpClient delegate = buildClient(defaultPolicy.getConnectTimeout(), executor);
+
+        List<EndpointPolicy> endpoints = new ArrayList<>();
+        Map<String, HttpClient> endpointClients = new HashMap<>();
+        for (String name : endpointNames.split(",")) {
+            if (name.isBlank()) {
+                continue;
+            }
+            EndpointPolicy policy = EndpointPolicy.load(name.trim(), environment, dotenv);
+            endpoints.add(policy);
+            // The connect timeout is per client, so endpoints that change it need their own
+            if (!policy.getConnectTimeout().equals(defaultPolicy.getConnectTimeout())) {
+                endpointClients.put(policy.getName(), buildClient(policy.getConnectTimeout(), executor));
+            }
+            System.out.println("HTTP endpoint " + policy.getName() + ": " + policy.getStats());
+        }
+
+        System.out.println("Shared HTTP client: HTTP/2 preferred, connect timeout " + defaultPolicy.getConnectTimeout().toMillis()
+                + "ms, request timeout " + defaultPolicy.getReadTimeout().toMillis() + "ms, "
+                + executorThreads + " executor threads, " + endpoints.size() + " endpoint policies");
+        return new InstrumentedHttpClient(delegate, defaultPolicy, endpoints, endpointClients, keepAliveSeconds * 1000);
+    }
+
+    private static HttpClient buildClient(Duration connectTimeout, ExecutorService executor) {
+        return HttpClient.newBuilder()
+                // Negotiated per host via ALPN; servers without HTTP/2 get HTTP/1.1
+                .version(HttpClient.Version.HTTP_2)
+                .connectTimeout(connectTimeout)
+                .executor(executor)
+                .build();
+    }
+}
@@ -0,0 +1,519 @@
+package com.servicerequest.emailbot.config;
+
+import com.servicerequest.emailbot.util.AsyncUtils;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLParameters;
+import javax.net.ssl.SSLSession;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.Authenticator;
+import java.net.CookieHandler;
+import java.net.ProxySelector;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpHeaders;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.HttpTimeoutException;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The one HttpClient every integration shares. Delegates to a tuned JDK client, applies
+ * the endpoint policy (timeout, retries, bulkhead) of whatever downstream a request goes
+ * to and keeps per-host numbers. The JDK pool exposes no counters, so connection use is
+ * estimated from the traffic: HTTP/1.1 needs one connection per concurrent request and
+ * keeps it for the keep-alive period, HTTP/2 multiplexes everything over one connection
+ * per host.
+ */
+public class InstrumentedHttpClient extends HttpClient {
+
+    private final HttpClient delegate;
+    private final EndpointPolicy defaultPolicy;
+    private final List<EndpointPolicy> endpoints;
+    // Endpoints whose connect timeout differs from the default get their own JDK client
+    private final Map<String, HttpClient> endpointClients;
+    private final long keepAliveMs;
+    private final Map<String, HostStats> hosts = new ConcurrentHashMap<>();
+
+    InstrumentedHttpClient(HttpClient delegate, EndpointPolicy defaultPolicy, List<EndpointPolicy> endpoints,
+                           Map<String, HttpClient> endpointClients, long keepAliveMs) {
+        this.delegate = delegate;
+        this.defaultPolicy = defaultPolicy;
+        this.endpoints = endpoints;
+        this.endpointClients = endpointClients;
+        this.keepAliveMs = keepAliveMs;
+    }
+
+    @Override
+    public <T> HttpResponse<T> send(HttpRequest request, HttpResponse.BodyHandler<T> responseBodyHandler)
+            throws IOException, InterruptedException {
+        EndpointPolicy policy = policyFor(request);
+        long deadlineAt = RequestDeadline.current();
+
+        for (int attempt = 0; ; attempt++) {
+            HttpRequest effective = withTimeout(request, policy, deadlineAt);
+            // The slot is held for one attempt (a streamed body until it is closed), not across the backoff
+            policy.getBulkhead().acquire();
+            boolean deadlineBound = isDeadlineBound(request, policy, deadlineAt);
+            HostStats stats = statsFor(effective);
+            policy.recordRequest();
+            long start = stats.start();
+
+            HttpResponse<T> response = null;
+            IOException failure = null;
+            try {
+                response = clientFor(policy).send(effective, responseBodyHandler);
+            } catch (IOException e) {
+                failure = e;
+            } finally {
+                if (response == null) {
+                    policy.getBulkhead().release();
+                }
+                stats.finish(start, response != null ? response.version() : null);
+            }
+
+            if (failure != null) {
+                long delay = errorRetryDelay(policy, request, failure, attempt, deadlineBound, deadlineAt);
+                if (delay < 0) {
+                    throw failure;
+                }
+                Thread.sleep(delay);
+                continue;
+            }
+
+            long delay = statusRetryDelay(policy, request, response, attempt, deadlineAt);
+            if (delay < 0) {
+                return watched(response, effective, policy, deadlineAt);
+            }
+            discard(response);
+            policy.getBulkhead().release();
+            Thread.sleep(delay);
+        }
+    }
+
+    @Override
+    public <T> CompletableFuture<HttpResponse<T>> sendAsync(HttpRequest request,
+                                                            HttpResponse.BodyHandler<T> responseBodyHandler) {
+        return sendAsync(request, responseBodyHandler, null);
+    }
+
+    @Override
+    public <T> CompletableFuture<HttpResponse<T>> sendAsync(HttpRequest request,
+                                                            HttpResponse.BodyHandler<T> responseBodyHandler,
+                                                            HttpResponse.PushPromiseHandler<T> pushPromiseHandler) {
+        return attemptAsync(request, responseBodyHandler, pushPromiseHandler, policyFor(request),
+                RequestDeadline.current(), 0);
+    }
+
+    private <T> CompletableFuture<HttpResponse<T>> attemptAsync(HttpRequest request,
+                                                                HttpResponse.BodyHandler<T> handler,
+                                                                HttpResponse.PushPromiseHandler<T> pushPromiseHandler,
+                                                                EndpointPolicy policy, long deadlineAt, int attempt) {
+        HttpRequest effective;
+        try {
+            effective = withTimeout(request, policy, deadlineAt);
+        } catch (HttpTimeoutException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        HttpRequest attemptRequest = effective;
+        Bulkhead bulkhead = policy.getBulkhead();
+
+        return bulkhead.acquireAsync().thenCompose(ignored -> {
+            boolean deadlineBound = isDeadlineBound(request, policy, deadlineAt);
+            HostStats stats = statsFor(attemptRequest);
+            policy.recordRequest();
+            long start = stats.start();
+            CompletableFuture<HttpResponse<T>> sent;
+            try {
+                sent = clientFor(policy).sendAsync(attemptRequest, handler, pushPromiseHandler);
+            } catch (RuntimeException e) {
+                bulkhead.release();
+                stats.finish(start, null);
+                throw e;
+            }
+            return sent
+                    .handle((response, error) -> {
+                        if (error != null) {
+                            bulkhead.release();
+                        }
+                        stats.finish(start, response != null ? response.version() : null);
+                        return retryAsync(request, handler, pushPromiseHandler, policy, deadlineAt, attempt,
+                                deadlineBound, response, error);
+                    })
+                    .thenCompose(next -> next);
+        });
+    }
+
+    /**
+     * Response/error of one attempt: the response itself, or a later attempt after the backoff
+     */
+    private <T> CompletableFuture<HttpResponse<T>> retryAsync(HttpRequest request,
+                                                              HttpResponse.BodyHandler<T> handler,
+                                                              HttpResponse.PushPromiseHandler<T> pushPromiseHandler,
+                                                              EndpointPolicy policy, long deadlineAt, int attempt,
+                                                              boolean deadlineBound, HttpResponse<T> response,
+                                                              Throwable error) {
+        long delay;
+        if (error != null) {
+            Throwable cause = AsyncUtils.unwrap(error);
+            delay = cause instanceof IOException io
+                    ? errorRetryDelay(policy, request, io, attempt, deadlineBound, deadlineAt) : -1;
+            if (delay < 0) {
+                return CompletableFuture.<HttpResponse<T>>failedFuture(cause);
+            }
+        } else {
+            delay = statusRetryDelay(policy, request, response, attempt, deadlineAt);
+            if (delay < 0) {
+                return CompletableFuture.completedFuture(watched(response, response.request(), policy, deadlineAt));
+            }
+            discard(response);
+            policy.getBulkhead().release();
+        }
+        Executor later = CompletableFuture.delayedExecutor(delay, TimeUnit.MILLISECONDS,
+                delegate.executor().orElse(ForkJoinPool.commonPool()));
+        return CompletableFuture.runAsync(() -> { }, later).thenCompose(ignored ->
+                attemptAsync(request, handler, pushPromiseHandler, policy, deadlineAt, attempt + 1));
+    }
+
+    /**
+     * Backoff before retrying after an I/O error (timeouts included), or -1 to give up
+     */
+    private long errorRetryDelay(EndpointPolicy policy, HttpRequest request, IOException error, int attempt,
+                                 boolean deadlineBound, long deadlineAt) {
+        if (error instanceof BulkheadFullException) {
+            // Retrying right away would only add to the pile-up
+            return -1;
+        }
+        if (error instanceof HttpTimeoutException) {
+            if (deadlineBound) {
+                // Cut short by the caller's deadline, not by the endpoint - nothing left to retry with
+                policy.recordDeadlineExceeded();
+                return -1;
+            }
+            policy.recordTimeout();
+        }
+        return retryDelay(policy, request, attempt, null, deadlineAt);
+    }
+
+    private long statusRetryDelay(EndpointPolicy policy, HttpRequest request, HttpResponse<?> response,
+                                  int attempt, long deadlineAt) {
+        if (!policy.isRetryableStatus(response.statusCode())) {
+            return -1;
+        }
+        return retryDelay(policy, request, attempt, response.headers(), deadlineAt);
+    }
+
+    private long retryDelay(EndpointPolicy policy, HttpRequest request, int attempt, HttpHeaders headers,
+                            long deadlineAt) {
+        if (!policy.isRetryableMethod(request.method())) {
+            return -1;
+        }
+        long delay = policy.backoffMs(attempt, headers);
+        if (!policy.hasRetriesLeft(attempt) || delay >= deadlineAt - System.currentTimeMillis()) {
+            policy.recordRetryableFailure();
+            return -1;
+        }
+        policy.recordRetry();
+        return delay;
+    }
+
+    /**
+     * Hand the final response of an attempt to the caller and free its bulkhead slot. Other
+     * bodies are complete by now, so the slot is released right away. A streamed
+     * (InputStream) body is still being transferred: it keeps the slot until it is closed,
+     * and gets a watchdog for the read timeout and the caller's deadline, which the JDK
+     * stops enforcing once the headers are in.
+     */
+    @SuppressWarnings("unchecked")
+    private static <T> HttpResponse<T> watched(HttpResponse<T> response, HttpRequest request, EndpointPolicy policy,
+                                               long deadlineAt) {
+        if (!(response.body() instanceof InputStream body)) {
+            policy.getBulkhead().release();
+            return response;
+        }
+        long readTimeoutMs = request.timeout().orElse(policy.getReadTimeout()).toMillis();
+        return new WatchedResponse<>(response, (T) new WatchedInputStream(body, policy, readTimeoutMs, deadlineAt,
+                policy.getBulkhead()::release));
+    }
+
+    private static void discard(HttpResponse<?> response) {
+        if (response.body() instanceof Closeable body) {
+            try {
+                body.close();
+            } catch (IOException ignored) {
+                // Nothing more to read from a response that is being retried
+            }
+        }
+    }
+
+    /**
+     * The request with the endpoint's read timeout (unless it sets its own), shortened to
+     * what is left of the caller's deadline
+     */
+    private HttpRequest withTimeout(HttpRequest request, EndpointPolicy policy, long deadlineAt)
+            throws HttpTimeoutException {
+        Duration timeout = request.timeout().orElse(policy.getReadTimeout());
+        if (deadlineAt != Long.MAX_VALUE) {
+            long remaining = deadlineAt - System.currentTimeMillis();
+            if (remaining <= 0) {
+                policy.recordDeadlineExceeded();
+                throw new HttpTimeoutException("Deadline exceeded before request to " + policy.getName());
+            }
+            if (remaining < timeout.toMillis()) {
+                timeout = Duration.ofMillis(remaining);
+            }
+        }
+        if (request.timeout().isPresent() && request.timeout().get().equals(timeout)) {
+            return request;
+        }
+        return HttpRequest.newBuilder(request, (name, value) -> true)
+                .timeout(timeout)
+                .build();
+    }
+
+    private static boolean isDeadlineBound(HttpRequest request, EndpointPolicy policy, long deadlineAt) {
+        long timeout = request.timeout().orElse(policy.getReadTimeout()).toMillis();
+        return deadlineAt != Long.MAX_VALUE && deadlineAt - System.currentTimeMillis() < timeout;
+    }
+
+    private EndpointPolicy policyFor(HttpRequest request) {
+        EndpointPolicy best = defaultPolicy;
+        int bestLength = -1;
+        for (EndpointPolicy endpoint : endpoints) {
+            int length = endpoint.matchLength(request.uri());
+            if (length > bestLength) {
+                best = endpoint;
+                bestLength = length;
+            }
+        }
+        return best;
+    }
+
+    private HttpClient clientFor(EndpointPolicy policy) {
+        return endpointClients.getOrDefault(policy.getName(), delegate);
+    }
+
+    private HostStats statsFor(HttpRequest request) {
+        String host = request.uri().getScheme() + "://" + request.uri().getAuthority();
+        return hosts.computeIfAbsent(host, h -> new HostStats(keepAliveMs));
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("version", delegate.version().name());
+        stats.put("connectTimeoutMs", delegate.connectTimeout().map(Duration::toMillis).orElse(-1L));
+        stats.put("defaultRequestTimeoutMs", defaultPolicy.getReadTimeout().toMillis());
+        stats.put("keepAliveMs", keepAliveMs);
+        Map<String, Object> perHost = new TreeMap<>();
+        hosts.forEach((host, hostStats) -> perHost.put(host, hostStats.toMap()));
+        stats.put("hosts", perHost);
+        Map<String, Object> perEndpoint = new LinkedHashMap<>();
+        for (EndpointPolicy endpoint : endpoints) {
+            perEndpoint.put(endpoint.getName(), endpoint.getStats());
+        }
+        perEndpoint.put(defaultPolicy.getName(), defaultPolicy.getStats());
+        stats.put("endpoints", perEndpoint);
+        return stats;
+    }
+
+    /**
+     * Slots, queue and rejections of every downstream's bulkhead
+     */
+    public Map<String, Object> getBulkheadStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        for (EndpointPolicy endpoint : endpoints) {
+            stats.put(endpoint.getName(), endpoint.getBulkhead().getStats());
+        }
+        stats.put(defaultPolicy.getName(), defaultPolicy.getBulkhead().getStats());
+        return stats;
+    }
+
+    @Override
+    public Optional<CookieHandler> cookieHandler() {
+        return delegate.cookieHandler();
+    }
+
+    @Override
+    public Optional<Duration> connectTimeout() {
+        return delegate.connectTimeout();
+    }
+
+    @Override
+    public Redirect followRedirects() {
+        return delegate.followRedirects();
+    }
+
+    @Override
+    public Optional<ProxySelector> proxy() {
+        return delegate.proxy();
+    }
+
+    @Override
+    public SSLContext sslContext() {
+        return delegate.sslContext();
+    }
+
+    @Override
+    public SSLParameters sslParameters() {
+        return delegate.sslParameters();
+    }
+
+    @Override
+    public Optional<Authenticator> authenticator() {
+        return delegate.authenticator();
+    }
+
+    @Override
+    public Version version() {
+        return delegate.version();
+    }
+
+    @Override
+    public Optional<Executor> executor() {
+        return delegate.executor();
+    }
+
+    /**
+     * The response with its body replaced
+     */
+    private static class WatchedResponse<T> implements HttpResponse<T> {
+        private final HttpResponse<T> response;
+        private final T body;
+
+        WatchedResponse(HttpResponse<T> response, T body) {
+            this.response = response;
+            this.body = body;
+        }
+
+        @Override
+        public int statusCode() {
+            return response.statusCode();
+        }
+
+        @Override
+        public HttpRequest request() {
+            return response.request();
+        }
+
+        @Override
+        public Optional<HttpResponse<T>> previousResponse() {
+            return response.previousResponse();
+        }
+
+        @Override
+        public HttpHeaders headers() {
+            return response.headers();
+        }
+
+        @Override
+        public T body() {
+            return body;
+        }
+
+        @Override
+        public Optional<SSLSession> sslSession() {
+            return response.sslSession();
+        }
+
+        @Override
+        public URI uri() {
+            return response.uri();
+        }
+
+        @Override
+        public Version version() {
+            return response.version();
+        }
+    }
+
+    private static class HostStats {
+        private final long keepAliveMs;
+
+        // Guarded by this
+        private long requests;
+        private long failures;
+        private long http2Responses;
+        private long totalLatencyMs;
+        private int inFlight;
+        private int peakInFlight;
+        private long newConnections;
+        private long reusedConnections;
+        private boolean http2;
+        private long lastActivity;
+        // Finish times of HTTP/1.1 connections that are idle in the pool
+        private final Deque<Long> idleConnections = new ArrayDeque<>();
+
+        HostStats(long keepAliveMs) {
+            this.keepAliveMs = keepAliveMs;
+        }
+
+        synchronized long start() {
+            long now = System.currentTimeMillis();
+            idleConnections.removeIf(idleSince -> now - idleSince > keepAliveMs);
+
+            boolean reused;
+            if (http2) {
+                reused = inFlight > 0 || now - lastActivity <= keepAliveMs;
+            } else {
+                reused = idleConnections.pollFirst() != null;
+            }
+            if (reused) {
+                reusedConnections++;
+            } else {
+                newConnections++;
+            }
+
+            requests++;
+            inFlight++;
+            peakInFlight = Math.max(peakInFlight, inFlight);
+            return now;
+        }
+
+        synchronized void finish(long start, Version version) {
+            long now = System.currentTimeMillis();
+            inFlight--;
+            totalLatencyMs += now - start;
+            lastActivity = now;
+
+            if (version == null) {
+                // Failed exchanges don't return their connection to the pool
+                failures++;
+                return;
+            }
+            if (version == Version.HTTP_2) {
+                http2Responses++;
+                http2 = true;
+            } else {
+                idleConnections.addFirst(now);
+            }
+        }
+
+        synchronized Map<String, Object> toMap() {
+            Map<String, Object> map = new LinkedHashMap<>();
+            map.put("requests", requests);
+            map.put("failures", failures);
+            map.put("http2Responses", http2Responses);
+            map.put("avgLatencyMs", requests == 0 ? 0 : totalLatencyMs / requests);
+            map.put("inFlight", inFlight);
+            map.put("peakInFlight", peakInFlight);
+            map.put("estimatedNewConnections", newConnections);
+            map.put("estimatedReusedConnections", reusedConnections);
+            map.put("estimatedReuseRate", requests == 0 ? 0.0 : (double) reusedConnections / requests);
+            return map;
+        }
+    }
+}
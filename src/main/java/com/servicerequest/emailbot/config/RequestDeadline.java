@@ -0,0 +1,70 @@
+package com.servicerequest.emailbot.config;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionException;
+import java.util.function.Function;
+
+/**
+ * Time budget for everything the current thread does inside within()/until(). The shared
+ * HttpClient caps each request's timeout to what is left of it and refuses to start
+ * requests once it has run out, so one email can never hold a worker past its budget
+ * however many calls (and retries) it makes. Async chains run their later steps on HTTP
+ * client threads, so each step that sends a further request is wrapped in carried().
+ */
+public final class RequestDeadline {
+
+    private static final ThreadLocal<Long> DEADLINE = new ThreadLocal<>();
+
+    private RequestDeadline() {
+    }
+
+    public static <T> T within(long budgetMs, Callable<T> work) throws Exception {
+        if (budgetMs <= 0) {
+            return work.call();
+        }
+        return until(System.currentTimeMillis() + budgetMs, work);
+    }
+
+    public static <T> T until(long deadlineAt, Callable<T> work) throws Exception {
+        Long previous = DEADLINE.get();
+        // Nested budgets can only shorten the outer one
+        DEADLINE.set(previous != null ? Math.min(previous, deadlineAt) : deadlineAt);
+        try {
+            return work.call();
+        } finally {
+            if (previous != null) {
+                DEADLINE.set(previous);
+            } else {
+                DEADLINE.remove();
+            }
+        }
+    }
+
+    /**
+     * A chain step that runs under the deadline current when the chain is built, for
+     * thenCompose/thenApply callbacks that run on threads without one
+     */
+    public static <T, U> Function<T, U> carried(Function<T, U> step) {
+        long deadlineAt = current();
+        if (deadlineAt == Long.MAX_VALUE) {
+            return step;
+        }
+        return value -> {
+            try {
+                return until(deadlineAt, () -> step.apply(value));
+            } catch (RuntimeException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new CompletionException(e);
+            }
+        };
+    }
+
+    /**
+     * This thread's deadline as epoch millis, or Long.MAX_VALUE if none is set
+     */
+    public static long current() {
+        Long deadline = DEADLINE.get();
+        return deadline == null ? Long.MAX_VALUE : deadline;
+    }
+}
@@ -0,0 +1,155 @@
+package com.servicerequest.emailbot.config;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.http.HttpTimeoutException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Response body handed out by BodyHandlers.ofInputStream, watched after the headers have
+ * arrived. The JDK request timeout stops counting at that point, so a stalled stream (an
+ * SSE reply that never sends its next event, a Graph page cut off mid-body) would block
+ * readLine() forever. A watchdog closes the body when a single read waits longer than the
+ * read timeout or the caller's RequestDeadline passes; closing cancels the exchange and
+ * the blocked read fails with an HttpTimeoutException.
+ */
+class WatchedInputStream extends FilterInputStream {
+
+    private static final ScheduledExecutorService WATCHDOG = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "http-stream-watchdog");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final EndpointPolicy policy;
+    private final long readTimeoutMs;
+    private final long deadlineAt;
+    private final Runnable onClose;
+
+    // Start of the read currently blocked in the delegate, 0 when not reading
+    private volatile long readingSince = 0;
+    private volatile String expired;
+    private volatile boolean closed = false;
+    private volatile ScheduledFuture<?> check;
+
+    /**
+     * onClose runs once when the body is closed, by the caller or the watchdog
+     */
+    WatchedInputStream(InputStream in, EndpointPolicy policy, long readTimeoutMs, long deadlineAt, Runnable onClose) {
+        super(in);
+        this.policy = policy;
+        this.readTimeoutMs = readTimeoutMs;
+        this.deadlineAt = deadlineAt;
+        this.onClose = onClose;
+        scheduleCheck(System.currentTimeMillis());
+    }
+
+    @Override
+    public int read() throws IOException {
+        readingSince = System.currentTimeMillis();
+        try {
+            return super.read();
+        } catch (IOException e) {
+            throw expiredOr(e);
+        } finally {
+            readingSince = 0;
+        }
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) throws IOException {
+        readingSince = System.currentTimeMillis();
+        try {
+            return in.read(buffer, offset, length);
+        } catch (IOException e) {
+            throw expiredOr(e);
+        } finally {
+            readingSince = 0;
+        }
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        readingSince = System.currentTimeMillis();
+        try {
+            return super.skip(n);
+        } catch (IOException e) {
+            throw expiredOr(e);
+        } finally {
+            readingSince = 0;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+        }
+        ScheduledFuture<?> pending = check;
+        if (pending != null) {
+            pending.cancel(false);
+        }
+        // Before closing the delegate, which wakes a read blocked on it
+        try {
+            onClose.run();
+        } finally {
+            super.close();
+        }
+    }
+
+    private IOException expiredOr(IOException error) {
+        String reason = expired;
+        if (reason == null) {
+            return error;
+        }
+        HttpTimeoutException timeout = new HttpTimeoutException(reason);
+        timeout.initCause(error);
+        return timeout;
+    }
+
+    private void scheduleCheck(long now) {
+        if (closed) {
+            return;
+        }
+        long reading = readingSince;
+        long next = reading > 0 ? reading + readTimeoutMs : now + readTimeoutMs;
+        if (deadlineAt != Long.MAX_VALUE) {
+            next = Math.min(next, deadlineAt);
+        }
+        check = WATCHDOG.schedule(this::check, Math.max(1, next - now), TimeUnit.MILLISECONDS);
+    }
+
+    private void check() {
+        if (closed) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        long reading = readingSince;
+        if (now >= deadlineAt) {
+            policy.recordDeadlineExceeded();
+            expire("Deadline exceeded while reading response from " + policy.getName());
+        } else if (reading > 0 && now - reading >= readTimeoutMs) {
+            policy.recordTimeout();
+            expire("No response data from " + policy.getName() + " for " + (now - reading) + "ms");
+        } else {
+            scheduleCheck(now);
+        }
+    }
+
+    private void expire(String reason) {
+        expired = reason;
+        System.err.println("⏱️ " + reason + ", closing the response stream");
+        try {
+            close();
+        } catch (IOException e) {
+            // The blocked read fails either way
+        }
+    }
+}
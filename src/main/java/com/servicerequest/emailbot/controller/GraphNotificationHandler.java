@@ -0,0 +1,68 @@
+package com.servicerequest.emailbot.controller;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.servicerequest.emailbot.service.core.NotificationIngestService;
+import com.servicerequest.emailbot.service.outlook.GraphSubscriptionService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+@RestController
+@RequestMapping("/webhook")
+public class GraphNotificationHandler {
+
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    @Autowired
+    private GraphSubscriptionService subscriptionService;
+
+    @Autowired
+    private NotificationIngestService ingestService;
+
+    // POST: /webhook/graph-notifications
+    // Graph first calls with ?validationToken=... and expects it echoed back as text/plain,
+    // then posts change notifications which must be acknowledged with 202 within a few seconds.
+    @PostMapping("/graph-notifications")
+    public ResponseEntity<String> handleGraphNotification(
+            @RequestParam(value = "validationToken", required = false) String validationToken,
+            @RequestBody(required = false) String body) {
+
+        if (validationToken != null) {
+            System.out.println("🔗 Graph subscription validation handshake received");
+            return ResponseEntity.ok()
+                    .contentType(MediaType.TEXT_PLAIN)
+                    .body(validationToken);
+        }
+
+        if (!subscriptionService.isEnabled()) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND).body("Graph notifications disabled");
+        }
+
+        try {
+            JsonNode notifications = mapper.readTree(body == null ? "{}" : body).path("value");
+            int queued = 0;
+
+            for (JsonNode notification : notifications) {
+                if (!subscriptionService.isValidClientState(notification.path("clientState").asText(null))) {
+                    System.err.println("⚠️ Ignoring Graph notification with invalid clientState");
+                    continue;
+                }
+
+                String messageId = notification.path("resourceData").path("id").asText(null);
+                if (ingestService.enqueue(messageId)) {
+                    queued++;
+                }
+            }
+
+            System.out.println("📨 Graph notifications received: " + notifications.size() + ", queued: " + queued);
+            return ResponseEntity.accepted().build();
+
+        } catch (Exception e) {
+            System.err.println("❌ Error handling Graph notification: " + e.getMessage());
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).body("Invalid notification payload");
+        }
+    }
+}
@@ -0,0 +1,166 @@
+package com.servicerequest.emailbot.controller;
+
+import com.servicerequest.emailbot.config.InstrumentedHttpClient;
+import com.servicerequest.emailbot.service.LocalStorageService;
+import com.servicerequest.emailbot.service.ai.AnthropicRateGovernor;
+import com.servicerequest.emailbot.service.ai.ClassificationCache;
+import com.servicerequest.emailbot.service.ai.ClaudeBatchService;
+import com.servicerequest.emailbot.service.ai.ClaudePackingService;
+import com.servicerequest.emailbot.service.ai.ClaudeService;
+import com.servicerequest.emailbot.service.ai.LocalClassifier;
+import com.servicerequest.emailbot.service.ai.ModelRouter;
+import com.servicerequest.emailbot.service.ai.PromptCompactor;
+import com.servicerequest.emailbot.service.core.EmailProcessorService;
+import com.servicerequest.emailbot.service.core.ReclassificationService;
+import com.servicerequest.emailbot.service.core.WorkJournal;
+import com.servicerequest.emailbot.service.outlook.OutlookService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.util.Map;
+
+@RestController
+@RequestMapping("/metrics")
+public class MetricsController {
+
+    @Autowired
+    private EmailProcessorService emailProcessorService;
+
+    @Autowired
+    private OutlookService outlookService;
+
+    @Autowired
+    private WorkJournal workJournal;
+
+    @Autowired
+    private LocalStorageService localStorageService;
+
+    @Autowired
+    private ClassificationCache classificationCache;
+
+    @Autowired
+    private ClaudeBatchService claudeBatchService;
+
+    @Autowired
+    private LocalClassifier localClassifier;
+
+    @Autowired
+    private PromptCompactor promptCompactor;
+
+    @Autowired
+    private ClaudeService claudeService;
+
+    @Autowired
+    private AnthropicRateGovernor anthropicRateGovernor;
+
+    @Autowired
+    private ReclassificationService reclassificationService;
+
+    @Autowired
+    private ClaudePackingService claudePackingService;
+
+    @Autowired
+    private ModelRouter modelRouter;
+
+    @Autowired
+    private InstrumentedHttpClient httpClient;
+
+    // GET: /metrics/pipeline
+    @GetMapping("/pipeline")
+    public ResponseEntity<Map<String, Object>> pipelineMetrics() {
+        return ResponseEntity.ok(emailProcessorService.getPipelineStats());
+    }
+
+    // GET: /metrics/graph
+    @GetMapping("/graph")
+    public ResponseEntity<Map<String, Object>> graphMetrics() {
+        return ResponseEntity.ok(outlookService.getFetchStats());
+    }
+
+    // GET: /metrics/journal
+    @GetMapping("/journal")
+    public ResponseEntity<Map<String, Object>> journalMetrics() {
+        return ResponseEntity.ok(workJournal.getStats());
+    }
+
+    // GET: /metrics/storage
+    @GetMapping("/storage")
+    public ResponseEntity<Map<String, Object>> storageMetrics() {
+        return ResponseEntity.ok(localStorageService.getStats());
+    }
+
+    // GET: /metrics/classification-cache
+    @GetMapping("/classification-cache")
+    public ResponseEntity<Map<String, Object>> classificationCacheMetrics() {
+        return ResponseEntity.ok(classificationCache.getStats());
+    }
+
+    // GET: /metrics/claude-batch
+    @GetMapping("/claude-batch")
+    public ResponseEntity<Map<String, Object>> claudeBatchMetrics() {
+        return ResponseEntity.ok(claudeBatchService.getStats());
+    }
+
+    // GET: /metrics/local-classifier
+    @GetMapping("/local-classifier")
+    public ResponseEntity<Map<String, Object>> localClassifierMetrics() {
+        return ResponseEntity.ok(localClassifier.getStats());
+    }
+
+    // GET: /metrics/prompt
+    @GetMapping("/prompt")
+    public ResponseEntity<Map<String, Object>> promptMetrics() {
+        return ResponseEntity.ok(promptCompactor.getStats());
+    }
+
+    // GET: /metrics/prompt-cache
+    @GetMapping("/prompt-cache")
+    public ResponseEntity<Map<String, Object>> promptCacheMetrics() {
+        return ResponseEntity.ok(claudeService.getPromptCacheStats());
+    }
+
+    // GET: /metrics/claude-streaming
+    @GetMapping("/claude-streaming")
+    public ResponseEntity<Map<String, Object>> claudeStreamingMetrics() {
+        return ResponseEntity.ok(claudeService.getStreamingStats());
+    }
+
+    // GET: /metrics/claude-rate
+    @GetMapping("/claude-rate")
+    public ResponseEntity<Map<String, Object>> claudeRateMetrics() {
+        return ResponseEntity.ok(anthropicRateGovernor.getStats());
+    }
+
+    // GET: /metrics/claude-breaker
+    @GetMapping("/claude-breaker")
+    public ResponseEntity<Map<String, Object>> claudeBreakerMetrics() {
+        Map<String, Object> stats = claudeService.getDegradedStats();
+        stats.put("reclassification", reclassificationService.getStats());
+        return ResponseEntity.ok(stats);
+    }
+
+    // GET: /metrics/claude-packing
+    @GetMapping("/claude-packing")
+    public ResponseEntity<Map<String, Object>> claudePackingMetrics() {
+        return ResponseEntity.ok(claudePackingService.getStats());
+    }
+
+    // GET: /metrics/claude-routing
+    @GetMapping("/claude-routing")
+    public ResponseEntity<Map<String, Object>> claudeRoutingMetrics() {
+        return ResponseEntity.ok(modelRouter.getStats());
+    }
+
+    // GET: /metrics/http
+    @GetMapping("/http")
+    public ResponseEntity<Map<String, Object>> httpMetrics() {
+        return ResponseEntity.ok(httpClient.getStats());
+    }
+
+    // GET: /metrics/bulkheads
+    @GetMapping("/bulkheads")
+    public ResponseEntity<Map<String, Object>> bulkheadMetrics() {
+        return ResponseEntity.ok(httpClient.getBulkheadStats());
+    }
+}
@@ -7,14 +7,21 @@ public class EmailData {
     private final String body;
     private final String conversationId;
     private final boolean hasAttachments;
+    private final String receivedDateTime;
 
     public EmailData(String messageId, String sender, String subject, String body, String conversationId, boolean hasAttachments) {
+        this(messageId, sender, subject, body, conversationId, hasAttachments, null);
+    }
+
+    public EmailData(String messageId, String sender, String subject, String body, String conversationId,
+                     boolean hasAttachments, String receivedDateTime) {
         this.messageId = messageId;
         this.sender = sender;
         this.subject = subject;
         this.body = body;
         this.conversationId = conversationId;
         this.hasAttachments = hasAttachments;
+        this.receivedDateTime = receivedDateTime;
     }
 
     public String getId() {
@@ -48,4 +55,11 @@ public class EmailData {
     public boolean getHasAttachments() {
         return hasAttachments;
     }
+
+    /**
+     * ISO-8601 UTC timestamp from Graph, e.g. 2025-09-15T10:21:07Z (may be null)
+     */
+    public String getReceivedDateTime() {
+        return receivedDateTime;
+    }
 }
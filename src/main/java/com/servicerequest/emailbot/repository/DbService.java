@@ -46,32 +46,181 @@ public class DbService {
         return categories;
     }
 
-    public Integer getCategoryCode(String categoryName) {
-        Map<String, Integer> categoryCodeMap = new HashMap<>();
-        categoryCodeMap.put("IT Support", 61);
-        categoryCodeMap.put("Hardware Issue", 61);
-        categoryCodeMap.put("Software Issue", 62);
-        categoryCodeMap.put("Network Issue", 63);
-        categoryCodeMap.put("HR", 64);
-        categoryCodeMap.put("Facilities", 65);
-        categoryCodeMap.put("Finance", 66);
-        categoryCodeMap.put("General", 67);
+    // Codes sent to the service tracker, loaded together with the taxonomy so both come from the same rows
+    private volatile TaxonomyCodes codes;
+    // Taxonomy of the last load that reached the database, kept while it is unreachable
+    private volatile Map<String, List<String>> lastTaxonomy;
+
+    /**
+     * Category/type name -> code lookup. Codes are the categories.code/types.code values when
+     * numeric, otherwise the id columns; a name that is not found falls back to the first
+     * category and its first type.
+     */
+    private static class TaxonomyCodes {
+        private final Map<String, Integer> categoryCodes;
+        // Keyed by categoryCode + "|" + type name
+        private final Map<String, Integer> typeCodes;
+        private final Map<String, Integer> typeCodesByName;
+        private final int defaultCategoryCode;
+        private final int defaultTypeCode;
+
+        TaxonomyCodes(Map<String, Integer> categoryCodes, Map<String, Integer> typeCodes,
+                      Map<String, Integer> typeCodesByName, int defaultCategoryCode, int defaultTypeCode) {
+            this.categoryCodes = categoryCodes;
+            this.typeCodes = typeCodes;
+            this.typeCodesByName = typeCodesByName;
+            this.defaultCategoryCode = defaultCategoryCode;
+            this.defaultTypeCode = defaultTypeCode;
+        }
+
+        // The codes used before the taxonomy came from the database
+        static TaxonomyCodes defaults() {
+            Map<String, Integer> categoryCodes = new HashMap<>();
+            categoryCodes.put("IT Support", 61);
+            categoryCodes.put("Hardware Issue", 61);
+            categoryCodes.put("Software Issue", 62);
+            categoryCodes.put("Network Issue", 63);
+            categoryCodes.put("HR", 64);
+            categoryCodes.put("Facilities", 65);
+            categoryCodes.put("Finance", 66);
+            categoryCodes.put("General", 67);
+
+            Map<String, Integer> typeCodesByName = new HashMap<>();
+            typeCodesByName.put("Hardware Issue", 108);
+            typeCodesByName.put("Software Issue", 109);
+            typeCodesByName.put("Network Issue", 110);
+            typeCodesByName.put("Access Request", 111);
+            typeCodesByName.put("Password Reset", 112);
+            typeCodesByName.put("Email Issue", 113);
+            typeCodesByName.put("Printer Issue", 114);
+            typeCodesByName.put("General Request", 115);
+
+            return new TaxonomyCodes(categoryCodes, Map.of(), typeCodesByName, 61, 108);
+        }
+    }
+
+    /**
+     * Category -> types offered to the classifier, in a stable order. Also reloads the
+     * codes getCategoryCode/getTypeCode return, so names and codes always match. The default
+     * taxonomy is only used when the tables don't exist; if the database can't be reached
+     * the last loaded taxonomy and codes stay in use.
+     */
+    public Map<String, List<String>> getTaxonomy() {
+        Map<String, List<String>> taxonomy = new LinkedHashMap<>();
+        Map<String, Integer> categoryCodes = new HashMap<>();
+        Map<String, Integer> typeCodes = new HashMap<>();
+        Map<String, Integer> typeCodesByName = new HashMap<>();
+        Integer defaultCategoryCode = null;
+        Integer defaultTypeCode = null;
+        boolean unreachable = false;
+
+        try (Connection conn = getDbConnection();
+             Statement stmt = conn.createStatement()) {
+            
+            try (ResultSet rs = stmt.executeQuery(
+                    "SELECT c.id AS category_id, c.code AS category_code, c.name AS category_name, " +
+                    "t.id AS type_id, t.code AS type_code, t.name AS type_name FROM categories c " +
+                    "JOIN types t ON t.category_id = c.id ORDER BY c.name, t.name")) {
+                while (rs.next()) {
+                    String categoryName = rs.getString("category_name");
+                    String typeName = rs.getString("type_name");
+                    int categoryCode = codeOf(rs.getString("category_code"), rs.getInt("category_id"));
+                    int typeCode = codeOf(rs.getString("type_code"), rs.getInt("type_id"));
+
+                    taxonomy.computeIfAbsent(categoryName, k -> new ArrayList<>()).add(typeName);
+                    categoryCodes.put(categoryName, categoryCode);
+                    typeCodes.put(categoryCode + "|" + typeName, typeCode);
+                    typeCodesByName.putIfAbsent(typeName, typeCode);
+                    if (defaultCategoryCode == null) {
+                        defaultCategoryCode = categoryCode;
+                        defaultTypeCode = typeCode;
+                    }
+                }
+            } catch (SQLException e) {
+                if (!isMissingSchema(e)) {
+                    throw e;
+                }
+                // Tables don't exist (H2 development mode) - use the default taxonomy
+                System.out.println("Category/type tables not found, using default taxonomy");
+            }
+        } catch (SQLException e) {
+            System.err.println("Error loading taxonomy from database: " + e.getMessage());
+            unreachable = true;
+        }
         
-        return categoryCodeMap.getOrDefault(categoryName, 61); // Default to IT Support
+        Map<String, List<String>> previous = lastTaxonomy;
+        if (unreachable && previous != null) {
+            // A changed taxonomy would wipe the classification cache and switch the codes twice
+            System.err.println("⚠️ Keeping the last loaded taxonomy until the database is reachable");
+            return new LinkedHashMap<>(previous);
+        }
+        
+        if (taxonomy.isEmpty()) {
+            taxonomy.put("IT Support", List.of("Hardware Issue", "Software Issue", "Network Issue", "Access Request"));
+            taxonomy.put("HR", List.of("Leave Request", "Policy Question", "Benefits", "Training"));
+            taxonomy.put("Finance", List.of("Expense Report", "Budget Request", "Invoice Query", "Payment Issue"));
+            taxonomy.put("Facilities", List.of("Maintenance Request", "Room Booking", "Equipment Request", "Security Issue"));
+            codes = TaxonomyCodes.defaults();
+        } else {
+            codes = new TaxonomyCodes(categoryCodes, typeCodes, typeCodesByName, defaultCategoryCode, defaultTypeCode);
+        }
+        if (!unreachable) {
+            lastTaxonomy = new LinkedHashMap<>(taxonomy);
+        }
+        
+        return taxonomy;
+    }
+
+    // SQLState class 42: table or column not found, as opposed to a connection or timeout failure
+    private static boolean isMissingSchema(SQLException e) {
+        String state = e.getSQLState();
+        return state != null && state.startsWith("42");
+    }
+
+    // The service tracker takes numeric codes; the sample schema's codes are mnemonics, so use the id then
+    private static int codeOf(String code, int id) {
+        if (code != null) {
+            try {
+                return Integer.parseInt(code.trim());
+            } catch (NumberFormatException e) {
+                // Not numeric
+            }
+        }
+        return id;
+    }
+
+    private TaxonomyCodes codes() {
+        TaxonomyCodes current = codes;
+        if (current == null) {
+            getTaxonomy();
+            current = codes;
+        }
+        return current;
+    }
+
+    public Integer getCategoryCode(String categoryName) {
+        TaxonomyCodes current = codes();
+        Integer code = current.categoryCodes.get(categoryName);
+        if (code == null) {
+            System.err.println("⚠️ Category '" + categoryName + "' is not in the taxonomy, using code "
+                    + current.defaultCategoryCode);
+            return current.defaultCategoryCode;
+        }
+        return code;
     }
     
     public Integer getTypeCode(String typeName, Integer categoryCode) {
-        Map<String, Integer> typeCodeMap = new HashMap<>();
-        typeCodeMap.put("Hardware Issue", 108);
-        typeCodeMap.put("Software Issue", 109);
-        typeCodeMap.put("Network Issue", 110);
-        typeCodeMap.put("Access Request", 111);
-        typeCodeMap.put("Password Reset", 112);
-        typeCodeMap.put("Email Issue", 113);
-        typeCodeMap.put("Printer Issue", 114);
-        typeCodeMap.put("General Request", 115);
-        
-        return typeCodeMap.getOrDefault(typeName, 108); // Default to Hardware Issue
+        TaxonomyCodes current = codes();
+        Integer code = current.typeCodes.get(categoryCode + "|" + typeName);
+        if (code == null) {
+            code = current.typeCodesByName.get(typeName);
+        }
+        if (code == null) {
+            System.err.println("⚠️ Type '" + typeName + "' is not in the taxonomy, using code "
+                    + current.defaultTypeCode);
+            return current.defaultTypeCode;
+        }
+        return code;
     }
 
     // Thread mappings are now handled by LocalStorageService
@@ -1,164 +1,226 @@
 package com.servicerequest.emailbot.service;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
+import com.servicerequest.emailbot.service.storage.JsonStorageBackend;
+import com.servicerequest.emailbot.service.storage.MvStoreStorageBackend;
+import com.servicerequest.emailbot.service.storage.StorageBackend;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 
-import java.io.File;
 import java.io.IOException;
 import java.nio.file.Files;
-import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Map;
 
 @Service
 public class LocalStorageService {
-    
-    private final ObjectMapper objectMapper = new ObjectMapper();
-    private final String dataDirectory = "data";
-    
-    public LocalStorageService() {
+
+    private static final String RECLASSIFY_PREFIX = "reclassify_";
+    private static final String PENDING_BATCH_PREFIX = "claude_batch_";
+
+    @Value("${app.storage.directory:data/}")
+    private String dataDirectory;
+
+    // json: plain files, fine for small installs; h2: embedded MVStore with transactional writes
+    @Value("${app.storage.backend:json}")
+    private String backendType;
+
+    // Fold the thread mapping log into the JSON snapshot once it holds this many records
+    @Value("${app.storage.compact-threshold:500}")
+    private int compactThreshold;
+
+    // JSON saves are coalesced and written at most once per file per interval
+    @Value("${app.storage.write-behind-interval:1000}")
+    private long writeBehindInterval;
+
+    private StorageBackend backend;
+    private long cycleWritesRequested = 0;
+    private long cycleWritesPerformed = 0;
+    private volatile Map<String, Object> lastCycleWrites = new LinkedHashMap<>();
+
+    @PostConstruct
+    public void init() throws IOException {
         // Create data directory if it doesn't exist
-        try {
-            Files.createDirectories(Paths.get(dataDirectory));
-        } catch (IOException e) {
-            System.err.println("Failed to create data directory: " + e.getMessage());
+        Files.createDirectories(Paths.get(dataDirectory));
+
+        backend = "h2".equalsIgnoreCase(backendType)
+                ? new MvStoreStorageBackend(dataDirectory)
+                : new JsonStorageBackend(dataDirectory, compactThreshold, writeBehindInterval);
+        backend.open();
+        System.out.println("Local storage backend: " + backend.getName());
+    }
+
+    @PreDestroy
+    public void close() {
+        backend.close();
+    }
+
+    @Scheduled(fixedDelayString = "${app.storage.compact-interval:3600000}")
+    public void flushStorage() {
+        backend.flush();
+    }
+
+    /**
+     * Flush buffered writes at the end of a processing cycle and report how many
+     * file writes the coalescing saved during it
+     */
+    public synchronized void completeCycle() {
+        backend.flushPendingWrites();
+
+        Map<String, Object> stats = backend.getStats();
+        long requested = (Long) stats.get("writesRequested");
+        long performed = (Long) stats.get("writesPerformed");
+
+        Map<String, Object> cycle = new LinkedHashMap<>();
+        cycle.put("writesRequested", requested - cycleWritesRequested);
+        cycle.put("writesPerformed", performed - cycleWritesPerformed);
+        cycle.put("writesSaved", Math.max(0, (requested - cycleWritesRequested) - (performed - cycleWritesPerformed)));
+        cycleWritesRequested = requested;
+        cycleWritesPerformed = performed;
+        lastCycleWrites = cycle;
+
+        if ((Long) cycle.get("writesRequested") > 0) {
+            System.out.println("💾 Storage writes this cycle: " + cycle);
         }
     }
-    
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>(backend.getStats());
+        stats.put("lastCycle", lastCycleWrites);
+        return stats;
+    }
+
     /**
-     * Load thread to service request mapping from JSON file
+     * Load thread to service request mapping
      */
-    @SuppressWarnings("unchecked")
     public Map<String, String> loadThreadSRMapping() {
-        String filePath = dataDirectory + "/thread_sr_mapping.json";
-        File file = new File(filePath);
-        
-        if (!file.exists()) {
-            return new HashMap<>();
-        }
-        
-        try {
-            return objectMapper.readValue(file, HashMap.class);
-        } catch (IOException e) {
-            System.err.println("Failed to load thread SR mapping: " + e.getMessage());
-            return new HashMap<>();
-        }
+        return backend.loadThreadSRMapping();
     }
-    
+
     /**
-     * Save thread to service request mapping to JSON file
+     * Save thread to service request mapping
      */
     public void saveThreadSRMapping(Map<String, String> mapping) {
-        String filePath = dataDirectory + "/thread_sr_mapping.json";
-        
-        try {
-            objectMapper.writeValue(new File(filePath), mapping);
-        } catch (IOException e) {
-            System.err.println("Failed to save thread SR mapping: " + e.getMessage());
-        }
+        backend.saveThreadSRMapping(mapping);
     }
-    
+
     /**
-     * Load session data from JSON file
+     * Load session data
      */
-    @SuppressWarnings("unchecked")
     public Map<String, Object> loadSessionData() {
-        String filePath = dataDirectory + "/session_data.json";
-        File file = new File(filePath);
-        
-        if (!file.exists()) {
-            return new HashMap<>();
-        }
-        
-        try {
-            return objectMapper.readValue(file, HashMap.class);
-        } catch (IOException e) {
-            System.err.println("Failed to load session data: " + e.getMessage());
-            return new HashMap<>();
-        }
+        return backend.loadSessionData();
     }
-    
+
     /**
-     * Save session data to JSON file
+     * Save session data
      */
     public void saveSessionData(Map<String, Object> sessionData) {
-        String filePath = dataDirectory + "/session_data.json";
-        
-        try {
-            objectMapper.writeValue(new File(filePath), sessionData);
-        } catch (IOException e) {
-            System.err.println("Failed to save session data: " + e.getMessage());
-        }
+        backend.saveSessionData(sessionData);
     }
-    
+
     /**
-     * Load email cache from JSON file
+     * Load email cache
      */
-    @SuppressWarnings("unchecked")
     public Map<String, Object> loadEmailCache() {
-        String filePath = dataDirectory + "/email_cache.json";
-        File file = new File(filePath);
-        
-        if (!file.exists()) {
-            return new HashMap<>();
-        }
-        
-        try {
-            return objectMapper.readValue(file, HashMap.class);
-        } catch (IOException e) {
-            System.err.println("Failed to load email cache: " + e.getMessage());
-            return new HashMap<>();
-        }
+        return backend.loadEmailCache();
     }
-    
+
     /**
-     * Save email cache to JSON file
+     * Save email cache
      */
     public void saveEmailCache(Map<String, Object> emailCache) {
-        String filePath = dataDirectory + "/email_cache.json";
-        
-        try {
-            objectMapper.writeValue(new File(filePath), emailCache);
-        } catch (IOException e) {
-            System.err.println("Failed to save email cache: " + e.getMessage());
-        }
+        backend.saveEmailCache(emailCache);
+    }
+
+    /**
+     * Load the Graph delta link saved after the last completed sync cycle
+     */
+    public String loadDeltaLink() {
+        return backend.loadDeltaLink();
+    }
+
+    /**
+     * Save the Graph delta link to resume the next sync cycle from
+     */
+    public void saveDeltaLink(String deltaLink) {
+        backend.saveDeltaLink(deltaLink);
     }
-    
+
     /**
      * Get thread mapping for a specific conversation ID
      */
     public Map<String, Object> getThreadMapping(String conversationId) {
-        Map<String, String> allMappings = loadThreadSRMapping();
-        
-        if (allMappings.containsKey(conversationId)) {
+        String srId = backend.getThreadSrId(conversationId);
+
+        if (srId != null) {
             Map<String, Object> threadInfo = new HashMap<>();
-            threadInfo.put("srId", allMappings.get(conversationId));
+            threadInfo.put("srId", srId);
             threadInfo.put("conversationId", conversationId);
             return threadInfo;
         }
-        
+
         return null;
     }
-    
+
     /**
      * Save thread mapping with conversation details
      */
     public void saveThreadMapping(String conversationId, String srId, String sender, String subject) {
-        Map<String, String> currentMappings = loadThreadSRMapping();
-        currentMappings.put(conversationId, srId);
-        saveThreadSRMapping(currentMappings);
-        
-        // Also save detailed thread information
-        Map<String, Object> threadDetails = new HashMap<>();
-        threadDetails.put("srId", srId);
-        threadDetails.put("sender", sender);
-        threadDetails.put("subject", subject);
-        threadDetails.put("timestamp", System.currentTimeMillis());
-        
-        // Save to session data for additional context
-        Map<String, Object> sessionData = loadSessionData();
-        sessionData.put("thread_" + conversationId, threadDetails);
-        saveSessionData(sessionData);
+        backend.saveThreadMapping(conversationId, srId, sender, subject);
+    }
+
+    /**
+     * Remember an SR that was created from a local fallback classification
+     */
+    public void flagForReclassification(String srId, Map<String, Object> details) {
+        // A single-entry update, so it can't overwrite thread details saved at the same time
+        backend.putSessionEntry(RECLASSIFY_PREFIX + srId, details);
+    }
+
+    /**
+     * SR ID -> details of every SR still waiting for a Claude classification
+     */
+    @SuppressWarnings("unchecked")
+    public Map<String, Map<String, Object>> getPendingReclassifications() {
+        Map<String, Map<String, Object>> pending = new LinkedHashMap<>();
+        loadSessionData().forEach((key, value) -> {
+            if (key.startsWith(RECLASSIFY_PREFIX) && value instanceof Map) {
+                pending.put(key.substring(RECLASSIFY_PREFIX.length()), (Map<String, Object>) value);
+            }
+        });
+        return pending;
+    }
+
+    public void clearReclassification(String srId) {
+        backend.removeSessionEntry(RECLASSIFY_PREFIX + srId);
+    }
+
+    /**
+     * Remember a submitted Claude message batch until its results have been collected
+     */
+    public void savePendingBatch(String batchId, Map<String, Object> details) {
+        backend.putSessionEntry(PENDING_BATCH_PREFIX + batchId, details);
+    }
+
+    /**
+     * Batch ID -> details of every Claude message batch not collected yet
+     */
+    @SuppressWarnings("unchecked")
+    public Map<String, Map<String, Object>> getPendingBatches() {
+        Map<String, Map<String, Object>> pending = new LinkedHashMap<>();
+        loadSessionData().forEach((key, value) -> {
+            if (key.startsWith(PENDING_BATCH_PREFIX) && value instanceof Map) {
+                pending.put(key.substring(PENDING_BATCH_PREFIX.length()), (Map<String, Object>) value);
+            }
+        });
+        return pending;
+    }
+
+    public void clearPendingBatch(String batchId) {
+        backend.removeSessionEntry(PENDING_BATCH_PREFIX + batchId);
     }
 }
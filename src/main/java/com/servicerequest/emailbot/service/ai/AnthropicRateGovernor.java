@@ -0,0 +1,468 @@
+package com.servicerequest.emailbot.service.ai;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.Closeable;
+import java.net.http.HttpClient;
+import java.net.http.HttpHeaders;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Shared gate in front of the Anthropic Messages API for all classify workers.
+ *
+ * Concurrency is adjusted AIMD-style: halved on every 429/529, raised by one after a
+ * full window of successful calls. The start rate follows the anthropic-ratelimit-*
+ * headers - requests are spaced so the remaining requests/tokens last until the window
+ * resets, and everyone waits for the reset once they run out. Throttled calls are
+ * retried with jittered exponential backoff (or retry-after when the API sends one).
+ * Blocking callers wait for a slot on a condition; async callers queue a future that is
+ * completed when a slot frees up or the pacing delay runs out.
+ */
+@Component
+public class AnthropicRateGovernor {
+
+    @Value("${claude.governor.initial-concurrency:4}")
+    private int initialConcurrency;
+
+    @Value("${claude.governor.max-concurrency:8}")
+    private int maxConcurrency;
+
+    @Value("${claude.governor.max-retries:5}")
+    private int maxRetries;
+
+    @Value("${claude.governor.base-backoff:1000}")
+    private long baseBackoffMs;
+
+    @Value("${claude.governor.max-backoff:60000}")
+    private long maxBackoffMs;
+
+    // Pause new calls once fewer tokens than this are left in the current window
+    @Value("${claude.governor.token-reserve:2000}")
+    private long tokenReserve;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition changed = lock.newCondition();
+
+    // Guarded by lock
+    private int limit = -1;
+    private int inFlight = 0;
+    private int successesSinceIncrease = 0;
+    private long intervalMs = 0;
+    private long nextStartAt = 0;
+    private long pausedUntil = 0;
+    private long requestsRemaining = -1;
+    private long tokensRemaining = -1;
+    private final Deque<CompletableFuture<Void>> asyncWaiters = new ArrayDeque<>();
+    private boolean grantScheduled = false;
+
+    // Wakes queued async callers once a pause or pacing delay is over
+    private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "claude-governor-timer");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final AtomicLong calls = new AtomicLong();
+    private final AtomicLong rateLimited = new AtomicLong();
+    private final AtomicLong overloaded = new AtomicLong();
+    private final AtomicLong retries = new AtomicLong();
+    private final AtomicLong gaveUp = new AtomicLong();
+    private final AtomicLong limitDecreases = new AtomicLong();
+    private final AtomicLong limitIncreases = new AtomicLong();
+    private final AtomicLong waitedMs = new AtomicLong();
+
+    /**
+     * Reads the response of the attempt that is not retried. attemptStartedAt is when that
+     * attempt's HTTP exchange began, after slot waits, pacing and backoff, so callers can
+     * time the API itself.
+     */
+    @FunctionalInterface
+    public interface ResponseReader<T, R> {
+        R read(HttpResponse<T> response, long attemptStartedAt) throws Exception;
+    }
+
+    /**
+     * Send the request under the governor and hand the response to the reader while the
+     * concurrency slot is still held, so streamed bodies count as in flight until read.
+     * 429/529 responses are retried; after the last attempt the reader gets the error response.
+     */
+    public <T, R> R send(HttpClient client, HttpRequest request, HttpResponse.BodyHandler<T> handler,
+                         ResponseReader<T, R> reader) throws Exception {
+        for (int attempt = 0; ; attempt++) {
+            acquire();
+            try {
+                calls.incrementAndGet();
+                long attemptStartedAt = System.currentTimeMillis();
+                HttpResponse<T> response = client.send(request, handler);
+                int status = response.statusCode();
+                updateFromHeaders(response.headers());
+
+                if (!isThrottled(status)) {
+                    onSuccess();
+                    return reader.read(response, attemptStartedAt);
+                }
+
+                onThrottled(status);
+                if (attempt >= maxRetries) {
+                    gaveUp.incrementAndGet();
+                    System.err.println("🚦 Claude API still throttled after " + (attempt + 1) + " attempts");
+                    return reader.read(response, attemptStartedAt);
+                }
+
+                if (response.body() instanceof Closeable body) {
+                    body.close();
+                }
+                long delay = backoffFor(response.headers(), attempt);
+                pauseFor(delay);
+                retries.incrementAndGet();
+                System.out.println("🚦 Claude API returned " + status + ", retrying in " + delay
+                        + "ms (concurrency now " + getLimit() + ")");
+            } finally {
+                release();
+            }
+        }
+    }
+
+    /**
+     * Non-blocking counterpart of send: no thread waits for the slot, the pacing delay or
+     * the backoff. The reader runs on the HTTP client's executor while the slot is held.
+     */
+    public <T, R> CompletableFuture<R> sendAsync(HttpClient client, HttpRequest request,
+                                                 HttpResponse.BodyHandler<T> handler, ResponseReader<T, R> reader) {
+        return attemptAsync(client, request, handler, reader, 0);
+    }
+
+    private <T, R> CompletableFuture<R> attemptAsync(HttpClient client, HttpRequest request,
+                                                     HttpResponse.BodyHandler<T> handler,
+                                                     ResponseReader<T, R> reader, int attempt) {
+        CompletableFuture<R> result = new CompletableFuture<>();
+        long queuedAt = System.currentTimeMillis();
+        long[] attemptStartedAt = new long[1];
+        acquireAsync().thenCompose(ignored -> {
+            attemptStartedAt[0] = System.currentTimeMillis();
+            waitedMs.addAndGet(attemptStartedAt[0] - queuedAt);
+            calls.incrementAndGet();
+            return client.sendAsync(request, handler);
+        }).whenComplete((response, error) -> {
+            if (error != null) {
+                release();
+                result.completeExceptionally(error);
+                return;
+            }
+            int status = response.statusCode();
+            updateFromHeaders(response.headers());
+
+            if (isThrottled(status)) {
+                onThrottled(status);
+            }
+            if (!isThrottled(status) || attempt >= maxRetries) {
+                if (!isThrottled(status)) {
+                    onSuccess();
+                } else {
+                    gaveUp.incrementAndGet();
+                    System.err.println("🚦 Claude API still throttled after " + (attempt + 1) + " attempts");
+                }
+                R value;
+                try {
+                    value = reader.read(response, attemptStartedAt[0]);
+                } catch (Exception e) {
+                    release();
+                    result.completeExceptionally(e);
+                    return;
+                }
+                // Free the slot before dependent stages run, they may queue follow-up calls
+                release();
+                result.complete(value);
+                return;
+            }
+
+            try {
+                if (response.body() instanceof Closeable body) {
+                    body.close();
+                }
+            } catch (Exception ignored) {
+                // Nothing more to read from a throttled response
+            }
+            long delay = backoffFor(response.headers(), attempt);
+            pauseFor(delay);
+            retries.incrementAndGet();
+            release();
+            System.out.println("🚦 Claude API returned " + status + ", retrying in " + delay
+                    + "ms (concurrency now " + getLimit() + ")");
+            attemptAsync(client, request, handler, reader, attempt + 1).whenComplete((value, retryError) -> {
+                if (retryError != null) {
+                    result.completeExceptionally(retryError);
+                } else {
+                    result.complete(value);
+                }
+            });
+        });
+        return result;
+    }
+
+    private static boolean isThrottled(int status) {
+        // 429 = rate limited, 529 = API overloaded
+        return status == 429 || status == 529;
+    }
+
+    private void acquire() throws InterruptedException {
+        long start = System.currentTimeMillis();
+        lock.lock();
+        try {
+            ensureLimit();
+            while (true) {
+                long now = System.currentTimeMillis();
+                long wait = Math.max(pausedUntil, nextStartAt) - now;
+                if (wait <= 0 && inFlight < limit) {
+                    inFlight++;
+                    nextStartAt = now + intervalMs;
+                    break;
+                }
+                if (wait > 0) {
+                    changed.await(wait, TimeUnit.MILLISECONDS);
+                } else {
+                    changed.await();
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+        waitedMs.addAndGet(System.currentTimeMillis() - start);
+    }
+
+    private void ensureLimit() {
+        if (limit < 0) {
+            limit = Math.max(1, Math.min(initialConcurrency, maxConcurrency));
+        }
+    }
+
+    private CompletableFuture<Void> acquireAsync() {
+        CompletableFuture<Void> slot = new CompletableFuture<>();
+        lock.lock();
+        try {
+            asyncWaiters.addLast(slot);
+        } finally {
+            lock.unlock();
+        }
+        grantAsyncWaiters();
+        return slot;
+    }
+
+    /**
+     * Hand free slots to queued async callers, or schedule another look for when the
+     * current pause or pacing delay is over. Futures are completed outside the lock
+     * since their dependent stages run on this thread.
+     */
+    private void grantAsyncWaiters() {
+        List<CompletableFuture<Void>> granted = new ArrayList<>();
+        lock.lock();
+        try {
+            ensureLimit();
+            while (!asyncWaiters.isEmpty() && inFlight < limit) {
+                long now = System.currentTimeMillis();
+                long wait = Math.max(pausedUntil, nextStartAt) - now;
+                if (wait > 0) {
+                    if (!grantScheduled) {
+                        grantScheduled = true;
+                        timer.schedule(() -> {
+                            lock.lock();
+                            try {
+                                grantScheduled = false;
+                            } finally {
+                                lock.unlock();
+                            }
+                            grantAsyncWaiters();
+                        }, wait, TimeUnit.MILLISECONDS);
+                    }
+                    break;
+                }
+                inFlight++;
+                nextStartAt = now + intervalMs;
+                granted.add(asyncWaiters.pollFirst());
+            }
+        } finally {
+            lock.unlock();
+        }
+        granted.forEach(slot -> slot.complete(null));
+    }
+
+    private void release() {
+        lock.lock();
+        try {
+            inFlight--;
+            changed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        grantAsyncWaiters();
+    }
+
+    private void onSuccess() {
+        lock.lock();
+        try {
+            // Additive increase: one more slot after a full window of clean calls
+            if (++successesSinceIncrease >= limit && limit < maxConcurrency) {
+                limit++;
+                successesSinceIncrease = 0;
+                limitIncreases.incrementAndGet();
+                changed.signalAll();
+            }
+        } finally {
+            lock.unlock();
+        }
+        grantAsyncWaiters();
+    }
+
+    private void onThrottled(int status) {
+        (status == 429 ? rateLimited : overloaded).incrementAndGet();
+        lock.lock();
+        try {
+            // Multiplicative decrease
+            int reduced = Math.max(1, limit / 2);
+            if (reduced < limit) {
+                limitDecreases.incrementAndGet();
+            }
+            limit = reduced;
+            successesSinceIncrease = 0;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void pauseFor(long delayMs) {
+        lock.lock();
+        try {
+            pausedUntil = Math.max(pausedUntil, System.currentTimeMillis() + delayMs);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * retry-after when the API sends one, otherwise exponential backoff with full jitter
+     */
+    private long backoffFor(HttpHeaders headers, int attempt) {
+        Long retryAfter = headers.firstValue("retry-after").map(AnthropicRateGovernor::parseLong).orElse(null);
+        if (retryAfter != null) {
+            // Small jitter so the waiting workers do not all return in the same millisecond
+            return retryAfter * 1000 + ThreadLocalRandom.current().nextLong(250);
+        }
+        long ceiling = Math.min(maxBackoffMs, baseBackoffMs << Math.min(attempt, 20));
+        return ceiling / 2 + ThreadLocalRandom.current().nextLong(ceiling / 2 + 1);
+    }
+
+    /**
+     * Pace new calls so the remaining requests and tokens last until their window resets
+     */
+    private void updateFromHeaders(HttpHeaders headers) {
+        long now = System.currentTimeMillis();
+        Long requestsLimit = header(headers, "anthropic-ratelimit-requests-limit");
+        Long requestsLeft = header(headers, "anthropic-ratelimit-requests-remaining");
+        long requestsReset = resetAt(headers, "anthropic-ratelimit-requests-reset");
+        Long tokensLeft = header(headers, "anthropic-ratelimit-input-tokens-remaining");
+        long tokensReset = resetAt(headers, "anthropic-ratelimit-input-tokens-reset");
+        if (tokensLeft == null) {
+            tokensLeft = header(headers, "anthropic-ratelimit-tokens-remaining");
+            tokensReset = resetAt(headers, "anthropic-ratelimit-tokens-reset");
+        }
+
+        lock.lock();
+        try {
+            long interval = 0;
+            if (requestsLimit != null && requestsLimit > 0) {
+                // Limits are per minute
+                interval = 60_000 / requestsLimit;
+            }
+            if (requestsLeft != null) {
+                requestsRemaining = requestsLeft;
+                if (requestsLeft <= 0 && requestsReset > now) {
+                    pausedUntil = Math.max(pausedUntil, requestsReset);
+                } else if (requestsReset > now) {
+                    interval = Math.max(interval, (requestsReset - now) / Math.max(1, requestsLeft));
+                }
+            }
+            if (tokensLeft != null) {
+                tokensRemaining = tokensLeft;
+                if (tokensLeft < tokenReserve && tokensReset > now) {
+                    pausedUntil = Math.max(pausedUntil, tokensReset);
+                }
+            }
+            intervalMs = interval;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private static Long header(HttpHeaders headers, String name) {
+        return headers.firstValue(name).map(AnthropicRateGovernor::parseLong).orElse(null);
+    }
+
+    private static long resetAt(HttpHeaders headers, String name) {
+        // RFC 3339 timestamp
+        try {
+            return headers.firstValue(name).map(v -> Instant.parse(v).toEpochMilli()).orElse(0L);
+        } catch (Exception e) {
+            return 0;
+        }
+    }
+
+    private static Long parseLong(String value) {
+        try {
+            return (long) Double.parseDouble(value.trim());
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private int getLimit() {
+        lock.lock();
+        try {
+            return limit;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        lock.lock();
+        try {
+            stats.put("concurrencyLimit", limit < 0 ? initialConcurrency : limit);
+            stats.put("maxConcurrency", maxConcurrency);
+            stats.put("inFlight", inFlight);
+            stats.put("asyncWaiting", asyncWaiters.size());
+            stats.put("requestIntervalMs", intervalMs);
+            stats.put("requestsRemaining", requestsRemaining);
+            stats.put("tokensRemaining", tokensRemaining);
+            stats.put("pausedForMs", Math.max(0, pausedUntil - System.currentTimeMillis()));
+        } finally {
+            lock.unlock();
+        }
+        stats.put("calls", calls.get());
+        stats.put("rateLimited429", rateLimited.get());
+        stats.put("overloaded529", overloaded.get());
+        stats.put("retries", retries.get());
+        stats.put("gaveUp", gaveUp.get());
+        stats.put("limitDecreases", limitDecreases.get());
+        stats.put("limitIncreases", limitIncreases.get());
+        stats.put("totalWaitMs", waitedMs.get());
+        return stats;
+    }
+}
@@ -0,0 +1,261 @@
+package com.servicerequest.emailbot.service.ai;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.servicerequest.emailbot.util.EmailUtils;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+/**
+ * Claude classifications keyed by a SHA-256 of the normalized subject and body, so
+ * resends, forwarded duplicates and repeated "VPN down" mails reuse an earlier result.
+ * Bounded LRU with a TTL. Every entry carries the taxonomy fingerprint it was produced
+ * under; a fingerprint change drops the whole cache.
+ */
+@Service
+public class ClassificationCache {
+
+    private static final Pattern SUBJECT_PREFIX = Pattern.compile("^((re|fw|fwd|aw|wg)\\s*:\\s*|\\[external]\\s*)+", Pattern.CASE_INSENSITIVE);
+    private static final Pattern HEADER_LINE = Pattern.compile("^(from|to|cc|sent|date|subject)\\s*:.*$|^-+\\s*(forwarded message|original message)\\s*-+$",
+            Pattern.CASE_INSENSITIVE | Pattern.MULTILINE);
+    private static final Pattern QUOTE_MARKER = Pattern.compile("^>+", Pattern.MULTILINE);
+    private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+
+    @Value("${app.classification-cache.enabled:true}")
+    private boolean enabled;
+
+    @Value("${app.classification-cache.max-entries:1000}")
+    private int maxEntries;
+
+    @Value("${app.classification-cache.ttl-hours:24}")
+    private long ttlHours;
+
+    // Keep entries across restarts in data/classification_cache.json
+    @Value("${app.classification-cache.persist:false}")
+    private boolean persist;
+
+    @Value("${app.storage.directory:data/}")
+    private String dataDirectory;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+            return size() > maxEntries;
+        }
+    };
+    private String taxonomyFingerprint = "";
+    private boolean dirty = false;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong invalidations = new AtomicLong();
+    private final AtomicLong timedCalls = new AtomicLong();
+    private final AtomicLong missLatencyTotalMs = new AtomicLong();
+    private final AtomicLong savedLatencyMs = new AtomicLong();
+
+    @PostConstruct
+    public void load() {
+        if (!enabled || !persist) {
+            return;
+        }
+        Path file = cacheFile();
+        if (!Files.exists(file)) {
+            return;
+        }
+
+        try {
+            Map<String, Entry> stored = objectMapper.readValue(file.toFile(), new TypeReference<LinkedHashMap<String, Entry>>() {});
+            synchronized (this) {
+                entries.putAll(stored);
+            }
+            System.out.println("Classification cache loaded: " + stored.size() + " entries");
+        } catch (IOException e) {
+            System.err.println("Failed to load classification cache: " + e.getMessage());
+        }
+    }
+
+    @PreDestroy
+    @Scheduled(fixedDelayString = "${app.classification-cache.save-interval:300000}")
+    public void save() {
+        Map<String, Entry> snapshot;
+        synchronized (this) {
+            if (!enabled || !persist || !dirty) {
+                return;
+            }
+            snapshot = new LinkedHashMap<>(entries);
+            dirty = false;
+        }
+
+        Path file = cacheFile();
+        Path tempFile = file.resolveSibling("classification_cache.json.tmp");
+        try {
+            Files.createDirectories(file.getParent());
+            Files.write(tempFile, objectMapper.writeValueAsBytes(snapshot));
+            try (FileChannel channel = FileChannel.open(tempFile, StandardOpenOption.WRITE)) {
+                channel.force(true);
+            }
+            Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            System.err.println("Failed to save classification cache: " + e.getMessage());
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Set the fingerprint of the prompt taxonomy; entries from any other taxonomy are dropped
+     */
+    public synchronized void setTaxonomyFingerprint(String fingerprint) {
+        if (fingerprint.equals(taxonomyFingerprint)) {
+            return;
+        }
+        long stale = entries.values().stream().filter(e -> !fingerprint.equals(e.taxonomy)).count();
+        entries.values().removeIf(e -> !fingerprint.equals(e.taxonomy));
+        if (stale > 0) {
+            invalidations.addAndGet(stale);
+            dirty = true;
+            System.out.println("🔄 Category taxonomy changed, dropped " + stale + " cached classifications");
+        }
+        taxonomyFingerprint = fingerprint;
+    }
+
+    public String keyFor(String subject, String body) {
+        return sha256(normalizeSubject(subject) + "\n" + normalizeBody(body));
+    }
+
+    /**
+     * The cached analysis, or null on a miss. Returns a copy the caller may modify.
+     */
+    public Map<String, String> get(String key) {
+        if (!enabled) {
+            return null;
+        }
+
+        Entry entry;
+        synchronized (this) {
+            entry = entries.get(key);
+            if (entry != null && System.currentTimeMillis() - entry.createdAt > ttlHours * 3600 * 1000) {
+                entries.remove(key);
+                dirty = true;
+                entry = null;
+            }
+        }
+
+        if (entry == null) {
+            misses.incrementAndGet();
+            return null;
+        }
+        hits.incrementAndGet();
+        savedLatencyMs.addAndGet(averageMissLatencyMs());
+        return new HashMap<>(entry.analysis);
+    }
+
+    /**
+     * Store a fresh analysis together with how long the Claude call took
+     */
+    public void put(String key, Map<String, String> analysis, long latencyMs) {
+        timedCalls.incrementAndGet();
+        missLatencyTotalMs.addAndGet(latencyMs);
+        put(key, analysis);
+    }
+
+    /**
+     * Store an analysis obtained outside a timed synchronous call (e.g. from a message batch)
+     */
+    public void put(String key, Map<String, String> analysis) {
+        if (!enabled) {
+            return;
+        }
+
+        Entry entry = new Entry();
+        entry.analysis = new HashMap<>(analysis);
+        entry.createdAt = System.currentTimeMillis();
+        synchronized (this) {
+            entry.taxonomy = taxonomyFingerprint;
+            entries.put(key, entry);
+            dirty = true;
+        }
+    }
+
+    public Map<String, Object> getStats() {
+        long h = hits.get();
+        long m = misses.get();
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("enabled", enabled);
+        synchronized (this) {
+            stats.put("entries", entries.size());
+        }
+        stats.put("maxEntries", maxEntries);
+        stats.put("hits", h);
+        stats.put("misses", m);
+        stats.put("hitRate", h + m == 0 ? 0.0 : (double) h / (h + m));
+        stats.put("invalidated", invalidations.get());
+        stats.put("avgMissLatencyMs", averageMissLatencyMs());
+        stats.put("savedLatencyMs", savedLatencyMs.get());
+        return stats;
+    }
+
+    static String normalizeSubject(String subject) {
+        if (subject == null) {
+            return "";
+        }
+        String s = SUBJECT_PREFIX.matcher(subject.trim()).replaceFirst("");
+        return WHITESPACE.matcher(s).replaceAll(" ").trim().toLowerCase(Locale.ROOT);
+    }
+
+    static String normalizeBody(String body) {
+        String text = EmailUtils.toPlainText(body);
+        // Forward/reply headers and quote markers differ between copies of the same request
+        text = HEADER_LINE.matcher(text).replaceAll("");
+        text = QUOTE_MARKER.matcher(text).replaceAll("");
+        return WHITESPACE.matcher(text).replaceAll(" ").trim().toLowerCase(Locale.ROOT);
+    }
+
+    static String sha256(String value) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            return HexFormat.of().formatHex(digest.digest(value.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private long averageMissLatencyMs() {
+        long calls = timedCalls.get();
+        return calls == 0 ? 0 : missLatencyTotalMs.get() / calls;
+    }
+
+    private Path cacheFile() {
+        return Paths.get(dataDirectory, "classification_cache.json");
+    }
+
+    public static class Entry {
+        public Map<String, String> analysis;
+        public String taxonomy;
+        public long createdAt;
+    }
+}
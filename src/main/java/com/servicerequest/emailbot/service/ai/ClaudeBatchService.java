@@ -0,0 +1,503 @@
+package com.servicerequest.emailbot.service.ai;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.servicerequest.emailbot.model.EmailData;
+import com.servicerequest.emailbot.service.LocalStorageService;
+import io.github.cdimascio.dotenv.Dotenv;
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.BufferedReader;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Backlog classification through the Message Batches API: one batch request carries
+ * the prompts of many emails, is billed at the batch discount and does not count
+ * against the per-minute rate limits of synchronous calls. Used when a cycle picks up
+ * more new emails than claude.batch.threshold, e.g. after an outage or a weekend.
+ *
+ * Nothing here waits for a batch: submit() returns as soon as the batch is accepted and
+ * its ID is saved, and collectFinished() checks each pending batch once per poll. The
+ * conversations in a batch are held back meanwhile (hold()) and handed out again with
+ * the batch results, so the rest of the mail keeps flowing. Held email IDs are saved with
+ * the batch; after a restart the caller fetches the ones it no longer has.
+ */
+@Service
+public class ClaudeBatchService {
+
+    @Autowired
+    private ClaudeService claudeService;
+
+    @Autowired
+    private ClassificationCache classificationCache;
+
+    @Autowired
+    private LocalClassifier localClassifier;
+
+    @Autowired
+    private PromptCompactor promptCompactor;
+
+    @Autowired
+    private LocalStorageService localStorageService;
+
+    @Value("${claude.api.base-url:https://api.anthropic.com}")
+    private String apiBaseUrl;
+
+    @Value("${claude.batch.enabled:true}")
+    private boolean enabled;
+
+    // Minimum number of new emails in one cycle before a batch is used instead of single calls
+    @Value("${claude.batch.threshold:50}")
+    private int threshold;
+
+    // Batches normally finish well within this; after it the batch is cancelled and whatever
+    // did not finish is classified one by one
+    @Value("${claude.batch.max-wait:1800000}")
+    private long maxWait;
+
+    // How long a cancelled batch may take to end before its emails are released without results
+    @Value("${claude.batch.cancel-grace:600000}")
+    private long cancelGrace;
+
+    @Autowired
+    private HttpClient client;
+    private final ObjectMapper mapper;
+    private final String apiKey;
+
+    // Batch ID -> batch the API is still working on
+    private final Map<String, PendingBatch> pendingBatches = new ConcurrentHashMap<>();
+
+    private final AtomicLong batchesSubmitted = new AtomicLong();
+    private final AtomicLong batchesCancelled = new AtomicLong();
+    private final AtomicLong requestsSubmitted = new AtomicLong();
+    private final AtomicLong requestsSucceeded = new AtomicLong();
+    private final AtomicLong requestsFailed = new AtomicLong();
+    private volatile Map<String, Object> lastBatch = new LinkedHashMap<>();
+
+    public ClaudeBatchService() {
+        this.mapper = new ObjectMapper();
+        this.apiKey = Dotenv.configure().ignoreIfMissing().load().get("CLAUDE_API_KEY");
+    }
+
+    /**
+     * Pick up batches submitted before a restart; their results are collected as usual
+     */
+    @PostConstruct
+    public void restorePendingBatches() {
+        localStorageService.getPendingBatches().forEach((batchId, stored) ->
+                pendingBatches.put(batchId, PendingBatch.fromStored(batchId, stored)));
+        if (!pendingBatches.isEmpty()) {
+            System.out.println("📦 Resuming " + pendingBatches.size() + " pending Claude message batch(es)");
+        }
+    }
+
+    public boolean shouldUseBatch(int newEmails) {
+        return enabled && apiKey != null && newEmails >= threshold;
+    }
+
+    public boolean hasPendingBatches() {
+        return !pendingBatches.isEmpty();
+    }
+
+    /**
+     * True if the email, or an earlier email of its conversation, waits for a batch result
+     */
+    public boolean isPending(EmailData email) {
+        return findBatch(email) != null;
+    }
+
+    /**
+     * Keep the email until its batch has been collected; collectFinished() hands it back.
+     * Returns false if no pending batch covers it.
+     */
+    public boolean hold(EmailData email) {
+        PendingBatch batch = findBatch(email);
+        if (batch == null) {
+            return false;
+        }
+        boolean added;
+        synchronized (batch) {
+            batch.held.put(email.getId(), email);
+            added = batch.heldIds.add(email.getId());
+        }
+        if (added) {
+            // Delta and notification modes would not list the email again after a restart
+            localStorageService.savePendingBatch(batch.id, batch.toStored());
+        }
+        return true;
+    }
+
+    /**
+     * Submit the emails as one message batch and return without waiting for it. Cache and
+     * local classifier hits are returned right away; the other results come out of
+     * collectFinished() once the batch has ended.
+     */
+    public Map<String, Map<String, String>> submit(List<EmailData> emails) throws Exception {
+        Map<String, Map<String, String>> analyses = new HashMap<>();
+        Map<String, BatchRequest> batchRequests = new LinkedHashMap<>();
+        List<Map<String, Object>> requests = new ArrayList<>();
+
+        for (EmailData email : emails) {
+            String cacheKey = classificationCache.keyFor(email.getSubject(), email.getBody());
+            Map<String, String> cached = classificationCache.get(cacheKey);
+            if (cached != null) {
+                analyses.put(email.getId(), cached);
+                continue;
+            }
+            Map<String, String> local = localClassifier.classifyIfConfident(email.getSubject(), email.getBody());
+            if (local != null) {
+                analyses.put(email.getId(), local);
+                continue;
+            }
+
+            // Graph IDs contain characters custom_id does not allow, so use the position instead
+            String customId = "email-" + requests.size();
+            PromptCompactor.Result compacted = promptCompactor.compact(email.getBody());
+            batchRequests.put(customId, new BatchRequest(email.getId(), email.getConversationId(), cacheKey, email, compacted));
+
+            Map<String, Object> request = new LinkedHashMap<>();
+            request.put("custom_id", customId);
+            request.put("params", claudeService.buildRequestBody(compacted.getText(), email.getSubject()));
+            requests.add(request);
+        }
+
+        if (requests.isEmpty()) {
+            return analyses;
+        }
+
+        String batchId = submitRequests(requests);
+        PendingBatch batch = new PendingBatch(batchId, System.currentTimeMillis(), batchRequests);
+        pendingBatches.put(batchId, batch);
+        localStorageService.savePendingBatch(batchId, batch.toStored());
+        System.out.println("📦 Submitted Claude message batch " + batchId + " with " + requests.size() + " emails");
+        return analyses;
+    }
+
+    /**
+     * Check every pending batch once. Ended batches are read and returned with the emails
+     * held for them; a batch past max-wait is cancelled, and the results it did produce
+     * are still collected once the cancellation has ended it.
+     */
+    public List<BatchOutcome> collectFinished() {
+        List<BatchOutcome> outcomes = new ArrayList<>();
+        for (PendingBatch batch : new ArrayList<>(pendingBatches.values())) {
+            try {
+                BatchOutcome outcome = poll(batch);
+                if (outcome != null) {
+                    pendingBatches.remove(batch.id);
+                    localStorageService.clearPendingBatch(batch.id);
+                    outcomes.add(outcome);
+                }
+            } catch (Exception e) {
+                // Left pending, the next poll tries again
+                System.err.println("Failed to check Claude batch " + batch.id + ": " + e.getMessage());
+            }
+        }
+        return outcomes;
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("enabled", enabled);
+        stats.put("threshold", threshold);
+        stats.put("batchesSubmitted", batchesSubmitted.get());
+        stats.put("batchesPending", pendingBatches.size());
+        stats.put("batchesCancelled", batchesCancelled.get());
+        stats.put("requestsSubmitted", requestsSubmitted.get());
+        stats.put("requestsSucceeded", requestsSucceeded.get());
+        stats.put("requestsFailed", requestsFailed.get());
+        stats.put("lastBatch", lastBatch);
+        return stats;
+    }
+
+    /**
+     * One status check. Returns the outcome once the batch is done with, otherwise null.
+     */
+    private BatchOutcome poll(PendingBatch batch) throws Exception {
+        HttpResponse<String> response = client.send(
+                request(apiBaseUrl + "/v1/messages/batches/" + batch.id).GET().build(),
+                HttpResponse.BodyHandlers.ofString());
+        if (response.statusCode() != 200) {
+            throw new RuntimeException("Claude batch status error: " + response.statusCode() + " - " + response.body());
+        }
+
+        JsonNode status = mapper.readTree(response.body());
+        if ("ended".equals(status.path("processing_status").asText())) {
+            return readResults(batch, status);
+        }
+
+        long now = System.currentTimeMillis();
+        if (batch.cancelRequestedAt == 0 && now - batch.submittedAt > maxWait) {
+            System.err.println("⏱️ Claude batch " + batch.id + " did not finish within " + maxWait + "ms, cancelling");
+            cancel(batch.id);
+            batch.cancelRequestedAt = now;
+            batchesCancelled.incrementAndGet();
+            localStorageService.savePendingBatch(batch.id, batch.toStored());
+        } else if (batch.cancelRequestedAt > 0 && now - batch.cancelRequestedAt > cancelGrace) {
+            System.err.println("⏱️ Cancelled Claude batch " + batch.id + " has not ended, classifying its emails individually");
+            requestsFailed.addAndGet(batch.requests.size());
+            return new BatchOutcome(batch.id, new HashMap<>(), batch.heldEmails(), batch.unloadedHeldIds());
+        } else {
+            System.out.println("Claude batch " + batch.id + " in progress: " + status.path("request_counts"));
+        }
+        return null;
+    }
+
+    private BatchOutcome readResults(PendingBatch batch, JsonNode status) throws Exception {
+        String resultsUrl = status.path("results_url").asText(null);
+        if (resultsUrl == null) {
+            resultsUrl = apiBaseUrl + "/v1/messages/batches/" + batch.id + "/results";
+        }
+
+        HttpResponse<InputStream> response = client.send(request(resultsUrl).GET().build(), HttpResponse.BodyHandlers.ofInputStream());
+        if (response.statusCode() != 200) {
+            response.body().close();
+            throw new RuntimeException("Claude batch results error: " + response.statusCode());
+        }
+
+        Map<String, Map<String, String>> analyses = new HashMap<>();
+        // Results are JSONL, one line per request, in no particular order
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(response.body(), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isBlank()) {
+                    continue;
+                }
+                JsonNode result = mapper.readTree(line);
+                String customId = result.path("custom_id").asText();
+                BatchRequest request = batch.requests.get(customId);
+                if (request == null) {
+                    continue;
+                }
+
+                JsonNode outcome = result.path("result");
+                Map<String, String> analysis = null;
+                if ("succeeded".equals(outcome.path("type").asText())) {
+                    // Emails and compaction details are only known if the batch was submitted by this process
+                    if (request.email != null) {
+                        claudeService.logPromptUsage(request.compacted, request.email.getSubject(), outcome.path("message").path("usage"));
+                    }
+                    analysis = claudeService.parseAnalysisText(outcome.path("message").path("content").path(0).path("text").asText());
+                }
+                if (analysis == null) {
+                    System.err.println("Claude batch request " + customId + " " + outcome.path("type").asText() + ", will classify individually");
+                    continue;
+                }
+
+                analyses.put(request.messageId, analysis);
+                classificationCache.put(request.cacheKey, analysis);
+                if (request.email != null) {
+                    localClassifier.recordSample(request.email.getSubject(), request.email.getBody(), analysis);
+                }
+            }
+        }
+
+        int succeeded = analyses.size();
+        requestsSucceeded.addAndGet(succeeded);
+        requestsFailed.addAndGet(batch.requests.size() - succeeded);
+
+        Map<String, Object> summary = new LinkedHashMap<>();
+        summary.put("batchId", batch.id);
+        summary.put("requests", batch.requests.size());
+        summary.put("succeeded", succeeded);
+        summary.put("cancelled", batch.cancelRequestedAt > 0);
+        summary.put("seconds", (System.currentTimeMillis() - batch.submittedAt) / 1000.0);
+        lastBatch = summary;
+        System.out.println("📦 Claude batch " + batch.id + " finished: " + succeeded + "/" + batch.requests.size() + " classified");
+        return new BatchOutcome(batch.id, analyses, batch.heldEmails(), batch.unloadedHeldIds());
+    }
+
+    private PendingBatch findBatch(EmailData email) {
+        for (PendingBatch batch : pendingBatches.values()) {
+            if (batch.covers(email)) {
+                return batch;
+            }
+        }
+        return null;
+    }
+
+    private String submitRequests(List<Map<String, Object>> requests) throws Exception {
+        String body = mapper.writeValueAsString(Map.of("requests", requests));
+        HttpResponse<String> response = client.send(
+                request(apiBaseUrl + "/v1/messages/batches")
+                        .header("Content-Type", "application/json")
+                        .POST(HttpRequest.BodyPublishers.ofString(body))
+                        .build(),
+                HttpResponse.BodyHandlers.ofString());
+
+        if (response.statusCode() != 200) {
+            throw new RuntimeException("Claude batch submit error: " + response.statusCode() + " - " + response.body());
+        }
+
+        batchesSubmitted.incrementAndGet();
+        requestsSubmitted.addAndGet(requests.size());
+        return mapper.readTree(response.body()).get("id").asText();
+    }
+
+    private void cancel(String batchId) {
+        try {
+            client.send(request(apiBaseUrl + "/v1/messages/batches/" + batchId + "/cancel")
+                            .POST(HttpRequest.BodyPublishers.noBody())
+                            .build(),
+                    HttpResponse.BodyHandlers.discarding());
+        } catch (Exception e) {
+            System.err.println("Failed to cancel Claude batch " + batchId + ": " + e.getMessage());
+        }
+    }
+
+    private HttpRequest.Builder request(String url) {
+        return HttpRequest.newBuilder()
+                .uri(URI.create(url))
+                .header("x-api-key", apiKey)
+                .header("anthropic-version", "2023-06-01");
+    }
+
+    /**
+     * Results of a batch that is done with: message ID -> analysis for every request that
+     * succeeded, and the emails held back for it. Held emails without an analysis are
+     * classified one by one.
+     */
+    public static class BatchOutcome {
+        private final String batchId;
+        private final Map<String, Map<String, String>> analyses;
+        private final List<EmailData> heldEmails;
+        private final List<String> unloadedHeldIds;
+
+        BatchOutcome(String batchId, Map<String, Map<String, String>> analyses, List<EmailData> heldEmails,
+                     List<String> unloadedHeldIds) {
+            this.batchId = batchId;
+            this.analyses = analyses;
+            this.heldEmails = heldEmails;
+            this.unloadedHeldIds = unloadedHeldIds;
+        }
+
+        public String getBatchId() {
+            return batchId;
+        }
+
+        public Map<String, Map<String, String>> getAnalyses() {
+            return analyses;
+        }
+
+        public List<EmailData> getHeldEmails() {
+            return heldEmails;
+        }
+
+        /**
+         * Emails held for the batch before a restart, to be fetched again by ID
+         */
+        public List<String> getUnloadedHeldIds() {
+            return unloadedHeldIds;
+        }
+    }
+
+    private static class BatchRequest {
+        private final String messageId;
+        private final String conversationId;
+        private final String cacheKey;
+        // Not persisted, null for a batch restored after a restart
+        private final EmailData email;
+        private final PromptCompactor.Result compacted;
+
+        BatchRequest(String messageId, String conversationId, String cacheKey, EmailData email, PromptCompactor.Result compacted) {
+            this.messageId = messageId;
+            this.conversationId = conversationId;
+            this.cacheKey = cacheKey;
+            this.email = email;
+            this.compacted = compacted;
+        }
+    }
+
+    private static class PendingBatch {
+        private final String id;
+        private final long submittedAt;
+        private final Map<String, BatchRequest> requests;
+        private volatile long cancelRequestedAt = 0;
+        // Guarded by this
+        private final Map<String, EmailData> held = new LinkedHashMap<>();
+        // Guarded by this; persisted, unlike held
+        private final Set<String> heldIds = new LinkedHashSet<>();
+
+        PendingBatch(String id, long submittedAt, Map<String, BatchRequest> requests) {
+            this.id = id;
+            this.submittedAt = submittedAt;
+            this.requests = requests;
+        }
+
+        boolean covers(EmailData email) {
+            for (BatchRequest request : requests.values()) {
+                if (request.messageId.equals(email.getId())
+                        || (request.conversationId != null && request.conversationId.equals(email.getConversationId()))) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        synchronized List<EmailData> heldEmails() {
+            return new ArrayList<>(held.values());
+        }
+
+        synchronized List<String> unloadedHeldIds() {
+            List<String> unloaded = new ArrayList<>();
+            for (String heldId : heldIds) {
+                if (!held.containsKey(heldId)) {
+                    unloaded.add(heldId);
+                }
+            }
+            return unloaded;
+        }
+
+        Map<String, Object> toStored() {
+            Map<String, Object> stored = new LinkedHashMap<>();
+            stored.put("submittedAt", submittedAt);
+            stored.put("cancelRequestedAt", cancelRequestedAt);
+            Map<String, Object> storedRequests = new LinkedHashMap<>();
+            requests.forEach((customId, request) -> {
+                Map<String, Object> storedRequest = new LinkedHashMap<>();
+                storedRequest.put("messageId", request.messageId);
+                storedRequest.put("conversationId", request.conversationId);
+                storedRequest.put("cacheKey", request.cacheKey);
+                storedRequests.put(customId, storedRequest);
+            });
+            stored.put("requests", storedRequests);
+            synchronized (this) {
+                stored.put("heldIds", new ArrayList<>(heldIds));
+            }
+            return stored;
+        }
+
+        @SuppressWarnings("unchecked")
+        static PendingBatch fromStored(String id, Map<String, Object> stored) {
+            Map<String, BatchRequest> requests = new LinkedHashMap<>();
+            ((Map<String, Map<String, Object>>) stored.getOrDefault("requests", Map.of())).forEach((customId, request) ->
+                    requests.put(customId, new BatchRequest((String) request.get("messageId"),
+                            (String) request.get("conversationId"), (String) request.get("cacheKey"), null, null)));
+            PendingBatch batch = new PendingBatch(id, ((Number) stored.get("submittedAt")).longValue(), requests);
+            batch.cancelRequestedAt = ((Number) Objects.requireNonNullElse(stored.get("cancelRequestedAt"), 0)).longValue();
+            // The batched emails themselves are held too, even if the process stopped before hold()
+            requests.values().forEach(request -> batch.heldIds.add(request.messageId));
+            batch.heldIds.addAll((List<String>) stored.getOrDefault("heldIds", List.of()));
+            return batch;
+        }
+    }
+}
@@ -0,0 +1,178 @@
+package com.servicerequest.emailbot.service.ai;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Circuit breaker for Claude calls that counts slow calls as well as failures. Over a
+ * sliding window of the last calls it opens when too many failed or took longer than
+ * the slow-call threshold; while open, callers classify locally instead of waiting on
+ * a degraded API. After the open period a single probe call decides whether to close
+ * again or stay open for another period.
+ */
+@Component
+public class ClaudeCircuitBreaker {
+
+    public enum State { CLOSED, OPEN, HALF_OPEN }
+
+    @Value("${claude.circuit-breaker.enabled:true}")
+    private boolean enabled;
+
+    @Value("${claude.circuit-breaker.window-size:20}")
+    private int windowSize;
+
+    // No decision before this many calls are in the window
+    @Value("${claude.circuit-breaker.min-calls:10}")
+    private int minCalls;
+
+    @Value("${claude.circuit-breaker.failure-rate:0.5}")
+    private double failureRateThreshold;
+
+    @Value("${claude.circuit-breaker.slow-call-threshold:10000}")
+    private long slowCallMs;
+
+    @Value("${claude.circuit-breaker.slow-call-rate:0.5}")
+    private double slowCallRateThreshold;
+
+    @Value("${claude.circuit-breaker.open-duration:30000}")
+    private long openDurationMs;
+
+    // Guarded by this
+    private State state = State.CLOSED;
+    private byte[] window;
+    private int windowPos = 0;
+    private int windowCount = 0;
+    private long openUntil = 0;
+    private boolean probeInFlight = false;
+
+    private static final byte OK = 0;
+    private static final byte SLOW = 1;
+    private static final byte FAILED = 2;
+
+    private final AtomicLong trips = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong successes = new AtomicLong();
+    private final AtomicLong slowCalls = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+
+    /**
+     * True if a Claude call may be made now. In half-open state only one probe is let through.
+     */
+    public synchronized boolean tryAcquire() {
+        if (!enabled) {
+            return true;
+        }
+        if (state == State.OPEN && System.currentTimeMillis() >= openUntil) {
+            state = State.HALF_OPEN;
+            probeInFlight = false;
+            System.out.println("🔌 Claude circuit half-open, sending a probe call");
+        }
+        if (state == State.CLOSED) {
+            return true;
+        }
+        if (state == State.HALF_OPEN && !probeInFlight) {
+            probeInFlight = true;
+            return true;
+        }
+        rejected.incrementAndGet();
+        return false;
+    }
+
+    public synchronized void onSuccess(long latencyMs) {
+        boolean slow = latencyMs >= slowCallMs;
+        (slow ? slowCalls : successes).incrementAndGet();
+        record(slow ? SLOW : OK);
+    }
+
+    public synchronized void onFailure(long latencyMs) {
+        failures.incrementAndGet();
+        record(FAILED);
+    }
+
+    /**
+     * True while calls go through normally - used to hold back non-urgent work such as re-classification
+     */
+    public synchronized boolean isClosed() {
+        return !enabled || state == State.CLOSED;
+    }
+
+    private void record(byte outcome) {
+        if (!enabled) {
+            return;
+        }
+        if (state == State.HALF_OPEN) {
+            probeInFlight = false;
+            if (outcome == OK) {
+                state = State.CLOSED;
+                resetWindow();
+                System.out.println("🔌 Claude circuit closed, probe call succeeded");
+            } else {
+                open("probe call " + (outcome == SLOW ? "was slow" : "failed"));
+            }
+            return;
+        }
+        if (state == State.OPEN) {
+            // A call that started before the circuit opened
+            return;
+        }
+
+        if (window == null) {
+            resetWindow();
+        }
+        window[windowPos] = outcome;
+        windowPos = (windowPos + 1) % window.length;
+        windowCount = Math.min(windowCount + 1, window.length);
+        if (windowCount < minCalls) {
+            return;
+        }
+
+        int failed = 0;
+        int slow = 0;
+        for (int i = 0; i < windowCount; i++) {
+            if (window[i] == FAILED) {
+                failed++;
+            } else if (window[i] == SLOW) {
+                slow++;
+            }
+        }
+        double failureRate = (double) failed / windowCount;
+        double slowRate = (double) slow / windowCount;
+        if (failureRate >= failureRateThreshold) {
+            open(String.format("%.0f%% of the last %d calls failed", failureRate * 100, windowCount));
+        } else if (slowRate >= slowCallRateThreshold) {
+            open(String.format("%.0f%% of the last %d calls took over %dms", slowRate * 100, windowCount, slowCallMs));
+        }
+    }
+
+    private void open(String reason) {
+        state = State.OPEN;
+        openUntil = System.currentTimeMillis() + openDurationMs;
+        trips.incrementAndGet();
+        resetWindow();
+        System.err.println("🔌 Claude circuit opened (" + reason + "), classifying locally for " + openDurationMs + "ms");
+    }
+
+    private void resetWindow() {
+        window = new byte[Math.max(1, windowSize)];
+        windowPos = 0;
+        windowCount = 0;
+    }
+
+    public synchronized Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("enabled", enabled);
+        stats.put("state", state.name());
+        stats.put("openForMs", state == State.OPEN ? Math.max(0, openUntil - System.currentTimeMillis()) : 0);
+        stats.put("windowCalls", windowCount);
+        stats.put("trips", trips.get());
+        stats.put("rejectedCalls", rejected.get());
+        stats.put("successes", successes.get());
+        stats.put("slowCalls", slowCalls.get());
+        stats.put("failures", failures.get());
+        return stats;
+    }
+}
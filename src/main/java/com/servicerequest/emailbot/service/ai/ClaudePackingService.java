@@ -0,0 +1,265 @@
+package com.servicerequest.emailbot.service.ai;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.servicerequest.emailbot.model.EmailData;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Classifies several short emails with one Messages API call. The emails are tagged
+ * with IDs in the user message and the model answers with a JSON array, one object per
+ * ID, so the taxonomy prefix and the request latency are paid once per pack instead of
+ * once per email. Packs are filled up to a token budget, so a pack holds many short
+ * emails or a few longer ones. Long and ambiguous emails are never packed; they go
+ * through ModelRouter one by one. Entries that are missing or fail validation are left
+ * out of the result, and the caller classifies those emails one by one.
+ */
+@Service
+public class ClaudePackingService {
+
+    private static final Set<String> PRIORITIES = Set.of("Low", "Medium", "High");
+
+    @Autowired
+    private ClaudeService claudeService;
+
+    @Autowired
+    private ClaudeCircuitBreaker circuitBreaker;
+
+    @Autowired
+    private ClassificationCache classificationCache;
+
+    @Autowired
+    private LocalClassifier localClassifier;
+
+    @Autowired
+    private PromptCompactor promptCompactor;
+
+    @Autowired
+    private ModelRouter modelRouter;
+
+    @Value("${claude.packing.enabled:true}")
+    private boolean enabled;
+
+    // Fewer new emails than this in one cycle are not worth packing
+    @Value("${claude.packing.min-emails:3}")
+    private int minEmails;
+
+    @Value("${claude.packing.max-emails:10}")
+    private int maxEmails;
+
+    // Budget for the email text of one pack (the system prefix comes on top)
+    @Value("${claude.packing.max-request-tokens:3000}")
+    private int maxRequestTokens;
+
+    // Longer emails are always classified on their own
+    @Value("${claude.packing.max-email-tokens:400}")
+    private int maxEmailTokens;
+
+    @Value("${claude.packing.output-tokens-per-email:200}")
+    private int outputTokensPerEmail;
+
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    // Shrinks when packs come back incomplete, grows back while they succeed
+    private volatile int packLimit = -1;
+
+    private final AtomicLong packedRequests = new AtomicLong();
+    private final AtomicLong packedEmails = new AtomicLong();
+    private final AtomicLong validEntries = new AtomicLong();
+    private final AtomicLong fallbacks = new AtomicLong();
+    private final AtomicLong failedRequests = new AtomicLong();
+
+    public boolean shouldPack(int newEmails) {
+        return enabled && claudeService.hasApiKey() && newEmails >= minEmails;
+    }
+
+    /**
+     * Message ID -> analysis for every email answered from the cache, the local classifier
+     * or a packed request. Emails missing from the result must be classified individually.
+     */
+    public Map<String, Map<String, String>> classifyAll(List<EmailData> emails) {
+        Map<String, Map<String, String>> analyses = new HashMap<>();
+        List<PackedEmail> pending = new ArrayList<>();
+
+        for (EmailData email : emails) {
+            String cacheKey = classificationCache.keyFor(email.getSubject(), email.getBody());
+            Map<String, String> cached = classificationCache.get(cacheKey);
+            if (cached != null) {
+                analyses.put(email.getId(), cached);
+                continue;
+            }
+            Map<String, String> local = localClassifier.classifyIfConfident(email.getSubject(), email.getBody());
+            if (local != null) {
+                analyses.put(email.getId(), local);
+                continue;
+            }
+
+            PromptCompactor.Result compacted = promptCompactor.compact(email.getBody());
+            int tokens = PromptCompactor.estimateTokens(claudeService.buildUserMessage(compacted.getText(), email.getSubject()));
+            // Ambiguous emails are routed to the strong tier on their own
+            if (tokens <= maxEmailTokens && !localClassifier.isAmbiguous(email.getSubject(), email.getBody())) {
+                pending.add(new PackedEmail(email, cacheKey, compacted.getText(), tokens));
+            }
+        }
+
+        int start = 0;
+        while (start < pending.size()) {
+            if (packLimit < 0) {
+                packLimit = maxEmails;
+            }
+            // Fill the pack until either the email count or the token budget is reached
+            int end = start;
+            int tokens = 0;
+            while (end < pending.size() && end - start < packLimit
+                    && (end == start || tokens + pending.get(end).tokens <= maxRequestTokens)) {
+                tokens += pending.get(end).tokens;
+                end++;
+            }
+
+            List<PackedEmail> pack = pending.subList(start, end);
+            start = end;
+            if (pack.size() < 2) {
+                // A single email gains nothing from packing
+                continue;
+            }
+            if (!circuitBreaker.tryAcquire()) {
+                break;
+            }
+            classifyPack(pack, analyses);
+        }
+
+        return analyses;
+    }
+
+    private void classifyPack(List<PackedEmail> pack, Map<String, Map<String, String>> analyses) {
+        StringBuilder message = new StringBuilder()
+                .append("Classify each of the ").append(pack.size()).append(" emails below independently.\n")
+                .append("Answer with only a JSON array containing one object per email, in any order. ")
+                .append("Each object has an \"id\" key with the email's id plus the keys described above.\n\n");
+        Map<String, PackedEmail> byId = new LinkedHashMap<>();
+        for (int i = 0; i < pack.size(); i++) {
+            String id = "e" + (i + 1);
+            PackedEmail packed = pack.get(i);
+            byId.put(id, packed);
+            message.append("<email id=\"").append(id).append("\">\n")
+                    .append(claudeService.buildUserMessage(packed.text, packed.email.getSubject()))
+                    .append("\n</email>\n\n");
+        }
+
+        long start = System.currentTimeMillis();
+        ClaudeStreamReader.Result reply;
+        try {
+            // Packs hold short, routine emails only - always the fast tier
+            reply = claudeService.send(claudeService.buildRequestBody(modelRouter.modelFor(ModelRouter.Tier.FAST),
+                    message.toString(), outputTokensPerEmail * pack.size() + 100));
+        } catch (Exception e) {
+            circuitBreaker.onFailure(System.currentTimeMillis() - start);
+            failedRequests.incrementAndGet();
+            fallbacks.addAndGet(pack.size());
+            System.err.println("Packed classification of " + pack.size() + " emails failed: " + e.getMessage());
+            return;
+        }
+        // Time of the HTTP exchange only, not the wait for a governor slot
+        long latency = System.currentTimeMillis() - reply.getRequestStartedAt();
+        circuitBreaker.onSuccess(latency);
+        claudeService.recordTokenUsage(reply.getUsage());
+        packedRequests.incrementAndGet();
+        packedEmails.addAndGet(pack.size());
+
+        int valid = 0;
+        for (JsonNode entry : parseArray(reply.getText())) {
+            PackedEmail packed = byId.remove(entry.path("id").asText());
+            if (packed == null) {
+                continue;
+            }
+            Map<String, String> analysis = claudeService.parseAnalysisText(entry.toString());
+            if (!isValid(analysis)) {
+                byId.put(entry.path("id").asText(), packed);
+                continue;
+            }
+
+            analyses.put(packed.email.getId(), analysis);
+            // Each email's share of the pack latency
+            classificationCache.put(packed.cacheKey, analysis, latency / pack.size());
+            localClassifier.recordSample(packed.email.getSubject(), packed.email.getBody(), analysis);
+            valid++;
+        }
+
+        validEntries.addAndGet(valid);
+        fallbacks.addAndGet(byId.size());
+        adaptPackLimit(pack.size(), valid);
+        System.out.println("📨 Packed classification: " + valid + "/" + pack.size() + " emails in one call ("
+                + latency + "ms" + (byId.isEmpty() ? "" : ", " + byId.size() + " left for single calls") + ")");
+    }
+
+    private List<JsonNode> parseArray(String text) {
+        List<JsonNode> entries = new ArrayList<>();
+        int open = text.indexOf('[');
+        int close = text.lastIndexOf(']');
+        if (open < 0 || close < open) {
+            return entries;
+        }
+        try {
+            JsonNode array = mapper.readTree(text.substring(open, close + 1));
+            array.forEach(entries::add);
+        } catch (Exception e) {
+            System.err.println("Packed classification answer is not a JSON array: " + e.getMessage());
+        }
+        return entries;
+    }
+
+    private boolean isValid(Map<String, String> analysis) {
+        if (analysis == null || !claudeService.isInTaxonomy(analysis)
+                || !PRIORITIES.contains(analysis.get("priority"))) {
+            return false;
+        }
+        return !analysis.get("subject").isBlank() && !analysis.get("description").isBlank();
+    }
+
+    private void adaptPackLimit(int packSize, int valid) {
+        if (valid == packSize) {
+            packLimit = Math.min(maxEmails, packLimit + 1);
+        } else if (valid < packSize * 3 / 4) {
+            // Usually a truncated answer - smaller packs next time
+            packLimit = Math.max(2, packLimit / 2);
+        }
+    }
+
+    public Map<String, Object> getStats() {
+        long requests = packedRequests.get();
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("enabled", enabled);
+        stats.put("packLimit", packLimit < 0 ? maxEmails : packLimit);
+        stats.put("packedRequests", requests);
+        stats.put("packedEmails", packedEmails.get());
+        stats.put("avgEmailsPerRequest", requests == 0 ? 0.0 : (double) packedEmails.get() / requests);
+        stats.put("validEntries", validEntries.get());
+        stats.put("singleCallFallbacks", fallbacks.get());
+        stats.put("failedRequests", failedRequests.get());
+        return stats;
+    }
+
+    private static class PackedEmail {
+        private final EmailData email;
+        private final String cacheKey;
+        private final String text;
+        private final int tokens;
+
+        PackedEmail(EmailData email, String cacheKey, String text, int tokens) {
+            this.email = email;
+            this.cacheKey = cacheKey;
+            this.text = text;
+            this.tokens = tokens;
+        }
+    }
+}
@@ -0,0 +1,171 @@
+package com.servicerequest.emailbot.service.ai;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Reads a Messages API server-sent event stream and collects the generated text. Stops
+ * as soon as the first top-level JSON object in the text is closed, so the caller does
+ * not wait for whatever the model writes after the classification.
+ */
+class ClaudeStreamReader {
+
+    private final ObjectMapper mapper;
+
+    private final StringBuilder text = new StringBuilder();
+    private final ObjectNode usage;
+
+    // Brace tracking over the generated text, aware of JSON strings and escapes
+    private int objectStart = -1;
+    private int depth = 0;
+    private boolean inString = false;
+    private boolean escaped = false;
+
+    private long firstTextAt = 0;
+    private final long requestStartedAt;
+
+    ClaudeStreamReader(ObjectMapper mapper) {
+        this(mapper, System.currentTimeMillis());
+    }
+
+    /**
+     * requestStartedAt is when the HTTP exchange began, carried into the Result for latency
+     */
+    ClaudeStreamReader(ObjectMapper mapper, long requestStartedAt) {
+        this.mapper = mapper;
+        this.usage = mapper.createObjectNode();
+        this.requestStartedAt = requestStartedAt;
+    }
+
+    /**
+     * Consume events until the JSON object is complete or the stream ends. The caller
+     * closes the stream, which aborts the rest of the generation.
+     */
+    Result read(InputStream in) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+        String line;
+
+        while ((line = reader.readLine()) != null) {
+            // Only data lines carry anything we need; the event type is repeated inside the payload
+            if (!line.startsWith("data:")) {
+                continue;
+            }
+            JsonNode event = mapper.readTree(line.substring(5).trim());
+
+            switch (event.path("type").asText()) {
+                case "message_start" -> mergeUsage(event.path("message").path("usage"));
+                case "message_delta" -> mergeUsage(event.path("usage"));
+                case "content_block_delta" -> {
+                    JsonNode delta = event.path("delta");
+                    if ("text_delta".equals(delta.path("type").asText())) {
+                        int end = append(delta.path("text").asText());
+                        if (end >= 0) {
+                            return new Result(text.substring(objectStart, end), usage, true, firstTextAt, requestStartedAt);
+                        }
+                    }
+                }
+                case "message_stop" -> {
+                    return new Result(text.toString(), usage, false, firstTextAt, requestStartedAt);
+                }
+                case "error" -> throw new IOException("Claude stream error: " + event.path("error"));
+                default -> {
+                    // ping, content_block_start/stop
+                }
+            }
+        }
+
+        return new Result(text.toString(), usage, false, firstTextAt, requestStartedAt);
+    }
+
+    /**
+     * Append a text chunk and return the end index of the first JSON object once it closes, else -1
+     */
+    int append(String chunk) {
+        if (firstTextAt == 0) {
+            firstTextAt = System.currentTimeMillis();
+        }
+        int offset = text.length();
+        text.append(chunk);
+
+        for (int i = 0; i < chunk.length(); i++) {
+            char c = chunk.charAt(i);
+            if (objectStart < 0) {
+                // Anything before the object ("Here is the JSON:") is ignored
+                if (c == '{') {
+                    objectStart = offset + i;
+                    depth = 1;
+                }
+                continue;
+            }
+
+            if (inString) {
+                if (escaped) {
+                    escaped = false;
+                } else if (c == '\\') {
+                    escaped = true;
+                } else if (c == '"') {
+                    inString = false;
+                }
+            } else if (c == '"') {
+                inString = true;
+            } else if (c == '{') {
+                depth++;
+            } else if (c == '}' && --depth == 0) {
+                return offset + i + 1;
+            }
+        }
+        return -1;
+    }
+
+    private void mergeUsage(JsonNode delta) {
+        if (delta.isObject()) {
+            usage.setAll((ObjectNode) delta);
+        }
+    }
+
+    static class Result {
+        private final String text;
+        private final JsonNode usage;
+        private final boolean completedEarly;
+        private final long firstTextAt;
+        private final long requestStartedAt;
+
+        Result(String text, JsonNode usage, boolean completedEarly, long firstTextAt, long requestStartedAt) {
+            this.text = text;
+            this.usage = usage;
+            this.completedEarly = completedEarly;
+            this.firstTextAt = firstTextAt;
+            this.requestStartedAt = requestStartedAt;
+        }
+
+        String getText() {
+            return text;
+        }
+
+        JsonNode getUsage() {
+            return usage;
+        }
+
+        boolean isCompletedEarly() {
+            return completedEarly;
+        }
+
+        long getFirstTextAt() {
+            return firstTextAt;
+        }
+
+        /**
+         * When the HTTP exchange that produced this result started; excludes governor waits
+         */
+        long getRequestStartedAt() {
+            return requestStartedAt;
+        }
+    }
+}
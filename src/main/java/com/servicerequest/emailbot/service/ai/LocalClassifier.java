@@ -0,0 +1,523 @@
+package com.servicerequest.emailbot.service.ai;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.servicerequest.emailbot.util.EmailUtils;
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * In-process pre-classifier that runs before Claude. Keyword rules cover the obvious
+ * buckets (password resets, printers, leave requests...) and a multinomial naive Bayes
+ * model over subject/body tokens is trained from earlier Claude results, which are
+ * appended to data/classification_samples.jsonl as they come in. When the combined
+ * confidence reaches app.local-classifier.confidence-threshold the Claude call is skipped,
+ * but only while the predictions at that threshold agree with Claude on a held-out fifth of
+ * the samples at least app.local-classifier.min-accuracy of the time: naive Bayes posteriors
+ * are overconfident, so the threshold alone says little. Pure JVM; see
+ * LocalClassifierEvaluation for the same measurement offline.
+ */
+@Service
+public class LocalClassifier {
+
+    // A rule match alone stays below the default threshold; it needs the model to agree
+    static final double RULE_CONFIDENCE = 0.85;
+
+    private static final Pattern TOKEN = Pattern.compile("[a-z][a-z0-9]{2,}");
+    private static final Set<String> STOP_WORDS = Set.of(
+            "the", "and", "for", "you", "your", "our", "are", "was", "with", "this", "that", "have", "has",
+            "from", "please", "thanks", "thank", "regards", "hello", "dear", "can", "could", "would", "will",
+            "not", "but", "all", "any", "its", "there", "been", "also", "just", "best", "kind");
+    private static final int MAX_BODY_CHARS = 2000;
+    // Held-out predictions at the threshold needed before their agreement counts
+    static final int MIN_EVALUATED = 20;
+    // New samples between two held-out evaluations
+    private static final int REEVALUATE_EVERY = 100;
+
+    private static final List<Rule> RULES = List.of(
+            new Rule("(reset|forgot|forgotten|expired)\\s+(my\\s+)?password|password\\s+reset|locked\\s+out|account\\s+(is\\s+)?locked", "IT Support", "Access Request"),
+            new Rule("printer|toner|paper\\s+jam", "IT Support", "Hardware Issue"),
+            new Rule("\\bvpn\\b|wi-?fi|no\\s+internet|network\\s+(is\\s+)?down", "IT Support", "Network Issue"),
+            new Rule("leave\\s+request|annual\\s+leave|sick\\s+leave|vacation|time\\s+off|day\\s+off", "HR", "Leave Request"),
+            new Rule("expense\\s+report|reimburse", "Finance", "Expense Report"),
+            new Rule("invoice", "Finance", "Invoice Query"),
+            new Rule("meeting\\s+room|book(ing)?\\s+a\\s+room|room\\s+booking", "Facilities", "Room Booking"));
+
+    // RULES whose labels exist in the live taxonomy, respelled the way the taxonomy spells them
+    private volatile List<Rule> activeRules = RULES;
+    // category|type pairs of the live taxonomy; null until useTaxonomy() has been called
+    private volatile Set<String> taxonomyLabels;
+
+    @Value("${app.local-classifier.enabled:false}")
+    private boolean enabled = false;
+
+    @Value("${app.local-classifier.confidence-threshold:0.9}")
+    private double confidenceThreshold = 0.9;
+
+    // The model is only consulted once it has seen this many Claude-labelled emails
+    @Value("${app.local-classifier.min-samples:200}")
+    private int minSamples = 200;
+
+    @Value("${app.local-classifier.min-accuracy:0.95}")
+    private double minAccuracy = 0.95;
+
+    @Value("${app.storage.directory:data/}")
+    private String dataDirectory = "data/";
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    // Naive Bayes counts, label = "category|type"
+    private final Map<String, Integer> docsPerLabel = new HashMap<>();
+    private final Map<String, Integer> tokensPerLabel = new HashMap<>();
+    private final Map<String, Map<String, Integer>> tokenCounts = new HashMap<>();
+    private final Map<String, Integer> vocabulary = new HashMap<>();
+    private final Map<String, Map<String, Integer>> departmentsPerLabel = new HashMap<>();
+    private final Map<String, Map<String, Integer>> prioritiesPerLabel = new HashMap<>();
+    private int totalDocs = 0;
+
+    private final AtomicLong handledLocally = new AtomicLong();
+    private final AtomicLong deferredToClaude = new AtomicLong();
+    private final AtomicLong samplesRecorded = new AtomicLong();
+    private final AtomicLong bestEffortClassifications = new AtomicLong();
+
+    // Held-out agreement at the threshold, -1 until enough predictions reach it
+    private volatile double heldOutAgreement = -1;
+    private volatile boolean accuracyVerified = false;
+
+    public LocalClassifier() {
+    }
+
+    // For the offline evaluation harness
+    LocalClassifier(int minSamples) {
+        this.minSamples = minSamples;
+    }
+
+    @PostConstruct
+    public void load() {
+        if (!enabled) {
+            return;
+        }
+        List<Sample> samples = readSamples(samplesFile());
+        samples.forEach(this::learn);
+        System.out.println("Local classifier trained on " + samples.size() + " Claude-labelled emails");
+        verifyAccuracy(samples);
+    }
+
+    /**
+     * Measure agreement with Claude on held-out samples with this classifier's rules, taxonomy
+     * and threshold; only a classifier that reaches min-accuracy may skip Claude
+     */
+    void verifyAccuracy(List<Sample> samples) {
+        LocalClassifier candidate = new LocalClassifier(minSamples);
+        candidate.activeRules = activeRules;
+        candidate.taxonomyLabels = taxonomyLabels;
+        LocalClassifierEvaluation.Result result = LocalClassifierEvaluation.evaluate(candidate, samples,
+                new double[] {confidenceThreshold});
+
+        heldOutAgreement = result.covered[0] < MIN_EVALUATED ? -1 : result.agreement(0);
+        boolean verified = heldOutAgreement >= minAccuracy;
+        if (verified != accuracyVerified) {
+            System.out.println(verified
+                    ? "🏷️ Local classifier agrees with Claude on " + String.format("%.1f%%", 100 * heldOutAgreement)
+                            + " of held-out emails, classifying confident emails locally"
+                    : "🏷️ Local classifier below " + String.format("%.0f%%", 100 * minAccuracy)
+                            + " held-out agreement with Claude, deferring to Claude");
+        }
+        accuracyVerified = verified;
+    }
+
+    /**
+     * Check the rule labels against the taxonomy the classifier offers Claude. A rule whose
+     * category/type pair is missing is switched off, and model labels outside the taxonomy
+     * are no longer predicted, so local results only use names that have service tracker codes.
+     */
+    public void useTaxonomy(Map<String, List<String>> taxonomy) {
+        Set<String> labels = new HashSet<>();
+        Map<String, String> byLowerCase = new HashMap<>();
+        taxonomy.forEach((category, types) -> types.forEach(type -> {
+            labels.add(category + "|" + type);
+            byLowerCase.put((category + "|" + type).toLowerCase(), category + "|" + type);
+        }));
+
+        List<Rule> active = new ArrayList<>();
+        List<String> disabled = new ArrayList<>();
+        for (Rule rule : RULES) {
+            String label = byLowerCase.get((rule.category + "|" + rule.type).toLowerCase());
+            if (label == null) {
+                disabled.add(rule.category + " / " + rule.type);
+            } else {
+                active.add(new Rule(rule.pattern, label.substring(0, label.indexOf('|')), label.substring(label.indexOf('|') + 1)));
+            }
+        }
+
+        synchronized (this) {
+            activeRules = active;
+            taxonomyLabels = labels;
+        }
+        if (!disabled.isEmpty()) {
+            System.out.println("⚠️ Local classifier rules not in the taxonomy, disabled: " + String.join(", ", disabled));
+        }
+        if (enabled) {
+            // Different rules and labels, different accuracy
+            verifyAccuracy(readSamples(samplesFile()));
+        }
+    }
+
+    /**
+     * A local analysis if confident enough, otherwise null and Claude is asked
+     */
+    public Map<String, String> classifyIfConfident(String subject, String body) {
+        if (!enabled) {
+            return null;
+        }
+        if (!accuracyVerified) {
+            deferredToClaude.incrementAndGet();
+            return null;
+        }
+
+        Prediction prediction = predict(subject, body);
+        if (prediction == null || prediction.confidence < confidenceThreshold) {
+            deferredToClaude.incrementAndGet();
+            return null;
+        }
+
+        handledLocally.incrementAndGet();
+        System.out.println("🏷️ Classified locally (" + prediction.source + ", confidence "
+                + String.format("%.2f", prediction.confidence) + "): " + prediction.label);
+        return prediction.toAnalysis(subject, body);
+    }
+
+    /**
+     * Best local analysis regardless of confidence, for when Claude cannot be asked.
+     * Null if neither the rules nor the model have an opinion.
+     */
+    public Map<String, String> classifyBestEffort(String subject, String body) {
+        Prediction prediction = predict(subject, body);
+        if (prediction == null) {
+            return null;
+        }
+        bestEffortClassifications.incrementAndGet();
+        return prediction.toAnalysis(subject, body);
+    }
+
+    /**
+     * True if the email points at more than one label: rules for different labels match,
+     * or the rules and the model disagree
+     */
+    public boolean isAmbiguous(String subject, String body) {
+        String text = ClassificationCache.normalizeSubject(subject) + " " + ClassificationCache.normalizeBody(body);
+        Set<String> ruleLabels = new HashSet<>();
+        for (Rule rule : activeRules) {
+            if (rule.pattern.matcher(text).find()) {
+                ruleLabels.add(rule.category + "|" + rule.type);
+            }
+        }
+        if (ruleLabels.size() > 1) {
+            return true;
+        }
+        Prediction prediction = predict(subject, body);
+        return prediction != null && "conflict".equals(prediction.source);
+    }
+
+    /**
+     * Remember a Claude result: appended to the samples file and learned immediately
+     */
+    public void recordSample(String subject, String body, Map<String, String> analysis) {
+        if (!enabled) {
+            return;
+        }
+
+        Sample sample = new Sample();
+        sample.subject = ClassificationCache.normalizeSubject(subject);
+        String normalizedBody = ClassificationCache.normalizeBody(body);
+        sample.body = normalizedBody.length() > MAX_BODY_CHARS ? normalizedBody.substring(0, MAX_BODY_CHARS) : normalizedBody;
+        sample.category = analysis.get("category");
+        sample.type = analysis.get("type");
+        sample.department = analysis.get("department");
+        sample.priority = analysis.get("priority");
+        if (sample.category == null || sample.type == null) {
+            return;
+        }
+
+        learn(sample);
+        long recorded = samplesRecorded.incrementAndGet();
+
+        Path file = samplesFile();
+        synchronized (this) {
+            try {
+                Files.createDirectories(file.getParent());
+                try (Writer writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8,
+                        StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+                    writer.write(objectMapper.writeValueAsString(sample));
+                    writer.write("\n");
+                }
+            } catch (IOException e) {
+                System.err.println("Failed to record classification sample: " + e.getMessage());
+            }
+        }
+        if (recorded % REEVALUATE_EVERY == 0) {
+            verifyAccuracy(readSamples(file));
+        }
+    }
+
+    public Map<String, Object> getStats() {
+        long local = handledLocally.get();
+        long deferred = deferredToClaude.get();
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("enabled", enabled);
+        stats.put("confidenceThreshold", confidenceThreshold);
+        synchronized (this) {
+            stats.put("trainingSamples", totalDocs);
+            stats.put("labels", docsPerLabel.size());
+        }
+        stats.put("modelActive", totalDocs >= minSamples);
+        stats.put("heldOutAgreement", heldOutAgreement);
+        stats.put("accuracyVerified", accuracyVerified);
+        stats.put("handledLocally", local);
+        stats.put("deferredToClaude", deferred);
+        stats.put("localRate", local + deferred == 0 ? 0.0 : (double) local / (local + deferred));
+        stats.put("samplesRecorded", samplesRecorded.get());
+        stats.put("bestEffortClassifications", bestEffortClassifications.get());
+        return stats;
+    }
+
+    synchronized void learn(Sample sample) {
+        String label = sample.category + "|" + sample.type;
+        docsPerLabel.merge(label, 1, Integer::sum);
+        totalDocs++;
+
+        Map<String, Integer> counts = tokenCounts.computeIfAbsent(label, l -> new HashMap<>());
+        for (String token : tokenize(sample.subject, sample.body)) {
+            counts.merge(token, 1, Integer::sum);
+            tokensPerLabel.merge(label, 1, Integer::sum);
+            vocabulary.merge(token, 1, Integer::sum);
+        }
+        if (sample.department != null) {
+            departmentsPerLabel.computeIfAbsent(label, l -> new HashMap<>()).merge(sample.department, 1, Integer::sum);
+        }
+        if (sample.priority != null) {
+            prioritiesPerLabel.computeIfAbsent(label, l -> new HashMap<>()).merge(sample.priority, 1, Integer::sum);
+        }
+    }
+
+    /**
+     * Best label with its confidence, or null if neither the rules nor the model have an opinion
+     */
+    synchronized Prediction predict(String subject, String body) {
+        String normalizedSubject = ClassificationCache.normalizeSubject(subject);
+        String normalizedBody = ClassificationCache.normalizeBody(body);
+        if (normalizedBody.length() > MAX_BODY_CHARS) {
+            normalizedBody = normalizedBody.substring(0, MAX_BODY_CHARS);
+        }
+
+        String ruleLabel = matchRules(normalizedSubject + " " + normalizedBody);
+        Prediction model = totalDocs >= minSamples ? predictWithModel(normalizedSubject, normalizedBody) : null;
+
+        if (ruleLabel == null) {
+            return model;
+        }
+        if (model == null) {
+            return new Prediction(ruleLabel, RULE_CONFIDENCE, "rule", this);
+        }
+        if (model.label.equals(ruleLabel)) {
+            // Independent evidence for the same label
+            return new Prediction(ruleLabel, 1 - (1 - RULE_CONFIDENCE) * (1 - model.confidence), "rule+model", this);
+        }
+        // Rule and model disagree - let Claude decide
+        return new Prediction(model.label, model.confidence * (1 - RULE_CONFIDENCE), "conflict", this);
+    }
+
+    private Prediction predictWithModel(String subject, String body) {
+        List<String> tokens = tokenize(subject, body);
+        if (tokens.isEmpty()) {
+            return null;
+        }
+
+        int vocabularySize = vocabulary.size();
+        Map<String, Double> logScores = new HashMap<>();
+        double best = Double.NEGATIVE_INFINITY;
+        String bestLabel = null;
+
+        for (Map.Entry<String, Integer> labelDocs : docsPerLabel.entrySet()) {
+            String label = labelDocs.getKey();
+            if (taxonomyLabels != null && !taxonomyLabels.contains(label)) {
+                // Learned from a Claude result under an earlier taxonomy
+                continue;
+            }
+            Map<String, Integer> counts = tokenCounts.get(label);
+            double denominator = tokensPerLabel.getOrDefault(label, 0) + vocabularySize;
+            double score = Math.log((double) labelDocs.getValue() / totalDocs);
+            for (String token : tokens) {
+                if (!vocabulary.containsKey(token)) {
+                    continue;
+                }
+                score += Math.log((counts.getOrDefault(token, 0) + 1) / denominator);
+            }
+            logScores.put(label, score);
+            if (score > best) {
+                best = score;
+                bestLabel = label;
+            }
+        }
+
+        // Softmax of the log scores gives the posterior of the best label
+        double sum = 0;
+        for (double score : logScores.values()) {
+            sum += Math.exp(score - best);
+        }
+        return bestLabel == null ? null : new Prediction(bestLabel, 1 / sum, "model", this);
+    }
+
+    private String matchRules(String text) {
+        String matched = null;
+        for (Rule rule : activeRules) {
+            if (rule.pattern.matcher(text).find()) {
+                String label = rule.category + "|" + rule.type;
+                if (matched != null && !matched.equals(label)) {
+                    // Ambiguous, e.g. "printer" and "invoice" in one mail
+                    return null;
+                }
+                matched = label;
+            }
+        }
+        return matched;
+    }
+
+    private static List<String> tokenize(String subject, String body) {
+        List<String> tokens = new ArrayList<>();
+        // Subject tokens count twice - they are the densest signal
+        for (String text : new String[]{subject, subject, body}) {
+            Matcher matcher = TOKEN.matcher(text == null ? "" : text);
+            while (matcher.find()) {
+                if (!STOP_WORDS.contains(matcher.group())) {
+                    tokens.add(matcher.group());
+                }
+            }
+        }
+        return tokens;
+    }
+
+    private String mostCommon(Map<String, Map<String, Integer>> valuesPerLabel, String label, String fallback) {
+        Map<String, Integer> values = valuesPerLabel.get(label);
+        if (values == null || values.isEmpty()) {
+            return fallback;
+        }
+        return values.entrySet().stream().max(Map.Entry.comparingByValue()).get().getKey();
+    }
+
+    static List<Sample> readSamples(Path file) {
+        List<Sample> samples = new ArrayList<>();
+        if (!Files.exists(file)) {
+            return samples;
+        }
+
+        ObjectMapper mapper = new ObjectMapper();
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isBlank()) {
+                    continue;
+                }
+                try {
+                    samples.add(mapper.readValue(line, Sample.class));
+                } catch (IOException e) {
+                    System.err.println("Skipping unreadable classification sample: " + e.getMessage());
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("Failed to read classification samples: " + e.getMessage());
+        }
+        return samples;
+    }
+
+    private Path samplesFile() {
+        return Paths.get(dataDirectory, "classification_samples.jsonl");
+    }
+
+    public static class Sample {
+        public String subject;
+        public String body;
+        public String category;
+        public String type;
+        public String department;
+        public String priority;
+    }
+
+    static class Prediction {
+        final String label;
+        final double confidence;
+        final String source;
+        private final String department;
+        private final String priority;
+
+        Prediction(String label, double confidence, String source, LocalClassifier classifier) {
+            this.label = label;
+            this.confidence = confidence;
+            this.source = source;
+            String category = label.substring(0, label.indexOf('|'));
+            this.department = classifier.mostCommon(classifier.departmentsPerLabel, label, category);
+            this.priority = classifier.mostCommon(classifier.prioritiesPerLabel, label, "Medium");
+        }
+
+        String category() {
+            return label.substring(0, label.indexOf('|'));
+        }
+
+        String type() {
+            return label.substring(label.indexOf('|') + 1);
+        }
+
+        Map<String, String> toAnalysis(String subject, String body) {
+            Map<String, String> analysis = new HashMap<>();
+            analysis.put("category", category());
+            analysis.put("type", type());
+            analysis.put("department", department);
+            analysis.put("priority", priority);
+
+            String[] words = ClassificationCache.normalizeSubject(subject).isEmpty()
+                    ? new String[]{category(), type()}
+                    : subject.trim().split("\\s+");
+            analysis.put("subject", String.join(" ", Arrays.copyOf(words, Math.min(10, words.length))));
+
+            String content = EmailUtils.extractNewMessageContent(body).replaceAll("\\s+", " ");
+            analysis.put("description", content.length() > 200 ? content.substring(0, 197) + "..." : content);
+            return analysis;
+        }
+    }
+
+    private static class Rule {
+        private final Pattern pattern;
+        private final String category;
+        private final String type;
+
+        Rule(String regex, String category, String type) {
+            this(Pattern.compile(regex), category, type);
+        }
+
+        Rule(Pattern pattern, String category, String type) {
+            this.pattern = pattern;
+            this.category = category;
+            this.type = type;
+        }
+    }
+}
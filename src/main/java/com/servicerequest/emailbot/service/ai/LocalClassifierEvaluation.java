@@ -0,0 +1,111 @@
+package com.servicerequest.emailbot.service.ai;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Offline evaluation of LocalClassifier against the Claude labels in the samples file.
+ * Trains on a shuffled 80% split, predicts the remaining 20% and prints, per confidence
+ * threshold, how many emails would be handled locally and how often those agree with Claude.
+ * LocalClassifier runs the same split at its own threshold before it skips Claude.
+ *
+ * Usage: java -cp target/classes:... com.servicerequest.emailbot.service.ai.LocalClassifierEvaluation
+ *        [data/classification_samples.jsonl] [minSamples]
+ */
+public class LocalClassifierEvaluation {
+
+    private static final double[] THRESHOLDS = {0.5, 0.7, 0.8, 0.85, 0.9, 0.95, 0.99};
+
+    public static void main(String[] args) {
+        Path samplesFile = Paths.get(args.length > 0 ? args[0] : "data/classification_samples.jsonl");
+        int minSamples = args.length > 1 ? Integer.parseInt(args[1]) : 0;
+
+        List<LocalClassifier.Sample> samples = LocalClassifier.readSamples(samplesFile);
+        if (samples.size() < 10) {
+            System.out.println("Need at least 10 samples in " + samplesFile + ", found " + samples.size());
+            return;
+        }
+
+        Result result = evaluate(new LocalClassifier(minSamples), samples, THRESHOLDS);
+
+        int total = result.holdout;
+        System.out.println("Samples: " + samples.size() + " (train " + result.training + ", holdout " + total + ")");
+        System.out.printf("Category+type accuracy (all predictions): %.1f%%%n", 100.0 * result.labelCorrect / total);
+        System.out.printf("Category accuracy (all predictions):      %.1f%%%n", 100.0 * result.categoryCorrect / total);
+        System.out.println("No prediction: " + result.noOpinion);
+        System.out.println();
+        System.out.println("threshold  handled locally  agreement with Claude");
+        for (int i = 0; i < THRESHOLDS.length; i++) {
+            System.out.printf("%9.2f  %6.1f%% (%4d)   %6.1f%%%n", THRESHOLDS[i],
+                    100.0 * result.covered[i] / total, result.covered[i], 100.0 * result.agreement(i));
+        }
+    }
+
+    /**
+     * Train the (empty) classifier on a shuffled 80% of the samples and score its predictions
+     * on the remaining 20% at each threshold
+     */
+    static Result evaluate(LocalClassifier classifier, List<LocalClassifier.Sample> samples, double[] thresholds) {
+        List<LocalClassifier.Sample> shuffled = new ArrayList<>(samples);
+        // Fixed seed so runs over the same file are comparable
+        Collections.shuffle(shuffled, new Random(42));
+        int split = shuffled.size() * 4 / 5;
+        List<LocalClassifier.Sample> training = shuffled.subList(0, split);
+        List<LocalClassifier.Sample> holdout = shuffled.subList(split, shuffled.size());
+
+        training.forEach(classifier::learn);
+
+        Result result = new Result(training.size(), holdout.size(), thresholds.length);
+        for (LocalClassifier.Sample sample : holdout) {
+            LocalClassifier.Prediction prediction = classifier.predict(sample.subject, sample.body);
+            if (prediction == null) {
+                result.noOpinion++;
+                continue;
+            }
+
+            boolean labelMatches = prediction.category().equals(sample.category) && prediction.type().equals(sample.type);
+            if (labelMatches) {
+                result.labelCorrect++;
+            }
+            if (prediction.category().equals(sample.category)) {
+                result.categoryCorrect++;
+            }
+
+            for (int i = 0; i < thresholds.length; i++) {
+                if (prediction.confidence >= thresholds[i]) {
+                    result.covered[i]++;
+                    if (labelMatches) {
+                        result.correct[i]++;
+                    }
+                }
+            }
+        }
+        return result;
+    }
+
+    static class Result {
+        final int training;
+        final int holdout;
+        // Per threshold: held-out predictions reaching it, and how many of those match Claude
+        final int[] covered;
+        final int[] correct;
+        int labelCorrect = 0;
+        int categoryCorrect = 0;
+        int noOpinion = 0;
+
+        Result(int training, int holdout, int thresholds) {
+            this.training = training;
+            this.holdout = holdout;
+            this.covered = new int[thresholds];
+            this.correct = new int[thresholds];
+        }
+
+        double agreement(int threshold) {
+            return covered[threshold] == 0 ? 0.0 : (double) correct[threshold] / covered[threshold];
+        }
+    }
+}
@@ -0,0 +1,126 @@
+package com.servicerequest.emailbot.service.ai;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Picks the model for a classification. Short, routine emails go to the fast tier with
+ * a tight max_tokens; long emails and ones the local classifier finds ambiguous go
+ * straight to the strong tier. A fast-tier answer that cannot be parsed or names a
+ * category/type outside the taxonomy is escalated (see ClaudeService). Calls and
+ * latency are counted per tier and routing reason, to tune the thresholds from.
+ */
+@Component
+public class ModelRouter {
+
+    public enum Tier { FAST, STRONG }
+
+    @Autowired
+    private LocalClassifier localClassifier;
+
+    // Off: every email uses the fast tier and nothing is escalated
+    @Value("${claude.routing.enabled:true}")
+    private boolean enabled;
+
+    @Value("${claude.routing.fast-model:claude-3-haiku-20240307}")
+    private String fastModel;
+
+    @Value("${claude.routing.fast-max-tokens:300}")
+    private int fastMaxTokens;
+
+    @Value("${claude.routing.strong-model:claude-3-5-sonnet-20241022}")
+    private String strongModel;
+
+    @Value("${claude.routing.strong-max-tokens:600}")
+    private int strongMaxTokens;
+
+    // Compacted bodies above this go to the strong tier
+    @Value("${claude.routing.long-email-tokens:800}")
+    private int longEmailTokens;
+
+    private final Map<Tier, AtomicLong> calls = new EnumMap<>(Tier.class);
+    private final Map<Tier, AtomicLong> latencyMs = new EnumMap<>(Tier.class);
+    private final Map<String, AtomicLong> routingReasons = new ConcurrentHashMap<>();
+    private final Map<String, AtomicLong> escalations = new ConcurrentHashMap<>();
+
+    public ModelRouter() {
+        for (Tier tier : Tier.values()) {
+            calls.put(tier, new AtomicLong());
+            latencyMs.put(tier, new AtomicLong());
+        }
+    }
+
+    public Tier route(String subject, String body, String compactedBody) {
+        if (!enabled) {
+            return Tier.FAST;
+        }
+
+        String reason;
+        Tier tier;
+        if (PromptCompactor.estimateTokens(compactedBody) > longEmailTokens) {
+            reason = "long";
+            tier = Tier.STRONG;
+        } else if (localClassifier.isAmbiguous(subject, body)) {
+            reason = "ambiguous";
+            tier = Tier.STRONG;
+        } else {
+            reason = "routine";
+            tier = Tier.FAST;
+        }
+        routingReasons.computeIfAbsent(reason, r -> new AtomicLong()).incrementAndGet();
+        return tier;
+    }
+
+    /**
+     * True if a fast-tier answer with this problem should be retried on the strong tier
+     */
+    public boolean shouldEscalate(Tier tier) {
+        return enabled && tier == Tier.FAST;
+    }
+
+    public void recordEscalation(String reason) {
+        escalations.computeIfAbsent(reason, r -> new AtomicLong()).incrementAndGet();
+    }
+
+    public void recordCall(Tier tier, long latency) {
+        calls.get(tier).incrementAndGet();
+        latencyMs.get(tier).addAndGet(latency);
+    }
+
+    public String modelFor(Tier tier) {
+        return tier == Tier.STRONG ? strongModel : fastModel;
+    }
+
+    public int maxTokensFor(Tier tier) {
+        return tier == Tier.STRONG ? strongMaxTokens : fastMaxTokens;
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("enabled", enabled);
+        stats.put("longEmailTokens", longEmailTokens);
+        for (Tier tier : Tier.values()) {
+            long count = calls.get(tier).get();
+            Map<String, Object> tierStats = new LinkedHashMap<>();
+            tierStats.put("model", modelFor(tier));
+            tierStats.put("maxTokens", maxTokensFor(tier));
+            tierStats.put("calls", count);
+            tierStats.put("avgLatencyMs", count == 0 ? 0 : latencyMs.get(tier).get() / count);
+            stats.put(tier.name().toLowerCase(), tierStats);
+        }
+        Map<String, Long> reasons = new LinkedHashMap<>();
+        routingReasons.forEach((reason, count) -> reasons.put(reason, count.get()));
+        stats.put("routingReasons", reasons);
+        Map<String, Long> escalated = new LinkedHashMap<>();
+        escalations.forEach((reason, count) -> escalated.put(reason, count.get()));
+        stats.put("escalations", escalated);
+        return stats;
+    }
+}
@@ -0,0 +1,157 @@
+package com.servicerequest.emailbot.service.ai;
+
+import com.servicerequest.emailbot.util.EmailUtils;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+/**
+ * Shrinks an email body before it goes into the Claude prompt: HTML to text, quoted
+ * reply history (EmailUtils.stripQuotedHistory), signatures and legal disclaimers are
+ * removed, and whatever is left is held to a token budget by cutting out the middle,
+ * where long bodies usually carry the least signal (logs, pasted tables).
+ */
+@Component
+public class PromptCompactor {
+
+    // Rough but stable for English mail: about 4 characters per token
+    static final int CHARS_PER_TOKEN = 4;
+
+    private static final Pattern SIGNATURE_START = Pattern.compile(
+            "^(--\\s*|_{5,}|(best|kind|warm)?\\s*regards,?|thanks( and regards)?,?|thank you,?|cheers,?|sincerely,?"
+                    + "|sent from my \\w+.*|get outlook for .*)$",
+            Pattern.CASE_INSENSITIVE);
+    private static final Pattern DISCLAIMER_START = Pattern.compile(
+            "^(confidentiality notice|disclaimer|this (e-?mail|message)( and any attachments)? (is|are|may be) (confidential|intended)"
+                    + "|the information (contained )?in this (e-?mail|message)|if you (are not|have received this) ).*",
+            Pattern.CASE_INSENSITIVE);
+    // A sign-off this close to the end is a signature, not part of the request
+    private static final int MAX_SIGNATURE_LINES = 8;
+
+    @Value("${claude.prompt.max-body-tokens:1500}")
+    private int maxBodyTokens;
+
+    private final AtomicLong emailsCompacted = new AtomicLong();
+    private final AtomicLong charsIn = new AtomicLong();
+    private final AtomicLong charsOut = new AtomicLong();
+    private final AtomicLong truncatedBodies = new AtomicLong();
+    private final AtomicLong measuredInputTokens = new AtomicLong();
+    private final AtomicLong estimatedTokensSaved = new AtomicLong();
+
+    public Result compact(String body) {
+        String raw = body == null ? "" : body;
+        String text = EmailUtils.toPlainText(raw, true);
+
+        String fresh = EmailUtils.stripQuotedHistory(text);
+        if (!fresh.isEmpty()) {
+            text = fresh;
+        }
+        text = stripBoilerplate(text);
+
+        boolean truncated = false;
+        int maxChars = maxBodyTokens * CHARS_PER_TOKEN;
+        if (text.length() > maxChars) {
+            text = truncateMiddle(text, maxChars);
+            truncated = true;
+            truncatedBodies.incrementAndGet();
+        }
+
+        emailsCompacted.incrementAndGet();
+        charsIn.addAndGet(raw.length());
+        charsOut.addAndGet(text.length());
+        return new Result(text, raw.length(), truncated);
+    }
+
+    /**
+     * Turn the prompt's measured input_tokens into an estimate of the tokens the raw body
+     * would have cost, using the tokens-per-character ratio of this very request
+     */
+    public long recordUsage(Result result, long inputTokens, int promptChars) {
+        if (inputTokens <= 0 || promptChars <= 0) {
+            return 0;
+        }
+        long removedChars = result.getOriginalChars() - result.getText().length();
+        long saved = Math.max(0, Math.round(removedChars * ((double) inputTokens / promptChars)));
+        measuredInputTokens.addAndGet(inputTokens);
+        estimatedTokensSaved.addAndGet(saved);
+        return saved;
+    }
+
+    public static int estimateTokens(String text) {
+        return text == null ? 0 : (text.length() + CHARS_PER_TOKEN - 1) / CHARS_PER_TOKEN;
+    }
+
+    public Map<String, Object> getStats() {
+        long emails = emailsCompacted.get();
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("maxBodyTokens", maxBodyTokens);
+        stats.put("emailsCompacted", emails);
+        stats.put("truncatedBodies", truncatedBodies.get());
+        stats.put("avgCharsIn", emails == 0 ? 0 : charsIn.get() / emails);
+        stats.put("avgCharsOut", emails == 0 ? 0 : charsOut.get() / emails);
+        stats.put("measuredInputTokens", measuredInputTokens.get());
+        stats.put("estimatedInputTokensSaved", estimatedTokensSaved.get());
+        return stats;
+    }
+
+    static String stripBoilerplate(String text) {
+        String[] lines = text.split("\\r?\\n");
+        List<String> kept = new ArrayList<>();
+
+        for (int i = 0; i < lines.length; i++) {
+            String line = lines[i].trim();
+            if (DISCLAIMER_START.matcher(line).matches()) {
+                // Disclaimers run to the end of the mail
+                break;
+            }
+            if (SIGNATURE_START.matcher(line).matches() && lines.length - i <= MAX_SIGNATURE_LINES) {
+                break;
+            }
+            kept.add(lines[i]);
+        }
+
+        String result = String.join("\n", kept).trim();
+        // Never strip a mail down to nothing
+        return result.isEmpty() ? text.trim() : result;
+    }
+
+    static String truncateMiddle(String text, int maxChars) {
+        // Opening states the problem, the end often holds the actual question
+        int head = maxChars * 2 / 3;
+        int tail = maxChars - head;
+        int omitted = text.length() - head - tail;
+        return text.substring(0, head)
+                + "\n[... " + omitted + " characters omitted ...]\n"
+                + text.substring(text.length() - tail);
+    }
+
+    public static class Result {
+        private final String text;
+        private final int originalChars;
+        private final boolean truncated;
+
+        Result(String text, int originalChars, boolean truncated) {
+            this.text = text;
+            this.originalChars = originalChars;
+            this.truncated = truncated;
+        }
+
+        public String getText() {
+            return text;
+        }
+
+        public int getOriginalChars() {
+            return originalChars;
+        }
+
+        public boolean isTruncated() {
+            return truncated;
+        }
+    }
+}
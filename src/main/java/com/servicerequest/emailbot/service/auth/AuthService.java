@@ -2,7 +2,9 @@ package com.servicerequest.emailbot.service.auth;
 
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.servicerequest.emailbot.util.AsyncUtils;
 import io.github.cdimascio.dotenv.Dotenv;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
 import java.net.URI;
@@ -11,10 +13,13 @@ import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
 @Service
 public class AuthService {
-    private final HttpClient client;
+    @Autowired
+    private HttpClient client;
     private final ObjectMapper mapper;
     private final Dotenv dotenv;
     private final Map<String, Map<String, String>> emailCredentials;
@@ -22,9 +27,6 @@ public class AuthService {
     private long tokenExpiryTime;
 
     public AuthService() {
-        this.client = HttpClient.newBuilder()
-                .connectTimeout(java.time.Duration.ofSeconds(60))
-                .build();
         this.mapper = new ObjectMapper();
         this.dotenv = Dotenv.configure().ignoreIfMissing().load();
         this.emailCredentials = initializeEmailCredentials();
@@ -69,7 +71,7 @@ public class AuthService {
      * ✅ Wrapper around getServiceTrackerSession
      * Returns only the token and caches it.
      */
-    public String authenticate(String emailAddress) throws Exception {
+    public synchronized String authenticate(String emailAddress) throws Exception {
         System.out.println("Starting authentication to service tracker for: " + emailAddress);
 
         Map<String, Object> session = getServiceTrackerSession(emailAddress);
@@ -86,17 +88,21 @@ public class AuthService {
     }
 
     public Map<String, Object> getServiceTrackerSession(String emailId) throws Exception {
+        return AsyncUtils.await(getServiceTrackerSessionAsync(emailId));
+    }
+
+    public CompletableFuture<Map<String, Object>> getServiceTrackerSessionAsync(String emailId) {
         Map<String, String> userCreds = emailCredentials.get(emailId.toLowerCase());
         if (userCreds == null) {
-            throw new RuntimeException("No credentials found for email: " + emailId);
+            return CompletableFuture.failedFuture(new RuntimeException("No credentials found for email: " + emailId));
         }
 
         String authApi = dotenv.get("AUTH_API");
         if (authApi == null) {
-            throw new RuntimeException("AUTH_API environment variable not set");
+            return CompletableFuture.failedFuture(new RuntimeException("AUTH_API environment variable not set"));
         }
 
-        try {
+        return AsyncUtils.supplyFailing(() -> {
             System.out.println("Getting service tracker session for: " + emailId);
 
             Map<String, Object> credentials = new HashMap<>();
@@ -112,40 +118,77 @@ public class AuthService {
                     .POST(HttpRequest.BodyPublishers.ofString(jsonBody))
                     .build();
 
-            HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
-            System.out.println("Session response status: " + response.statusCode());
-            System.out.println("Session response body: " + response.body());
-
-            if (response.statusCode() == 200) {
-                JsonNode responseJson = mapper.readTree(response.body());
-
-                // ✅ Aligning with Python: return same keys
-                Map<String, Object> session = new HashMap<>();
-                session.put("cookie_token", responseJson.path("token").asText("mock_cookie_" + userCreds.get("AUTH_USERNAME")));
-                session.put("personID", responseJson.path("personID").asText("10000000001"));
-                session.put("userName", responseJson.path("userName").asText(userCreds.get("AUTH_USERNAME")));
-                session.put("fullName", responseJson.path("fullName").asText("System User"));
-                session.put("unitNumber", responseJson.path("unitNumber").asText("000001"));
-                session.put("orgUnit", responseJson.path("unitName").asText("IT Support")); // renamed key
-
-                System.out.println("✅ Session data retrieved successfully");
-                return session;
-            } else {
-                throw new RuntimeException("Session request failed: " + response.statusCode() + " - " + response.body());
+            return client.sendAsync(request, HttpResponse.BodyHandlers.ofString());
+        }).handle((response, error) -> {
+            if (error != null) {
+                Throwable cause = AsyncUtils.unwrap(error);
+                if (cause instanceof java.net.ConnectException || cause instanceof java.net.http.HttpTimeoutException) {
+                    System.err.println("❌ Service tracker not accessible: " + cause.getMessage());
+                    throw new RuntimeException("Service tracker authentication failed - backend not accessible", cause);
+                }
+                throw cause instanceof RuntimeException runtime ? runtime : new CompletionException(cause);
             }
-        } catch (java.net.ConnectException | java.net.http.HttpTimeoutException e) {
-            System.err.println("❌ Service tracker not accessible: " + e.getMessage());
-            throw new RuntimeException("Service tracker authentication failed - backend not accessible", e);
+            return parseSession(response, userCreds);
+        });
+    }
+
+    private Map<String, Object> parseSession(HttpResponse<String> response, Map<String, String> userCreds) {
+        System.out.println("Session response status: " + response.statusCode());
+        System.out.println("Session response body: " + response.body());
+
+        if (response.statusCode() != 200) {
+            throw new RuntimeException("Session request failed: " + response.statusCode() + " - " + response.body());
+        }
+        JsonNode responseJson;
+        try {
+            responseJson = mapper.readTree(response.body());
+        } catch (Exception e) {
+            throw new CompletionException(e);
         }
+
+        // ✅ Aligning with Python: return same keys
+        Map<String, Object> session = new HashMap<>();
+        session.put("cookie_token", responseJson.path("token").asText("mock_cookie_" + userCreds.get("AUTH_USERNAME")));
+        session.put("personID", responseJson.path("personID").asText("10000000001"));
+        session.put("userName", responseJson.path("userName").asText(userCreds.get("AUTH_USERNAME")));
+        session.put("fullName", responseJson.path("fullName").asText("System User"));
+        session.put("unitNumber", responseJson.path("unitNumber").asText("000001"));
+        session.put("orgUnit", responseJson.path("unitName").asText("IT Support")); // renamed key
+
+        System.out.println("✅ Session data retrieved successfully");
+        return session;
     }
 
-    public String getValidToken(String emailAddress) throws Exception {
+    public synchronized String getValidToken(String emailAddress) throws Exception {
         if (authToken == null || System.currentTimeMillis() > tokenExpiryTime) {
             return authenticate(emailAddress);
         }
         return authToken;
     }
 
+    /**
+     * Cached token, or a non-blocking session call to get a fresh one
+     */
+    public CompletableFuture<String> getValidTokenAsync(String emailAddress) {
+        synchronized (this) {
+            if (authToken != null && System.currentTimeMillis() <= tokenExpiryTime) {
+                return CompletableFuture.completedFuture(authToken);
+            }
+        }
+        return getServiceTrackerSessionAsync(emailAddress).thenApply(session -> {
+            String token = (String) session.get("cookie_token");
+            if (token == null || token.isEmpty()) {
+                throw new RuntimeException("No token found in service tracker session response");
+            }
+            synchronized (this) {
+                this.authToken = token;
+                this.tokenExpiryTime = System.currentTimeMillis() + (24 * 60 * 60 * 1000); // 24h
+            }
+            System.out.println("Token obtained and cached: SUCCESS");
+            return token;
+        });
+    }
+
     public boolean isTokenValid() {
         return authToken != null && System.currentTimeMillis() < tokenExpiryTime;
     }
@@ -3,6 +3,7 @@ package com.servicerequest.emailbot.service.auth;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import io.github.cdimascio.dotenv.Dotenv;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.annotation.Primary;
 import org.springframework.stereotype.Service;
 
@@ -16,7 +17,8 @@ import java.util.Map;
 @Service
 @Primary
 public class AuthServiceOutlook {
-    private final HttpClient client;
+    @Autowired
+    private HttpClient client;
     private final ObjectMapper mapper;
     private final Dotenv dotenv;
     private String accessToken;
@@ -24,7 +26,6 @@ public class AuthServiceOutlook {
     private long tokenExpiryTime;
 
     public AuthServiceOutlook() {
-        this.client = HttpClient.newHttpClient();
         this.mapper = new ObjectMapper();
         this.dotenv = Dotenv.configure().ignoreIfMissing().load();
         // Don't initialize tokens in constructor to avoid startup failures
@@ -15,7 +15,8 @@ import java.util.Map;
 
 @Service
 public class CommentsService {
-    private final HttpClient client;
+    @Autowired
+    private HttpClient client;
     private final ObjectMapper mapper;
     private final Dotenv dotenv;
     
@@ -23,7 +24,6 @@ public class CommentsService {
     private AuthService authService;
 
     public CommentsService() {
-        this.client = HttpClient.newHttpClient();
         this.mapper = new ObjectMapper();
         this.dotenv = Dotenv.configure().ignoreIfMissing().load();
     }
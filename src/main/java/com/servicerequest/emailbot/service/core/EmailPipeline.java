@@ -0,0 +1,278 @@
+package com.servicerequest.emailbot.service.core;
+
+import com.servicerequest.emailbot.config.RequestDeadline;
+import com.servicerequest.emailbot.model.EmailData;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Staged email processing: classify (Claude) -> create SR (service tracker) -> notify (Slack)
+ * -> acknowledge (Graph mark-read). Each stage has its own workers and reads from a bounded
+ * queue; a full queue blocks the stage feeding it, so a slow downstream throttles everything
+ * upstream instead of piling work up in memory. The fetch stage is the dispatching thread,
+ * which admits one email per conversation at a time so follow-ups keep their arrival order.
+ */
+class EmailPipeline {
+
+    // Graph $batch limit, also the most acknowledgements one ack worker takes at once
+    private static final int ACK_BATCH_SIZE = 20;
+
+    private final EmailProcessorService processor;
+    private final Stage classifyStage;
+    private final Stage createStage;
+    private final Stage notifyStage;
+    private final Stage ackStage;
+    private final List<Stage> stages;
+
+    // Unbounded on purpose: holds at most one finished item per conversation in flight
+    private final LinkedBlockingQueue<EmailWorkItem> completions = new LinkedBlockingQueue<>();
+    private final List<Thread> workers = new ArrayList<>();
+    private final AtomicLong dispatched = new AtomicLong();
+    private volatile Map<String, Object> lastCycle = new LinkedHashMap<>();
+
+    EmailPipeline(EmailProcessorService processor, int queueCapacity,
+                  int classifyWorkers, int createWorkers, int notifyWorkers, int ackWorkers) {
+        this.processor = processor;
+        this.classifyStage = new Stage("classify", queueCapacity, classifyWorkers);
+        this.createStage = new Stage("create", queueCapacity, createWorkers);
+        this.notifyStage = new Stage("notify", queueCapacity, notifyWorkers);
+        this.ackStage = new Stage("ack", queueCapacity, ackWorkers);
+        this.stages = List.of(classifyStage, createStage, notifyStage, ackStage);
+    }
+
+    void start() {
+        for (Stage stage : stages) {
+            for (int i = 1; i <= stage.workers; i++) {
+                Thread worker = new Thread(() -> runWorker(stage), "pipeline-" + stage.name + "-" + i);
+                worker.setDaemon(true);
+                worker.start();
+                workers.add(worker);
+            }
+        }
+    }
+
+    void stop() {
+        workers.forEach(Thread::interrupt);
+    }
+
+    /**
+     * Push one cycle's emails through the stages and wait until all of them are done.
+     */
+    void process(Map<String, List<EmailData>> conversations) throws InterruptedException {
+        long cycleStart = System.nanoTime();
+        Map<Stage, long[]> before = new HashMap<>();
+        for (Stage stage : stages) {
+            before.put(stage, new long[]{stage.processed.get(), stage.busyNanos.get()});
+        }
+
+        Map<String, Deque<EmailData>> waiting = new HashMap<>();
+        int inFlight = 0;
+
+        for (Map.Entry<String, List<EmailData>> conversation : conversations.entrySet()) {
+            Deque<EmailData> emails = new ArrayDeque<>(conversation.getValue());
+            waiting.put(conversation.getKey(), emails);
+            admit(emails.poll());
+            inFlight++;
+        }
+
+        while (inFlight > 0) {
+            EmailWorkItem done = completions.take();
+            inFlight--;
+
+            if (done.isFailed()) {
+                System.err.println("Error processing email " + done.getEmail().getSubject() + ": " + done.getFailure().getMessage());
+            }
+
+            EmailData next = waiting.get(EmailProcessorService.conversationKey(done.getEmail())).poll();
+            if (next != null) {
+                admit(next);
+                inFlight++;
+            }
+        }
+
+        recordCycle(cycleStart, before);
+    }
+
+    Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("dispatched", dispatched.get());
+
+        Map<String, Object> stageStats = new LinkedHashMap<>();
+        for (Stage stage : stages) {
+            long processed = stage.processed.get();
+            Map<String, Object> s = new LinkedHashMap<>();
+            s.put("workers", stage.workers);
+            s.put("busyWorkers", stage.active.get());
+            s.put("queueDepth", stage.queue.size());
+            s.put("queueCapacity", stage.capacity);
+            s.put("processed", processed);
+            s.put("failed", stage.failed.get());
+            s.put("avgMillis", processed == 0 ? 0.0 : stage.busyNanos.get() / 1_000_000.0 / processed);
+            stageStats.put(stage.name, s);
+        }
+        stats.put("stages", stageStats);
+        stats.put("lastCycle", lastCycle);
+        return stats;
+    }
+
+    private void admit(EmailData email) throws InterruptedException {
+        // Blocks while the classify queue is full - backpressure on the fetch stage
+        classifyStage.queue.put(new EmailWorkItem(email));
+        dispatched.incrementAndGet();
+    }
+
+    private void runWorker(Stage stage) {
+        while (!Thread.currentThread().isInterrupted()) {
+            try {
+                List<EmailWorkItem> items = new ArrayList<>();
+                items.add(stage.queue.take());
+                if (stage == ackStage) {
+                    stage.queue.drainTo(items, ACK_BATCH_SIZE - 1);
+                }
+
+                if (stage == ackStage) {
+                    acknowledge(items);
+                } else {
+                    handle(stage, items.get(0));
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private void handle(Stage stage, EmailWorkItem item) throws InterruptedException {
+        Stage next;
+        // Busy time covers the step itself, not time spent blocked on a full downstream queue
+        stage.active.incrementAndGet();
+        long start = System.nanoTime();
+        try {
+            if (item.getDeadlineAt() == 0) {
+                // The budget starts once the email is being worked on, not while it waits to be admitted
+                item.setDeadlineAt(processor.newEmailDeadline());
+            }
+            next = item.getDeadlineAt() > 0
+                    ? RequestDeadline.until(item.getDeadlineAt(), () -> runStep(stage, item))
+                    : runStep(stage, item);
+            stage.processed.incrementAndGet();
+        } catch (Exception e) {
+            processor.recordDeadlineIfExceeded(item.getDeadlineAt());
+            stage.failed.incrementAndGet();
+            item.setFailure(e);
+            completions.put(item);
+            return;
+        } finally {
+            stage.busyNanos.addAndGet(System.nanoTime() - start);
+            stage.active.decrementAndGet();
+        }
+        // Blocks while the next stage is saturated
+        next.queue.put(item);
+    }
+
+    private Stage runStep(Stage stage, EmailWorkItem item) throws Exception {
+        EmailData email = item.getEmail();
+
+        if (stage == classifyStage) {
+            if (processor.isAlreadyHandled(email)) {
+                // Finished before a restart, only the acknowledgement is left
+                return ackStage;
+            }
+            String existingSrId = processor.findExistingServiceRequest(email);
+            if (existingSrId != null) {
+                item.setFollowUp(true);
+                item.setSrId(existingSrId);
+                return notifyStage;
+            }
+            item.setAnalysis(processor.classifyEmail(email));
+            return createStage;
+        }
+
+        if (stage == createStage) {
+            item.setSrId(processor.createServiceRequestFor(email, item.getAnalysis()));
+            return notifyStage;
+        }
+
+        if (item.isFollowUp()) {
+            processor.handleFollowUpEmail(email, item.getSrId());
+        } else {
+            processor.notifyNewServiceRequest(email, item.getSrId());
+            System.out.println("Created new service request: " + item.getSrId());
+        }
+        return ackStage;
+    }
+
+    private void acknowledge(List<EmailWorkItem> items) throws InterruptedException {
+        List<String> messageIds = new ArrayList<>();
+        for (EmailWorkItem item : items) {
+            messageIds.add(item.getEmail().getId());
+        }
+
+        ackStage.active.incrementAndGet();
+        long start = System.nanoTime();
+        List<String> marked;
+        try {
+            marked = processor.markRead(messageIds);
+        } finally {
+            ackStage.busyNanos.addAndGet(System.nanoTime() - start);
+            ackStage.active.decrementAndGet();
+        }
+
+        for (EmailWorkItem item : items) {
+            if (marked.contains(item.getEmail().getId())) {
+                ackStage.processed.incrementAndGet();
+            } else {
+                ackStage.failed.incrementAndGet();
+                item.setFailure(new RuntimeException("Failed to mark email as read"));
+            }
+            completions.put(item);
+        }
+    }
+
+    private void recordCycle(long cycleStart, Map<Stage, long[]> before) {
+        double seconds = (System.nanoTime() - cycleStart) / 1_000_000_000.0;
+        Map<String, Object> cycle = new LinkedHashMap<>();
+        cycle.put("seconds", seconds);
+
+        for (Stage stage : stages) {
+            long processed = stage.processed.get() - before.get(stage)[0];
+            long busyNanos = stage.busyNanos.get() - before.get(stage)[1];
+            Map<String, Object> s = new LinkedHashMap<>();
+            s.put("throughputPerSecond", seconds == 0 ? 0.0 : processed / seconds);
+            // Close to 1.0 means every worker of this stage was busy the whole cycle: the bottleneck
+            s.put("utilization", seconds == 0 ? 0.0 : busyNanos / 1_000_000_000.0 / seconds / stage.workers);
+            cycle.put(stage.name, s);
+        }
+
+        lastCycle = cycle;
+        System.out.println("Pipeline cycle completed in " + String.format("%.1f", seconds) + "s: " + cycle);
+    }
+
+    private static class Stage {
+        private final String name;
+        private final int capacity;
+        private final int workers;
+        private final BlockingQueue<EmailWorkItem> queue;
+        private final AtomicInteger active = new AtomicInteger();
+        private final AtomicLong processed = new AtomicLong();
+        private final AtomicLong failed = new AtomicLong();
+        private final AtomicLong busyNanos = new AtomicLong();
+
+        Stage(String name, int capacity, int workers) {
+            this.name = name;
+            this.capacity = capacity;
+            this.workers = Math.max(1, workers);
+            this.queue = new ArrayBlockingQueue<>(capacity);
+        }
+    }
+}
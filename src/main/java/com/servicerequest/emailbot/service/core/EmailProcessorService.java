@@ -1,21 +1,50 @@
 package com.servicerequest.emailbot.service.core;
 
+import com.servicerequest.emailbot.config.RequestDeadline;
 import com.servicerequest.emailbot.model.EmailData;
 import com.servicerequest.emailbot.repository.DbService;
 import com.servicerequest.emailbot.service.LocalStorageService;
+import com.servicerequest.emailbot.service.ai.ClaudeBatchService;
+import com.servicerequest.emailbot.service.ai.ClaudePackingService;
 import com.servicerequest.emailbot.service.ai.ClaudeService;
 import com.servicerequest.emailbot.service.auth.AuthService;
 import com.servicerequest.emailbot.service.auth.AuthServiceOutlook;
+import com.servicerequest.emailbot.service.outlook.MailboxDelta;
 import com.servicerequest.emailbot.service.outlook.OutlookService;
 import com.servicerequest.emailbot.service.outlook.OutlookSession;
 import com.servicerequest.emailbot.service.outlook.OutlookSessionService;
 import com.servicerequest.emailbot.service.servicerequest.ServiceRequest;
 import com.servicerequest.emailbot.service.slack.AdaptiveCardService;
+import com.servicerequest.emailbot.util.AsyncUtils;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
 
 @Service
 public class EmailProcessorService {
@@ -32,6 +61,12 @@ public class EmailProcessorService {
     @Autowired
     private ClaudeService claudeService;
     
+    @Autowired
+    private ClaudeBatchService claudeBatchService;
+    
+    @Autowired
+    private ClaudePackingService claudePackingService;
+    
     @Autowired
     private ServiceRequest serviceRequestService;
     
@@ -47,7 +82,129 @@ public class EmailProcessorService {
     @Autowired
     private DbService dbService;
 
+    @Autowired
+    private WorkJournal workJournal;
+
+    // "sequential" keeps the original one-by-one loop, "concurrent" fans out per conversation,
+    // "pipeline" runs classify/create/notify/ack as separate stages with bounded queues,
+    // "async" chains the non-blocking integration calls per conversation
+    @Value("${app.email.processing.mode:sequential}")
+    private String processingMode;
+
+    // Conversations whose async chains may be in flight at once
+    @Value("${app.email.async.max-in-flight:100}")
+    private int asyncMaxInFlight;
+
+    // Total time one email may take across all its downstream calls and retries
+    @Value("${app.email.deadline:120000}")
+    private long emailDeadlineMs;
+
+    private final AtomicLong emailDeadlineExceeded = new AtomicLong();
+
+    private final AtomicInteger asyncInFlight = new AtomicInteger();
+    private final AtomicInteger asyncPeakInFlight = new AtomicInteger();
+
+    @Value("${app.email.processing.concurrency:4}")
+    private int processingConcurrency;
+
+    @Value("${app.email.pipeline.queue-capacity:50}")
+    private int pipelineQueueCapacity;
+
+    @Value("${app.email.pipeline.classify-workers:4}")
+    private int classifyWorkers;
+
+    @Value("${app.email.pipeline.create-workers:2}")
+    private int createWorkers;
+
+    @Value("${app.email.pipeline.notify-workers:2}")
+    private int notifyWorkers;
+
+    @Value("${app.email.pipeline.ack-workers:1}")
+    private int ackWorkers;
+
+    private EmailPipeline emailPipeline;
+
+    // "filter" re-queries all unread mail each cycle, "delta" fetches only changes since the last cycle
+    @Value("${app.graph.sync-mode:filter}")
+    private String syncMode;
+
+    // In delta mode a full unread sweep still runs this often to catch anything that failed processing
+    @Value("${app.email.reconcile-interval:900000}")
+    private long reconcileInterval;
+
+    private long lastFullSweepTime = 0;
+
+    // Collect processed message IDs and mark them read through Graph $batch after each dispatch
+    @Value("${app.graph.batch-mark-read:true}")
+    private boolean batchMarkRead;
+
+    private final ConcurrentLinkedQueue<String> pendingReadAcks = new ConcurrentLinkedQueue<>();
+
+    // Emails held back for a Claude message batch whose results are in, waiting for the next dispatch
+    private final ConcurrentLinkedQueue<EmailData> releasedBatchEmails = new ConcurrentLinkedQueue<>();
+    // Released emails that were held before a restart, only known by ID
+    private final ConcurrentLinkedQueue<String> releasedBatchEmailIds = new ConcurrentLinkedQueue<>();
+
+    private ExecutorService emailExecutor;
+
+    // Serializes polling sweeps and notification drains so one message is never handled twice
+    private final ReentrantLock cycleLock = new ReentrantLock();
+
+    @PostConstruct
+    public void initExecutor() {
+        if (isPipelineMode()) {
+            emailPipeline = new EmailPipeline(this, pipelineQueueCapacity,
+                    classifyWorkers, createWorkers, notifyWorkers, ackWorkers);
+            emailPipeline.start();
+            System.out.println("Pipelined email processing enabled (classify=" + classifyWorkers + ", create=" + createWorkers
+                    + ", notify=" + notifyWorkers + ", ack=" + ackWorkers + ", queue capacity=" + pipelineQueueCapacity + ")");
+            return;
+        }
+        if (!isConcurrentMode()) {
+            return;
+        }
+
+        // Bounded pool: the limit also caps parallel Claude and service tracker calls
+        AtomicInteger threadCounter = new AtomicInteger(1);
+        emailExecutor = Executors.newFixedThreadPool(processingConcurrency, runnable -> {
+            Thread thread = new Thread(runnable, "email-worker-" + threadCounter.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+        System.out.println("Concurrent email processing enabled with " + processingConcurrency + " workers");
+    }
+
+    @PreDestroy
+    public void shutdownExecutor() {
+        if (emailExecutor != null) {
+            emailExecutor.shutdown();
+        }
+        if (emailPipeline != null) {
+            emailPipeline.stop();
+        }
+    }
+
+    /**
+     * Queue depth and per-stage throughput of the processing pipeline
+     */
+    public Map<String, Object> getPipelineStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("mode", processingMode);
+        if (emailPipeline != null) {
+            stats.putAll(emailPipeline.getStats());
+        }
+        stats.put("emailDeadlineMs", emailDeadlineMs);
+        stats.put("emailDeadlineExceeded", emailDeadlineExceeded.get());
+        if (isAsyncMode()) {
+            stats.put("asyncMaxInFlight", asyncMaxInFlight);
+            stats.put("asyncInFlight", asyncInFlight.get());
+            stats.put("asyncPeakInFlight", asyncPeakInFlight.get());
+        }
+        return stats;
+    }
+
     public void processEmails() {
+        cycleLock.lock();
         try {
             System.out.println("Starting email processing...");
             
@@ -55,94 +212,539 @@ public class EmailProcessorService {
             ensureAuthenticated();
             
             // Get unread emails
-            List<EmailData> emails = outlookService.getUnreadEmails(
-                sessionService.getCurrentSession(), 
-                outlookAuth
-            );
+            List<EmailData> emails;
+            String nextDeltaLink = null;
+            
+            if (isDeltaSync() && System.currentTimeMillis() - lastFullSweepTime < reconcileInterval) {
+                MailboxDelta delta = outlookService.getEmailDelta(
+                    sessionService.getCurrentSession(), 
+                    outlookAuth, 
+                    localStorageService.loadDeltaLink()
+                );
+                emails = delta.getEmails();
+                nextDeltaLink = delta.getDeltaLink();
+            } else {
+                emails = outlookService.getUnreadEmails(
+                    sessionService.getCurrentSession(), 
+                    outlookAuth
+                );
+                lastFullSweepTime = System.currentTimeMillis();
+            }
             
             System.out.println("Found " + emails.size() + " unread emails");
             
-            for (EmailData email : emails) {
-                processIndividualEmail(email);
+            dispatch(emails);
+            
+            // Only advance the cursor once this cycle's emails have been handled
+            if (nextDeltaLink != null) {
+                localStorageService.saveDeltaLink(nextDeltaLink);
             }
+            localStorageService.completeCycle();
             
         } catch (Exception e) {
             System.err.println("Error processing emails: " + e.getMessage());
             e.printStackTrace();
+        } finally {
+            cycleLock.unlock();
         }
     }
-    
-    private void processIndividualEmail(EmailData email) {
+
+    /**
+     * Process messages announced by Graph change notifications.
+     * Returns false without doing anything if a polling sweep currently holds the processor.
+     */
+    public boolean processNotifiedMessages(List<String> messageIds) throws Exception {
+        if (!cycleLock.tryLock()) {
+            return false;
+        }
         try {
-            System.out.println("Processing email from: " + email.getSender() + " - " + email.getSubject());
-            
-            // Check if this is a thread we already know about
-            Map<String, Object> existingMapping = localStorageService.getThreadMapping(email.getConversationId());
-            
-            if (existingMapping != null) {
-                // This is a follow-up to an existing service request
-                handleFollowUpEmail(email, (String) existingMapping.get("sr_id"));
+            ensureAuthenticated();
+
+            List<EmailData> emails = new ArrayList<>();
+            for (String messageId : messageIds) {
+                try {
+                    EmailData email = outlookService.getEmailById(sessionService.getCurrentSession(), outlookAuth, messageId);
+                    if (email != null) {
+                        emails.add(email);
+                    }
+                } catch (Exception e) {
+                    // Left unread, so the reconciliation sweep will pick it up
+                    System.err.println("Error fetching notified message " + messageId + ": " + e.getMessage());
+                }
+            }
+
+            dispatch(emails);
+            localStorageService.completeCycle();
+            return true;
+        } finally {
+            cycleLock.unlock();
+        }
+    }
+
+    /**
+     * Collect the results of submitted Claude message batches, outside the cycle lock so
+     * a slow batch never holds up processing. Results are journaled as CLASSIFIED, then
+     * the conversations held back for the batch are processed.
+     */
+    @Scheduled(fixedDelayString = "${claude.batch.poll-interval:30000}")
+    public void collectBatchResults() {
+        if (!claudeBatchService.hasPendingBatches() && releasedBatchEmails.isEmpty() && releasedBatchEmailIds.isEmpty()) {
+            return;
+        }
+
+        for (ClaudeBatchService.BatchOutcome outcome : claudeBatchService.collectFinished()) {
+            for (Map.Entry<String, Map<String, String>> analysis : outcome.getAnalyses().entrySet()) {
+                workJournal.record(analysis.getKey(), WorkJournal.Stage.CLASSIFIED, null, analysis.getValue());
+            }
+            releasedBatchEmails.addAll(outcome.getHeldEmails());
+            releasedBatchEmailIds.addAll(outcome.getUnloadedHeldIds());
+            System.out.println("Batch " + outcome.getBatchId() + " collected: " + outcome.getAnalyses().size()
+                    + " classifications, " + (outcome.getHeldEmails().size() + outcome.getUnloadedHeldIds().size())
+                    + " held emails released");
+        }
+
+        // A running cycle picks the released emails up in its next dispatch instead
+        if ((releasedBatchEmails.isEmpty() && releasedBatchEmailIds.isEmpty()) || !cycleLock.tryLock()) {
+            return;
+        }
+        try {
+            ensureAuthenticated();
+            dispatch(new ArrayList<>());
+            localStorageService.completeCycle();
+        } catch (Exception e) {
+            System.err.println("Error processing emails released from a Claude batch: " + e.getMessage());
+        } finally {
+            cycleLock.unlock();
+        }
+    }
+
+    private void dispatch(List<EmailData> emails) throws InterruptedException {
+        emails = withReleasedBatchEmails(emails);
+        preClassifyBacklog(emails);
+        emails = holdBackBatched(emails);
+        
+        if (emailPipeline != null) {
+            emailPipeline.process(groupByConversation(emails));
+        } else if (isAsyncMode()) {
+            processAsync(emails);
+        } else if (isConcurrentMode() && emails.size() > 1) {
+            processConcurrently(emails);
+        } else {
+            for (EmailData email : emails) {
+                processIndividualEmail(email);
+            }
+        }
+        flushReadAcks();
+    }
+
+    private List<EmailData> withReleasedBatchEmails(List<EmailData> emails) {
+        List<EmailData> merged = new ArrayList<>(emails);
+        Set<String> ids = new HashSet<>();
+        emails.forEach(email -> ids.add(email.getId()));
+
+        EmailData released;
+        while ((released = releasedBatchEmails.poll()) != null) {
+            // Still unread, so a filter sweep may have listed it again
+            if (ids.add(released.getId())) {
+                merged.add(released);
+            }
+        }
+
+        List<String> unloaded = new ArrayList<>();
+        String messageId;
+        while ((messageId = releasedBatchEmailIds.poll()) != null) {
+            if (!ids.contains(messageId)) {
+                unloaded.add(messageId);
+            }
+        }
+        for (int i = 0; i < unloaded.size(); i++) {
+            try {
+                // Null once read or deleted, i.e. nothing left to do
+                EmailData email = outlookService.getEmailById(sessionService.getCurrentSession(), outlookAuth, unloaded.get(i));
+                if (email != null && ids.add(email.getId())) {
+                    merged.add(email);
+                }
+            } catch (Exception e) {
+                System.err.println("Error fetching email held for a Claude batch, retrying on the next dispatch: " + e.getMessage());
+                releasedBatchEmailIds.addAll(unloaded.subList(i, unloaded.size()));
+                break;
+            }
+        }
+        return merged;
+    }
+
+    /**
+     * Leave out every email whose conversation waits for a Claude batch result; they
+     * stay unread and come back through collectBatchResults()
+     */
+    private List<EmailData> holdBackBatched(List<EmailData> emails) {
+        if (!claudeBatchService.hasPendingBatches()) {
+            return emails;
+        }
+        List<EmailData> ready = new ArrayList<>();
+        for (EmailData email : emails) {
+            if (!claudeBatchService.hold(email)) {
+                ready.add(email);
+            }
+        }
+        if (ready.size() < emails.size()) {
+            System.out.println("Holding " + (emails.size() - ready.size()) + " emails until their Claude batch finishes");
+        }
+        return ready;
+    }
+
+    /**
+     * Classify the first email of every new conversation up front: one Claude message
+     * batch for a large backlog, packed multi-email requests for a handful of emails.
+     * Results are journaled as CLASSIFIED, so classifyEmail() picks them up and SR
+     * creation proceeds without a synchronous Claude call. A batch is only submitted
+     * here; its conversations are held back until collectBatchResults() has its
+     * results. Anything not classified this way is classified one by one as usual.
+     */
+    private void preClassifyBacklog(List<EmailData> emails) {
+        if (!claudeBatchService.shouldUseBatch(emails.size()) && !claudePackingService.shouldPack(emails.size())) {
+            return;
+        }
+        
+        List<EmailData> candidates = new ArrayList<>();
+        for (List<EmailData> conversation : groupByConversation(emails).values()) {
+            // Later emails of the same conversation become follow-ups of the first one's SR
+            EmailData first = conversation.get(0);
+            if (!isAlreadyHandled(first) && workJournal.getAnalysis(first.getId()) == null
+                    && !claudeBatchService.isPending(first) && findExistingServiceRequest(first) == null) {
+                candidates.add(first);
+            }
+        }
+        
+        try {
+            Map<String, Map<String, String>> analyses;
+            if (claudeBatchService.shouldUseBatch(candidates.size())) {
+                // Cache and local hits come back now, the rest once the batch has ended
+                analyses = claudeBatchService.submit(candidates);
+            } else if (claudePackingService.shouldPack(candidates.size())) {
+                // Not enough for a batch, but several short emails can share one request
+                analyses = claudePackingService.classifyAll(candidates);
             } else {
-                // This is a new email that needs to become a service request
-                handleNewEmail(email);
+                return;
             }
-            
-            // Mark email as read
+            for (Map.Entry<String, Map<String, String>> analysis : analyses.entrySet()) {
+                workJournal.record(analysis.getKey(), WorkJournal.Stage.CLASSIFIED, null, analysis.getValue());
+            }
+            System.out.println("Backlog pre-classified: " + analyses.size() + "/" + candidates.size() + " new emails");
+        } catch (Exception e) {
+            System.err.println("Bulk classification failed, classifying individually: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Mark all emails processed in this dispatch as read.
+     */
+    private void flushReadAcks() {
+        List<String> messageIds = new ArrayList<>();
+        String messageId;
+        while ((messageId = pendingReadAcks.poll()) != null) {
+            messageIds.add(messageId);
+        }
+        markRead(messageIds);
+    }
+
+    /**
+     * Mark messages as read in $batch groups of 20 (or one PATCH each when batching is off).
+     * Messages the batch could not update get one individual retry; anything still
+     * failing stays unread and is picked up again as a follow-up of its thread.
+     * Returns the IDs that were marked read.
+     */
+    List<String> markRead(List<String> messageIds) {
+        List<String> marked = new ArrayList<>();
+        if (messageIds.isEmpty()) {
+            return marked;
+        }
+
+        try {
+            Map<String, Boolean> results = new LinkedHashMap<>();
+            if (batchMarkRead) {
+                results = outlookService.markAsReadBatch(
+                    sessionService.getCurrentSession(), 
+                    outlookAuth, 
+                    messageIds
+                );
+            } else {
+                for (String id : messageIds) {
+                    results.put(id, false);
+                }
+            }
+
+            for (Map.Entry<String, Boolean> result : results.entrySet()) {
+                if (result.getValue()) {
+                    marked.add(result.getKey());
+                    continue;
+                }
+                try {
+                    outlookService.markAsRead(sessionService.getCurrentSession(), outlookAuth, result.getKey());
+                    marked.add(result.getKey());
+                } catch (Exception e) {
+                    System.err.println("❌ Failed to mark email " + result.getKey() + " as read: " + e.getMessage());
+                }
+            }
+
+            if (batchMarkRead) {
+                int batches = (messageIds.size() + 19) / 20;
+                System.out.println("Marked " + marked.size() + "/" + messageIds.size() + " emails as read via " + batches + " $batch request(s)");
+            }
+        } catch (Exception e) {
+            System.err.println("Error marking emails as read: " + e.getMessage());
+        }
+        
+        for (String id : marked) {
+            workJournal.record(id, WorkJournal.Stage.ACKNOWLEDGED, null, null);
+        }
+        return marked;
+    }
+
+    /**
+     * Process independent conversations in parallel while keeping the emails of
+     * one conversation in arrival order, so a follow-up never races the SR
+     * creation for its own thread.
+     */
+    private void processConcurrently(List<EmailData> emails) throws InterruptedException {
+        Map<String, List<EmailData>> conversations = groupByConversation(emails);
+        System.out.println("Processing " + emails.size() + " emails across " + conversations.size()
+                + " conversations with " + processingConcurrency + " workers");
+
+        List<Future<?>> futures = new ArrayList<>();
+        for (List<EmailData> conversation : conversations.values()) {
+            futures.add(emailExecutor.submit(() -> {
+                for (EmailData email : conversation) {
+                    processIndividualEmail(email);
+                }
+            }));
+        }
+
+        for (Future<?> future : futures) {
+            try {
+                future.get();
+            } catch (ExecutionException e) {
+                System.err.println("Error in conversation worker: " + e.getCause().getMessage());
+            }
+        }
+    }
+
+    /**
+     * Run every conversation as a chain of non-blocking calls: the HTTP client's few
+     * executor threads carry all of them, so hundreds of emails can wait on Claude, the
+     * service tracker and Graph at once. Emails of one conversation stay in order.
+     */
+    private void processAsync(List<EmailData> emails) throws InterruptedException {
+        Map<String, List<EmailData>> conversations = groupByConversation(emails);
+        System.out.println("Processing " + emails.size() + " emails across " + conversations.size()
+                + " conversations asynchronously (max " + asyncMaxInFlight + " in flight)");
+
+        Semaphore permits = new Semaphore(Math.max(1, asyncMaxInFlight));
+        List<CompletableFuture<Void>> chains = new ArrayList<>();
+        for (List<EmailData> conversation : conversations.values()) {
+            permits.acquire();
+            asyncPeakInFlight.accumulateAndGet(asyncInFlight.incrementAndGet(), Math::max);
+
+            CompletableFuture<Void> chain = CompletableFuture.completedFuture(null);
+            for (EmailData email : conversation) {
+                chain = chain.thenCompose(ignored -> processIndividualEmailAsync(email));
+            }
+            chains.add(chain.whenComplete((ignored, error) -> {
+                asyncInFlight.decrementAndGet();
+                permits.release();
+            }));
+        }
+
+        try {
+            CompletableFuture.allOf(chains.toArray(new CompletableFuture<?>[0])).get();
+        } catch (ExecutionException e) {
+            // Chains handle their own errors; this is only reached on a bug
+            System.err.println("Error in async conversation chain: " + e.getCause().getMessage());
+        }
+    }
+
+    /**
+     * Group emails by conversation ID, oldest first. Emails without a
+     * conversation ID are treated as their own conversation.
+     */
+    private Map<String, List<EmailData>> groupByConversation(List<EmailData> emails) {
+        List<EmailData> ordered = new ArrayList<>(emails);
+        // ISO-8601 UTC timestamps sort lexicographically; stable sort keeps Graph order for ties
+        ordered.sort(Comparator.comparing(EmailData::getReceivedDateTime,
+                Comparator.nullsLast(Comparator.naturalOrder())));
+
+        Map<String, List<EmailData>> conversations = new LinkedHashMap<>();
+        for (EmailData email : ordered) {
+            conversations.computeIfAbsent(conversationKey(email), k -> new ArrayList<>()).add(email);
+        }
+        return conversations;
+    }
+
+    static String conversationKey(EmailData email) {
+        return email.getConversationId() != null ? email.getConversationId() : email.getId();
+    }
+
+    private boolean isDeltaSync() {
+        return "delta".equalsIgnoreCase(syncMode);
+    }
+
+    private boolean isPipelineMode() {
+        return "pipeline".equalsIgnoreCase(processingMode);
+    }
+
+    private boolean isAsyncMode() {
+        return "async".equalsIgnoreCase(processingMode);
+    }
+
+    private boolean isConcurrentMode() {
+        return "concurrent".equalsIgnoreCase(processingMode) && processingConcurrency > 1;
+    }
+    
+    private void processIndividualEmail(EmailData email) {
+        long deadlineAt = newEmailDeadline();
+        try {
+            RequestDeadline.until(deadlineAt > 0 ? deadlineAt : Long.MAX_VALUE, () -> {
+                handleIndividualEmail(email);
+                return null;
+            });
+        } catch (Exception e) {
+            recordDeadlineIfExceeded(deadlineAt);
+            System.err.println("Error processing individual email: " + e.getMessage());
+        }
+    }
+
+    private void handleIndividualEmail(EmailData email) throws Exception {
+        System.out.println("Processing email from: " + email.getSender() + " - " + email.getSubject());
+        
+        // Check if this is a thread we already know about
+        String existingSrId = findExistingServiceRequest(email);
+        
+        if (isAlreadyHandled(email)) {
+            // Finished before a restart but never marked read - only the acknowledgement is left
+            System.out.println("Email already handled according to work journal, acknowledging only");
+        } else if (existingSrId != null) {
+            // This is a follow-up to an existing service request
+            handleFollowUpEmail(email, existingSrId);
+        } else {
+            // This is a new email that needs to become a service request
+            handleNewEmail(email);
+        }
+        
+        // Mark email as read
+        if (batchMarkRead) {
+            pendingReadAcks.add(email.getId());
+        } else {
             outlookService.markAsRead(
                 sessionService.getCurrentSession(), 
                 outlookAuth, 
                 email.getId()
             );
-            
-        } catch (Exception e) {
-            System.err.println("Error processing individual email: " + e.getMessage());
+            workJournal.record(email.getId(), WorkJournal.Stage.ACKNOWLEDGED, null, null);
+        }
+    }
+
+    /**
+     * Deadline for an email whose processing starts now, 0 if there is none
+     */
+    long newEmailDeadline() {
+        return emailDeadlineMs > 0 ? System.currentTimeMillis() + emailDeadlineMs : 0;
+    }
+
+    void recordDeadlineIfExceeded(long deadlineAt) {
+        if (deadlineAt > 0 && System.currentTimeMillis() >= deadlineAt) {
+            emailDeadlineExceeded.incrementAndGet();
         }
     }
     
-    private void handleNewEmail(EmailData email) throws Exception {
-        String srId = null;
-        
+    /**
+     * Non-blocking processIndividualEmail; the returned future never fails. Async calls run
+     * on other threads, so the thread-bound RequestDeadline can't cover them. Instead, once
+     * the deadline passes no further stage is started, and the returned future still waits
+     * for the stage in flight to settle: an SR that is being created gets journaled and
+     * mapped before the next email of the conversation is looked at, so that email becomes
+     * a follow-up rather than a second SR. Whatever was skipped resumes from the journal.
+     */
+    private CompletableFuture<Void> processIndividualEmailAsync(EmailData email) {
+        System.out.println("Processing email from: " + email.getSender() + " - " + email.getSubject());
+        long deadlineAt = newEmailDeadline();
+
+        CompletableFuture<Void> handled;
         try {
-            System.out.println("Starting Claude AI analysis...");
-            // Analyze email with Claude AI
-            Map<String, String> analysis = claudeService.analyzeEmail(email.getBody(), email.getSubject());
-            System.out.println("Claude AI analysis completed: " + analysis);
-            
-            // Create service request
-            System.out.println("Getting authentication token for service tracker...");
-            String authToken = authService.getValidToken(email.getSender());
-            System.out.println("Authentication token obtained: " + (authToken != null ? "SUCCESS" : "FAILED"));
-            
-            if (authToken == null) {
-                throw new RuntimeException("Failed to obtain authentication token for: " + email.getSender());
+            String existingSrId = findExistingServiceRequest(email);
+
+            if (isAlreadyHandled(email)) {
+                System.out.println("Email already handled according to work journal, acknowledging only");
+                handled = CompletableFuture.completedFuture(null);
+            } else if (existingSrId != null) {
+                handled = handleFollowUpEmailAsync(email, existingSrId);
+            } else {
+                handled = handleNewEmailAsync(email, deadlineAt);
             }
-            
-            System.out.println("Creating service request...");
-            srId = serviceRequestService.createServiceRequest(
-                analysis.get("category"),
-                analysis.get("type"),
-                analysis.get("department"),
-                analysis.get("subject"),
-                analysis.get("description"),
-                analysis.get("priority"),
-                email.getSender()
-            );
-            System.out.println("Service request created with ID: " + srId);
-            
-            // Save thread mapping locally
-            localStorageService.saveThreadMapping(
-                email.getConversationId(), 
-                srId, 
-                email.getSender(), 
-                email.getSubject()
-            );
-            
-            // Send Slack notification
-            slackService.sendSlackNotification(
-                srId, 
-                "New service request created from email: " + email.getSubject(), 
-                null
-            );
+        } catch (Exception e) {
+            handled = CompletableFuture.failedFuture(e);
+        }
+
+        CompletableFuture<Void> processed = handled.thenCompose(ignored ->
+                beforeDeadline(deadlineAt, "acknowledgement", () -> acknowledgeAsync(email)));
+        CompletableFuture<Void> timed = deadlineAt > 0
+                ? processed.copy().orTimeout(emailDeadlineMs, TimeUnit.MILLISECONDS)
+                : processed;
+        return timed.handle((ignored, error) -> {
+            if (error == null) {
+                return CompletableFuture.<Void>completedFuture(null);
+            }
+            Throwable cause = AsyncUtils.unwrap(error);
+            if (!(cause instanceof TimeoutException)) {
+                System.err.println("Error processing individual email: " + cause.getMessage());
+                return CompletableFuture.<Void>completedFuture(null);
+            }
+            emailDeadlineExceeded.incrementAndGet();
+            System.err.println("Error processing individual email: deadline of " + emailDeadlineMs
+                    + "ms exceeded" + (processed.isDone() ? "" : ", waiting for the call in flight to settle"));
+            return processed.handle((settled, late) -> {
+                Throwable lateCause = late != null ? AsyncUtils.unwrap(late) : null;
+                if (lateCause != null && !(lateCause instanceof TimeoutException)) {
+                    System.err.println("Call in flight for timed-out email " + email.getId() + " failed: " + lateCause.getMessage());
+                }
+                return (Void) null;
+            });
+        }).thenCompose(settled -> settled);
+    }
+
+    /**
+     * Start the next stage of an async email, or fail with a TimeoutException if its deadline has passed
+     */
+    private static <T> CompletableFuture<T> beforeDeadline(long deadlineAt, String stage,
+                                                           Supplier<CompletableFuture<T>> next) {
+        if (deadlineAt > 0 && System.currentTimeMillis() >= deadlineAt) {
+            return CompletableFuture.failedFuture(new TimeoutException("Deadline passed before " + stage));
+        }
+        return next.get();
+    }
+
+    private CompletableFuture<Void> acknowledgeAsync(EmailData email) {
+        if (batchMarkRead) {
+            pendingReadAcks.add(email.getId());
+            return CompletableFuture.completedFuture(null);
+        }
+        return outlookService.markAsReadAsync(sessionService.getCurrentSession(), outlookAuth, email.getId())
+                .thenRun(() -> workJournal.record(email.getId(), WorkJournal.Stage.ACKNOWLEDGED, null, null));
+    }
+
+    private CompletableFuture<Void> handleNewEmailAsync(EmailData email, long deadlineAt) {
+        return classifyEmailAsync(email)
+                .thenCompose(analysis -> beforeDeadline(deadlineAt, "service request creation",
+                        () -> createServiceRequestForAsync(email, analysis)))
+                .thenCompose(srId -> beforeDeadline(deadlineAt, "notification",
+                        () -> notifyNewServiceRequestAsync(email, srId))
+                        .thenRun(() -> System.out.println("Created new service request: " + srId)));
+    }
+
+    private void handleNewEmail(EmailData email) throws Exception {
+        try {
+            Map<String, String> analysis = classifyEmail(email);
+            String srId = createServiceRequestFor(email, analysis);
+            notifyNewServiceRequest(email, srId);
             
             System.out.println("Created new service request: " + srId);
             
@@ -153,7 +755,168 @@ public class EmailProcessorService {
         }
     }
     
-    private void handleFollowUpEmail(EmailData email, String srId) throws Exception {
+    // ----------------- Processing steps (shared by the inline path and EmailPipeline) -----------------
+    
+    /**
+     * True if the work journal shows this email was fully handled (notified) before
+     */
+    boolean isAlreadyHandled(EmailData email) {
+        return workJournal.hasReached(email.getId(), WorkJournal.Stage.NOTIFIED);
+    }
+    
+    /**
+     * SR ID already mapped to this email's conversation, or null for a new thread
+     */
+    String findExistingServiceRequest(EmailData email) {
+        if (workJournal.getAnalysis(email.getId()) != null) {
+            // Resuming this email as a new request - its own SR must not make it look like a follow-up
+            return null;
+        }
+        Map<String, Object> existingMapping = localStorageService.getThreadMapping(email.getConversationId());
+        return existingMapping != null ? (String) existingMapping.get("srId") : null;
+    }
+    
+    Map<String, String> classifyEmail(EmailData email) throws Exception {
+        Map<String, String> journaled = workJournal.getAnalysis(email.getId());
+        if (journaled != null) {
+            System.out.println("Reusing journaled analysis, skipping Claude call");
+            return journaled;
+        }
+        
+        System.out.println("Starting Claude AI analysis...");
+        // Analyze email with Claude AI
+        Map<String, String> analysis = claudeService.analyzeEmail(email.getBody(), email.getSubject());
+        System.out.println("Claude AI analysis completed: " + analysis);
+        workJournal.record(email.getId(), WorkJournal.Stage.CLASSIFIED, null, analysis);
+        return analysis;
+    }
+    
+    private CompletableFuture<Map<String, String>> classifyEmailAsync(EmailData email) {
+        Map<String, String> journaled = workJournal.getAnalysis(email.getId());
+        if (journaled != null) {
+            System.out.println("Reusing journaled analysis, skipping Claude call");
+            return CompletableFuture.completedFuture(journaled);
+        }
+
+        return claudeService.analyzeEmailAsync(email.getBody(), email.getSubject()).thenApply(analysis -> {
+            System.out.println("Claude AI analysis completed: " + analysis);
+            workJournal.record(email.getId(), WorkJournal.Stage.CLASSIFIED, null, analysis);
+            return analysis;
+        });
+    }
+
+    String createServiceRequestFor(EmailData email, Map<String, String> analysis) throws Exception {
+        String journaledSrId = workJournal.getSrId(email.getId());
+        if (journaledSrId != null) {
+            System.out.println("Service request " + journaledSrId + " already created for this email, skipping creation");
+            localStorageService.saveThreadMapping(email.getConversationId(), journaledSrId, email.getSender(), email.getSubject());
+            return journaledSrId;
+        }
+        
+        // Create service request
+        System.out.println("Getting authentication token for service tracker...");
+        String authToken = authService.getValidToken(email.getSender());
+        System.out.println("Authentication token obtained: " + (authToken != null ? "SUCCESS" : "FAILED"));
+        
+        if (authToken == null) {
+            throw new RuntimeException("Failed to obtain authentication token for: " + email.getSender());
+        }
+        
+        System.out.println("Creating service request...");
+        String srId = serviceRequestService.createServiceRequest(
+            analysis.get("category"),
+            analysis.get("type"),
+            analysis.get("department"),
+            analysis.get("subject"),
+            analysis.get("description"),
+            analysis.get("priority"),
+            email.getSender()
+        );
+        System.out.println("Service request created with ID: " + srId);
+        recordServiceRequest(email, analysis, srId);
+        return srId;
+    }
+
+    private CompletableFuture<String> createServiceRequestForAsync(EmailData email, Map<String, String> analysis) {
+        String journaledSrId = workJournal.getSrId(email.getId());
+        if (journaledSrId != null) {
+            System.out.println("Service request " + journaledSrId + " already created for this email, skipping creation");
+            localStorageService.saveThreadMapping(email.getConversationId(), journaledSrId, email.getSender(), email.getSubject());
+            return CompletableFuture.completedFuture(journaledSrId);
+        }
+
+        return authService.getValidTokenAsync(email.getSender())
+                .thenCompose(authToken -> {
+                    System.out.println("Authentication token obtained: " + (authToken != null ? "SUCCESS" : "FAILED"));
+                    if (authToken == null) {
+                        return CompletableFuture.<String>failedFuture(
+                                new RuntimeException("Failed to obtain authentication token for: " + email.getSender()));
+                    }
+                    return serviceRequestService.createServiceRequestAsync(
+                        analysis.get("category"),
+                        analysis.get("type"),
+                        analysis.get("department"),
+                        analysis.get("subject"),
+                        analysis.get("description"),
+                        analysis.get("priority"),
+                        email.getSender()
+                    );
+                })
+                .thenApply(srId -> {
+                    System.out.println("Service request created with ID: " + srId);
+                    recordServiceRequest(email, analysis, srId);
+                    return srId;
+                });
+    }
+
+    private void recordServiceRequest(EmailData email, Map<String, String> analysis, String srId) {
+        // Journal first: from here on a crash must never lead to a second SR
+        workJournal.record(email.getId(), WorkJournal.Stage.SR_CREATED, srId, null);
+        
+        // Save thread mapping locally
+        localStorageService.saveThreadMapping(
+            email.getConversationId(), 
+            srId, 
+            email.getSender(), 
+            email.getSubject()
+        );
+        
+        if (ClaudeService.needsReclassification(analysis)) {
+            localStorageService.flagForReclassification(srId, reclassificationDetails(email, analysis));
+        }
+    }
+    
+    private Map<String, Object> reclassificationDetails(EmailData email, Map<String, String> analysis) {
+        Map<String, Object> details = new HashMap<>();
+        details.put("emailId", email.getId());
+        details.put("sender", email.getSender());
+        details.put("subject", email.getSubject());
+        details.put("body", email.getBody());
+        details.put("category", analysis.get("category"));
+        details.put("type", analysis.get("type"));
+        details.put("flaggedAt", Instant.now().toString());
+        return details;
+    }
+    
+    void notifyNewServiceRequest(EmailData email, String srId) throws Exception {
+        // Send Slack notification
+        slackService.sendSlackNotification(
+            srId, 
+            "New service request created from email: " + email.getSubject(), 
+            null
+        );
+        workJournal.record(email.getId(), WorkJournal.Stage.NOTIFIED, srId, null);
+    }
+    
+    private CompletableFuture<Void> notifyNewServiceRequestAsync(EmailData email, String srId) {
+        return slackService.sendSlackNotificationAsync(
+            srId, 
+            "New service request created from email: " + email.getSubject(), 
+            null
+        ).thenRun(() -> workJournal.record(email.getId(), WorkJournal.Stage.NOTIFIED, srId, null));
+    }
+    
+    void handleFollowUpEmail(EmailData email, String srId) throws Exception {
         System.out.println("Processing follow-up email for SR: " + srId);
         
         // Add comment to existing service request
@@ -165,6 +928,16 @@ public class EmailProcessorService {
             "Follow-up received from " + email.getSender() + ": " + email.getSubject(), 
             null
         );
+        workJournal.record(email.getId(), WorkJournal.Stage.NOTIFIED, srId, null);
+    }
+    
+    private CompletableFuture<Void> handleFollowUpEmailAsync(EmailData email, String srId) {
+        System.out.println("Processing follow-up email for SR: " + srId);
+        return slackService.sendSlackNotificationAsync(
+            srId, 
+            "Follow-up received from " + email.getSender() + ": " + email.getSubject(), 
+            null
+        ).thenRun(() -> workJournal.record(email.getId(), WorkJournal.Stage.NOTIFIED, srId, null));
     }
     
     private void ensureAuthenticated() throws Exception {
@@ -1,5 +1,6 @@
 package com.servicerequest.emailbot.service.core;
 
+import com.servicerequest.emailbot.service.outlook.GraphSubscriptionService;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.scheduling.annotation.Scheduled;
@@ -11,10 +12,18 @@ public class EmailSchedulerService {
     @Autowired
     private EmailProcessorService emailProcessorService;
     
+    @Autowired
+    private GraphSubscriptionService subscriptionService;
+    
     @Value("${app.email.check-interval:30000}")
     private long checkInterval;
     
-    private boolean isProcessing = false;
+    // With Graph notifications enabled, polling only runs as a slow reconciliation sweep
+    @Value("${app.email.reconcile-interval:900000}")
+    private long reconcileInterval;
+    
+    private volatile boolean isProcessing = false;
+    private long lastCheckTime = 0;
     
     @Scheduled(fixedDelayString = "${app.email.check-interval:30000}")
     public void scheduleEmailCheck() {
@@ -23,8 +32,14 @@ public class EmailSchedulerService {
             return;
         }
         
+        if (subscriptionService.isEnabled() && lastCheckTime > 0
+                && System.currentTimeMillis() - lastCheckTime < reconcileInterval) {
+            return;
+        }
+        
         try {
             isProcessing = true;
+            lastCheckTime = System.currentTimeMillis();
             System.out.println("Scheduled email check starting...");
             emailProcessorService.processEmails();
             System.out.println("Scheduled email check completed");
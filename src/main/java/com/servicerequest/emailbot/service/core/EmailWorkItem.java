@@ -0,0 +1,71 @@
+package com.servicerequest.emailbot.service.core;
+
+import com.servicerequest.emailbot.model.EmailData;
+
+import java.util.Map;
+
+/**
+ * One email travelling through the processing stages, carrying what each
+ * stage produced for the next one.
+ */
+public class EmailWorkItem {
+    private final EmailData email;
+    private Map<String, String> analysis;
+    private String srId;
+    private boolean followUp;
+    private Exception failure;
+    // Set when the classify stage picks the email up, 0 until then (or without a deadline)
+    private long deadlineAt;
+
+    public EmailWorkItem(EmailData email) {
+        this.email = email;
+    }
+
+    public EmailData getEmail() {
+        return email;
+    }
+
+    public Map<String, String> getAnalysis() {
+        return analysis;
+    }
+
+    public void setAnalysis(Map<String, String> analysis) {
+        this.analysis = analysis;
+    }
+
+    public String getSrId() {
+        return srId;
+    }
+
+    public void setSrId(String srId) {
+        this.srId = srId;
+    }
+
+    public boolean isFollowUp() {
+        return followUp;
+    }
+
+    public void setFollowUp(boolean followUp) {
+        this.followUp = followUp;
+    }
+
+    public Exception getFailure() {
+        return failure;
+    }
+
+    public void setFailure(Exception failure) {
+        this.failure = failure;
+    }
+
+    public long getDeadlineAt() {
+        return deadlineAt;
+    }
+
+    public void setDeadlineAt(long deadlineAt) {
+        this.deadlineAt = deadlineAt;
+    }
+
+    public boolean isFailed() {
+        return failure != null;
+    }
+}
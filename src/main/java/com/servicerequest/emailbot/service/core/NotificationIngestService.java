@@ -0,0 +1,66 @@
+package com.servicerequest.emailbot.service.core;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * Queue of message IDs announced by Graph change notifications.
+ * The webhook only enqueues (Graph expects a reply within a few seconds);
+ * a short fixed-delay drain hands the IDs to EmailProcessorService.
+ */
+@Service
+public class NotificationIngestService {
+
+    @Autowired
+    private EmailProcessorService emailProcessorService;
+
+    @Value("${app.graph.notifications.max-drain-size:50}")
+    private int maxDrainSize;
+
+    private final LinkedBlockingQueue<String> pendingMessageIds = new LinkedBlockingQueue<>();
+    // Graph may deliver the same notification more than once
+    private final Set<String> queuedMessageIds = ConcurrentHashMap.newKeySet();
+
+    public boolean enqueue(String messageId) {
+        if (messageId == null || messageId.isBlank() || !queuedMessageIds.add(messageId)) {
+            return false;
+        }
+        pendingMessageIds.offer(messageId);
+        return true;
+    }
+
+    public int getQueueSize() {
+        return pendingMessageIds.size();
+    }
+
+    @Scheduled(fixedDelayString = "${app.graph.notifications.drain-interval:2000}")
+    public void drainNotifications() {
+        if (pendingMessageIds.isEmpty()) {
+            return;
+        }
+
+        List<String> batch = new ArrayList<>();
+        pendingMessageIds.drainTo(batch, maxDrainSize);
+
+        try {
+            System.out.println("Processing " + batch.size() + " messages from Graph notifications");
+            if (!emailProcessorService.processNotifiedMessages(batch)) {
+                // A polling cycle holds the processor - retry on the next drain
+                batch.forEach(pendingMessageIds::offer);
+                return;
+            }
+        } catch (Exception e) {
+            System.err.println("Error processing notified messages: " + e.getMessage());
+        }
+
+        batch.forEach(queuedMessageIds::remove);
+    }
+}
@@ -0,0 +1,133 @@
+package com.servicerequest.emailbot.service.core;
+
+import com.servicerequest.emailbot.service.LocalStorageService;
+import com.servicerequest.emailbot.service.ai.ClaudeCircuitBreaker;
+import com.servicerequest.emailbot.service.ai.ClaudeService;
+import com.servicerequest.emailbot.service.comments.CommentsService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Catches up on SRs that were created from a local fallback classification while the
+ * Claude circuit was open. Once Claude answers normally again, each flagged email is
+ * classified properly; if the result differs, a comment on the SR records the
+ * corrected category and type for the service desk. An email Claude can't classify is
+ * skipped and retried on later runs, up to max-attempts.
+ */
+@Service
+public class ReclassificationService {
+
+    @Autowired
+    private ClaudeService claudeService;
+
+    @Autowired
+    private ClaudeCircuitBreaker circuitBreaker;
+
+    @Autowired
+    private LocalStorageService localStorageService;
+
+    @Autowired
+    private CommentsService commentsService;
+
+    @Value("${app.reclassification.enabled:true}")
+    private boolean enabled;
+
+    // Flagged SRs handled per run, so catching up does not crowd out new emails
+    @Value("${app.reclassification.batch-size:20}")
+    private int batchSize;
+
+    // Runs an email may fail to get a Claude result in before it is dropped from the list
+    @Value("${app.reclassification.max-attempts:5}")
+    private int maxAttempts;
+
+    private static final String ATTEMPTS = "attempts";
+
+    private final AtomicLong reclassified = new AtomicLong();
+    private final AtomicLong corrected = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong abandoned = new AtomicLong();
+
+    @Scheduled(fixedDelayString = "${app.reclassification.interval:300000}",
+               initialDelayString = "${app.reclassification.interval:300000}")
+    public void reclassifyFlagged() {
+        if (!enabled || !circuitBreaker.isClosed()) {
+            return;
+        }
+
+        Map<String, Map<String, Object>> pending = localStorageService.getPendingReclassifications();
+        if (pending.isEmpty()) {
+            return;
+        }
+        System.out.println("🔁 Re-classifying " + Math.min(batchSize, pending.size()) + " of "
+                + pending.size() + " SRs created during a Claude outage");
+
+        int handled = 0;
+        for (Map.Entry<String, Map<String, Object>> entry : pending.entrySet()) {
+            if (handled++ >= batchSize) {
+                break;
+            }
+            String srId = entry.getKey();
+            Map<String, Object> details = entry.getValue();
+
+            try {
+                Map<String, String> analysis = claudeService.reclassifyEmail(
+                        (String) details.get("body"), (String) details.get("subject"));
+                if (ClaudeService.needsReclassification(analysis)) {
+                    if (!circuitBreaker.isClosed()) {
+                        // Claude is degraded again - keep the rest for the next run
+                        break;
+                    }
+                    // Only this email failed; the ones behind it still get their turn
+                    recordFailedAttempt(srId, details, "no Claude result");
+                    continue;
+                }
+
+                if (!analysis.get("category").equals(details.get("category"))
+                        || !analysis.get("type").equals(details.get("type"))) {
+                    commentsService.addComment(srId,
+                            "Re-classified after AI outage: " + analysis.get("category") + " / " + analysis.get("type")
+                                    + " (was " + details.get("category") + " / " + details.get("type") + ")",
+                            (String) details.get("sender"));
+                    corrected.incrementAndGet();
+                    System.out.println("🔁 SR " + srId + " re-classified as " + analysis.get("category") + " / " + analysis.get("type"));
+                }
+                localStorageService.clearReclassification(srId);
+                reclassified.incrementAndGet();
+            } catch (Exception e) {
+                recordFailedAttempt(srId, details, e.getMessage());
+            }
+        }
+    }
+
+    private void recordFailedAttempt(String srId, Map<String, Object> details, String reason) {
+        failed.incrementAndGet();
+        int attempts = details.get(ATTEMPTS) instanceof Number number ? number.intValue() + 1 : 1;
+        if (attempts >= maxAttempts) {
+            abandoned.incrementAndGet();
+            localStorageService.clearReclassification(srId);
+            System.err.println("Giving up re-classifying SR " + srId + " after " + attempts + " attempts: " + reason);
+            return;
+        }
+        Map<String, Object> updated = new LinkedHashMap<>(details);
+        updated.put(ATTEMPTS, attempts);
+        localStorageService.flagForReclassification(srId, updated);
+        System.err.println("Failed to re-classify SR " + srId + " (attempt " + attempts + "): " + reason);
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("enabled", enabled);
+        stats.put("pending", localStorageService.getPendingReclassifications().size());
+        stats.put("reclassified", reclassified.get());
+        stats.put("corrected", corrected.get());
+        stats.put("failed", failed.get());
+        stats.put("abandoned", abandoned.get());
+        return stats;
+    }
+}
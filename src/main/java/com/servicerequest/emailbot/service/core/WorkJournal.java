@@ -0,0 +1,269 @@
+package com.servicerequest.emailbot.service.core;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Durable record of each message's progress through the processing stages, keyed by
+ * Graph message ID. Appends go to data/work_journal.log and are group-committed: a
+ * writer that finds an fsync in progress waits for it and is usually covered by the
+ * next one, so concurrent workers share fsyncs instead of paying one each.
+ * On restart the journal is replayed so finished work (Claude calls, SR creation,
+ * notifications) is skipped rather than repeated. The journal is compacted at startup
+ * and every app.journal.compact-interval, so neither the file nor the index grows
+ * without bound in a long-running process.
+ */
+@Service
+public class WorkJournal {
+
+    public enum Stage {
+        CLASSIFIED, SR_CREATED, NOTIFIED, ACKNOWLEDGED
+    }
+
+    @Value("${app.storage.directory:data/}")
+    private String dataDirectory;
+
+    // Acknowledged entries are kept this long so a message that reappears is recognized
+    @Value("${app.journal.retention-hours:72}")
+    private long retentionHours;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+
+    private final Object appendLock = new Object();
+    private final Object syncLock = new Object();
+    private Path journalFile;
+    private FileChannel channel;
+    private long appendedSeq = 0;
+    private long syncedSeq = 0;
+
+    private final AtomicLong recordsWritten = new AtomicLong();
+    private final AtomicLong fsyncs = new AtomicLong();
+    private final AtomicLong compactions = new AtomicLong();
+
+    @PostConstruct
+    public void open() throws IOException {
+        journalFile = Paths.get(dataDirectory, "work_journal.log");
+        Files.createDirectories(journalFile.getParent());
+
+        replay(journalFile);
+        compact();
+
+        channel = FileChannel.open(journalFile, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        System.out.println("Work journal loaded: " + entries.size() + " tracked messages");
+    }
+
+    /**
+     * Drop acknowledged entries past retention and rewrite the journal while running.
+     * Appends wait for the rewrite and then go to the new file.
+     */
+    @Scheduled(fixedDelayString = "${app.journal.compact-interval:3600000}",
+               initialDelayString = "${app.journal.compact-interval:3600000}")
+    public void compactPeriodically() {
+        // Same lock order as append(): syncLock, then appendLock
+        synchronized (syncLock) {
+            synchronized (appendLock) {
+                int before = entries.size();
+                try {
+                    // Everything appended so far must be durable before the old file goes away
+                    channel.force(false);
+                    compact();
+                    FileChannel previous = channel;
+                    channel = FileChannel.open(journalFile, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+                    previous.close();
+                    syncedSeq = appendedSeq;
+                    System.out.println("Work journal compacted: " + entries.size() + " tracked messages ("
+                            + (before - entries.size()) + " pruned)");
+                } catch (IOException e) {
+                    // The old channel stays in use if it could not be replaced
+                    System.err.println("Failed to compact work journal: " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    @PreDestroy
+    public void close() throws IOException {
+        if (channel != null) {
+            channel.force(false);
+            channel.close();
+        }
+    }
+
+    /**
+     * Record that a message completed a stage. Returns once the record is on disk.
+     */
+    public void record(String messageId, Stage stage, String srId, Map<String, String> analysis) {
+        Entry entry = entries.computeIfAbsent(messageId, id -> new Entry());
+        synchronized (entry) {
+            if (entry.stage == null || stage.compareTo(entry.stage) > 0) {
+                entry.stage = stage;
+            }
+            if (srId != null) {
+                entry.srId = srId;
+            }
+            if (analysis != null) {
+                entry.analysis = analysis;
+            }
+            entry.updatedAt = System.currentTimeMillis();
+        }
+
+        Map<String, Object> line = new LinkedHashMap<>();
+        line.put("messageId", messageId);
+        line.put("stage", stage.name());
+        line.put("srId", srId);
+        line.put("analysis", analysis);
+        line.put("ts", entry.updatedAt);
+
+        try {
+            append((objectMapper.writeValueAsString(line) + "\n").getBytes(StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            // The in-memory state is still updated; only crash recovery for this message is lost
+            System.err.println("Failed to write work journal: " + e.getMessage());
+        }
+    }
+
+    public boolean hasReached(String messageId, Stage stage) {
+        Entry entry = entries.get(messageId);
+        return entry != null && entry.stage != null && entry.stage.compareTo(stage) >= 0;
+    }
+
+    public Map<String, String> getAnalysis(String messageId) {
+        Entry entry = entries.get(messageId);
+        return entry != null ? entry.analysis : null;
+    }
+
+    public String getSrId(String messageId) {
+        Entry entry = entries.get(messageId);
+        return entry != null ? entry.srId : null;
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        long records = recordsWritten.get();
+        long syncs = fsyncs.get();
+        stats.put("trackedMessages", entries.size());
+        stats.put("recordsWritten", records);
+        stats.put("fsyncs", syncs);
+        stats.put("recordsPerFsync", syncs == 0 ? 0.0 : (double) records / syncs);
+        stats.put("compactions", compactions.get());
+        return stats;
+    }
+
+    private void append(byte[] bytes) throws IOException {
+        long seq;
+        synchronized (appendLock) {
+            ByteBuffer buffer = ByteBuffer.wrap(bytes);
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            seq = ++appendedSeq;
+        }
+        recordsWritten.incrementAndGet();
+
+        synchronized (syncLock) {
+            if (syncedSeq >= seq) {
+                // Another writer's fsync already covered this record
+                return;
+            }
+            long target;
+            synchronized (appendLock) {
+                target = appendedSeq;
+            }
+            channel.force(false);
+            syncedSeq = target;
+            fsyncs.incrementAndGet();
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void replay(Path journalFile) throws IOException {
+        if (!Files.exists(journalFile)) {
+            return;
+        }
+
+        try (BufferedReader reader = Files.newBufferedReader(journalFile, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isBlank()) {
+                    continue;
+                }
+                try {
+                    JsonNode json = objectMapper.readTree(line);
+                    Entry entry = entries.computeIfAbsent(json.get("messageId").asText(), id -> new Entry());
+                    Stage stage = Stage.valueOf(json.get("stage").asText());
+                    if (entry.stage == null || stage.compareTo(entry.stage) > 0) {
+                        entry.stage = stage;
+                    }
+                    if (json.hasNonNull("srId")) {
+                        entry.srId = json.get("srId").asText();
+                    }
+                    if (json.hasNonNull("analysis")) {
+                        entry.analysis = objectMapper.convertValue(json.get("analysis"), HashMap.class);
+                    }
+                    entry.updatedAt = json.path("ts").asLong();
+                } catch (Exception e) {
+                    // A torn final line from a crash mid-append - everything before it is intact
+                    System.err.println("Skipping unreadable work journal line: " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    /**
+     * Rewrite the journal with one line per message, dropping acknowledged entries past retention
+     */
+    private void compact() throws IOException {
+        long cutoff = System.currentTimeMillis() - retentionHours * 3600 * 1000;
+        entries.entrySet().removeIf(e -> e.getValue().stage == Stage.ACKNOWLEDGED && e.getValue().updatedAt < cutoff);
+
+        Path tempFile = journalFile.resolveSibling("work_journal.log.tmp");
+        try (Writer writer = Files.newBufferedWriter(tempFile, StandardCharsets.UTF_8)) {
+            for (Map.Entry<String, Entry> e : entries.entrySet()) {
+                Map<String, Object> line = new LinkedHashMap<>();
+                line.put("messageId", e.getKey());
+                line.put("stage", e.getValue().stage.name());
+                line.put("srId", e.getValue().srId);
+                line.put("analysis", e.getValue().analysis);
+                line.put("ts", e.getValue().updatedAt);
+                writer.write(objectMapper.writeValueAsString(line));
+                writer.write("\n");
+            }
+        }
+        try (FileChannel tempChannel = FileChannel.open(tempFile, StandardOpenOption.WRITE)) {
+            tempChannel.force(true);
+        }
+        Files.move(tempFile, journalFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        compactions.incrementAndGet();
+    }
+
+    private static class Entry {
+        private volatile Stage stage;
+        private volatile String srId;
+        private volatile Map<String, String> analysis;
+        private volatile long updatedAt;
+    }
+}
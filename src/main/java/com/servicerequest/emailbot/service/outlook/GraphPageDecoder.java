@@ -0,0 +1,300 @@
+package com.servicerequest.emailbot.service.outlook;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.servicerequest.emailbot.model.EmailData;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Turns a Graph message page ({"value":[...], "@odata.nextLink": ...}) into EmailData.
+ *
+ * decodeStreaming walks the response with a JsonParser and builds one EmailData at a
+ * time: no tree is built, fields EmailData does not use are skipped, and an oversized
+ * body is cut to maxBodyChars straight from the parser's buffer rather than copied whole
+ * into a String first. decodeTree is the original readTree path, kept for comparison
+ * (see GraphPageDecodeBenchmark) and as a fallback.
+ */
+class GraphPageDecoder {
+
+    private final ObjectMapper mapper;
+    private final JsonFactory factory;
+    private final int maxBodyChars;
+
+    GraphPageDecoder(ObjectMapper mapper, int maxBodyChars) {
+        this.mapper = mapper;
+        this.factory = mapper.getFactory();
+        this.maxBodyChars = maxBodyChars;
+    }
+
+    static class Page {
+        private final int statusCode;
+        private final List<EmailData> emails;
+        private final String nextLink;
+        private final String deltaLink;
+        private final long bytes;
+        private final int truncatedBodies;
+
+        Page(int statusCode, List<EmailData> emails, String nextLink, String deltaLink, long bytes, int truncatedBodies) {
+            this.statusCode = statusCode;
+            this.emails = emails;
+            this.nextLink = nextLink;
+            this.deltaLink = deltaLink;
+            this.bytes = bytes;
+            this.truncatedBodies = truncatedBodies;
+        }
+
+        static Page failed(int statusCode) {
+            return new Page(statusCode, List.of(), null, null, 0, 0);
+        }
+
+        int getStatusCode() {
+            return statusCode;
+        }
+
+        List<EmailData> getEmails() {
+            return emails;
+        }
+
+        String getNextLink() {
+            return nextLink;
+        }
+
+        String getDeltaLink() {
+            return deltaLink;
+        }
+
+        long getBytes() {
+            return bytes;
+        }
+
+        int getTruncatedBodies() {
+            return truncatedBodies;
+        }
+    }
+
+    /**
+     * Fields of one message as they are read; only what EmailData and the delta filter need
+     */
+    private static class MessageFields {
+        String id;
+        String sender;
+        String subject;
+        String body;
+        String conversationId;
+        boolean hasAttachments;
+        String receivedDateTime;
+        boolean isRead;
+        boolean isDraft;
+        boolean removed;
+        boolean truncated;
+    }
+
+    Page decodeStreaming(InputStream in, boolean unreadOnly) throws IOException {
+        List<EmailData> emails = new ArrayList<>();
+        String nextLink = null;
+        String deltaLink = null;
+        int truncated = 0;
+        long bytes;
+
+        try (JsonParser parser = factory.createParser(in)) {
+            expect(parser.nextToken(), JsonToken.START_OBJECT);
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.getCurrentName();
+                parser.nextToken();
+                switch (field) {
+                    case "value" -> {
+                        expect(parser.currentToken(), JsonToken.START_ARRAY);
+                        while (parser.nextToken() == JsonToken.START_OBJECT) {
+                            MessageFields message = readMessage(parser);
+                            if (message.truncated) {
+                                truncated++;
+                            }
+                            if (include(message, unreadOnly)) {
+                                emails.add(new EmailData(message.id, message.sender, message.subject, message.body,
+                                        message.conversationId, message.hasAttachments, message.receivedDateTime));
+                            }
+                        }
+                    }
+                    case "@odata.nextLink" -> nextLink = parser.getValueAsString();
+                    case "@odata.deltaLink" -> deltaLink = parser.getValueAsString();
+                    default -> parser.skipChildren();
+                }
+            }
+            bytes = parser.getCurrentLocation().getByteOffset();
+        }
+        return new Page(200, emails, nextLink, deltaLink, bytes, truncated);
+    }
+
+    private MessageFields readMessage(JsonParser parser) throws IOException {
+        MessageFields message = new MessageFields();
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.getCurrentName();
+            JsonToken value = parser.nextToken();
+            switch (field) {
+                case "id" -> message.id = parser.getValueAsString();
+                case "subject" -> message.subject = parser.getValueAsString();
+                case "conversationId" -> message.conversationId = parser.getValueAsString();
+                case "receivedDateTime" -> message.receivedDateTime = parser.getValueAsString();
+                case "hasAttachments" -> message.hasAttachments = parser.getValueAsBoolean();
+                case "isRead" -> message.isRead = parser.getValueAsBoolean();
+                case "isDraft" -> message.isDraft = parser.getValueAsBoolean();
+                case "@removed" -> {
+                    message.removed = true;
+                    parser.skipChildren();
+                }
+                case "from" -> message.sender = readSender(parser, value);
+                case "body" -> readBody(parser, value, message);
+                default -> parser.skipChildren();
+            }
+        }
+        return message;
+    }
+
+    // "from": {"emailAddress": {"name": ..., "address": ...}}
+    private static String readSender(JsonParser parser, JsonToken value) throws IOException {
+        if (value != JsonToken.START_OBJECT) {
+            return null;
+        }
+        String address = null;
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.getCurrentName();
+            JsonToken token = parser.nextToken();
+            if ("emailAddress".equals(field) && token == JsonToken.START_OBJECT) {
+                while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                    String inner = parser.getCurrentName();
+                    parser.nextToken();
+                    if ("address".equals(inner)) {
+                        address = parser.getValueAsString();
+                    } else {
+                        parser.skipChildren();
+                    }
+                }
+            } else {
+                parser.skipChildren();
+            }
+        }
+        return address;
+    }
+
+    // "body": {"contentType": ..., "content": ...}
+    private void readBody(JsonParser parser, JsonToken value, MessageFields message) throws IOException {
+        if (value != JsonToken.START_OBJECT) {
+            return;
+        }
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.getCurrentName();
+            JsonToken token = parser.nextToken();
+            if ("content".equals(field) && token == JsonToken.VALUE_STRING) {
+                if (maxBodyChars > 0 && parser.getTextLength() > maxBodyChars) {
+                    // Copy only the kept part out of the parser's buffer segments
+                    CappedWriter kept = new CappedWriter(maxBodyChars);
+                    parser.getText(kept);
+                    message.body = kept.toString();
+                    message.truncated = true;
+                } else {
+                    message.body = parser.getText();
+                }
+            } else {
+                parser.skipChildren();
+            }
+        }
+    }
+
+    /**
+     * Keeps the first limit characters written to it and drops the rest
+     */
+    private static class CappedWriter extends Writer {
+        private final StringBuilder kept;
+        private final int limit;
+
+        CappedWriter(int limit) {
+            this.kept = new StringBuilder(limit);
+            this.limit = limit;
+        }
+
+        @Override
+        public void write(char[] chars, int offset, int length) {
+            int room = limit - kept.length();
+            if (room > 0) {
+                kept.append(chars, offset, Math.min(room, length));
+            }
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
+        }
+
+        @Override
+        public String toString() {
+            return kept.toString();
+        }
+    }
+
+    private static boolean include(MessageFields message, boolean unreadOnly) {
+        if (message.id == null || message.sender == null) {
+            // Removed entries and messages without a sender can't become service requests
+            return false;
+        }
+        return !unreadOnly || (!message.removed && !message.isRead && !message.isDraft);
+    }
+
+    private static void expect(JsonToken actual, JsonToken expected) throws IOException {
+        if (actual != expected) {
+            throw new IOException("Unexpected Graph page format: expected " + expected + " but got " + actual);
+        }
+    }
+
+    /**
+     * The original path: whole page into a tree, then fields copied out of it
+     */
+    Page decodeTree(byte[] body, boolean unreadOnly) throws IOException {
+        JsonNode root = mapper.readTree(body);
+        List<EmailData> emails = new ArrayList<>();
+        int truncated = 0;
+
+        for (JsonNode email : root.path("value")) {
+            if (!email.hasNonNull("id") || !email.path("from").path("emailAddress").hasNonNull("address")) {
+                // Same rule as the streaming path: no service request without a sender
+                continue;
+            }
+            if (unreadOnly && (email.has("@removed") || email.path("isRead").asBoolean(false)
+                    || email.path("isDraft").asBoolean(false))) {
+                continue;
+            }
+            EmailData data = fromTree(email);
+            if (maxBodyChars > 0 && data.getBody() != null && data.getBody().length() > maxBodyChars) {
+                data = new EmailData(data.getId(), data.getSender(), data.getSubject(),
+                        data.getBody().substring(0, maxBodyChars), data.getConversationId(),
+                        data.hasAttachments(), data.getReceivedDateTime());
+                truncated++;
+            }
+            emails.add(data);
+        }
+        return new Page(200, emails, root.path("@odata.nextLink").asText(null),
+                root.path("@odata.deltaLink").asText(null), body.length, truncated);
+    }
+
+    static EmailData fromTree(JsonNode email) {
+        return new EmailData(
+            email.get("id").asText(),
+            email.get("from").get("emailAddress").get("address").asText(),
+            email.get("subject").asText(),
+            email.get("body").get("content").asText(),
+            email.get("conversationId").asText(),
+            email.get("hasAttachments").asBoolean(),
+            email.path("receivedDateTime").asText(null)
+        );
+    }
+}
@@ -0,0 +1,206 @@
+package com.servicerequest.emailbot.service.outlook;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Manages the Graph change-notification subscription for new Inbox messages.
+ * Graph calls back into GraphNotificationHandler; this service creates the
+ * subscription once Outlook is authenticated and renews it before it expires.
+ * The check runs on its own thread: on the shared scheduler a long poll or batch
+ * cycle could hold it back past the subscription's expiry.
+ */
+@Service
+public class GraphSubscriptionService {
+
+    // Graph caps message subscriptions at 4230 minutes
+    private static final long MAX_LIFETIME_MINUTES = 4230;
+
+    @Autowired
+    private OutlookSessionService sessionService;
+
+    @Value("${app.graph.base-url:https://graph.microsoft.com/v1.0}")
+    private String graphApiBase;
+
+    @Value("${app.graph.notifications.enabled:false}")
+    private boolean enabled;
+
+    // Public HTTPS URL of /webhook/graph-notifications; leave empty to accept stub notifications only
+    @Value("${app.graph.notifications.url:}")
+    private String notificationUrl;
+
+    @Value("${app.graph.notifications.client-state:}")
+    private String configuredClientState;
+
+    @Value("${app.graph.notifications.lifetime-minutes:4200}")
+    private long lifetimeMinutes;
+
+    @Value("${app.graph.notifications.renew-before-minutes:60}")
+    private long renewBeforeMinutes;
+
+    @Value("${app.graph.notifications.renew-check-interval:600000}")
+    private long renewCheckInterval;
+
+    @Value("${app.graph.notifications.initial-delay:60000}")
+    private long initialDelay;
+
+    private ScheduledExecutorService renewalScheduler;
+
+    @Autowired
+    private HttpClient client;
+    private final ObjectMapper mapper;
+    private final String generatedClientState;
+
+    private volatile String subscriptionId;
+    private volatile Instant expiresAt;
+
+    public GraphSubscriptionService() {
+        this.mapper = new ObjectMapper();
+        this.generatedClientState = UUID.randomUUID().toString();
+    }
+
+    @PostConstruct
+    public void start() {
+        if (!enabled || notificationUrl == null || notificationUrl.isBlank()) {
+            return;
+        }
+        renewalScheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "graph-subscription");
+            thread.setDaemon(true);
+            return thread;
+        });
+        renewalScheduler.scheduleWithFixedDelay(this::maintainSubscription, initialDelay, renewCheckInterval,
+                TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (renewalScheduler != null) {
+            renewalScheduler.shutdownNow();
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Graph echoes clientState on every notification; anything else is not ours.
+     */
+    public boolean isValidClientState(String clientState) {
+        return getClientState().equals(clientState);
+    }
+
+    private String getClientState() {
+        return configuredClientState != null && !configuredClientState.isBlank()
+                ? configuredClientState
+                : generatedClientState;
+    }
+
+    /**
+     * Create the subscription if missing and renew it ahead of expiry.
+     * Skipped until the first poll has authenticated the Outlook session.
+     */
+    public void maintainSubscription() {
+        if (!enabled || notificationUrl == null || notificationUrl.isBlank()) {
+            return;
+        }
+
+        OutlookSession session = sessionService.getCurrentSession();
+        if (session.getAuthToken() == null || session.isTokenExpired()) {
+            System.out.println("Outlook session not authenticated yet, deferring Graph subscription");
+            return;
+        }
+
+        try {
+            if (subscriptionId == null) {
+                createSubscription(session);
+            } else if (Instant.now().plus(renewBeforeMinutes, ChronoUnit.MINUTES).isAfter(expiresAt)) {
+                renewSubscription(session);
+            }
+        } catch (Exception e) {
+            // Caught so the next check still runs
+            System.err.println("❌ Error maintaining Graph subscription: " + e.getMessage());
+        }
+    }
+
+    private void createSubscription(OutlookSession session) throws Exception {
+        Instant expiry = nextExpiry();
+
+        Map<String, Object> subscription = new HashMap<>();
+        subscription.put("changeType", "created");
+        subscription.put("notificationUrl", notificationUrl);
+        subscription.put("resource", "me/mailFolders('Inbox')/messages");
+        subscription.put("expirationDateTime", expiry.toString());
+        subscription.put("clientState", getClientState());
+
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create(graphApiBase + "/subscriptions"))
+                .header("Authorization", "Bearer " + session.getAuthToken())
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofString(mapper.writeValueAsString(subscription)))
+                .build();
+
+        HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
+
+        if (response.statusCode() != 201) {
+            throw new RuntimeException("Failed to create Graph subscription: " + response.statusCode() + " - " + response.body());
+        }
+
+        JsonNode json = mapper.readTree(response.body());
+        this.subscriptionId = json.get("id").asText();
+        this.expiresAt = Instant.parse(json.path("expirationDateTime").asText(expiry.toString()));
+        System.out.println("✅ Graph subscription created: " + subscriptionId + " (expires " + expiresAt + ")");
+    }
+
+    private void renewSubscription(OutlookSession session) throws Exception {
+        Instant expiry = nextExpiry();
+        String body = mapper.writeValueAsString(Map.of("expirationDateTime", expiry.toString()));
+
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create(graphApiBase + "/subscriptions/" + subscriptionId))
+                .header("Authorization", "Bearer " + session.getAuthToken())
+                .header("Content-Type", "application/json")
+                .method("PATCH", HttpRequest.BodyPublishers.ofString(body))
+                .build();
+
+        HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
+
+        if (response.statusCode() == 404) {
+            // Subscription expired or was removed by Graph - start over
+            System.out.println("Graph subscription " + subscriptionId + " no longer exists, recreating");
+            this.subscriptionId = null;
+            createSubscription(session);
+            return;
+        }
+        if (response.statusCode() != 200) {
+            throw new RuntimeException("Failed to renew Graph subscription: " + response.statusCode() + " - " + response.body());
+        }
+
+        this.expiresAt = expiry;
+        System.out.println("Graph subscription renewed until " + expiresAt);
+    }
+
+    private Instant nextExpiry() {
+        long minutes = Math.min(lifetimeMinutes, MAX_LIFETIME_MINUTES);
+        return Instant.now().plus(minutes, ChronoUnit.MINUTES).truncatedTo(ChronoUnit.SECONDS);
+    }
+}
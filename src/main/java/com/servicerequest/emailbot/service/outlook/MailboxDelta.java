@@ -0,0 +1,27 @@
+package com.servicerequest.emailbot.service.outlook;
+
+import com.servicerequest.emailbot.model.EmailData;
+
+import java.util.List;
+
+/**
+ * Result of one delta sync cycle: the new unread emails and the delta link
+ * to resume from on the next cycle.
+ */
+public class MailboxDelta {
+    private final List<EmailData> emails;
+    private final String deltaLink;
+
+    public MailboxDelta(List<EmailData> emails, String deltaLink) {
+        this.emails = emails;
+        this.deltaLink = deltaLink;
+    }
+
+    public List<EmailData> getEmails() {
+        return emails;
+    }
+
+    public String getDeltaLink() {
+        return deltaLink;
+    }
+}
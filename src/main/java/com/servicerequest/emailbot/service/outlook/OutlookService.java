@@ -1,12 +1,18 @@
 package com.servicerequest.emailbot.service.outlook;
 
+import com.servicerequest.emailbot.config.RequestDeadline;
 import com.servicerequest.emailbot.model.EmailData;
 import com.servicerequest.emailbot.service.auth.AuthServiceOutlook;
 import com.servicerequest.emailbot.service.outlook.OutlookSession;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.servicerequest.emailbot.util.AsyncUtils;
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
+import java.io.InputStream;
 import java.net.URI;
 import java.net.URLEncoder;
 import java.net.http.HttpClient;
@@ -14,57 +20,267 @@ import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
 import java.nio.charset.StandardCharsets;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
 
 @Component
 public class OutlookService {
-    private static final String GRAPH_API_BASE = "https://graph.microsoft.com/v1.0";
+    // Overridable so a local Graph stub can stand in for integration testing
+    @Value("${app.graph.base-url:https://graph.microsoft.com/v1.0}")
+    private String graphApiBase;
     
-    private final HttpClient client;
+    // Graph rejects $batch payloads with more than 20 requests
+    private static final int MAX_BATCH_REQUESTS = 20;
+    
+    // Only the fields EmailData needs (isRead/isDraft are used to filter delta pages)
+    private static final String MESSAGE_FIELDS =
+            "id,from,subject,body,conversationId,hasAttachments,receivedDateTime,isRead,isDraft";
+    
+    @Value("${app.graph.select-fields:true}")
+    private boolean selectFields;
+    
+    @Value("${app.graph.text-body:true}")
+    private boolean textBody;
+    
+    // Decode pages with a streaming JsonParser instead of building a full JsonNode tree
+    @Value("${app.graph.streaming-decode:true}")
+    private boolean streamingDecode;
+    
+    // Longer bodies are cut to this many characters while decoding (0 = no limit)
+    @Value("${app.graph.max-body-chars:100000}")
+    private int maxBodyChars;
+    
+    @Value("${app.graph.decode-threads:2}")
+    private int decodeThreads;
+    
+    @Autowired
+    private HttpClient client;
     private final ObjectMapper mapper;
+    private GraphPageDecoder decoder;
+    // Streamed pages are read here so the HttpClient's own threads never block on the body
+    private ExecutorService decodeExecutor;
+    
+    private final AtomicLong pagesFetched = new AtomicLong();
+    private final AtomicLong messagesParsed = new AtomicLong();
+    private final AtomicLong bytesFetched = new AtomicLong();
+    private final AtomicLong parseNanos = new AtomicLong();
+    private final AtomicLong truncatedBodies = new AtomicLong();
 
     public OutlookService() {
-        this.client = HttpClient.newHttpClient();
         this.mapper = new ObjectMapper();
     }
 
+    @PostConstruct
+    public void initDecoder() {
+        decoder = new GraphPageDecoder(mapper, maxBodyChars);
+        decodeExecutor = Executors.newFixedThreadPool(Math.max(1, decodeThreads), runnable -> {
+            Thread thread = new Thread(runnable, "graph-page-decoder");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
     public List<EmailData> getUnreadEmails(OutlookSession session, AuthServiceOutlook auth) throws Exception {
+        return AsyncUtils.await(getUnreadEmailsAsync(session, auth));
+    }
+
+    public CompletableFuture<List<EmailData>> getUnreadEmailsAsync(OutlookSession session, AuthServiceOutlook auth) {
         String filter = URLEncoder.encode("isRead eq false", StandardCharsets.UTF_8);
-        String url = GRAPH_API_BASE + "/me/messages?$filter=" + filter + "&$top=50";
+        String url = graphApiBase + "/me/messages?$filter=" + filter + "&$top=50" + selectClause("&");
         
-        HttpRequest request = HttpRequest.newBuilder()
+        return fetchUnreadPages(session, url, new ArrayList<>());
+    }
+
+    // Follow @odata.nextLink so unread mail beyond the first page is not invisible
+    private CompletableFuture<List<EmailData>> fetchUnreadPages(OutlookSession session, String url, List<EmailData> emailList) {
+        return fetchPage(session, url, false)
+                .thenCompose(RequestDeadline.carried(page -> AsyncUtils.supplyFailing(() -> {
+                    if (page.getStatusCode() != 200) {
+                        throw new RuntimeException("Failed to get unread emails: " + page.getStatusCode());
+                    }
+                    
+                    emailList.addAll(page.getEmails());
+                    String nextLink = page.getNextLink();
+                    return nextLink == null ? CompletableFuture.completedFuture(emailList)
+                            : fetchUnreadPages(session, nextLink, emailList);
+                })));
+    }
+
+    /**
+     * Incremental Inbox sync via Graph delta query. Pass the delta link saved from the
+     * previous cycle (or null for the initial sync); every page is followed and the new
+     * delta link is returned for the caller to persist once the emails are processed.
+     * Only unread, non-draft messages are returned - read-state changes and removals are skipped.
+     */
+    public MailboxDelta getEmailDelta(OutlookSession session, AuthServiceOutlook auth, String deltaLink) throws Exception {
+        return AsyncUtils.await(getEmailDeltaAsync(session, auth, deltaLink));
+    }
+
+    public CompletableFuture<MailboxDelta> getEmailDeltaAsync(OutlookSession session, AuthServiceOutlook auth, String deltaLink) {
+        // $select is carried over into the nextLink/deltaLink URLs by Graph
+        String url = deltaLink != null ? deltaLink
+                : graphApiBase + "/me/mailFolders('Inbox')/messages/delta" + selectClause("?");
+        
+        return fetchDeltaPages(session, auth, deltaLink, url, new ArrayList<>(), 0);
+    }
+
+    private CompletableFuture<MailboxDelta> fetchDeltaPages(OutlookSession session, AuthServiceOutlook auth, String deltaLink,
+                                                            String url, List<EmailData> emailList, int pages) {
+        return fetchPage(session, url, true)
+                .thenCompose(RequestDeadline.carried(page -> AsyncUtils.supplyFailing(() -> {
+                    if (page.getStatusCode() == 410 && deltaLink != null) {
+                        // Delta token expired or was invalidated - Graph requires a fresh initial sync
+                        System.out.println("⚠️ Delta token expired, restarting full Inbox sync");
+                        return getEmailDeltaAsync(session, auth, null);
+                    }
+                    if (page.getStatusCode() != 200) {
+                        throw new RuntimeException("Failed to get mailbox delta: " + page.getStatusCode());
+                    }
+
+                    emailList.addAll(page.getEmails());
+                    int fetched = pages + 1;
+
+                    String nextLink = page.getNextLink();
+                    if (nextLink == null) {
+                        String newDeltaLink = page.getDeltaLink();
+                        System.out.println("Delta sync: " + fetched + " page(s), " + emailList.size() + " new unread emails");
+                        return CompletableFuture.completedFuture(new MailboxDelta(emailList, newDeltaLink));
+                    }
+                    return fetchDeltaPages(session, auth, deltaLink, nextLink, emailList, fetched);
+                })));
+    }
+
+    /**
+     * Fetch a single message by ID, e.g. one announced by a change notification.
+     * Returns null if the message no longer exists or has already been read.
+     */
+    public EmailData getEmailById(OutlookSession session, AuthServiceOutlook auth, String messageId) throws Exception {
+        return AsyncUtils.await(getEmailByIdAsync(session, auth, messageId));
+    }
+
+    public CompletableFuture<EmailData> getEmailByIdAsync(OutlookSession session, AuthServiceOutlook auth, String messageId) {
+        String url = graphApiBase + "/me/messages/" + messageId + selectClause("?");
+
+        return client.sendAsync(messageRequest(session, url), HttpResponse.BodyHandlers.ofString())
+                .thenCompose(response -> AsyncUtils.supplyFailing(() -> {
+                    if (response.statusCode() == 404) {
+                        return CompletableFuture.completedFuture(null);
+                    }
+                    if (response.statusCode() != 200) {
+                        throw new RuntimeException("Failed to get email " + messageId + ": " + response.statusCode());
+                    }
+
+                    JsonNode email = mapper.readTree(response.body());
+                    if (email.path("isRead").asBoolean(false)) {
+                        return CompletableFuture.completedFuture(null);
+                    }
+                    return CompletableFuture.completedFuture(GraphPageDecoder.fromTree(email));
+                }));
+    }
+
+    /**
+     * Snapshot of message page fetch costs, to compare projection/text-body settings
+     */
+    public Map<String, Object> getFetchStats() {
+        long pages = pagesFetched.get();
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("selectFields", selectFields);
+        stats.put("textBody", textBody);
+        stats.put("decoder", streamingDecode ? "streaming" : "tree");
+        stats.put("maxBodyChars", maxBodyChars);
+        stats.put("pages", pages);
+        stats.put("messages", messagesParsed.get());
+        stats.put("bytes", bytesFetched.get());
+        stats.put("avgBytesPerPage", pages == 0 ? 0 : bytesFetched.get() / pages);
+        stats.put("avgParseMillisPerPage", pages == 0 ? 0.0 : parseNanos.get() / 1_000_000.0 / pages);
+        stats.put("truncatedBodies", truncatedBodies.get());
+        return stats;
+    }
+
+    private HttpRequest messageRequest(OutlookSession session, String url) {
+        HttpRequest.Builder builder = HttpRequest.newBuilder()
                 .uri(URI.create(url))
                 .header("Authorization", "Bearer " + session.getAuthToken())
-                .header("Content-Type", "application/json")
-                .GET()
-                .build();
-
-        HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
+                .header("Content-Type", "application/json");
         
-        if (response.statusCode() != 200) {
-            throw new RuntimeException("Failed to get unread emails: " + response.statusCode());
+        if (url.contains("/delta")) {
+            builder.header("Prefer", "odata.maxpagesize=50");
+        }
+        if (textBody) {
+            // Graph converts the body server-side, so no HTML reaches Jsoup later
+            builder.header("Prefer", "outlook.body-content-type=\"text\"");
         }
-
-        JsonNode root = mapper.readTree(response.body());
-        JsonNode emails = root.get("value");
         
-        List<EmailData> emailList = new ArrayList<>();
-        for (JsonNode email : emails) {
-            EmailData emailData = new EmailData(
-                email.get("id").asText(),
-                email.get("from").get("emailAddress").get("address").asText(),
-                email.get("subject").asText(),
-                email.get("body").get("content").asText(),
-                email.get("conversationId").asText(),
-                email.get("hasAttachments").asBoolean()
-            );
-            emailList.add(emailData);
+        return builder.GET().build();
+    }
+
+    private String selectClause(String separator) {
+        return selectFields ? separator + "$select=" + MESSAGE_FIELDS : "";
+    }
+
+    /**
+     * Fetch and decode one page of messages. A non-200 page comes back as Page.failed(status)
+     * for the caller to handle.
+     */
+    private CompletableFuture<GraphPageDecoder.Page> fetchPage(OutlookSession session, String url, boolean unreadOnly) {
+        HttpRequest request = messageRequest(session, url);
+        if (!streamingDecode) {
+            return client.sendAsync(request, HttpResponse.BodyHandlers.ofByteArray())
+                    .thenCompose(response -> AsyncUtils.supplyFailing(() -> {
+                        if (response.statusCode() != 200) {
+                            return CompletableFuture.completedFuture(GraphPageDecoder.Page.failed(response.statusCode()));
+                        }
+                        long start = System.nanoTime();
+                        GraphPageDecoder.Page page = decoder.decodeTree(response.body(), unreadOnly);
+                        return CompletableFuture.completedFuture(recordPage(page, System.nanoTime() - start));
+                    }));
         }
         
-        return emailList;
+        // The body is parsed as it arrives, so the whole page is never held as bytes or as a tree.
+        // The Graph bulkhead slot stays taken until the body is closed, i.e. until decoding is done.
+        return client.sendAsync(request, HttpResponse.BodyHandlers.ofInputStream())
+                .thenComposeAsync(response -> AsyncUtils.supplyFailing(() -> {
+                    try (InputStream body = response.body()) {
+                        if (response.statusCode() != 200) {
+                            return CompletableFuture.completedFuture(GraphPageDecoder.Page.failed(response.statusCode()));
+                        }
+                        long start = System.nanoTime();
+                        GraphPageDecoder.Page page = decoder.decodeStreaming(body, unreadOnly);
+                        return CompletableFuture.completedFuture(recordPage(page, System.nanoTime() - start));
+                    }
+                }), decodeExecutor);
+    }
+
+    /**
+     * Record bytes and parse time per page. For streamed pages the parse time includes
+     * waiting for the rest of the body to arrive.
+     */
+    private GraphPageDecoder.Page recordPage(GraphPageDecoder.Page page, long elapsed) {
+        int count = page.getEmails().size();
+        pagesFetched.incrementAndGet();
+        messagesParsed.addAndGet(count);
+        bytesFetched.addAndGet(page.getBytes());
+        parseNanos.addAndGet(elapsed);
+        truncatedBodies.addAndGet(page.getTruncatedBodies());
+        
+        System.out.printf("Graph page: %d messages, %.1f KB, parsed in %.1f ms (select=%s, textBody=%s, decoder=%s)%n",
+                count, page.getBytes() / 1024.0, elapsed / 1_000_000.0, selectFields, textBody,
+                streamingDecode ? "streaming" : "tree");
+        if (page.getTruncatedBodies() > 0) {
+            System.out.println("✂️ Truncated " + page.getTruncatedBodies() + " message bodies to " + maxBodyChars + " characters");
+        }
+        return page;
     }
 
     public void markAsRead(OutlookSession session, AuthServiceOutlook auth, String messageId) throws Exception {
-        String url = GRAPH_API_BASE + "/me/messages/" + messageId;
+        AsyncUtils.await(markAsReadAsync(session, auth, messageId));
+    }
+
+    public CompletableFuture<Void> markAsReadAsync(OutlookSession session, AuthServiceOutlook auth, String messageId) {
+        String url = graphApiBase + "/me/messages/" + messageId;
         String body = "{\"isRead\": true}";
         
         HttpRequest request = HttpRequest.newBuilder()
@@ -74,15 +290,85 @@ public class OutlookService {
                 .method("PATCH", HttpRequest.BodyPublishers.ofString(body))
                 .build();
 
-        HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
+        return client.sendAsync(request, HttpResponse.BodyHandlers.ofString()).thenAccept(response -> {
+            if (response.statusCode() != 200) {
+                throw new RuntimeException("Failed to mark email as read: " + response.statusCode());
+            }
+        });
+    }
+
+    /**
+     * Mark messages as read through the Graph JSON $batch endpoint, 20 PATCH requests per call.
+     * Returns the outcome per message ID (true = marked read) in the order given.
+     */
+    public Map<String, Boolean> markAsReadBatch(OutlookSession session, AuthServiceOutlook auth, List<String> messageIds) throws Exception {
+        return AsyncUtils.await(markAsReadBatchAsync(session, auth, messageIds));
+    }
+
+    /**
+     * The $batch calls for all groups of 20 are sent at once rather than one after another
+     */
+    public CompletableFuture<Map<String, Boolean>> markAsReadBatchAsync(OutlookSession session, AuthServiceOutlook auth,
+                                                                        List<String> messageIds) {
+        Map<String, Boolean> results = new ConcurrentHashMap<>();
+        List<CompletableFuture<Void>> calls = new ArrayList<>();
         
-        if (response.statusCode() != 200) {
-            throw new RuntimeException("Failed to mark email as read: " + response.statusCode());
+        for (int offset = 0; offset < messageIds.size(); offset += MAX_BATCH_REQUESTS) {
+            List<String> group = messageIds.subList(offset, Math.min(offset + MAX_BATCH_REQUESTS, messageIds.size()));
+            
+            List<Map<String, Object>> requests = new ArrayList<>();
+            for (int i = 0; i < group.size(); i++) {
+                Map<String, Object> patch = new HashMap<>();
+                patch.put("id", String.valueOf(i));
+                patch.put("method", "PATCH");
+                patch.put("url", "/me/messages/" + group.get(i));
+                patch.put("headers", Map.of("Content-Type", "application/json"));
+                patch.put("body", Map.of("isRead", true));
+                requests.add(patch);
+                results.put(group.get(i), false);
+            }
+            
+            calls.add(AsyncUtils.supplyFailing(() -> {
+                HttpRequest request = HttpRequest.newBuilder()
+                        .uri(URI.create(graphApiBase + "/$batch"))
+                        .header("Authorization", "Bearer " + session.getAuthToken())
+                        .header("Content-Type", "application/json")
+                        .POST(HttpRequest.BodyPublishers.ofString(mapper.writeValueAsString(Map.of("requests", requests))))
+                        .build();
+                
+                return client.sendAsync(request, HttpResponse.BodyHandlers.ofString())
+                        .thenCompose(response -> AsyncUtils.supplyFailing(() -> {
+                            if (response.statusCode() != 200) {
+                                System.err.println("Mark-as-read batch failed: " + response.statusCode());
+                                return CompletableFuture.completedFuture(null);
+                            }
+                            
+                            for (JsonNode item : mapper.readTree(response.body()).path("responses")) {
+                                int index = item.path("id").asInt(-1);
+                                if (index >= 0 && index < group.size()) {
+                                    results.put(group.get(index), item.path("status").asInt() == 200);
+                                }
+                            }
+                            return CompletableFuture.completedFuture(null);
+                        }));
+            }));
         }
+        
+        return CompletableFuture.allOf(calls.toArray(new CompletableFuture<?>[0])).thenApply(done -> {
+            // Report in the order given
+            Map<String, Boolean> ordered = new LinkedHashMap<>();
+            messageIds.forEach(id -> ordered.put(id, results.getOrDefault(id, false)));
+            return ordered;
+        });
     }
 
     public void sendEmail(OutlookSession session, AuthServiceOutlook auth, String to, String subject, String body, String replyToMessageId) throws Exception {
-        String url = GRAPH_API_BASE + "/me/sendMail";
+        AsyncUtils.await(sendEmailAsync(session, auth, to, subject, body, replyToMessageId));
+    }
+
+    public CompletableFuture<Void> sendEmailAsync(OutlookSession session, AuthServiceOutlook auth, String to, String subject,
+                                                  String body, String replyToMessageId) {
+        String url = graphApiBase + "/me/sendMail";
         
         Map<String, Object> emailBody = new HashMap<>();
         Map<String, Object> message = new HashMap<>();
@@ -103,20 +389,22 @@ public class OutlookService {
         
         emailBody.put("message", message);
         
-        String jsonBody = mapper.writeValueAsString(emailBody);
-        
-        HttpRequest request = HttpRequest.newBuilder()
-                .uri(URI.create(url))
-                .header("Authorization", "Bearer " + session.getAuthToken())
-                .header("Content-Type", "application/json")
-                .POST(HttpRequest.BodyPublishers.ofString(jsonBody))
-                .build();
+        return AsyncUtils.supplyFailing(() -> {
+            String jsonBody = mapper.writeValueAsString(emailBody);
+            
+            HttpRequest request = HttpRequest.newBuilder()
+                    .uri(URI.create(url))
+                    .header("Authorization", "Bearer " + session.getAuthToken())
+                    .header("Content-Type", "application/json")
+                    .POST(HttpRequest.BodyPublishers.ofString(jsonBody))
+                    .build();
 
-        HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
-        
-        if (response.statusCode() != 202) {
-            throw new RuntimeException("Failed to send email: " + response.statusCode());
-        }
+            return client.sendAsync(request, HttpResponse.BodyHandlers.ofString()).thenAccept(response -> {
+                if (response.statusCode() != 202) {
+                    throw new RuntimeException("Failed to send email: " + response.statusCode());
+                }
+            });
+        });
     }
 
     public void sendQuestionnaireForm(OutlookSession session, AuthServiceOutlook auth, String to, String subject, String htmlContent, String replyToMessageId) throws Exception {
@@ -2,6 +2,7 @@ package com.servicerequest.emailbot.service.questionnaire;
 
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
 import java.net.URI;
@@ -11,11 +12,11 @@ import java.net.http.HttpResponse;
 
 @Service
 public class GetQuestionnaire {
-    private final HttpClient client;
+    @Autowired
+    private HttpClient client;
     private final ObjectMapper mapper;
 
     public GetQuestionnaire() {
-        this.client = HttpClient.newHttpClient();
         this.mapper = new ObjectMapper();
     }
 
@@ -1,6 +1,7 @@
 package com.servicerequest.emailbot.service.questionnaire;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
 import java.net.URI;
@@ -12,11 +13,11 @@ import java.util.Map;
 
 @Service
 public class SubmitQuestionnaire {
-    private final HttpClient client;
+    @Autowired
+    private HttpClient client;
     private final ObjectMapper mapper;
 
     public SubmitQuestionnaire() {
-        this.client = HttpClient.newHttpClient();
         this.mapper = new ObjectMapper();
     }
 
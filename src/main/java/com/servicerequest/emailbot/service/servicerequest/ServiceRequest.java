@@ -2,8 +2,10 @@ package com.servicerequest.emailbot.service.servicerequest;
 
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.servicerequest.emailbot.config.RequestDeadline;
 import com.servicerequest.emailbot.service.auth.AuthService;
 import com.servicerequest.emailbot.repository.DbService;
+import com.servicerequest.emailbot.util.AsyncUtils;
 import io.github.cdimascio.dotenv.Dotenv;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
@@ -14,10 +16,12 @@ import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
 @Service
 public class ServiceRequest {
-    private final HttpClient client;
+    @Autowired
+    private HttpClient client;
     private final ObjectMapper mapper;
     private final Dotenv dotenv;
 
@@ -34,25 +38,71 @@ public class ServiceRequest {
     );
 
     public ServiceRequest() {
-        this.client = HttpClient.newHttpClient();
         this.mapper = new ObjectMapper();
         this.dotenv = Dotenv.configure().ignoreIfMissing().load();
     }
 
     public String createServiceRequest(String category, String typeValue, String department, String subject,
                                        String description, String priority, String emailId) throws Exception {
+        return AsyncUtils.await(createServiceRequestAsync(category, typeValue, department, subject,
+                description, priority, emailId));
+    }
+
+    /**
+     * Session, draft and submit chained on the HTTP client's futures - no thread is
+     * blocked while the service tracker answers
+     */
+    public CompletableFuture<String> createServiceRequestAsync(String category, String typeValue, String department,
+                                                               String subject, String description, String priority,
+                                                               String emailId) {
         String apiUrl = dotenv.get("SERVICE_REQUEST_API");
         if (apiUrl == null) {
-            throw new RuntimeException("SERVICE_REQUEST_API environment variable not set");
+            return CompletableFuture.failedFuture(new RuntimeException("SERVICE_REQUEST_API environment variable not set"));
         }
 
         // ✅ Step 1: Get user session (same as Python get_service_tracker_session)
-        Map<String, Object> session = authService.getServiceTrackerSession(emailId);
-        if (session == null || !session.containsKey("cookie_token")) {
-            throw new RuntimeException("❌ Authentication failed. Could not get user session.");
-        }
+        // Resolved here, not in the callbacks below: those run on the shared HTTP client threads.
+        // Codes are looked up in the taxonomy loaded at startup; only the first lookup reads the database.
+        Integer categoryCode = dbService.getCategoryCode(category);
+        Integer typeCode = dbService.getTypeCode(typeValue, categoryCode);
+
+        // Draft and submit go out from HTTP client threads, still under the caller's deadline
+        return authService.getServiceTrackerSessionAsync(emailId).thenCompose(RequestDeadline.carried(session -> AsyncUtils.supplyFailing(() -> {
+            if (session == null || !session.containsKey("cookie_token")) {
+                throw new RuntimeException("❌ Authentication failed. Could not get user session.");
+            }
+            String cookieToken = (String) session.get("cookie_token");
+            String jsonBody = buildDraftPayload(session, category, categoryCode, typeValue, typeCode, department,
+                    subject, description, priority);
+
+            // ✅ Step 3: Create Draft SR
+            HttpRequest draftRequest = HttpRequest.newBuilder()
+                    .uri(URI.create(apiUrl))
+                    .header("Content-Type", "application/json")
+                    .header("Cookie", "Cookie_Token=" + cookieToken)
+                    .POST(HttpRequest.BodyPublishers.ofString(jsonBody))
+                    .build();
+
+            return client.sendAsync(draftRequest, HttpResponse.BodyHandlers.ofString())
+                    .thenCompose(RequestDeadline.carried(draftResponse -> AsyncUtils.supplyFailing(() -> {
+                        String srId = readDraftId(draftResponse);
+
+                        // ✅ Step 4: Submit SR
+                        return submitServiceRequestAsync(srId, cookieToken).thenApply(submitted -> {
+                            if (submitted) {
+                                System.out.println("🎉 Service request " + srId + " submitted successfully.");
+                            } else {
+                                System.err.println("⚠️ Service request created but submission failed: " + srId);
+                            }
+                            return srId;
+                        });
+                    })));
+        })));
+    }
 
-        String cookieToken = (String) session.get("cookie_token");
+    private String buildDraftPayload(Map<String, Object> session, String category, Integer categoryCode, String typeValue,
+                                     Integer typeCode, String department, String subject, String description,
+                                     String priority) throws Exception {
         String personId = (String) session.get("personID");
         String userName = (String) session.get("userName");
         String fullName = (String) session.get("fullName");
@@ -60,12 +110,7 @@ public class ServiceRequest {
         String unitName = (String) session.get("orgUnit");
 
         // ✅ Step 2: Build draft SR payload
-        Integer categoryCode = dbService.getCategoryCode(category);
-        if (categoryCode == null) categoryCode = 61;
-
-        Integer typeCode = dbService.getTypeCode(typeValue, categoryCode);
-        if (typeCode == null) typeCode = 108;
-
+        // Codes come from the same taxonomy rows the classifier was offered
         Integer priorityId = PRIORITY_MAP.getOrDefault(priority, 2);
         Integer adminGroupId = 11;
         long currentTime = System.currentTimeMillis();
@@ -129,16 +174,10 @@ public class ServiceRequest {
 
         String jsonBody = mapper.writeValueAsString(payload);
         System.out.println("📤 Draft SR Payload: " + jsonBody);
+        return jsonBody;
+    }
 
-        // ✅ Step 3: Create Draft SR
-        HttpRequest draftRequest = HttpRequest.newBuilder()
-                .uri(URI.create(apiUrl))
-                .header("Content-Type", "application/json")
-                .header("Cookie", "Cookie_Token=" + cookieToken)
-                .POST(HttpRequest.BodyPublishers.ofString(jsonBody))
-                .build();
-
-        HttpResponse<String> draftResponse = client.send(draftRequest, HttpResponse.BodyHandlers.ofString());
+    private String readDraftId(HttpResponse<String> draftResponse) throws Exception {
         System.out.println("📥 Draft SR Response: " + draftResponse.body());
 
         if (draftResponse.statusCode() != 200) {
@@ -152,19 +191,10 @@ public class ServiceRequest {
             throw new RuntimeException("❌ No serviceRequestId found in draft response");
         }
         System.out.println("✅ Draft SR created: " + srId);
-
-        // ✅ Step 4: Submit SR
-        boolean submitted = submitServiceRequest(srId, cookieToken);
-        if (submitted) {
-            System.out.println("🎉 Service request " + srId + " submitted successfully.");
-        } else {
-            System.err.println("⚠️ Service request created but submission failed: " + srId);
-        }
-
         return srId;
     }
 
-    private boolean submitServiceRequest(String serviceRequestId, String cookieToken) throws Exception {
+    private CompletableFuture<Boolean> submitServiceRequestAsync(String serviceRequestId, String cookieToken) throws Exception {
         String submitApi = dotenv.get("SUBMIT_SR_API");
         if (submitApi == null) {
             throw new RuntimeException("SUBMIT_SR_API environment variable not set");
@@ -191,9 +221,9 @@ public class ServiceRequest {
                 .POST(HttpRequest.BodyPublishers.ofString(formData.toString()))
                 .build();
 
-        HttpResponse<String> response = client.send(submitRequest, HttpResponse.BodyHandlers.ofString());
-        System.out.println("📥 Submit SR Response: " + response.body());
-
-        return response.statusCode() == 200;
+        return client.sendAsync(submitRequest, HttpResponse.BodyHandlers.ofString()).thenApply(response -> {
+            System.out.println("📥 Submit SR Response: " + response.body());
+            return response.statusCode() == 200;
+        });
     }
 }
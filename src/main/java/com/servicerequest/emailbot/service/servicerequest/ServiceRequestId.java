@@ -2,6 +2,7 @@ package com.servicerequest.emailbot.service.servicerequest;
 
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
 import java.net.URI;
@@ -13,11 +14,11 @@ import java.util.Map;
 
 @Service
 public class ServiceRequestId {
-    private final HttpClient client;
+    @Autowired
+    private HttpClient client;
     private final ObjectMapper mapper;
 
     public ServiceRequestId() {
-        this.client = HttpClient.newHttpClient();
         this.mapper = new ObjectMapper();
     }
 
@@ -1,7 +1,9 @@
 package com.servicerequest.emailbot.service.slack;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.servicerequest.emailbot.util.AsyncUtils;
 import io.github.cdimascio.dotenv.Dotenv;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
 import java.net.URI;
@@ -10,24 +12,29 @@ import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
 @Service
 public class AdaptiveCardService {
-    private final HttpClient client;
+    @Autowired
+    private HttpClient client;
     private final ObjectMapper mapper;
     private final Dotenv dotenv;
 
     public AdaptiveCardService() {
-        this.client = HttpClient.newHttpClient();
         this.mapper = new ObjectMapper();
         this.dotenv = Dotenv.configure().ignoreIfMissing().load();
     }
 
     public boolean sendSlackNotification(String srId, String message, String channel) throws Exception {
+        return AsyncUtils.await(sendSlackNotificationAsync(srId, message, channel));
+    }
+
+    public CompletableFuture<Boolean> sendSlackNotificationAsync(String srId, String message, String channel) {
         String slackToken = dotenv.get("SLACK_BOT_TOKEN");
         if (slackToken == null) {
             System.out.println("SLACK_BOT_TOKEN not set, skipping Slack notification");
-            return false;
+            return CompletableFuture.completedFuture(false);
         }
 
         Map<String, Object> payload = new HashMap<>();
@@ -43,24 +50,26 @@ public class AdaptiveCardService {
             )
         });
 
-        String jsonBody = mapper.writeValueAsString(payload);
+        return AsyncUtils.supplyFailing(() -> {
+            String jsonBody = mapper.writeValueAsString(payload);
 
-        HttpRequest request = HttpRequest.newBuilder()
-                .uri(URI.create("https://slack.com/api/chat.postMessage"))
-                .header("Content-Type", "application/json")
-                .header("Authorization", "Bearer " + slackToken)
-                .POST(HttpRequest.BodyPublishers.ofString(jsonBody))
-                .build();
+            HttpRequest request = HttpRequest.newBuilder()
+                    .uri(URI.create("https://slack.com/api/chat.postMessage"))
+                    .header("Content-Type", "application/json")
+                    .header("Authorization", "Bearer " + slackToken)
+                    .POST(HttpRequest.BodyPublishers.ofString(jsonBody))
+                    .build();
 
-        HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
-        
-        if (response.statusCode() == 200) {
-            System.out.println("Slack notification sent for SR: " + srId);
-            return true;
-        } else {
-            System.err.println("Failed to send Slack notification: " + response.statusCode());
-            return false;
-        }
+            return client.sendAsync(request, HttpResponse.BodyHandlers.ofString()).thenApply(response -> {
+                if (response.statusCode() == 200) {
+                    System.out.println("Slack notification sent for SR: " + srId);
+                    return true;
+                } else {
+                    System.err.println("Failed to send Slack notification: " + response.statusCode());
+                    return false;
+                }
+            });
+        });
     }
 
     public Map<String, Object> createAdaptiveCard(String title, String message, String srId) {
@@ -0,0 +1,144 @@
+package com.servicerequest.emailbot.service.storage;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Write-behind for whole-file JSON state. write() only records the latest value per
+ * file; a background flush (and flush() at the end of a cycle or at shutdown) writes each
+ * changed file once, so N saves of the same file within a window cost one write.
+ * Every file write goes to a temp file that is fsynced and atomically renamed over the
+ * target, so a crash leaves either the old or the new content, never a torn file.
+ */
+public class CoalescingFileWriter {
+
+    private final Path directory;
+    private final ObjectMapper objectMapper;
+
+    // Latest unwritten value per file name. An entry stays until it is on disk so readers see it meanwhile.
+    private final Map<String, Object> pending = new LinkedHashMap<>();
+    // Serializes file writes so a flush can never overwrite a newer writeNow()
+    private final Object fileLock = new Object();
+    private ScheduledExecutorService flusher;
+
+    private final AtomicLong writesRequested = new AtomicLong();
+    private final AtomicLong writesPerformed = new AtomicLong();
+    private final AtomicLong writesFailed = new AtomicLong();
+
+    public CoalescingFileWriter(Path directory, ObjectMapper objectMapper) {
+        this.directory = directory;
+        this.objectMapper = objectMapper;
+    }
+
+    public void start(long flushIntervalMillis) {
+        flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "storage-flusher");
+            thread.setDaemon(true);
+            return thread;
+        });
+        flusher.scheduleWithFixedDelay(this::flush, flushIntervalMillis, flushIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public void stop() {
+        if (flusher != null) {
+            flusher.shutdown();
+        }
+        flush();
+    }
+
+    /**
+     * Queue the new content of a file. The caller must not modify the value afterwards.
+     */
+    public void write(String fileName, Object value) {
+        writesRequested.incrementAndGet();
+        synchronized (pending) {
+            pending.put(fileName, value);
+        }
+    }
+
+    /**
+     * Write a file immediately, superseding any pending value for it
+     */
+    public void writeNow(String fileName, Object value) throws IOException {
+        writesRequested.incrementAndGet();
+        synchronized (fileLock) {
+            synchronized (pending) {
+                pending.remove(fileName);
+            }
+            writeAtomically(fileName, value);
+        }
+    }
+
+    /**
+     * The queued value for a file not yet written, or null
+     */
+    public Object getPending(String fileName) {
+        synchronized (pending) {
+            return pending.get(fileName);
+        }
+    }
+
+    public void flush() {
+        synchronized (fileLock) {
+            Map<String, Object> batch;
+            synchronized (pending) {
+                batch = new LinkedHashMap<>(pending);
+            }
+
+            for (Map.Entry<String, Object> entry : batch.entrySet()) {
+                try {
+                    writeAtomically(entry.getKey(), entry.getValue());
+                    synchronized (pending) {
+                        // A newer value queued meanwhile stays pending for the next flush
+                        pending.remove(entry.getKey(), entry.getValue());
+                    }
+                } catch (IOException e) {
+                    writesFailed.incrementAndGet();
+                    System.err.println("Failed to write " + entry.getKey() + ": " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    public long getWritesRequested() {
+        return writesRequested.get();
+    }
+
+    public long getWritesPerformed() {
+        return writesPerformed.get();
+    }
+
+    public long getWritesFailed() {
+        return writesFailed.get();
+    }
+
+    public int getPendingCount() {
+        synchronized (pending) {
+            return pending.size();
+        }
+    }
+
+    private void writeAtomically(String fileName, Object value) throws IOException {
+        Path target = directory.resolve(fileName);
+        Path tempFile = directory.resolve(fileName + ".tmp");
+
+        Files.write(tempFile, objectMapper.writeValueAsBytes(value));
+        try (FileChannel channel = FileChannel.open(tempFile, StandardOpenOption.WRITE)) {
+            channel.force(true);
+        }
+        Files.move(tempFile, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        writesPerformed.incrementAndGet();
+    }
+}
@@ -0,0 +1,314 @@
+package com.servicerequest.emailbot.service.storage;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * State kept in plain JSON files under the data directory. Thread mappings are served
+ * from ThreadMappingStore and only rewritten to the JSON files on compaction.
+ * Saves go through CoalescingFileWriter, so repeated saves of a file within the flush
+ * window cost one crash-safe write. Suited to small installs; see MvStoreStorageBackend
+ * for larger ones.
+ */
+public class JsonStorageBackend implements StorageBackend {
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final String dataDirectory;
+    private final int compactThreshold;
+    private final long flushIntervalMillis;
+    private final ThreadMappingStore threadStore;
+    private final CoalescingFileWriter fileWriter;
+    // Every read-modify-write of session_data.json holds this, so none can overwrite another's change
+    private final Object sessionLock = new Object();
+
+    public JsonStorageBackend(String dataDirectory, int compactThreshold, long flushIntervalMillis) {
+        this.dataDirectory = dataDirectory;
+        this.compactThreshold = compactThreshold;
+        this.flushIntervalMillis = flushIntervalMillis;
+        this.threadStore = new ThreadMappingStore(Paths.get(dataDirectory, "thread_mapping.log"), objectMapper);
+        this.fileWriter = new CoalescingFileWriter(Paths.get(dataDirectory), objectMapper);
+    }
+
+    @Override
+    public String getName() {
+        return "json";
+    }
+
+    @Override
+    public void open() throws IOException {
+        // The JSON files are read once here; after that thread lookups are served from memory
+        threadStore.load(readThreadSnapshot(), loadSessionData());
+        System.out.println("Thread mapping store loaded: " + threadStore.size() + " conversations, "
+                + threadStore.getLogRecords() + " pending log records");
+        fileWriter.start(flushIntervalMillis);
+    }
+
+    @Override
+    public void close() {
+        flush();
+        fileWriter.stop();
+        try {
+            threadStore.close();
+        } catch (IOException e) {
+            System.err.println("Failed to close thread mapping log: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Rewrite thread_sr_mapping.json and the thread_* entries of session_data.json from the
+     * in-memory index, then truncate the change log
+     */
+    @Override
+    public void flush() {
+        try {
+            // Written synchronously: the log is truncated right after, so the snapshot must be on disk first
+            threadStore.compact((mappings, details) -> {
+                fileWriter.writeNow("thread_sr_mapping.json", mappings);
+
+                synchronized (sessionLock) {
+                    Map<String, Object> sessionData = loadSessionData();
+                    // Conversations removed since the last snapshot must not come back on the next load
+                    sessionData.keySet().removeIf(key -> key.startsWith("thread_")
+                            && !details.containsKey(key.substring("thread_".length())));
+                    details.forEach((conversationId, threadDetails) -> sessionData.put("thread_" + conversationId, threadDetails));
+                    fileWriter.writeNow("session_data.json", sessionData);
+                }
+            });
+        } catch (IOException e) {
+            // The log is left in place, so nothing is lost - compaction is retried next time
+            System.err.println("Failed to compact thread mappings: " + e.getMessage());
+        }
+    }
+
+    @Override
+    public void flushPendingWrites() {
+        fileWriter.flush();
+    }
+
+    @Override
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("backend", getName());
+        stats.put("threadMappings", threadStore.size());
+        stats.put("threadLogRecords", threadStore.getLogRecords());
+        stats.put("writesRequested", fileWriter.getWritesRequested());
+        stats.put("writesPerformed", fileWriter.getWritesPerformed());
+        stats.put("writesFailed", fileWriter.getWritesFailed());
+        stats.put("writesPending", fileWriter.getPendingCount());
+        return stats;
+    }
+
+    @Override
+    public String getThreadSrId(String conversationId) {
+        return threadStore.getSrId(conversationId);
+    }
+
+    /**
+     * Only the new record is appended to the change log; the JSON files are rewritten on compaction
+     */
+    @Override
+    public void saveThreadMapping(String conversationId, String srId, String sender, String subject) {
+        try {
+            threadStore.put(conversationId, srId, sender, subject);
+        } catch (IOException e) {
+            System.err.println("Failed to append thread mapping: " + e.getMessage());
+        }
+
+        if (threadStore.getLogRecords() >= compactThreshold) {
+            flush();
+        }
+    }
+
+    /**
+     * Thread mappings including those still only in the change log
+     */
+    public Map<String, String> getAllThreadMappings() {
+        return threadStore.getMappings();
+    }
+
+    public Map<String, Map<String, Object>> getAllThreadDetails() {
+        return threadStore.getAllDetails();
+    }
+
+    /**
+     * Served from the index, so mappings still only in the change log are included
+     */
+    @Override
+    public Map<String, String> loadThreadSRMapping() {
+        return threadStore.getMappings();
+    }
+
+    /**
+     * Applied to the index as log records, like saveThreadMapping, so the next compaction
+     * keeps the change instead of overwriting it with the old snapshot
+     */
+    @Override
+    public void saveThreadSRMapping(Map<String, String> mapping) {
+        Map<String, String> current = threadStore.getMappings();
+        try {
+            for (String conversationId : current.keySet()) {
+                if (!mapping.containsKey(conversationId)) {
+                    threadStore.remove(conversationId);
+                }
+            }
+            for (Map.Entry<String, String> entry : mapping.entrySet()) {
+                if (Objects.equals(current.get(entry.getKey()), entry.getValue())) {
+                    continue;
+                }
+                Map<String, Object> details = threadStore.getDetails(entry.getKey());
+                threadStore.put(entry.getKey(), entry.getValue(),
+                        details != null ? (String) details.get("sender") : null,
+                        details != null ? (String) details.get("subject") : null);
+            }
+        } catch (IOException e) {
+            System.err.println("Failed to append thread mappings: " + e.getMessage());
+        }
+
+        if (threadStore.getLogRecords() >= compactThreshold) {
+            flush();
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private Map<String, String> readThreadSnapshot() {
+        Object pending = fileWriter.getPending("thread_sr_mapping.json");
+        if (pending != null) {
+            return new HashMap<>((Map<String, String>) pending);
+        }
+
+        String filePath = dataDirectory + "/thread_sr_mapping.json";
+        File file = new File(filePath);
+
+        if (!file.exists()) {
+            return new HashMap<>();
+        }
+
+        try {
+            return objectMapper.readValue(file, HashMap.class);
+        } catch (IOException e) {
+            System.err.println("Failed to load thread SR mapping: " + e.getMessage());
+            return new HashMap<>();
+        }
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public Map<String, Object> loadSessionData() {
+        Object pending = fileWriter.getPending("session_data.json");
+        if (pending != null) {
+            return new HashMap<>((Map<String, Object>) pending);
+        }
+
+        String filePath = dataDirectory + "/session_data.json";
+        File file = new File(filePath);
+
+        if (!file.exists()) {
+            return new HashMap<>();
+        }
+
+        try {
+            return objectMapper.readValue(file, HashMap.class);
+        } catch (IOException e) {
+            System.err.println("Failed to load session data: " + e.getMessage());
+            return new HashMap<>();
+        }
+    }
+
+    @Override
+    public void saveSessionData(Map<String, Object> sessionData) {
+        synchronized (sessionLock) {
+            // Copied so later changes by the caller don't leak into the queued write
+            fileWriter.write("session_data.json", new HashMap<>(sessionData));
+        }
+    }
+
+    @Override
+    public void putSessionEntry(String key, Object value) {
+        synchronized (sessionLock) {
+            Map<String, Object> sessionData = loadSessionData();
+            sessionData.put(key, value);
+            fileWriter.write("session_data.json", sessionData);
+        }
+    }
+
+    @Override
+    public boolean removeSessionEntry(String key) {
+        synchronized (sessionLock) {
+            Map<String, Object> sessionData = loadSessionData();
+            if (sessionData.remove(key) == null) {
+                return false;
+            }
+            fileWriter.write("session_data.json", sessionData);
+            return true;
+        }
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public Map<String, Object> loadEmailCache() {
+        Object pending = fileWriter.getPending("email_cache.json");
+        if (pending != null) {
+            return new HashMap<>((Map<String, Object>) pending);
+        }
+
+        String filePath = dataDirectory + "/email_cache.json";
+        File file = new File(filePath);
+
+        if (!file.exists()) {
+            return new HashMap<>();
+        }
+
+        try {
+            return objectMapper.readValue(file, HashMap.class);
+        } catch (IOException e) {
+            System.err.println("Failed to load email cache: " + e.getMessage());
+            return new HashMap<>();
+        }
+    }
+
+    @Override
+    public void saveEmailCache(Map<String, Object> emailCache) {
+        // Copied so later changes by the caller don't leak into the queued write
+        fileWriter.write("email_cache.json", new HashMap<>(emailCache));
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public String loadDeltaLink() {
+        Object pending = fileWriter.getPending("sync_state.json");
+        if (pending != null) {
+            return (String) ((Map<String, Object>) pending).get("inboxDeltaLink");
+        }
+
+        String filePath = dataDirectory + "/sync_state.json";
+        File file = new File(filePath);
+
+        if (!file.exists()) {
+            return null;
+        }
+
+        try {
+            Map<String, Object> syncState = objectMapper.readValue(file, HashMap.class);
+            return (String) syncState.get("inboxDeltaLink");
+        } catch (IOException e) {
+            System.err.println("Failed to load sync state: " + e.getMessage());
+            return null;
+        }
+    }
+
+    @Override
+    public void saveDeltaLink(String deltaLink) {
+        Map<String, Object> syncState = new HashMap<>();
+        syncState.put("inboxDeltaLink", deltaLink);
+        syncState.put("timestamp", System.currentTimeMillis());
+
+        fileWriter.write("sync_state.json", syncState);
+    }
+}
@@ -0,0 +1,277 @@
+package com.servicerequest.emailbot.service.storage;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.h2.mvstore.MVStore;
+import org.h2.mvstore.tx.Transaction;
+import org.h2.mvstore.tx.TransactionMap;
+import org.h2.mvstore.tx.TransactionStore;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * State kept in an embedded H2 MVStore (data/bot_state.mv.db). Every write runs in its
+ * own transaction, and lookups are B-tree reads of a single key rather than a parse
+ * of the whole file. Values are stored as JSON strings so the shapes match the JSON
+ * backend. On first open the existing JSON files are imported once.
+ */
+public class MvStoreStorageBackend implements StorageBackend {
+
+    private static final String THREAD_MAPPINGS = "threadMappings";
+    private static final String SESSION_DATA = "sessionData";
+    private static final String EMAIL_CACHE = "emailCache";
+    private static final String META = "meta";
+    private static final String DELTA_LINK_KEY = "inboxDeltaLink";
+    private static final String MIGRATED_KEY = "migratedFromJson";
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final String dataDirectory;
+    private MVStore store;
+    private TransactionStore transactionStore;
+
+    private final AtomicLong transactionsCommitted = new AtomicLong();
+    private final AtomicLong transactionsRolledBack = new AtomicLong();
+
+    public MvStoreStorageBackend(String dataDirectory) {
+        this.dataDirectory = dataDirectory;
+    }
+
+    @Override
+    public String getName() {
+        return "h2";
+    }
+
+    @Override
+    public void open() throws IOException {
+        store = new MVStore.Builder()
+                .fileName(Paths.get(dataDirectory, "bot_state.mv.db").toString())
+                .compress()
+                .open();
+        transactionStore = new TransactionStore(store);
+        transactionStore.init();
+
+        migrateFromJson();
+        System.out.println("MVStore storage opened: " + read(tx -> tx.openMap(THREAD_MAPPINGS).size()) + " thread mappings");
+    }
+
+    @Override
+    public void close() {
+        if (transactionStore != null) {
+            transactionStore.close();
+        }
+        if (store != null) {
+            store.close();
+        }
+    }
+
+    @Override
+    public void flush() {
+        store.commit();
+    }
+
+    @Override
+    public void flushPendingWrites() {
+        // Every write is already committed in its own transaction
+    }
+
+    @Override
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("backend", getName());
+        stats.put("threadMappings", read(tx -> tx.openMap(THREAD_MAPPINGS).size()));
+        // One store commit per write - nothing is coalesced
+        stats.put("writesRequested", transactionsCommitted.get() + transactionsRolledBack.get());
+        stats.put("writesPerformed", transactionsCommitted.get());
+        stats.put("writesFailed", transactionsRolledBack.get());
+        return stats;
+    }
+
+    @Override
+    public String getThreadSrId(String conversationId) {
+        if (conversationId == null) {
+            return null;
+        }
+        return read(tx -> tx.<String, String>openMap(THREAD_MAPPINGS).get(conversationId));
+    }
+
+    /**
+     * The mapping and its thread details are written in one transaction
+     */
+    @Override
+    public void saveThreadMapping(String conversationId, String srId, String sender, String subject) {
+        Map<String, Object> threadDetails = new HashMap<>();
+        threadDetails.put("srId", srId);
+        threadDetails.put("sender", sender);
+        threadDetails.put("subject", subject);
+        threadDetails.put("timestamp", System.currentTimeMillis());
+
+        write("thread mapping", tx -> {
+            tx.<String, String>openMap(THREAD_MAPPINGS).put(conversationId, srId);
+            tx.<String, String>openMap(SESSION_DATA).put("thread_" + conversationId, toJson(threadDetails));
+        });
+    }
+
+    @Override
+    public Map<String, String> loadThreadSRMapping() {
+        return read(tx -> new HashMap<>(tx.<String, String>openMap(THREAD_MAPPINGS)));
+    }
+
+    @Override
+    public void saveThreadSRMapping(Map<String, String> mapping) {
+        write("thread SR mapping", tx -> {
+            TransactionMap<String, String> map = tx.openMap(THREAD_MAPPINGS);
+            removeMissing(map, mapping);
+            map.putAll(mapping);
+        });
+    }
+
+    @Override
+    public Map<String, Object> loadSessionData() {
+        return read(tx -> fromJsonMap(tx.openMap(SESSION_DATA)));
+    }
+
+    @Override
+    public void saveSessionData(Map<String, Object> sessionData) {
+        write("session data", tx -> replaceAll(tx.openMap(SESSION_DATA), sessionData));
+    }
+
+    @Override
+    public void putSessionEntry(String key, Object value) {
+        write("session entry", tx -> tx.<String, String>openMap(SESSION_DATA).put(key, toJson(value)));
+    }
+
+    @Override
+    public boolean removeSessionEntry(String key) {
+        boolean[] removed = {false};
+        write("session entry", tx -> removed[0] = tx.<String, String>openMap(SESSION_DATA).remove(key) != null);
+        return removed[0];
+    }
+
+    @Override
+    public Map<String, Object> loadEmailCache() {
+        return read(tx -> fromJsonMap(tx.openMap(EMAIL_CACHE)));
+    }
+
+    @Override
+    public void saveEmailCache(Map<String, Object> emailCache) {
+        write("email cache", tx -> replaceAll(tx.openMap(EMAIL_CACHE), emailCache));
+    }
+
+    @Override
+    public String loadDeltaLink() {
+        return read(tx -> tx.<String, String>openMap(META).get(DELTA_LINK_KEY));
+    }
+
+    @Override
+    public void saveDeltaLink(String deltaLink) {
+        write("sync state", tx -> tx.<String, String>openMap(META).put(DELTA_LINK_KEY, deltaLink));
+    }
+
+    /**
+     * Import the JSON files (including the pending thread mapping log) in a single
+     * transaction. The files are left in place as a backup.
+     */
+    private void migrateFromJson() throws IOException {
+        if (read(tx -> tx.<String, String>openMap(META).containsKey(MIGRATED_KEY))) {
+            return;
+        }
+
+        JsonStorageBackend json = new JsonStorageBackend(dataDirectory, Integer.MAX_VALUE, Long.MAX_VALUE);
+        json.open();
+        try {
+            Map<String, String> mappings = json.getAllThreadMappings();
+            Map<String, Object> sessionData = json.loadSessionData();
+            json.getAllThreadDetails().forEach((conversationId, details) -> sessionData.put("thread_" + conversationId, details));
+            Map<String, Object> emailCache = json.loadEmailCache();
+            String deltaLink = json.loadDeltaLink();
+
+            write("JSON migration", tx -> {
+                tx.<String, String>openMap(THREAD_MAPPINGS).putAll(mappings);
+                replaceAll(tx.openMap(SESSION_DATA), sessionData);
+                replaceAll(tx.openMap(EMAIL_CACHE), emailCache);
+                TransactionMap<String, String> meta = tx.openMap(META);
+                if (deltaLink != null) {
+                    meta.put(DELTA_LINK_KEY, deltaLink);
+                }
+                meta.put(MIGRATED_KEY, String.valueOf(System.currentTimeMillis()));
+            });
+            System.out.println("Migrated JSON storage to MVStore: " + mappings.size() + " thread mappings, "
+                    + sessionData.size() + " session entries, " + emailCache.size() + " cached emails");
+        } finally {
+            json.close();
+        }
+    }
+
+    private <T> T read(Function<Transaction, T> work) {
+        Transaction tx = transactionStore.begin();
+        try {
+            return work.apply(tx);
+        } finally {
+            tx.commit();
+        }
+    }
+
+    private void write(String description, Consumer<Transaction> work) {
+        Transaction tx = transactionStore.begin();
+        try {
+            work.accept(tx);
+            tx.commit();
+        } catch (RuntimeException e) {
+            tx.rollback();
+            transactionsRolledBack.incrementAndGet();
+            System.err.println("Failed to save " + description + ": " + e.getMessage());
+            return;
+        }
+        // Persist now instead of waiting for the background auto-commit
+        store.commit();
+        transactionsCommitted.incrementAndGet();
+    }
+
+    private void replaceAll(TransactionMap<String, String> map, Map<String, Object> values) {
+        removeMissing(map, values);
+        for (Map.Entry<String, Object> entry : values.entrySet()) {
+            map.put(entry.getKey(), toJson(entry.getValue()));
+        }
+    }
+
+    private void removeMissing(TransactionMap<String, String> map, Map<String, ?> values) {
+        // Collected first - TransactionMap iterators do not support remove()
+        List<String> stale = new ArrayList<>();
+        for (String key : map.keySet()) {
+            if (!values.containsKey(key)) {
+                stale.add(key);
+            }
+        }
+        stale.forEach(map::remove);
+    }
+
+    private Map<String, Object> fromJsonMap(TransactionMap<String, String> map) {
+        Map<String, Object> values = new HashMap<>();
+        for (Map.Entry<String, String> entry : map.entrySet()) {
+            try {
+                values.put(entry.getKey(), objectMapper.readValue(entry.getValue(), Object.class));
+            } catch (JsonProcessingException e) {
+                System.err.println("Skipping unreadable stored value " + entry.getKey() + ": " + e.getMessage());
+            }
+        }
+        return values;
+    }
+
+    private String toJson(Object value) {
+        try {
+            return objectMapper.writeValueAsString(value);
+        } catch (JsonProcessingException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
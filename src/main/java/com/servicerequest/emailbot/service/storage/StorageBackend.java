@@ -0,0 +1,59 @@
+package com.servicerequest.emailbot.service.storage;
+
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * Persistence for the bot's local state: thread -> SR mappings, session data,
+ * the email cache and the Graph sync state. Selected with app.storage.backend.
+ */
+public interface StorageBackend {
+
+    String getName();
+
+    void open() throws IOException;
+
+    void close();
+
+    /**
+     * Periodic maintenance - compaction for the JSON backend
+     */
+    void flush();
+
+    /**
+     * Write out anything still buffered - called at the end of each processing cycle
+     */
+    void flushPendingWrites();
+
+    Map<String, Object> getStats();
+
+    String getThreadSrId(String conversationId);
+
+    void saveThreadMapping(String conversationId, String srId, String sender, String subject);
+
+    Map<String, String> loadThreadSRMapping();
+
+    void saveThreadSRMapping(Map<String, String> mapping);
+
+    Map<String, Object> loadSessionData();
+
+    void saveSessionData(Map<String, Object> sessionData);
+
+    /**
+     * Set one session entry without replacing the rest, so concurrent writers don't lose updates
+     */
+    void putSessionEntry(String key, Object value);
+
+    /**
+     * Remove one session entry; returns whether it existed
+     */
+    boolean removeSessionEntry(String key);
+
+    Map<String, Object> loadEmailCache();
+
+    void saveEmailCache(Map<String, Object> emailCache);
+
+    String loadDeltaLink();
+
+    void saveDeltaLink(String deltaLink);
+}
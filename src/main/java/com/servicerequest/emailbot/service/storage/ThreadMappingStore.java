@@ -0,0 +1,179 @@
+package com.servicerequest.emailbot.service.storage;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * In-memory conversation -> service request index. The JSON snapshot files are read once
+ * at startup and every new mapping is appended as a single line to a change log, so
+ * lookups never touch disk and a write costs one small append instead of rewriting the
+ * whole history. compact() folds the log back into the snapshot and truncates it.
+ */
+public class ThreadMappingStore {
+
+    private final Path logFile;
+    private final ObjectMapper objectMapper;
+    private final Map<String, String> srIdByConversation = new ConcurrentHashMap<>();
+    private final Map<String, Map<String, Object>> detailsByConversation = new ConcurrentHashMap<>();
+
+    // Guards log appends and compaction so no record lands between snapshot and truncate
+    private final Object logLock = new Object();
+    private FileChannel logChannel;
+    private int logRecords = 0;
+
+    public ThreadMappingStore(Path logFile, ObjectMapper objectMapper) {
+        this.logFile = logFile;
+        this.objectMapper = objectMapper;
+    }
+
+    /**
+     * Build the index from the snapshot (mapping file and thread_* session entries), then replay the log
+     */
+    @SuppressWarnings("unchecked")
+    public void load(Map<String, String> snapshotMappings, Map<String, Object> sessionData) throws IOException {
+        srIdByConversation.putAll(snapshotMappings);
+        for (Map.Entry<String, Object> entry : sessionData.entrySet()) {
+            if (entry.getKey().startsWith("thread_") && entry.getValue() instanceof Map) {
+                detailsByConversation.put(entry.getKey().substring("thread_".length()), (Map<String, Object>) entry.getValue());
+            }
+        }
+
+        if (Files.exists(logFile)) {
+            try (BufferedReader reader = Files.newBufferedReader(logFile, StandardCharsets.UTF_8)) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    if (line.isBlank()) {
+                        continue;
+                    }
+                    try {
+                        JsonNode json = objectMapper.readTree(line);
+                        apply(json.get("conversationId").asText(), objectMapper.convertValue(json, HashMap.class));
+                        logRecords++;
+                    } catch (Exception e) {
+                        // Torn last line after a crash - earlier records are intact
+                        System.err.println("Skipping unreadable thread mapping log line: " + e.getMessage());
+                    }
+                }
+            }
+        }
+
+        logChannel = FileChannel.open(logFile, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    }
+
+    public String getSrId(String conversationId) {
+        return conversationId != null ? srIdByConversation.get(conversationId) : null;
+    }
+
+    public Map<String, Object> getDetails(String conversationId) {
+        return conversationId != null ? detailsByConversation.get(conversationId) : null;
+    }
+
+    public Map<String, String> getMappings() {
+        return new HashMap<>(srIdByConversation);
+    }
+
+    public Map<String, Map<String, Object>> getAllDetails() {
+        return new HashMap<>(detailsByConversation);
+    }
+
+    public int size() {
+        return srIdByConversation.size();
+    }
+
+    public int getLogRecords() {
+        return logRecords;
+    }
+
+    public void put(String conversationId, String srId, String sender, String subject) throws IOException {
+        Map<String, Object> record = new LinkedHashMap<>();
+        record.put("conversationId", conversationId);
+        record.put("srId", srId);
+        record.put("sender", sender);
+        record.put("subject", subject);
+        record.put("timestamp", System.currentTimeMillis());
+        append(conversationId, record);
+    }
+
+    /**
+     * Drop a conversation's mapping; logged like a put so it survives a restart
+     */
+    public void remove(String conversationId) throws IOException {
+        Map<String, Object> record = new LinkedHashMap<>();
+        record.put("conversationId", conversationId);
+        record.put("removed", true);
+        record.put("timestamp", System.currentTimeMillis());
+        append(conversationId, record);
+    }
+
+    private void append(String conversationId, Map<String, Object> record) throws IOException {
+        byte[] line = (objectMapper.writeValueAsString(record) + "\n").getBytes(StandardCharsets.UTF_8);
+
+        synchronized (logLock) {
+            apply(conversationId, record);
+            ByteBuffer buffer = ByteBuffer.wrap(line);
+            while (buffer.hasRemaining()) {
+                logChannel.write(buffer);
+            }
+            logChannel.force(false);
+            logRecords++;
+        }
+    }
+
+    /**
+     * Write a full snapshot through the given writer, then truncate the log. If the
+     * snapshot write throws, the log is kept so nothing is lost.
+     */
+    public void compact(SnapshotWriter snapshotWriter) throws IOException {
+        synchronized (logLock) {
+            if (logRecords == 0) {
+                return;
+            }
+            snapshotWriter.write(getMappings(), getAllDetails());
+            logChannel.truncate(0);
+            logChannel.force(true);
+            System.out.println("Compacted thread mapping log: " + logRecords + " records folded into snapshot");
+            logRecords = 0;
+        }
+    }
+
+    public void close() throws IOException {
+        if (logChannel != null) {
+            logChannel.close();
+        }
+    }
+
+    private void apply(String conversationId, Map<String, Object> record) {
+        if (Boolean.TRUE.equals(record.get("removed"))) {
+            srIdByConversation.remove(conversationId);
+            detailsByConversation.remove(conversationId);
+            return;
+        }
+        srIdByConversation.put(conversationId, String.valueOf(record.get("srId")));
+
+        Map<String, Object> details = new HashMap<>();
+        details.put("srId", record.get("srId"));
+        details.put("sender", record.get("sender"));
+        details.put("subject", record.get("subject"));
+        details.put("timestamp", record.get("timestamp"));
+        detailsByConversation.put(conversationId, details);
+    }
+
+    @FunctionalInterface
+    public interface SnapshotWriter {
+        void write(Map<String, String> mappings, Map<String, Map<String, Object>> details) throws IOException;
+    }
+}
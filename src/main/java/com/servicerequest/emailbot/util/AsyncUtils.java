@@ -0,0 +1,67 @@
+package com.servicerequest.emailbot.util;
+
+import com.servicerequest.emailbot.config.RequestDeadline;
+
+import java.net.http.HttpTimeoutException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Helpers for the CompletableFuture variants of the integration APIs.
+ */
+public class AsyncUtils {
+
+    /**
+     * Wait for the future and rethrow its failure as-is, so the blocking wrappers throw
+     * the same exceptions the old synchronous code did. Under a RequestDeadline the wait
+     * ends when the deadline passes, whatever the chain is still waiting for.
+     */
+    public static <T> T await(CompletableFuture<T> future) throws Exception {
+        long deadlineAt = RequestDeadline.current();
+        try {
+            if (deadlineAt == Long.MAX_VALUE) {
+                return future.get();
+            }
+            return future.get(Math.max(0, deadlineAt - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            throw new HttpTimeoutException("Deadline exceeded waiting for the response");
+        } catch (ExecutionException e) {
+            Throwable cause = unwrap(e);
+            if (cause instanceof Exception exception) {
+                throw exception;
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * The original failure behind CompletionException/ExecutionException wrappers
+     */
+    public static Throwable unwrap(Throwable error) {
+        while ((error instanceof CompletionException || error instanceof ExecutionException)
+                && error.getCause() != null) {
+            error = error.getCause();
+        }
+        return error;
+    }
+
+    /**
+     * Future that fails with whatever the call throws, for async paths whose request
+     * building can fail before anything is sent
+     */
+    public static <T> CompletableFuture<T> supplyFailing(ThrowingSupplier<CompletableFuture<T>> call) {
+        try {
+            return call.get();
+        } catch (Exception e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    @FunctionalInterface
+    public interface ThrowingSupplier<T> {
+        T get() throws Exception;
+    }
+}
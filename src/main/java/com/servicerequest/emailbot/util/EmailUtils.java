@@ -3,6 +3,12 @@ package com.servicerequest.emailbot.util;
 import com.servicerequest.emailbot.service.outlook.OutlookSession;
 import com.servicerequest.emailbot.service.auth.AuthServiceOutlook;
 import org.jsoup.Jsoup;
+import org.jsoup.nodes.Document;
+import org.jsoup.nodes.Element;
+import org.jsoup.nodes.Node;
+import org.jsoup.nodes.TextNode;
+import org.jsoup.select.NodeTraversor;
+import org.jsoup.select.NodeVisitor;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -13,21 +19,105 @@ public class EmailUtils {
 
     private static final Logger logger = LoggerFactory.getLogger(EmailUtils.class);
 
+    private static final List<String> BOT_CONTENT_MARKERS = Arrays.asList(
+        "💡 This email contains an interactive questionnaire form",
+        "📋 Service Request Questionnaire",
+        "Q1: Q1", "Q2: Q2",
+        "Answer: Your answer to question",
+        "💬 Additional Comments",
+        "📎 Question Attachments:",
+        "📎 Comments Attachments:",
+        "📎 General Attachments:",
+        "(no files)"
+    );
+
+    private static final Pattern HTML_TAG = Pattern.compile("<(html|body|div|p|br|span|table|font)[\\s>/]", Pattern.CASE_INSENSITIVE);
+
+    /**
+     * Bodies fetched with Prefer: outlook.body-content-type="text" are already plain text,
+     * so Jsoup only runs when the body actually contains markup.
+     */
+    public static String toPlainText(String body) {
+        return toPlainText(body, false);
+    }
+
+    /**
+     * Line breaks of block elements and <br> are kept so the line-based cleanup below also
+     * works on HTML bodies. With dropQuotedHistory, reply chains quoted as markup (Outlook's
+     * divRplyFwdMsg header and everything after it, Gmail quotes, blockquotes) are removed.
+     */
+    public static String toPlainText(String body, boolean dropQuotedHistory) {
+        if (body == null) {
+            return "";
+        }
+        if (!HTML_TAG.matcher(body).find()) {
+            return body;
+        }
+
+        Document doc = Jsoup.parse(body);
+        if (dropQuotedHistory) {
+            Element replyHeader = doc.getElementById("divRplyFwdMsg");
+            if (replyHeader != null) {
+                Element sibling;
+                while ((sibling = replyHeader.nextElementSibling()) != null) {
+                    sibling.remove();
+                }
+                Element separator = replyHeader.previousElementSibling();
+                if (separator != null && separator.normalName().equals("hr")) {
+                    separator.remove();
+                }
+                replyHeader.remove();
+            }
+            doc.select("blockquote, div.gmail_quote").remove();
+        }
+
+        StringBuilder text = new StringBuilder();
+        NodeTraversor.traverse(new NodeVisitor() {
+            @Override
+            public void head(Node node, int depth) {
+                if (node instanceof TextNode textNode) {
+                    text.append(textNode.text());
+                } else if (node instanceof Element element && (element.isBlock() || element.normalName().equals("br"))) {
+                    text.append('\n');
+                }
+            }
+
+            @Override
+            public void tail(Node node, int depth) {
+                if (node instanceof Element element && element.isBlock()) {
+                    text.append('\n');
+                }
+            }
+        }, doc.body());
+
+        return text.toString()
+                .replaceAll("[ \\t\\x0B\\f\\r]+\\n", "\n")
+                .replaceAll("\\n{3,}", "\n\n")
+                .trim();
+    }
+
     public static String extractNewMessageContent(String body) {
-        String text = Jsoup.parse(body).text().trim();
+        String text = toPlainText(body).trim();
+        String cleanContent = stripQuotedHistory(text);
         
-        List<String> botContentMarkers = Arrays.asList(
-            "💡 This email contains an interactive questionnaire form",
-            "📋 Service Request Questionnaire",
-            "Q1: Q1", "Q2: Q2",
-            "Answer: Your answer to question",
-            "💬 Additional Comments",
-            "📎 Question Attachments:",
-            "📎 Comments Attachments:",
-            "📎 General Attachments:",
-            "(no files)"
-        );
+        if (cleanContent.isEmpty()) {
+            String[] lines = text.split("\\r?\\n");
+            for (int i = 0; i < Math.min(5, lines.length); i++) {
+                String line = lines[i].trim();
+                if (!line.isEmpty() && BOT_CONTENT_MARKERS.stream().noneMatch(line::contains)) {
+                    cleanContent = line;
+                    break;
+                }
+            }
+        }
+        return cleanContent.isEmpty() ? "Follow-up message" : cleanContent;
+    }
 
+    /**
+     * Lines written by the sender, without quoted reply headers/history and the bot's own
+     * questionnaire content. Empty if nothing is left.
+     */
+    public static String stripQuotedHistory(String text) {
         String[] lines = text.split("\\r?\\n");
         List<String> cleanLines = new ArrayList<>();
         boolean skipSection = false;
@@ -36,7 +126,7 @@ public class EmailUtils {
             String line = rawLine.trim();
             if (line.isEmpty()) continue;
 
-            boolean isBotContent = botContentMarkers.stream().anyMatch(line::contains);
+            boolean isBotContent = BOT_CONTENT_MARKERS.stream().anyMatch(line::contains);
             if (isBotContent) {
                 skipSection = true;
                 continue;
@@ -55,17 +145,7 @@ public class EmailUtils {
             }
         }
 
-        String cleanContent = String.join("\n", cleanLines).trim();
-        if (cleanContent.isEmpty()) {
-            for (int i = 0; i < Math.min(5, lines.length); i++) {
-                String line = lines[i].trim();
-                if (!line.isEmpty() && botContentMarkers.stream().noneMatch(line::contains)) {
-                    cleanContent = line;
-                    break;
-                }
-            }
-        }
-        return cleanContent.isEmpty() ? "Follow-up message" : cleanContent;
+        return String.join("\n", cleanLines).trim();
     }
 
     public static boolean isQuestionnaireResponse(String body, String subject) {
@@ -0,0 +1,106 @@
+package com.servicerequest.emailbot.config;
+
+import com.servicerequest.emailbot.util.AsyncUtils;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.HttpTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * A deadline set on the calling thread must also bound the later hops of an async chain,
+ * which are sent from HTTP client threads
+ */
+class RequestDeadlineTest {
+
+    private static final long DEADLINE_MS = 500;
+
+    private HttpServer server;
+    private InstrumentedHttpClient client;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.createContext("/first", exchange -> {
+            byte[] body = "ok".getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(200, body.length);
+            exchange.getResponseBody().write(body);
+            exchange.close();
+        });
+        // Never answers within the policy timeout
+        server.createContext("/second", exchange -> {
+            try {
+                Thread.sleep(30_000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            exchange.close();
+        });
+        server.start();
+
+        EndpointPolicy policy = new EndpointPolicy("test", List.of(baseUrl()), Duration.ofSeconds(5),
+                Duration.ofSeconds(20), 0, 100, 1000, Set.of("GET"), Set.of(503), new Bulkhead("test", 0, 0, 0));
+        client = new InstrumentedHttpClient(HttpClient.newHttpClient(), policy, List.of(), Map.of(), 30_000);
+    }
+
+    @AfterEach
+    void tearDown() {
+        server.stop(0);
+    }
+
+    @Test
+    void carriedStepSendsUnderTheCallersDeadline() throws Exception {
+        CompletableFuture<HttpResponse<String>> chain = RequestDeadline.within(DEADLINE_MS, this::twoHops);
+
+        long start = System.currentTimeMillis();
+        // Waited for without a deadline, so only the second hop's own timeout can end it
+        ExecutionException error = assertThrows(ExecutionException.class, () -> chain.get(10, TimeUnit.SECONDS));
+
+        assertTrue(AsyncUtils.unwrap(error) instanceof HttpTimeoutException, "got " + AsyncUtils.unwrap(error));
+        assertTrue(System.currentTimeMillis() - start < 5_000);
+    }
+
+    @Test
+    void awaitReturnsWhenTheDeadlinePasses() {
+        long start = System.currentTimeMillis();
+
+        assertThrows(HttpTimeoutException.class,
+                () -> RequestDeadline.within(DEADLINE_MS, () -> AsyncUtils.await(new CompletableFuture<String>())));
+
+        assertTrue(System.currentTimeMillis() - start < 5_000);
+    }
+
+    private CompletableFuture<HttpResponse<String>> twoHops() {
+        return client.sendAsync(get("/first"), HttpResponse.BodyHandlers.ofString())
+                .thenCompose(RequestDeadline.carried(first ->
+                        client.sendAsync(get("/second"), HttpResponse.BodyHandlers.ofString())));
+    }
+
+    private HttpRequest get(String path) {
+        return HttpRequest.newBuilder().uri(URI.create(baseUrl() + path)).GET().build();
+    }
+
+    private String baseUrl() {
+        return "http://localhost:" + server.getAddress().getPort();
+    }
+}
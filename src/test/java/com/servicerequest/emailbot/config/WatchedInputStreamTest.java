@@ -0,0 +1,200 @@
+package com.servicerequest.emailbot.config;
+
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.HttpTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Streamed bodies must not outlive the read timeout or the caller's deadline once the
+ * headers are in, and keep their bulkhead slot until they are closed
+ */
+class WatchedInputStreamTest {
+
+    private static final long READ_TIMEOUT_MS = 500;
+
+    private HttpServer server;
+    private EndpointPolicy policy;
+    private InstrumentedHttpClient client;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.setExecutor(Executors.newCachedThreadPool());
+        // One event, then nothing - the connection stays open
+        server.createContext("/stall", exchange -> {
+            exchange.sendResponseHeaders(200, 0);
+            OutputStream out = exchange.getResponseBody();
+            out.write("data: {\"type\":\"ping\"}\n\n".getBytes(StandardCharsets.UTF_8));
+            out.flush();
+            sleep(30_000);
+            exchange.close();
+        });
+        // An event every 200ms, forever; never idle long enough for the read timeout
+        server.createContext("/trickle", exchange -> {
+            exchange.sendResponseHeaders(200, 0);
+            OutputStream out = exchange.getResponseBody();
+            try {
+                for (int i = 0; i < 150; i++) {
+                    out.write(("data: " + i + "\n").getBytes(StandardCharsets.UTF_8));
+                    out.flush();
+                    sleep(200);
+                }
+            } catch (IOException e) {
+                // Client went away
+            }
+            exchange.close();
+        });
+        server.createContext("/complete", exchange -> {
+            byte[] body = "line 1\nline 2\n".getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(200, body.length);
+            exchange.getResponseBody().write(body);
+            exchange.close();
+        });
+        server.start();
+
+        policy = new EndpointPolicy("test", List.of(baseUrl()), Duration.ofSeconds(5), Duration.ofMillis(READ_TIMEOUT_MS),
+                0, 100, 1000, Set.of("GET"), Set.of(503), new Bulkhead("test", 0, 0, 0));
+        client = new InstrumentedHttpClient(HttpClient.newHttpClient(), policy, List.of(), Map.of(), 30_000);
+    }
+
+    @AfterEach
+    void tearDown() {
+        server.stop(0);
+    }
+
+    @Test
+    void stalledStreamIsClosedAfterTheReadTimeout() throws Exception {
+        HttpResponse<InputStream> response = client.send(get("/stall"), HttpResponse.BodyHandlers.ofInputStream());
+        long start = System.currentTimeMillis();
+
+        try (BufferedReader reader = reader(response.body())) {
+            assertEquals("data: {\"type\":\"ping\"}", reader.readLine());
+            HttpTimeoutException error = assertThrows(HttpTimeoutException.class, () -> drain(reader));
+            assertTrue(error.getMessage().startsWith("No response data from test"), error.getMessage());
+        }
+
+        long elapsed = System.currentTimeMillis() - start;
+        assertTrue(elapsed >= READ_TIMEOUT_MS && elapsed < 5_000, "closed after " + elapsed + "ms");
+        assertEquals(1L, policy.getStats().get("timeouts"));
+    }
+
+    @Test
+    void asyncStalledStreamIsClosedAfterTheReadTimeout() throws Exception {
+        HttpResponse<InputStream> response = client.sendAsync(get("/stall"), HttpResponse.BodyHandlers.ofInputStream()).get();
+
+        try (BufferedReader reader = reader(response.body())) {
+            assertThrows(HttpTimeoutException.class, () -> drain(reader));
+        }
+        assertEquals(1L, policy.getStats().get("timeouts"));
+    }
+
+    @Test
+    void tricklingStreamIsClosedAtTheDeadline() throws Exception {
+        long start = System.currentTimeMillis();
+
+        HttpTimeoutException error = assertThrows(HttpTimeoutException.class, () -> RequestDeadline.within(1_000, () -> {
+            HttpResponse<InputStream> response = client.send(get("/trickle"), HttpResponse.BodyHandlers.ofInputStream());
+            try (BufferedReader reader = reader(response.body())) {
+                drain(reader);
+            }
+            return null;
+        }));
+
+        long elapsed = System.currentTimeMillis() - start;
+        assertTrue(error.getMessage().startsWith("Deadline exceeded"), error.getMessage());
+        assertTrue(elapsed >= 1_000 && elapsed < 5_000, "closed after " + elapsed + "ms");
+        assertEquals(1L, policy.getStats().get("deadlineExceeded"));
+        assertEquals(0L, policy.getStats().get("timeouts"));
+    }
+
+    @Test
+    void slowConsumerOfACompleteBodyIsNotCutOff() throws Exception {
+        HttpResponse<InputStream> response = client.send(get("/complete"), HttpResponse.BodyHandlers.ofInputStream());
+
+        try (BufferedReader reader = reader(response.body())) {
+            assertEquals("line 1", reader.readLine());
+            // Time spent between reads is the caller's, not the server's
+            sleep(READ_TIMEOUT_MS * 2);
+            assertEquals("line 2", reader.readLine());
+            assertEquals(null, reader.readLine());
+        }
+        assertEquals(0L, policy.getStats().get("timeouts"));
+    }
+
+    @Test
+    void streamedBodyHoldsItsBulkheadSlotUntilClosed() throws Exception {
+        Bulkhead bulkhead = new Bulkhead("graph", 1, 0, 0);
+        EndpointPolicy graph = new EndpointPolicy("graph", List.of(baseUrl()), Duration.ofSeconds(5),
+                Duration.ofMillis(READ_TIMEOUT_MS), 0, 100, 1000, Set.of("GET"), Set.of(503), bulkhead);
+        InstrumentedHttpClient limited = new InstrumentedHttpClient(HttpClient.newHttpClient(), graph, List.of(), Map.of(), 30_000);
+
+        HttpResponse<InputStream> response = limited.send(get("/complete"), HttpResponse.BodyHandlers.ofInputStream());
+        // Headers are in, the body is not read yet
+        assertEquals(1, bulkhead.getStats().get("active"));
+        assertThrows(BulkheadFullException.class, () -> limited.send(get("/complete"), HttpResponse.BodyHandlers.ofString()));
+
+        response.body().readAllBytes();
+        response.body().close();
+        assertEquals(0, bulkhead.getStats().get("active"));
+
+        // Complete bodies free the slot as soon as the response is returned
+        limited.send(get("/complete"), HttpResponse.BodyHandlers.ofString());
+        assertEquals(0, bulkhead.getStats().get("active"));
+
+        // So does the watchdog closing a stalled stream
+        HttpResponse<InputStream> stalled = limited.sendAsync(get("/stall"), HttpResponse.BodyHandlers.ofInputStream()).get();
+        try (BufferedReader reader = reader(stalled.body())) {
+            assertThrows(HttpTimeoutException.class, () -> drain(reader));
+        }
+        assertEquals(0, bulkhead.getStats().get("active"));
+    }
+
+    private String baseUrl() {
+        return "http://localhost:" + server.getAddress().getPort();
+    }
+
+    private HttpRequest get(String path) {
+        return HttpRequest.newBuilder().uri(URI.create(baseUrl() + path)).GET().build();
+    }
+
+    private static BufferedReader reader(InputStream body) {
+        return new BufferedReader(new InputStreamReader(body, StandardCharsets.UTF_8));
+    }
+
+    private static void drain(BufferedReader reader) throws IOException {
+        while (reader.readLine() != null) {
+            // Keep reading until the stream ends or is closed
+        }
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,174 @@
+package com.servicerequest.emailbot.repository;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import javax.sql.DataSource;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Category/type codes must come from the same rows as the taxonomy offered to Claude
+ */
+class DbServiceTest {
+
+    private static final SQLException MISSING_TABLE = new SQLException("Table \"CATEGORIES\" not found", "42S02");
+
+    // Sample rows from init.sql in query order: mnemonic codes, so the ids are used
+    private static final List<Map<String, Object>> SAMPLE_ROWS = List.of(
+            row(4, "ACCESS", "Access Requests", 8, "PASSWORD_RESET", "Password Reset"),
+            row(1, "HARDWARE", "Hardware Issues", 1, "LAPTOP_ISSUE", "Laptop Problem"),
+            row(1, "HARDWARE", "Hardware Issues", 2, "PRINTER_ISSUE", "Printer Problem"));
+
+    @Test
+    void codesComeFromTheTaxonomyRows() {
+        DbService db = dbService(SAMPLE_ROWS);
+
+        Map<String, List<String>> taxonomy = db.getTaxonomy();
+
+        assertEquals(List.of("Laptop Problem", "Printer Problem"), taxonomy.get("Hardware Issues"));
+        assertEquals(1, db.getCategoryCode("Hardware Issues"));
+        assertEquals(2, db.getTypeCode("Printer Problem", 1));
+        assertEquals(4, db.getCategoryCode("Access Requests"));
+        assertEquals(8, db.getTypeCode("Password Reset", 4));
+    }
+
+    @Test
+    void numericCodeColumnsWinOverIds() {
+        DbService db = dbService(List.of(row(3, "61", "IT Support", 9, "108", "Hardware Issue")));
+
+        assertEquals(61, db.getCategoryCode("IT Support"));
+        assertEquals(108, db.getTypeCode("Hardware Issue", 61));
+    }
+
+    @Test
+    void unknownNamesFallBackToTheFirstTaxonomyEntry() {
+        DbService db = dbService(SAMPLE_ROWS);
+
+        // Names from the old hardcoded taxonomy do not exist in this database
+        assertEquals(4, db.getCategoryCode("IT Support"));
+        assertEquals(8, db.getTypeCode("Hardware Issue", 4));
+    }
+
+    @Test
+    void defaultTaxonomyKeepsTheOriginalCodes() {
+        DbService db = dbService(new AtomicReference<>(MISSING_TABLE));
+
+        assertEquals(List.of("Hardware Issue", "Software Issue", "Network Issue", "Access Request"),
+                db.getTaxonomy().get("IT Support"));
+        assertEquals(64, db.getCategoryCode("HR"));
+        assertEquals(110, db.getTypeCode("Network Issue", 61));
+        assertEquals(61, db.getCategoryCode("Unknown"));
+        assertEquals(108, db.getTypeCode("Leave Request", 64));
+    }
+
+    @Test
+    void unreachableDatabaseKeepsTheLastLoadedTaxonomy() {
+        AtomicReference<Object> database = new AtomicReference<>(SAMPLE_ROWS);
+        DbService db = dbService(database);
+        Map<String, List<String>> loaded = db.getTaxonomy();
+
+        database.set(new SQLException("Connection refused", "08001"));
+
+        assertEquals(loaded, db.getTaxonomy());
+        assertEquals(1, db.getCategoryCode("Hardware Issues"));
+        assertEquals(2, db.getTypeCode("Printer Problem", 1));
+    }
+
+    @Test
+    void missingTablesAfterALoadSwitchToTheDefaultTaxonomy() {
+        AtomicReference<Object> database = new AtomicReference<>(SAMPLE_ROWS);
+        DbService db = dbService(database);
+        db.getTaxonomy();
+
+        database.set(MISSING_TABLE);
+
+        assertEquals(List.of("Hardware Issue", "Software Issue", "Network Issue", "Access Request"),
+                db.getTaxonomy().get("IT Support"));
+        assertEquals(61, db.getCategoryCode("IT Support"));
+    }
+
+    private static Map<String, Object> row(int categoryId, String categoryCode, String categoryName,
+                                           int typeId, String typeCode, String typeName) {
+        return Map.of("category_id", categoryId, "category_code", categoryCode, "category_name", categoryName,
+                "type_id", typeId, "type_code", typeCode, "type_name", typeName);
+    }
+
+    private static DbService dbService(List<Map<String, Object>> rows) {
+        return dbService(new AtomicReference<>(rows));
+    }
+
+    /**
+     * A DataSource whose only query returns the current rows. A current SQLException is
+     * thrown instead: by getConnection for SQLState 08 (connection failure), else by the query.
+     */
+    private static DbService dbService(AtomicReference<Object> database) {
+        DataSource dataSource = proxy(DataSource.class, (method, args) -> {
+            if (!"getConnection".equals(method)) {
+                throw new UnsupportedOperationException(method);
+            }
+            if (database.get() instanceof SQLException e && e.getSQLState().startsWith("08")) {
+                throw e;
+            }
+            return proxy(Connection.class, (connectionMethod, connectionArgs) -> {
+                if ("createStatement".equals(connectionMethod)) {
+                    return proxy(Statement.class, (statementMethod, statementArgs) -> {
+                        if (!"executeQuery".equals(statementMethod)) {
+                            return null;
+                        }
+                        if (database.get() instanceof SQLException e) {
+                            throw e;
+                        }
+                        return resultSet(rows(database.get()));
+                    });
+                }
+                return null;
+            });
+        });
+
+        DbService db = new DbService();
+        ReflectionTestUtils.setField(db, "dataSource", dataSource);
+        return db;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<Map<String, Object>> rows(Object rows) {
+        return (List<Map<String, Object>>) rows;
+    }
+
+    private static ResultSet resultSet(List<Map<String, Object>> rows) {
+        Iterator<Map<String, Object>> iterator = rows.iterator();
+        Object[] current = new Object[1];
+        return proxy(ResultSet.class, (method, args) -> {
+            switch (method) {
+                case "next":
+                    current[0] = iterator.hasNext() ? iterator.next() : null;
+                    return current[0] != null;
+                case "getString":
+                    return String.valueOf(((Map<?, ?>) current[0]).get(args[0]));
+                case "getInt":
+                    return ((Map<?, ?>) current[0]).get(args[0]);
+                default:
+                    return null;
+            }
+        });
+    }
+
+    private interface Handler {
+        Object handle(String method, Object[] args) throws Exception;
+    }
+
+    private static <T> T proxy(Class<T> type, Handler handler) {
+        return type.cast(Proxy.newProxyInstance(DbServiceTest.class.getClassLoader(), new Class<?>[] {type},
+                (proxy, method, args) -> handler.handle(method.getName(), args)));
+    }
+}
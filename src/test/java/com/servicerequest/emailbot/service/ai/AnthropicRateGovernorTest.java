@@ -0,0 +1,105 @@
+package com.servicerequest.emailbot.service.ai;
+
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * The attempt start handed to readers must exclude the 429 backoff, so breaker latency
+ * measures the API rather than the governor
+ */
+class AnthropicRateGovernorTest {
+
+    private static final long RESPONSE_DELAY_MS = 50;
+
+    private HttpServer server;
+    private final AtomicInteger requests = new AtomicInteger();
+    private final HttpClient client = HttpClient.newHttpClient();
+    private AnthropicRateGovernor governor;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        // First request is rate limited with retry-after: 1, every later one succeeds after a short delay
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/v1/messages", exchange -> {
+            try (exchange) {
+                if (requests.incrementAndGet() == 1) {
+                    exchange.getResponseHeaders().set("retry-after", "1");
+                    exchange.sendResponseHeaders(429, -1);
+                    return;
+                }
+                try {
+                    Thread.sleep(RESPONSE_DELAY_MS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                byte[] body = "{}".getBytes(StandardCharsets.UTF_8);
+                exchange.sendResponseHeaders(200, body.length);
+                exchange.getResponseBody().write(body);
+            }
+        });
+        server.start();
+
+        governor = new AnthropicRateGovernor();
+        ReflectionTestUtils.setField(governor, "initialConcurrency", 1);
+        ReflectionTestUtils.setField(governor, "maxConcurrency", 1);
+        ReflectionTestUtils.setField(governor, "maxRetries", 3);
+        ReflectionTestUtils.setField(governor, "baseBackoffMs", 1000L);
+        ReflectionTestUtils.setField(governor, "maxBackoffMs", 60000L);
+        ReflectionTestUtils.setField(governor, "tokenReserve", 0L);
+    }
+
+    @AfterEach
+    void tearDown() {
+        server.stop(0);
+    }
+
+    @Test
+    void blockingReaderGetsTheStartOfTheRetriedAttempt() throws Exception {
+        long callStart = System.currentTimeMillis();
+
+        long[] latency = governor.send(client, request(), HttpResponse.BodyHandlers.ofString(),
+                (response, attemptStartedAt) -> new long[] {attemptStartedAt, System.currentTimeMillis() - attemptStartedAt});
+
+        assertBackoffExcluded(callStart, latency);
+    }
+
+    @Test
+    void asyncReaderGetsTheStartOfTheRetriedAttempt() throws Exception {
+        long callStart = System.currentTimeMillis();
+
+        long[] latency = governor.sendAsync(client, request(), HttpResponse.BodyHandlers.ofString(),
+                (response, attemptStartedAt) -> new long[] {attemptStartedAt, System.currentTimeMillis() - attemptStartedAt})
+                .get();
+
+        assertBackoffExcluded(callStart, latency);
+    }
+
+    private void assertBackoffExcluded(long callStart, long[] startAndLatency) {
+        assertEquals(2, requests.get());
+        assertTrue(startAndLatency[0] - callStart >= 1000, "attempt started before the retry-after ran out");
+        assertTrue(startAndLatency[1] >= RESPONSE_DELAY_MS, "latency shorter than the response itself");
+        assertTrue(startAndLatency[1] < 1000, "latency includes the backoff: " + startAndLatency[1] + "ms");
+    }
+
+    private HttpRequest request() {
+        return HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:" + server.getAddress().getPort() + "/v1/messages"))
+                .POST(HttpRequest.BodyPublishers.ofString("{}"))
+                .build();
+    }
+}
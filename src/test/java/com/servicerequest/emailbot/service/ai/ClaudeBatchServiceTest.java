@@ -0,0 +1,190 @@
+package com.servicerequest.emailbot.service.ai;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.servicerequest.emailbot.model.EmailData;
+import com.servicerequest.emailbot.service.LocalStorageService;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.net.http.HttpClient;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Runs the submit / poll / collect / cancel flow of ClaudeBatchService against ClaudeBatchStub
+ */
+class ClaudeBatchServiceTest {
+
+    private ClaudeBatchStub stub;
+    private Path dataDirectory;
+    private LocalStorageService storage;
+
+    private final EmailData printer = email("m1", "conv-1", "Printer offline");
+    private final EmailData laptop = email("m2", "conv-2", "Laptop broken");
+    private final EmailData vpn = email("m3", "conv-3", "VPN down");
+
+    @BeforeEach
+    void setUp() throws Exception {
+        stub = ClaudeBatchStub.start(0, 2);
+        dataDirectory = Files.createTempDirectory("claude-batch-test");
+        storage = openStorage();
+    }
+
+    @AfterEach
+    void tearDown() {
+        storage.close();
+        stub.stop();
+    }
+
+    @Test
+    void submitReturnsWithoutWaitingAndResultsAreCollectedLater() throws Exception {
+        ClaudeBatchService service = newService(1_800_000);
+
+        Map<String, Map<String, String>> immediate = service.submit(List.of(printer, laptop));
+
+        assertTrue(immediate.isEmpty());
+        assertEquals(0, stub.getStatusChecks(), "submit must not poll");
+        assertTrue(service.hasPendingBatches());
+        assertEquals(1, storage.getPendingBatches().size());
+
+        // A follow-up in a batched conversation is held, unrelated mail is not
+        EmailData followUp = email("m4", "conv-1", "RE: Printer offline");
+        assertTrue(service.hold(printer));
+        assertTrue(service.hold(followUp));
+        assertFalse(service.hold(vpn));
+
+        assertTrue(service.collectFinished().isEmpty(), "first status check is still in progress");
+
+        List<ClaudeBatchService.BatchOutcome> outcomes = service.collectFinished();
+        assertEquals(1, outcomes.size());
+        ClaudeBatchService.BatchOutcome outcome = outcomes.get(0);
+        assertEquals(2, outcome.getAnalyses().size());
+        assertEquals("Request email-0", outcome.getAnalyses().get("m1").get("subject"));
+        assertEquals("Request email-1", outcome.getAnalyses().get("m2").get("subject"));
+        assertEquals(List.of("m1", "m4"), outcome.getHeldEmails().stream().map(EmailData::getId).toList());
+        assertTrue(outcome.getUnloadedHeldIds().isEmpty());
+
+        assertFalse(service.hasPendingBatches());
+        assertTrue(storage.getPendingBatches().isEmpty());
+        assertFalse(service.hold(followUp));
+    }
+
+    @Test
+    void erroredRequestsAreLeftForIndividualClassification() throws Exception {
+        stub.failRequest("email-1");
+        ClaudeBatchService service = newService(1_800_000);
+        service.submit(List.of(printer, laptop, vpn));
+
+        service.collectFinished();
+        ClaudeBatchService.BatchOutcome outcome = service.collectFinished().get(0);
+
+        assertEquals(2, outcome.getAnalyses().size());
+        assertNull(outcome.getAnalyses().get("m2"));
+        assertEquals(1L, service.getStats().get("requestsFailed"));
+    }
+
+    @Test
+    void batchPastMaxWaitIsCancelledAndKeepsFinishedResults() throws Exception {
+        stub.endOnlyWhenCancelled(2);
+        ClaudeBatchService service = newService(0);
+        service.submit(List.of(printer, laptop, vpn));
+        service.hold(vpn);
+
+        Thread.sleep(5);
+        assertTrue(service.collectFinished().isEmpty());
+        assertEquals(1, stub.getCancels());
+
+        ClaudeBatchService.BatchOutcome outcome = service.collectFinished().get(0);
+        assertEquals(2, outcome.getAnalyses().size());
+        assertTrue(outcome.getAnalyses().containsKey("m1"));
+        assertTrue(outcome.getAnalyses().containsKey("m2"));
+        // Released without a result, so it is classified one by one
+        assertEquals(List.of("m3"), outcome.getHeldEmails().stream().map(EmailData::getId).toList());
+        assertEquals(1L, service.getStats().get("batchesCancelled"));
+    }
+
+    @Test
+    void batchSubmittedBeforeRestartIsCollectedAfterIt() throws Exception {
+        ClaudeBatchService service = newService(1_800_000);
+        service.submit(List.of(printer, laptop));
+        service.hold(printer);
+        service.hold(email("m4", "conv-1", "RE: Printer offline"));
+        storage.close();
+
+        storage = openStorage();
+        ClaudeBatchService restarted = newService(1_800_000);
+
+        assertTrue(restarted.isPending(laptop));
+        // Listed again by a filter sweep; the other held emails are only known by ID
+        assertTrue(restarted.hold(laptop));
+        restarted.collectFinished();
+        ClaudeBatchService.BatchOutcome outcome = restarted.collectFinished().get(0);
+
+        assertEquals(2, outcome.getAnalyses().size());
+        assertEquals("Request email-1", outcome.getAnalyses().get("m2").get("subject"));
+        assertEquals(List.of("m2"), outcome.getHeldEmails().stream().map(EmailData::getId).toList());
+        assertEquals(List.of("m1", "m4"), outcome.getUnloadedHeldIds());
+        assertEquals(1, stub.getBatchesSubmitted());
+    }
+
+    private ClaudeBatchService newService(long maxWait) {
+        ClaudeService claudeService = new ClaudeService() {
+            @Override
+            Map<String, Object> buildRequestBody(String emailContent, String subject) {
+                return Map.of("model", "claude-test", "max_tokens", 300,
+                        "messages", List.of(Map.of("role", "user", "content", subject + "\n" + emailContent)));
+            }
+
+            @Override
+            void logPromptUsage(PromptCompactor.Result compacted, String subject, JsonNode usage) {
+            }
+        };
+        PromptCompactor promptCompactor = new PromptCompactor();
+        ReflectionTestUtils.setField(promptCompactor, "maxBodyTokens", 1500);
+
+        ClaudeBatchService service = new ClaudeBatchService();
+        ReflectionTestUtils.setField(service, "claudeService", claudeService);
+        // Cache and local classifier stay disabled, so every email goes into the batch and
+        // no sample is written outside the test directory
+        LocalClassifier localClassifier = new LocalClassifier();
+        ReflectionTestUtils.setField(localClassifier, "enabled", false);
+        ReflectionTestUtils.setField(localClassifier, "dataDirectory", dataDirectory.toString());
+        ReflectionTestUtils.setField(service, "classificationCache", new ClassificationCache());
+        ReflectionTestUtils.setField(service, "localClassifier", localClassifier);
+        ReflectionTestUtils.setField(service, "promptCompactor", promptCompactor);
+        ReflectionTestUtils.setField(service, "localStorageService", storage);
+        ReflectionTestUtils.setField(service, "client", HttpClient.newHttpClient());
+        ReflectionTestUtils.setField(service, "apiKey", "test-key");
+        ReflectionTestUtils.setField(service, "apiBaseUrl", stub.getBaseUrl());
+        ReflectionTestUtils.setField(service, "enabled", true);
+        ReflectionTestUtils.setField(service, "threshold", 1);
+        ReflectionTestUtils.setField(service, "maxWait", maxWait);
+        ReflectionTestUtils.setField(service, "cancelGrace", 600_000L);
+        service.restorePendingBatches();
+        return service;
+    }
+
+    private LocalStorageService openStorage() throws Exception {
+        LocalStorageService localStorage = new LocalStorageService();
+        ReflectionTestUtils.setField(localStorage, "dataDirectory", dataDirectory.toString());
+        ReflectionTestUtils.setField(localStorage, "backendType", "json");
+        ReflectionTestUtils.setField(localStorage, "compactThreshold", 500);
+        ReflectionTestUtils.setField(localStorage, "writeBehindInterval", 1000L);
+        localStorage.init();
+        return localStorage;
+    }
+
+    private static EmailData email(String id, String conversationId, String subject) {
+        return new EmailData(id, "user@example.com", subject, "Hello, " + subject.toLowerCase() + " since this morning.",
+                conversationId, false, "2026-10-17T09:00:00Z");
+    }
+}
@@ -0,0 +1,230 @@
+package com.servicerequest.emailbot.service.ai;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Local stand-in for the Message Batches endpoints: submit (POST /v1/messages/batches),
+ * status (GET /v1/messages/batches/{id}), results (GET .../{id}/results, JSONL) and
+ * cancel (POST .../{id}/cancel). A batch ends after a set number of status checks, or
+ * only once it is cancelled; a cancelled batch returns results for the requests it
+ * finished before the cancel and "canceled" for the rest.
+ *
+ * Usage: java -cp target/classes:target/test-classes:... com.servicerequest.emailbot.service.ai.ClaudeBatchStub [port] [statusChecks]
+ *        then run the bot with CLAUDE_API_BASE_URL=http://localhost:[port]
+ */
+public class ClaudeBatchStub {
+
+    private static final String BATCHES_PATH = "/v1/messages/batches";
+
+    private static final ObjectMapper mapper = new ObjectMapper();
+
+    private final HttpServer server;
+    private final Map<String, Batch> batches = new ConcurrentHashMap<>();
+    private final AtomicInteger batchCounter = new AtomicInteger();
+    private final AtomicInteger statusChecks = new AtomicInteger();
+    private final AtomicInteger cancels = new AtomicInteger();
+
+    // 0 = only a cancel ends a batch
+    private volatile int statusChecksUntilEnded;
+    private volatile int finishedBeforeCancel = Integer.MAX_VALUE;
+    private final Set<String> erroredRequests = ConcurrentHashMap.newKeySet();
+
+    private static class Batch {
+        private final String id;
+        private final List<String> customIds;
+        private int statusChecks = 0;
+        private boolean cancelled = false;
+        private boolean ended = false;
+
+        Batch(String id, List<String> customIds) {
+            this.id = id;
+            this.customIds = customIds;
+        }
+    }
+
+    private ClaudeBatchStub(HttpServer server, int statusChecksUntilEnded) {
+        this.server = server;
+        this.statusChecksUntilEnded = statusChecksUntilEnded;
+    }
+
+    /**
+     * Start the stub; port 0 picks a free port
+     */
+    static ClaudeBatchStub start(int port, int statusChecksUntilEnded) throws IOException {
+        HttpServer server = HttpServer.create(new InetSocketAddress("localhost", port), 0);
+        ClaudeBatchStub stub = new ClaudeBatchStub(server, statusChecksUntilEnded);
+        server.createContext(BATCHES_PATH, stub::handle);
+        server.start();
+        return stub;
+    }
+
+    public static void main(String[] args) throws IOException {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : 8090;
+        int statusChecks = args.length > 1 ? Integer.parseInt(args[1]) : 2;
+
+        start(port, statusChecks);
+        System.out.println("Claude batch stub listening on http://localhost:" + port);
+    }
+
+    String getBaseUrl() {
+        return "http://localhost:" + server.getAddress().getPort();
+    }
+
+    /**
+     * Make batches run until cancelled; the first finishedBeforeCancel requests still succeed
+     */
+    void endOnlyWhenCancelled(int finishedBeforeCancel) {
+        this.statusChecksUntilEnded = 0;
+        this.finishedBeforeCancel = finishedBeforeCancel;
+    }
+
+    void failRequest(String customId) {
+        erroredRequests.add(customId);
+    }
+
+    int getBatchesSubmitted() {
+        return batchCounter.get();
+    }
+
+    int getStatusChecks() {
+        return statusChecks.get();
+    }
+
+    int getCancels() {
+        return cancels.get();
+    }
+
+    void stop() {
+        server.stop(0);
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            String path = exchange.getRequestURI().getPath().substring(BATCHES_PATH.length());
+            String method = exchange.getRequestMethod();
+
+            if (path.isEmpty() && "POST".equals(method)) {
+                submit(exchange);
+                return;
+            }
+
+            String[] parts = path.substring(1).split("/");
+            Batch batch = batches.get(parts[0]);
+            if (batch == null) {
+                respond(exchange, 404, "application/json", mapper.writeValueAsBytes(
+                        Map.of("type", "error", "error", Map.of("type", "not_found_error", "message", "No such batch"))));
+                return;
+            }
+
+            if (parts.length == 1 && "GET".equals(method)) {
+                status(exchange, batch);
+            } else if (parts.length == 2 && "results".equals(parts[1]) && "GET".equals(method)) {
+                results(exchange, batch);
+            } else if (parts.length == 2 && "cancel".equals(parts[1]) && "POST".equals(method)) {
+                cancels.incrementAndGet();
+                synchronized (batch) {
+                    batch.cancelled = true;
+                }
+                respond(exchange, 200, "application/json", mapper.writeValueAsBytes(describe(batch)));
+            } else {
+                respond(exchange, 405, "text/plain", new byte[0]);
+            }
+        }
+    }
+
+    private void submit(HttpExchange exchange) throws IOException {
+        JsonNode body = mapper.readTree(exchange.getRequestBody());
+        List<String> customIds = new ArrayList<>();
+        for (JsonNode request : body.path("requests")) {
+            customIds.add(request.path("custom_id").asText());
+        }
+
+        Batch batch = new Batch("msgbatch_" + batchCounter.incrementAndGet(), customIds);
+        batches.put(batch.id, batch);
+        respond(exchange, 200, "application/json", mapper.writeValueAsBytes(describe(batch)));
+    }
+
+    private void status(HttpExchange exchange, Batch batch) throws IOException {
+        statusChecks.incrementAndGet();
+        synchronized (batch) {
+            batch.statusChecks++;
+            if (batch.cancelled || (statusChecksUntilEnded > 0 && batch.statusChecks >= statusChecksUntilEnded)) {
+                batch.ended = true;
+            }
+        }
+        respond(exchange, 200, "application/json", mapper.writeValueAsBytes(describe(batch)));
+    }
+
+    private void results(HttpExchange exchange, Batch batch) throws IOException {
+        if (!batch.ended) {
+            respond(exchange, 404, "text/plain", "Batch has not ended".getBytes(StandardCharsets.UTF_8));
+            return;
+        }
+
+        StringBuilder lines = new StringBuilder();
+        for (int i = 0; i < batch.customIds.size(); i++) {
+            String customId = batch.customIds.get(i);
+            Map<String, Object> result;
+            if (batch.cancelled && i >= finishedBeforeCancel) {
+                result = Map.of("type", "canceled");
+            } else if (erroredRequests.contains(customId)) {
+                result = Map.of("type", "errored", "error", Map.of("type", "invalid_request_error", "message", "Stub error"));
+            } else {
+                result = Map.of("type", "succeeded", "message", Map.of(
+                        "type", "message",
+                        "content", List.of(Map.of("type", "text", "text", classification(customId))),
+                        "usage", Map.of("input_tokens", 180, "output_tokens", 60)));
+            }
+            lines.append(mapper.writeValueAsString(Map.of("custom_id", customId, "result", result))).append("\n");
+        }
+        respond(exchange, 200, "application/binary", lines.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    private Map<String, Object> describe(Batch batch) {
+        Map<String, Object> counts = new LinkedHashMap<>();
+        synchronized (batch) {
+            int total = batch.customIds.size();
+            counts.put("processing", batch.ended ? 0 : total);
+            counts.put("succeeded", batch.ended ? total : 0);
+            counts.put("errored", 0);
+            counts.put("canceled", 0);
+            counts.put("expired", 0);
+
+            Map<String, Object> description = new LinkedHashMap<>();
+            description.put("id", batch.id);
+            description.put("type", "message_batch");
+            description.put("processing_status", batch.ended ? "ended" : batch.cancelled ? "canceling" : "in_progress");
+            description.put("request_counts", counts);
+            description.put("results_url", batch.ended ? getBaseUrl() + BATCHES_PATH + "/" + batch.id + "/results" : null);
+            return description;
+        }
+    }
+
+    static String classification(String customId) {
+        return "{\"category\": \"IT Support\", \"type\": \"Hardware Issue\", \"department\": \"IT Support\", "
+                + "\"priority\": \"Medium\", \"subject\": \"Request " + customId + "\", "
+                + "\"description\": \"Classified in batch as " + customId + "\"}";
+    }
+
+    private static void respond(HttpExchange exchange, int status, String contentType, byte[] body) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", contentType);
+        exchange.sendResponseHeaders(status, body.length == 0 ? -1 : body.length);
+        if (body.length > 0) {
+            exchange.getResponseBody().write(body);
+        }
+    }
+}
@@ -0,0 +1,149 @@
+package com.servicerequest.emailbot.service.ai;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Local stand-in for POST /v1/messages that streams a classification as server-sent
+ * events, a few characters per event with a delay in between, then keeps generating
+ * trailing text long after the JSON is closed. Lets the streaming path be exercised
+ * without an API key: a reader that stops at the closing brace finishes in a fraction
+ * of the time the full stream takes. Non-streaming requests get the whole message.
+ * Used by ClaudeStreamReaderTest; can also be run on its own against a local bot.
+ *
+ * Usage: java -cp target/classes:target/test-classes:... com.servicerequest.emailbot.service.ai.ClaudeSseStub [port] [delayMs]
+ *        then run the bot with CLAUDE_API_BASE_URL=http://localhost:[port]
+ */
+public class ClaudeSseStub {
+
+    static final String CLASSIFICATION =
+            "{\"category\": \"IT Support\", \"type\": \"Hardware Issue\", \"department\": \"IT Support\", "
+            + "\"priority\": \"High\", \"subject\": \"Laptop does not start {urgent}\", "
+            + "\"description\": \"The user's laptop shows a black screen after the update.\"}";
+    private static final String TRAILING_TEXT =
+            "\n\nThe email describes a device that no longer boots, which is a hardware problem. "
+            + "It was marked urgent because the user cannot work at all until it is fixed.";
+    private static final int CHUNK_CHARS = 8;
+
+    private static final ObjectMapper mapper = new ObjectMapper();
+
+    private final HttpServer server;
+    private final long delayMs;
+    private final AtomicInteger streamsClosedEarly = new AtomicInteger();
+    private final AtomicInteger streamsCompleted = new AtomicInteger();
+
+    private ClaudeSseStub(HttpServer server, long delayMs) {
+        this.server = server;
+        this.delayMs = delayMs;
+    }
+
+    /**
+     * Start the stub; port 0 picks a free port
+     */
+    static ClaudeSseStub start(int port, long delayMs) throws IOException {
+        HttpServer server = HttpServer.create(new InetSocketAddress("localhost", port), 0);
+        ClaudeSseStub stub = new ClaudeSseStub(server, delayMs);
+        server.createContext("/v1/messages", stub::handle);
+        server.start();
+        return stub;
+    }
+
+    public static void main(String[] args) throws IOException {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : 8089;
+        long delayMs = args.length > 1 ? Long.parseLong(args[1]) : 40;
+
+        start(port, delayMs);
+        System.out.println("Claude SSE stub listening on http://localhost:" + port);
+    }
+
+    String getBaseUrl() {
+        return "http://localhost:" + server.getAddress().getPort();
+    }
+
+    int getStreamsClosedEarly() {
+        return streamsClosedEarly.get();
+    }
+
+    int getStreamsCompleted() {
+        return streamsCompleted.get();
+    }
+
+    /**
+     * How long the full stream takes to send, for comparing against an early close
+     */
+    long getFullStreamMillis() {
+        return chunks("Here is the classification:\n" + CLASSIFICATION + TRAILING_TEXT).size() * delayMs;
+    }
+
+    void stop() {
+        server.stop(0);
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            String request = new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8);
+            boolean stream = mapper.readTree(request).path("stream").asBoolean(false);
+            Map<String, Object> usage = Map.of("input_tokens", 180, "cache_read_input_tokens", 0,
+                    "cache_creation_input_tokens", 0, "output_tokens", 1);
+
+            if (!stream) {
+                byte[] body = mapper.writeValueAsBytes(Map.of(
+                        "type", "message",
+                        "content", List.of(Map.of("type", "text", "text", CLASSIFICATION + TRAILING_TEXT)),
+                        "usage", usage));
+                exchange.getResponseHeaders().set("Content-Type", "application/json");
+                exchange.sendResponseHeaders(200, body.length);
+                exchange.getResponseBody().write(body);
+                return;
+            }
+
+            exchange.getResponseHeaders().set("Content-Type", "text/event-stream");
+            exchange.sendResponseHeaders(200, 0);
+            OutputStream out = exchange.getResponseBody();
+
+            send(out, "message_start", Map.of("type", "message_start", "message", Map.of("usage", usage)));
+            send(out, "content_block_start", Map.of("type", "content_block_start", "index", 0,
+                    "content_block", Map.of("type", "text", "text", "")));
+            for (String chunk : chunks("Here is the classification:\n" + CLASSIFICATION + TRAILING_TEXT)) {
+                send(out, "content_block_delta", Map.of("type", "content_block_delta", "index", 0,
+                        "delta", Map.of("type", "text_delta", "text", chunk)));
+                Thread.sleep(delayMs);
+            }
+            send(out, "content_block_stop", Map.of("type", "content_block_stop", "index", 0));
+            send(out, "message_delta", Map.of("type", "message_delta",
+                    "delta", Map.of("stop_reason", "end_turn"), "usage", Map.of("output_tokens", 120)));
+            send(out, "message_stop", Map.of("type", "message_stop"));
+            streamsCompleted.incrementAndGet();
+        } catch (IOException e) {
+            // The client closed the stream after reading what it needed
+            streamsClosedEarly.incrementAndGet();
+            System.out.println("Client closed the stream early");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void send(OutputStream out, String event, Map<String, Object> data) throws IOException {
+        out.write(("event: " + event + "\ndata: " + mapper.writeValueAsString(data) + "\n\n")
+                .getBytes(StandardCharsets.UTF_8));
+        out.flush();
+    }
+
+    private static List<String> chunks(String text) {
+        List<String> chunks = new ArrayList<>();
+        for (int i = 0; i < text.length(); i += CHUNK_CHARS) {
+            chunks.add(text.substring(i, Math.min(text.length(), i + CHUNK_CHARS)));
+        }
+        return chunks;
+    }
+}
@@ -0,0 +1,142 @@
+package com.servicerequest.emailbot.service.ai;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ClaudeStreamReaderTest {
+
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    @Test
+    void stopsWhenClosingBraceArrivesInALaterDelta() throws IOException {
+        ClaudeStreamReader.Result result = read(List.of("{\"category\": \"IT\", \"type\": {\"name\": \"Ha", "rdware\"", "}", "}",
+                " and some trailing text"));
+
+        assertTrue(result.isCompletedEarly());
+        assertEquals("{\"category\": \"IT\", \"type\": {\"name\": \"Hardware\"}}", result.getText());
+    }
+
+    @Test
+    void ignoresBracesAndEscapedQuotesInsideStrings() throws IOException {
+        String json = "{\"subject\": \"Laptop {urgent} }\", \"description\": \"He said \\\"it's broken}\\\" \\\\\"}";
+        ClaudeStreamReader.Result result = read(List.of(json.substring(0, 20), json.substring(20, 45), json.substring(45), "\nDone."));
+
+        assertTrue(result.isCompletedEarly());
+        assertEquals(json, result.getText());
+        assertEquals("He said \"it's broken}\" \\", mapper.readTree(result.getText()).path("description").asText());
+    }
+
+    @Test
+    void skipsProseBeforeTheJson() throws IOException {
+        ClaudeStreamReader.Result result = read(List.of("Here is the classification: ", "{\"priority\"", ": \"High\"}", " Hope this helps"));
+
+        assertTrue(result.isCompletedEarly());
+        assertEquals("{\"priority\": \"High\"}", result.getText());
+    }
+
+    @Test
+    void returnsWholeTextWhenTheStreamEndsWithoutJson() throws IOException {
+        ClaudeStreamReader.Result result = read(List.of("No classification", " possible"));
+
+        assertFalse(result.isCompletedEarly());
+        assertEquals("No classification possible", result.getText());
+    }
+
+    @Test
+    void mergesUsageFromStartAndDeltaEvents() throws IOException {
+        ClaudeStreamReader.Result result = read(List.of("{}"));
+
+        assertEquals(180, result.getUsage().path("input_tokens").asInt());
+    }
+
+    @Test
+    void errorEventFails() {
+        String stream = event("message_start", Map.of("type", "message_start", "message", Map.of("usage", Map.of())))
+                + event("error", Map.of("type", "error",
+                        "error", Map.of("type", "overloaded_error", "message", "Overloaded")));
+
+        IOException error = assertThrows(IOException.class, () -> new ClaudeStreamReader(mapper).read(toStream(stream)));
+        assertTrue(error.getMessage().contains("overloaded_error"));
+    }
+
+    @Test
+    void closesStubStreamOnceTheClassificationIsComplete() throws Exception {
+        ClaudeSseStub stub = ClaudeSseStub.start(0, 20);
+        try {
+            HttpRequest request = HttpRequest.newBuilder()
+                    .uri(URI.create(stub.getBaseUrl() + "/v1/messages"))
+                    .POST(HttpRequest.BodyPublishers.ofString("{\"stream\": true}"))
+                    .build();
+
+            HttpResponse<InputStream> response = HttpClient.newHttpClient()
+                    .send(request, HttpResponse.BodyHandlers.ofInputStream());
+            long start = System.currentTimeMillis();
+            ClaudeStreamReader.Result result;
+            try (InputStream body = response.body()) {
+                result = new ClaudeStreamReader(mapper).read(body);
+            }
+            long elapsed = System.currentTimeMillis() - start;
+
+            assertTrue(result.isCompletedEarly());
+            assertEquals(ClaudeSseStub.CLASSIFICATION, result.getText());
+            assertTrue(elapsed < stub.getFullStreamMillis(),
+                    "read took " + elapsed + "ms, full stream is " + stub.getFullStreamMillis() + "ms");
+
+            // The stub notices the closed connection on its next write
+            long deadline = System.currentTimeMillis() + 5000;
+            while (stub.getStreamsClosedEarly() == 0 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(20);
+            }
+            assertEquals(1, stub.getStreamsClosedEarly());
+            assertEquals(0, stub.getStreamsCompleted());
+        } finally {
+            stub.stop();
+        }
+    }
+
+    private ClaudeStreamReader.Result read(List<String> deltas) throws IOException {
+        StringBuilder stream = new StringBuilder();
+        stream.append(event("message_start", Map.of("type", "message_start",
+                "message", Map.of("usage", Map.of("input_tokens", 180, "output_tokens", 1)))));
+        stream.append(event("content_block_start", Map.of("type", "content_block_start", "index", 0,
+                "content_block", Map.of("type", "text", "text", ""))));
+        stream.append(event("ping", Map.of("type", "ping")));
+        for (String delta : deltas) {
+            stream.append(event("content_block_delta", Map.of("type", "content_block_delta", "index", 0,
+                    "delta", Map.of("type", "text_delta", "text", delta))));
+        }
+        stream.append(event("content_block_stop", Map.of("type", "content_block_stop", "index", 0)));
+        stream.append(event("message_delta", Map.of("type", "message_delta",
+                "delta", Map.of("stop_reason", "end_turn"), "usage", Map.of("output_tokens", 40))));
+        stream.append(event("message_stop", Map.of("type", "message_stop")));
+        return new ClaudeStreamReader(mapper).read(toStream(stream.toString()));
+    }
+
+    private String event(String name, Map<String, Object> data) {
+        try {
+            return "event: " + name + "\ndata: " + mapper.writeValueAsString(data) + "\n\n";
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static InputStream toStream(String stream) {
+        return new ByteArrayInputStream(stream.getBytes(StandardCharsets.UTF_8));
+    }
+}
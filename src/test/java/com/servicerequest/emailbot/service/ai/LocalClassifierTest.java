@@ -0,0 +1,115 @@
+package com.servicerequest.emailbot.service.ai;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+/**
+ * Local results may only carry labels that exist in the taxonomy Claude is offered, and
+ * skip Claude only once held-out samples show they agree with it
+ */
+class LocalClassifierTest {
+
+    private static final String PRINTER_SUBJECT = "Printer on floor 3";
+    private static final String PRINTER_BODY = "The printer has a paper jam again.";
+
+    @Test
+    void rulesMatchTheDefaultTaxonomy() {
+        LocalClassifier classifier = new LocalClassifier();
+        classifier.useTaxonomy(Map.of("IT Support", List.of("Hardware Issue", "Network Issue")));
+
+        Map<String, String> analysis = classifier.classifyBestEffort(PRINTER_SUBJECT, PRINTER_BODY);
+
+        assertEquals("IT Support", analysis.get("category"));
+        assertEquals("Hardware Issue", analysis.get("type"));
+    }
+
+    @Test
+    void rulesTakeTheTaxonomySpelling() {
+        LocalClassifier classifier = new LocalClassifier();
+        classifier.useTaxonomy(Map.of("IT support", List.of("hardware issue")));
+
+        Map<String, String> analysis = classifier.classifyBestEffort(PRINTER_SUBJECT, PRINTER_BODY);
+
+        assertEquals("IT support", analysis.get("category"));
+        assertEquals("hardware issue", analysis.get("type"));
+    }
+
+    @Test
+    void rulesOutsideTheTaxonomyAreDisabled() {
+        LocalClassifier classifier = new LocalClassifier();
+        // The init.sql sample taxonomy shares no labels with the built-in rules
+        classifier.useTaxonomy(Map.of("Hardware Issues", List.of("Laptop Problem", "Printer Problem")));
+
+        assertNull(classifier.classifyBestEffort(PRINTER_SUBJECT, PRINTER_BODY));
+    }
+
+    @Test
+    void modelLabelsOutsideTheTaxonomyAreNotPredicted() {
+        LocalClassifier classifier = new LocalClassifier(1);
+        classifier.learn(sample("Laptop screen cracked", "My laptop screen is cracked", "IT Support", "Hardware Issue"));
+        classifier.learn(sample("Laptop will not boot", "My laptop does not start", "Hardware Issues", "Laptop Problem"));
+        classifier.useTaxonomy(Map.of("Hardware Issues", List.of("Laptop Problem")));
+
+        LocalClassifier.Prediction prediction = classifier.predict("Laptop screen cracked", "My laptop screen is cracked");
+
+        assertEquals("Hardware Issues|Laptop Problem", prediction.label);
+    }
+
+    @Test
+    void confidentEmailsGoToClaudeUntilHeldOutAccuracyIsVerified() {
+        List<LocalClassifier.Sample> samples = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            samples.add(sample("Printer jam room" + i, "The printer in room" + i + " has a paper jam", "IT Support", "Hardware Issue"));
+            samples.add(sample("Invoice overdue ref" + i, "Invoice ref" + i + " is overdue for payment", "Finance", "Invoice Query"));
+        }
+        LocalClassifier classifier = enabledClassifier();
+        samples.forEach(classifier::learn);
+
+        assertNull(classifier.classifyIfConfident(PRINTER_SUBJECT, PRINTER_BODY));
+
+        classifier.verifyAccuracy(samples);
+
+        assertEquals("Hardware Issue", classifier.classifyIfConfident(PRINTER_SUBJECT, PRINTER_BODY).get("type"));
+        assertEquals(1.0, classifier.getStats().get("heldOutAgreement"));
+    }
+
+    @Test
+    void labelsClaudeDisagreesWithKeepClaudeInCharge() {
+        List<LocalClassifier.Sample> samples = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            // Claude files the same kind of email under two labels
+            samples.add(sample("Printer jam room" + i, "The printer in room" + i + " has a paper jam",
+                    "IT Support", i % 3 == 0 ? "Hardware Issue" : "Network Issue"));
+        }
+        LocalClassifier classifier = enabledClassifier();
+        samples.forEach(classifier::learn);
+
+        classifier.verifyAccuracy(samples);
+
+        assertFalse((Boolean) classifier.getStats().get("accuracyVerified"));
+        assertNull(classifier.classifyIfConfident(PRINTER_SUBJECT, PRINTER_BODY));
+    }
+
+    private static LocalClassifier enabledClassifier() {
+        LocalClassifier classifier = new LocalClassifier(10);
+        ReflectionTestUtils.setField(classifier, "enabled", true);
+        return classifier;
+    }
+
+    private static LocalClassifier.Sample sample(String subject, String body, String category, String type) {
+        LocalClassifier.Sample sample = new LocalClassifier.Sample();
+        sample.subject = subject.toLowerCase();
+        sample.body = body.toLowerCase();
+        sample.category = category;
+        sample.type = type;
+        return sample;
+    }
+}
@@ -0,0 +1,133 @@
+package com.servicerequest.emailbot.service.core;
+
+import com.servicerequest.emailbot.service.LocalStorageService;
+import com.servicerequest.emailbot.service.ai.ClaudeCircuitBreaker;
+import com.servicerequest.emailbot.service.ai.ClaudeService;
+import com.servicerequest.emailbot.service.comments.CommentsService;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * One email Claude can't classify must not hold up the SRs flagged after it
+ */
+class ReclassificationServiceTest {
+
+    private LocalStorageService storage;
+    private ClaudeCircuitBreaker circuitBreaker;
+    private final List<String> asked = new ArrayList<>();
+    private final List<String> comments = new ArrayList<>();
+    // The SR at the head of the stored list, which Claude never classifies
+    private String poison;
+    private String healthy;
+    private boolean poisonOpensCircuit = false;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        storage = new LocalStorageService();
+        ReflectionTestUtils.setField(storage, "dataDirectory", Files.createTempDirectory("reclassify-test").toString());
+        ReflectionTestUtils.setField(storage, "backendType", "json");
+        ReflectionTestUtils.setField(storage, "compactThreshold", 500);
+        ReflectionTestUtils.setField(storage, "writeBehindInterval", 1000L);
+        storage.init();
+        circuitBreaker = new ClaudeCircuitBreaker();
+
+        flag("SR-1");
+        flag("SR-2");
+        poison = storage.getPendingReclassifications().keySet().iterator().next();
+        healthy = poison.equals("SR-1") ? "SR-2" : "SR-1";
+    }
+
+    @AfterEach
+    void tearDown() {
+        storage.close();
+    }
+
+    @Test
+    void unclassifiableEmailIsSkippedAndDroppedAfterMaxAttempts() {
+        ReclassificationService service = newService();
+
+        service.reclassifyFlagged();
+
+        assertEquals(List.of(poison, healthy), asked);
+        assertEquals(1, comments.size());
+        assertEquals(1, storage.getPendingReclassifications().get(poison).get("attempts"));
+        assertFalse(storage.getPendingReclassifications().containsKey(healthy));
+
+        service.reclassifyFlagged();
+        service.reclassifyFlagged();
+
+        assertTrue(storage.getPendingReclassifications().isEmpty());
+        assertEquals(1L, service.getStats().get("abandoned"));
+    }
+
+    @Test
+    void openCircuitStopsTheRun() {
+        ReclassificationService service = newService();
+        // The poison call is the one that trips the breaker
+        ReflectionTestUtils.setField(circuitBreaker, "enabled", true);
+        poisonOpensCircuit = true;
+
+        service.reclassifyFlagged();
+
+        assertEquals(List.of(poison), asked);
+        assertEquals(2, storage.getPendingReclassifications().size());
+        assertFalse(storage.getPendingReclassifications().get(poison).containsKey("attempts"));
+    }
+
+    private ReclassificationService newService() {
+        ClaudeService claudeService = new ClaudeService() {
+            @Override
+            public Map<String, String> analyzeEmail(String emailContent, String subject) {
+                throw new AssertionError("re-classification must not use the cache or the local classifier");
+            }
+
+            @Override
+            public Map<String, String> reclassifyEmail(String emailContent, String subject) {
+                asked.add(subject);
+                Map<String, String> analysis = new HashMap<>(Map.of("category", "IT Support", "type", "Hardware Issue"));
+                if (subject.equals(poison)) {
+                    if (poisonOpensCircuit) {
+                        ReflectionTestUtils.setField(circuitBreaker, "state", ClaudeCircuitBreaker.State.OPEN);
+                        ReflectionTestUtils.setField(circuitBreaker, "openUntil", Long.MAX_VALUE);
+                    }
+                    analysis.put(ClaudeService.NEEDS_RECLASSIFICATION, "true");
+                }
+                return analysis;
+            }
+        };
+        CommentsService commentsService = new CommentsService() {
+            @Override
+            public boolean addComment(String srId, String comment, String senderEmail) {
+                comments.add(srId + ": " + comment);
+                return true;
+            }
+        };
+
+        ReclassificationService service = new ReclassificationService();
+        ReflectionTestUtils.setField(service, "claudeService", claudeService);
+        ReflectionTestUtils.setField(service, "circuitBreaker", circuitBreaker);
+        ReflectionTestUtils.setField(service, "localStorageService", storage);
+        ReflectionTestUtils.setField(service, "commentsService", commentsService);
+        ReflectionTestUtils.setField(service, "enabled", true);
+        ReflectionTestUtils.setField(service, "batchSize", 20);
+        ReflectionTestUtils.setField(service, "maxAttempts", 3);
+        return service;
+    }
+
+    private void flag(String srId) {
+        storage.flagForReclassification(srId, Map.of("subject", srId, "body", "Printer on floor 3 is offline",
+                "category", "General", "type", "General Request", "sender", "user@example.com"));
+    }
+}
@@ -0,0 +1,123 @@
+package com.servicerequest.emailbot.service.outlook;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.servicerequest.emailbot.model.EmailData;
+import com.servicerequest.emailbot.util.EmailUtils;
+
+/**
+ * Offline comparison of message page cost with and without app.graph.select-fields and
+ * app.graph.text-body. Builds synthetic 50-message pages shaped like Graph's full message
+ * representation (all default fields, Outlook-style HTML body) and its $select/text form,
+ * then prints bytes per page and the time to parse a page and turn every body into plain
+ * text the way the email pipeline does.
+ *
+ * Usage: java -cp target/classes:target/test-classes:... \
+ *        com.servicerequest.emailbot.service.outlook.GraphFetchShapingBenchmark [paragraphs] [iterations]
+ */
+public class GraphFetchShapingBenchmark {
+
+    private static final int MESSAGES_PER_PAGE = 50;
+
+    private static final String PARAGRAPH =
+            "Hi team, the printer on floor 3 has been offline since this morning and nobody can print invoices.";
+
+    public static void main(String[] args) throws Exception {
+        int paragraphs = args.length > 0 ? Integer.parseInt(args[0]) : 20;
+        int iterations = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+        ObjectMapper mapper = new ObjectMapper();
+
+        System.out.printf("%d messages per page, %d body paragraphs, %d iterations%n",
+                MESSAGES_PER_PAGE, paragraphs, iterations);
+        System.out.println("select  textBody  KB/page  parse+toPlainText ms/page");
+        for (boolean select : new boolean[] {false, true}) {
+            for (boolean textBody : new boolean[] {false, true}) {
+                byte[] page = samplePage(mapper, select, textBody, paragraphs);
+
+                // Warm up so JIT compilation is not counted
+                for (int i = 0; i < iterations; i++) {
+                    parsePage(mapper, page);
+                }
+                long start = System.nanoTime();
+                for (int i = 0; i < iterations; i++) {
+                    parsePage(mapper, page);
+                }
+                long elapsed = System.nanoTime() - start;
+
+                System.out.printf("%-6s  %-8s  %7.1f  %25.2f%n", select, textBody,
+                        page.length / 1024.0, elapsed / 1_000_000.0 / iterations);
+            }
+        }
+    }
+
+    private static int parsePage(ObjectMapper mapper, byte[] page) throws Exception {
+        int chars = 0;
+        for (JsonNode email : mapper.readTree(page).path("value")) {
+            EmailData data = GraphPageDecoder.fromTree(email);
+            chars += EmailUtils.toPlainText(data.getBody()).length();
+        }
+        return chars;
+    }
+
+    private static byte[] samplePage(ObjectMapper mapper, boolean select, boolean textBody, int paragraphs) throws Exception {
+        StringBuilder text = new StringBuilder();
+        StringBuilder html = new StringBuilder("<html><head><meta http-equiv=\"Content-Type\" content=\"text/html; charset=utf-8\">"
+                + "<style type=\"text/css\" style=\"display:none\">P {margin-top:0;margin-bottom:0;}</style></head>"
+                + "<body dir=\"ltr\"><div class=\"elementToProof\" style=\"font-family: Aptos, Calibri, Helvetica, sans-serif;"
+                + " font-size: 12pt; color: rgb(0, 0, 0);\">");
+        for (int i = 0; i < paragraphs; i++) {
+            text.append(PARAGRAPH).append("\r\n\r\n");
+            html.append("<p class=\"MsoNormal\"><span style=\"font-size:11.0pt;font-family:&quot;Calibri&quot;,sans-serif\">")
+                    .append(PARAGRAPH).append("</span></p>");
+        }
+        html.append("</div></body></html>");
+
+        ObjectNode root = mapper.createObjectNode();
+        root.put("@odata.context", "https://graph.microsoft.com/v1.0/$metadata#users('me')/messages");
+        ArrayNode value = root.putArray("value");
+        for (int i = 0; i < MESSAGES_PER_PAGE; i++) {
+            ObjectNode message = value.addObject();
+            message.put("@odata.etag", "W/\"CQAAABYAAAB" + i + "\"");
+            message.put("id", "AAMkAGI2TG93AAA=" + i);
+            if (!select) {
+                message.put("createdDateTime", "2026-10-17T09:00:00Z");
+                message.put("lastModifiedDateTime", "2026-10-17T09:00:05Z");
+                message.put("changeKey", "CQAAABYAAAAiIsqMbYjsT5e/T7KzowPTAAAAAAAP");
+                message.putArray("categories");
+                message.put("sentDateTime", "2026-10-17T08:59:58Z");
+                message.put("internetMessageId", "<DM6PR11MB" + i + "@DM6PR11MB.namprd11.prod.outlook.com>");
+                message.put("bodyPreview", PARAGRAPH);
+                message.put("importance", "normal");
+                message.put("parentFolderId", "AAMkAGI2TG93AAAuAAAAAAAiQ8W967B7TKBjgx9rVEURAQAiIsqMbYjsT5e");
+                message.put("conversationIndex", "AQHZ5x2Q3k5U0l3bR0uXb7kH2v9q1A==");
+                message.put("isDeliveryReceiptRequested", false);
+                message.put("isReadReceiptRequested", false);
+                message.put("webLink", "https://outlook.office365.com/owa/?ItemID=AAMkAGI2TG93AAA%3D" + i
+                        + "&exvsurl=1&viewmodel=ReadMessageItem");
+                message.put("inferenceClassification", "focused");
+                message.putObject("sender").putObject("emailAddress")
+                        .put("name", "User " + i).put("address", "user" + i + "@example.com");
+                message.putArray("toRecipients").addObject().putObject("emailAddress")
+                        .put("name", "Helpdesk").put("address", "helpdesk@example.com");
+                message.putArray("ccRecipients");
+                message.putArray("bccRecipients");
+                message.putArray("replyTo");
+                message.putObject("flag").put("flagStatus", "notFlagged");
+            }
+            message.put("receivedDateTime", "2026-10-17T09:00:00Z");
+            message.put("subject", "Printer offline #" + i);
+            message.put("hasAttachments", i % 5 == 0);
+            message.put("conversationId", "AAQkAGI2conv" + i);
+            message.put("isRead", false);
+            message.put("isDraft", false);
+            ObjectNode body = message.putObject("body");
+            body.put("contentType", textBody ? "text" : "html");
+            body.put("content", textBody ? text.toString() : html.toString());
+            message.putObject("from").putObject("emailAddress")
+                    .put("name", "User " + i).put("address", "user" + i + "@example.com");
+        }
+        return mapper.writeValueAsBytes(root);
+    }
+}
@@ -0,0 +1,207 @@
+package com.servicerequest.emailbot.service.outlook;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Local stand-in for Graph change notifications. Serves create (POST /v1.0/subscriptions)
+ * and renew (PATCH /v1.0/subscriptions/{id}); like Graph, a new subscription is only
+ * accepted once its notificationUrl has echoed the validationToken. notifyCreated() then
+ * posts a "created" notification for a message to every subscription, with its clientState.
+ *
+ * Usage: java -cp target/classes:target/test-classes:... com.servicerequest.emailbot.service.outlook.GraphNotificationStub [port]
+ *        then run the bot with app.graph.base-url=http://localhost:[port]/v1.0 and
+ *        GRAPH_NOTIFICATION_URL=http://localhost:8080/webhook/graph-notifications; each line
+ *        typed on stdin is posted as a new message ID
+ */
+public class GraphNotificationStub {
+
+    private static final String SUBSCRIPTIONS_PATH = "/v1.0/subscriptions";
+
+    private static final ObjectMapper mapper = new ObjectMapper();
+
+    private final HttpServer server;
+    private final HttpClient client = HttpClient.newHttpClient();
+    private final Map<String, Subscription> subscriptions = new ConcurrentHashMap<>();
+    private final AtomicInteger created = new AtomicInteger();
+    private final AtomicInteger renewals = new AtomicInteger();
+
+    private static class Subscription {
+        private final String id;
+        private final String notificationUrl;
+        private final String clientState;
+        private volatile String expirationDateTime;
+
+        Subscription(String id, String notificationUrl, String clientState, String expirationDateTime) {
+            this.id = id;
+            this.notificationUrl = notificationUrl;
+            this.clientState = clientState;
+            this.expirationDateTime = expirationDateTime;
+        }
+    }
+
+    private GraphNotificationStub(HttpServer server) {
+        this.server = server;
+    }
+
+    public static GraphNotificationStub start(int port) throws IOException {
+        HttpServer server = HttpServer.create(new InetSocketAddress("localhost", port), 0);
+        GraphNotificationStub stub = new GraphNotificationStub(server);
+        server.createContext(SUBSCRIPTIONS_PATH, stub::handle);
+        server.start();
+        return stub;
+    }
+
+    public void stop() {
+        server.stop(0);
+    }
+
+    public String getBaseUrl() {
+        return "http://localhost:" + server.getAddress().getPort() + "/v1.0";
+    }
+
+    public int getSubscriptionsCreated() {
+        return created.get();
+    }
+
+    public int getRenewals() {
+        return renewals.get();
+    }
+
+    /**
+     * Forget every subscription, as Graph does once one has expired
+     */
+    public void dropSubscriptions() {
+        subscriptions.clear();
+    }
+
+    /**
+     * Post a "created" notification for the message to every subscription; the webhook's status codes
+     */
+    public List<Integer> notifyCreated(String messageId) throws Exception {
+        return subscriptions.values().stream()
+                .map(subscription -> post(subscription.notificationUrl, subscription.id, subscription.clientState, messageId))
+                .toList();
+    }
+
+    /**
+     * Post one notification as Graph would, with the given clientState; the webhook's status code
+     */
+    public int post(String notificationUrl, String subscriptionId, String clientState, String messageId) {
+        Map<String, Object> notification = Map.of(
+                "subscriptionId", subscriptionId,
+                "clientState", clientState,
+                "changeType", "created",
+                "resource", "Users/user-1/Messages/" + messageId,
+                "resourceData", Map.of("@odata.type", "#Microsoft.Graph.Message", "id", messageId));
+        try {
+            HttpRequest request = HttpRequest.newBuilder()
+                    .uri(URI.create(notificationUrl))
+                    .header("Content-Type", "application/json")
+                    .POST(HttpRequest.BodyPublishers.ofString(mapper.writeValueAsString(Map.of("value", List.of(notification)))))
+                    .build();
+            return client.send(request, HttpResponse.BodyHandlers.discarding()).statusCode();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        }
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            String path = exchange.getRequestURI().getPath();
+            String method = exchange.getRequestMethod();
+            if (path.equals(SUBSCRIPTIONS_PATH) && method.equals("POST")) {
+                create(exchange);
+            } else if (path.startsWith(SUBSCRIPTIONS_PATH + "/") && method.equals("PATCH")) {
+                renew(exchange, path.substring(SUBSCRIPTIONS_PATH.length() + 1));
+            } else {
+                respond(exchange, 404, Map.of("error", Map.of("code", "NotFound")));
+            }
+        } catch (Exception e) {
+            respond(exchange, 500, Map.of("error", Map.of("code", "StubError", "message", String.valueOf(e.getMessage()))));
+        }
+    }
+
+    private void create(HttpExchange exchange) throws Exception {
+        JsonNode body = mapper.readTree(exchange.getRequestBody());
+        String notificationUrl = body.path("notificationUrl").asText();
+
+        // Graph validates the endpoint before creating the subscription
+        String token = "validation-" + UUID.randomUUID();
+        HttpResponse<String> validation = client.send(HttpRequest.newBuilder()
+                .uri(URI.create(notificationUrl + "?validationToken=" + URLEncoder.encode(token, StandardCharsets.UTF_8)))
+                .POST(HttpRequest.BodyPublishers.noBody())
+                .build(), HttpResponse.BodyHandlers.ofString());
+        String contentType = validation.headers().firstValue("Content-Type").orElse("");
+        if (validation.statusCode() != 200 || !token.equals(validation.body()) || !contentType.startsWith("text/plain")) {
+            respond(exchange, 400, Map.of("error", Map.of("code", "ValidationError",
+                    "message", "Subscription validation request failed")));
+            return;
+        }
+
+        Subscription subscription = new Subscription("sub-" + created.incrementAndGet(), notificationUrl,
+                body.path("clientState").asText(), body.path("expirationDateTime").asText());
+        subscriptions.put(subscription.id, subscription);
+        respond(exchange, 201, describe(subscription));
+    }
+
+    private void renew(HttpExchange exchange, String id) throws IOException {
+        Subscription subscription = subscriptions.get(id);
+        if (subscription == null) {
+            respond(exchange, 404, Map.of("error", Map.of("code", "ResourceNotFound")));
+            return;
+        }
+        subscription.expirationDateTime = mapper.readTree(exchange.getRequestBody()).path("expirationDateTime").asText();
+        renewals.incrementAndGet();
+        respond(exchange, 200, describe(subscription));
+    }
+
+    private static Map<String, Object> describe(Subscription subscription) {
+        return Map.of("id", subscription.id, "notificationUrl", subscription.notificationUrl,
+                "expirationDateTime", subscription.expirationDateTime);
+    }
+
+    private static void respond(HttpExchange exchange, int status, Object body) throws IOException {
+        byte[] bytes = mapper.writeValueAsBytes(body);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, bytes.length);
+        exchange.getResponseBody().write(bytes);
+        exchange.close();
+    }
+
+    public static void main(String[] args) throws Exception {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : 8092;
+        GraphNotificationStub stub = start(port);
+        System.out.println("Graph notification stub listening on " + stub.getBaseUrl()
+                + "; type a message ID to post a notification");
+
+        BufferedReader stdin = new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8));
+        String line;
+        while ((line = stdin.readLine()) != null) {
+            if (!line.isBlank()) {
+                System.out.println("Posted " + line.trim() + ": " + stub.notifyCreated(line.trim()));
+            }
+        }
+    }
+}
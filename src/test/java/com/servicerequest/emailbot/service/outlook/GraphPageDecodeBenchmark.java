@@ -0,0 +1,117 @@
+package com.servicerequest.emailbot.service.outlook;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import java.io.ByteArrayInputStream;
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+
+/**
+ * Offline comparison of GraphPageDecoder's tree and streaming paths on a synthetic Graph
+ * page (50 messages with HTML bodies). Prints bytes allocated and time per decoded page.
+ * The tree path includes copying the page into a byte[] as BodyHandlers.ofByteArray does;
+ * the streaming path reads the page from an InputStream like BodyHandlers.ofInputStream.
+ *
+ * Usage: java -cp target/classes:target/test-classes:... com.servicerequest.emailbot.service.outlook.GraphPageDecodeBenchmark
+ *        [bodyChars] [maxBodyChars] [iterations]
+ */
+public class GraphPageDecodeBenchmark {
+
+    private static final int MESSAGES_PER_PAGE = 50;
+
+    public static void main(String[] args) throws Exception {
+        int bodyChars = args.length > 0 ? Integer.parseInt(args[0]) : 40_000;
+        int maxBodyChars = args.length > 1 ? Integer.parseInt(args[1]) : 100_000;
+        int iterations = args.length > 2 ? Integer.parseInt(args[2]) : 200;
+
+        ObjectMapper mapper = new ObjectMapper();
+        byte[] page = samplePage(mapper, bodyChars);
+        GraphPageDecoder decoder = new GraphPageDecoder(mapper, maxBodyChars);
+
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        if (!threads.isThreadAllocatedMemorySupported()) {
+            System.out.println("Per-thread allocation counting is not supported by this JVM");
+            return;
+        }
+        threads.setThreadAllocatedMemoryEnabled(true);
+
+        // Same messages must come out of both paths
+        GraphPageDecoder.Page tree = decoder.decodeTree(page, false);
+        GraphPageDecoder.Page streamed = decoder.decodeStreaming(new ByteArrayInputStream(page), false);
+        if (tree.getEmails().size() != streamed.getEmails().size()
+                || !tree.getEmails().get(0).getBody().equals(streamed.getEmails().get(0).getBody())
+                || !tree.getEmails().get(0).getSender().equals(streamed.getEmails().get(0).getSender())) {
+            System.out.println("❌ Tree and streaming decoders disagree");
+            return;
+        }
+
+        System.out.printf("Page: %d messages, %.1f KB, body %d chars, max-body-chars %d, %d iterations%n",
+                MESSAGES_PER_PAGE, page.length / 1024.0, bodyChars, maxBodyChars, iterations);
+        System.out.println("decoder     KB allocated/page  ms/page  truncated/page");
+
+        for (String mode : new String[] {"tree", "streaming"}) {
+            // Warm up so JIT compilation is not counted
+            for (int i = 0; i < iterations; i++) {
+                decode(decoder, mode, page);
+            }
+
+            long threadId = Thread.currentThread().getId();
+            long allocatedBefore = threads.getThreadAllocatedBytes(threadId);
+            long start = System.nanoTime();
+            int truncated = 0;
+            for (int i = 0; i < iterations; i++) {
+                truncated = decode(decoder, mode, page).getTruncatedBodies();
+            }
+            long elapsed = System.nanoTime() - start;
+            long allocated = threads.getThreadAllocatedBytes(threadId) - allocatedBefore;
+
+            System.out.printf("%-10s  %17.1f  %7.2f  %14d%n", mode,
+                    allocated / 1024.0 / iterations, elapsed / 1_000_000.0 / iterations, truncated);
+        }
+    }
+
+    private static GraphPageDecoder.Page decode(GraphPageDecoder decoder, String mode, byte[] page) throws Exception {
+        if ("tree".equals(mode)) {
+            return decoder.decodeTree(Arrays.copyOf(page, page.length), false);
+        }
+        return decoder.decodeStreaming(new ByteArrayInputStream(page), false);
+    }
+
+    /**
+     * A page shaped like Graph's /me/messages response, including fields decoding skips
+     */
+    private static byte[] samplePage(ObjectMapper mapper, int bodyChars) throws Exception {
+        StringBuilder html = new StringBuilder("<html><body>");
+        while (html.length() < bodyChars - 20) {
+            html.append("<p>Printer on floor 3 is offline again, please help.</p>");
+        }
+        html.append("</body></html>");
+
+        ObjectNode root = mapper.createObjectNode();
+        root.put("@odata.context", "https://graph.microsoft.com/v1.0/$metadata#users('me')/messages");
+        ArrayNode value = root.putArray("value");
+        for (int i = 0; i < MESSAGES_PER_PAGE; i++) {
+            ObjectNode message = value.addObject();
+            message.put("@odata.etag", "W/\"CQAAABYAAAB" + i + "\"");
+            message.put("id", "AAMkAGI2TG93AAA=" + i);
+            message.put("receivedDateTime", "2026-10-17T09:" + String.format("%02d", i) + ":00Z");
+            message.put("subject", "Printer offline #" + i);
+            message.put("hasAttachments", i % 5 == 0);
+            message.put("conversationId", "AAQkAGI2conv" + i);
+            message.put("isRead", false);
+            message.put("isDraft", false);
+            ObjectNode body = message.putObject("body");
+            body.put("contentType", "html");
+            body.put("content", html.toString());
+            ObjectNode address = message.putObject("from").putObject("emailAddress");
+            address.put("name", "User " + i);
+            address.put("address", "user" + i + "@example.com");
+            ArrayNode to = message.putArray("toRecipients");
+            to.addObject().putObject("emailAddress").put("address", "helpdesk@example.com");
+        }
+        root.put("@odata.nextLink", "https://graph.microsoft.com/v1.0/me/messages?$skip=50");
+        return mapper.writeValueAsBytes(root);
+    }
+}
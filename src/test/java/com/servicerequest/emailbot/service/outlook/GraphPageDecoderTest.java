@@ -0,0 +1,162 @@
+package com.servicerequest.emailbot.service.outlook;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.servicerequest.emailbot.model.EmailData;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+/**
+ * Streaming and tree decoding of Graph message pages must produce the same EmailData
+ */
+class GraphPageDecoderTest {
+
+    private static final String NEXT_LINK = "https://graph.microsoft.com/v1.0/me/messages?$skip=50";
+    private static final String DELTA_LINK = "https://graph.microsoft.com/v1.0/me/mailFolders/inbox/messages/delta?$deltatoken=abc";
+
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    @Test
+    void decodesMessagesAndNextLink() throws Exception {
+        ObjectNode root = page();
+        message(root, "m1", "user1@example.com", "Printer offline", "Floor 3 printer is down").put("hasAttachments", true);
+        message(root, "m2", "user2@example.com", "VPN", "Cannot connect");
+        root.put("@odata.nextLink", NEXT_LINK);
+
+        for (GraphPageDecoder.Page page : decodeBoth(root, 0, false)) {
+            assertEquals(List.of("m1", "m2"), ids(page));
+            EmailData first = page.getEmails().get(0);
+            assertEquals("user1@example.com", first.getSender());
+            assertEquals("Printer offline", first.getSubject());
+            assertEquals("Floor 3 printer is down", first.getBody());
+            assertEquals("conv-m1", first.getConversationId());
+            assertEquals("2026-10-17T09:00:00Z", first.getReceivedDateTime());
+            assertEquals(true, first.hasAttachments());
+            assertFalse(page.getEmails().get(1).hasAttachments());
+            assertEquals(NEXT_LINK, page.getNextLink());
+            assertNull(page.getDeltaLink());
+            assertEquals(0, page.getTruncatedBodies());
+        }
+    }
+
+    @Test
+    void deltaPageSkipsRemovedReadAndDraftMessages() throws Exception {
+        ObjectNode root = page();
+        message(root, "new", "user@example.com", "New", "Unread mail");
+        // Deleted messages come back as id + @removed only
+        ObjectNode deleted = root.withArray("value").addObject();
+        deleted.put("id", "deleted");
+        deleted.putObject("@removed").put("reason", "deleted");
+        // Moved out of the folder: still has its fields, but flagged removed
+        message(root, "moved", "user@example.com", "Moved", "Gone elsewhere").putObject("@removed").put("reason", "changed");
+        message(root, "read", "user@example.com", "Read", "Already seen").put("isRead", true);
+        message(root, "draft", "user@example.com", "Draft", "Not sent").put("isDraft", true);
+        root.put("@odata.deltaLink", DELTA_LINK);
+
+        for (GraphPageDecoder.Page page : decodeBoth(root, 0, true)) {
+            assertEquals(List.of("new"), ids(page));
+            assertEquals(DELTA_LINK, page.getDeltaLink());
+            assertNull(page.getNextLink());
+        }
+    }
+
+    @Test
+    void skipsMessagesWithoutSender() throws Exception {
+        ObjectNode root = page();
+        message(root, "noFrom", "user@example.com", "No sender", "Body").remove("from");
+        message(root, "nullFrom", "user@example.com", "Null sender", "Body").putNull("from");
+        message(root, "noAddress", "user@example.com", "No address", "Body")
+                .putObject("from").putObject("emailAddress").put("name", "Someone");
+        message(root, "ok", "user@example.com", "With sender", "Body");
+
+        // Both the filter (unreadOnly=false) and delta (unreadOnly=true) paths
+        for (boolean unreadOnly : new boolean[] {false, true}) {
+            for (GraphPageDecoder.Page page : decodeBoth(root, 0, unreadOnly)) {
+                assertEquals(List.of("ok"), ids(page));
+            }
+        }
+    }
+
+    @Test
+    void truncatesBodiesLongerThanMaxBodyChars() throws Exception {
+        String limitBody = "x".repeat(100);
+        StringBuilder longBody = new StringBuilder();
+        while (longBody.length() < 50_000) {
+            longBody.append("<p>Printer on floor 3 is offline again, please help.</p>");
+        }
+
+        ObjectNode root = page();
+        message(root, "short", "user@example.com", "Short", "Fits easily");
+        message(root, "limit", "user@example.com", "At the limit", limitBody);
+        message(root, "long", "user@example.com", "Long", longBody.toString());
+
+        for (GraphPageDecoder.Page page : decodeBoth(root, 100, false)) {
+            assertEquals("Fits easily", page.getEmails().get(0).getBody());
+            assertEquals(limitBody, page.getEmails().get(1).getBody());
+            assertEquals(longBody.substring(0, 100), page.getEmails().get(2).getBody());
+            assertEquals(1, page.getTruncatedBodies());
+        }
+
+        // Beyond one parser buffer segment, so the capped copy spans several segments
+        for (GraphPageDecoder.Page page : decodeBoth(root, 20_000, false)) {
+            assertEquals(longBody.substring(0, 20_000), page.getEmails().get(2).getBody());
+            assertEquals(1, page.getTruncatedBodies());
+        }
+
+        // 0 disables truncation
+        for (GraphPageDecoder.Page page : decodeBoth(root, 0, false)) {
+            assertEquals(longBody.toString(), page.getEmails().get(2).getBody());
+            assertEquals(0, page.getTruncatedBodies());
+        }
+    }
+
+    private List<GraphPageDecoder.Page> decodeBoth(ObjectNode root, int maxBodyChars, boolean unreadOnly) throws Exception {
+        byte[] body = mapper.writeValueAsBytes(root);
+        GraphPageDecoder decoder = new GraphPageDecoder(mapper, maxBodyChars);
+        GraphPageDecoder.Page streamed = decoder.decodeStreaming(new ByteArrayInputStream(body), unreadOnly);
+        assertEquals(body.length, streamed.getBytes());
+        return List.of(streamed, decoder.decodeTree(body, unreadOnly));
+    }
+
+    private ObjectNode page() {
+        ObjectNode root = mapper.createObjectNode();
+        root.put("@odata.context", "https://graph.microsoft.com/v1.0/$metadata#users('me')/messages");
+        root.putArray("value");
+        return root;
+    }
+
+    /**
+     * A message as Graph returns it, with a few fields the decoder skips
+     */
+    private static ObjectNode message(ObjectNode root, String id, String sender, String subject, String body) {
+        ArrayNode value = root.withArray("value");
+        ObjectNode message = value.addObject();
+        message.put("@odata.etag", "W/\"CQAAABYAAAB\"");
+        message.put("id", id);
+        message.put("receivedDateTime", "2026-10-17T09:00:00Z");
+        message.put("subject", subject);
+        message.put("hasAttachments", false);
+        message.put("conversationId", "conv-" + id);
+        message.put("isRead", false);
+        message.put("isDraft", false);
+        message.putArray("toRecipients").addObject().putObject("emailAddress").put("address", "helpdesk@example.com");
+        ObjectNode content = message.putObject("body");
+        content.put("contentType", "html");
+        content.put("content", body);
+        ObjectNode address = message.putObject("from").putObject("emailAddress");
+        address.put("name", "User");
+        address.put("address", sender);
+        return message;
+    }
+
+    private static List<String> ids(GraphPageDecoder.Page page) {
+        return page.getEmails().stream().map(EmailData::getId).toList();
+    }
+}
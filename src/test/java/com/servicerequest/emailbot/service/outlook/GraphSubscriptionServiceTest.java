@@ -0,0 +1,156 @@
+package com.servicerequest.emailbot.service.outlook;
+
+import com.servicerequest.emailbot.controller.GraphNotificationHandler;
+import com.servicerequest.emailbot.service.core.NotificationIngestService;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.ResponseEntity;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.net.http.HttpClient;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Subscription handshake, notification ingestion and renewal, driven by GraphNotificationStub
+ * posting to GraphNotificationHandler over HTTP
+ */
+class GraphSubscriptionServiceTest {
+
+    private GraphNotificationStub stub;
+    private HttpServer webhook;
+    private GraphSubscriptionService subscriptionService;
+    private NotificationIngestService ingestService;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        stub = GraphNotificationStub.start(0);
+
+        OutlookSession session = new OutlookSession();
+        session.setAuthToken("test-token");
+        session.setTokenExpiryTime(System.currentTimeMillis() + 3_600_000);
+        OutlookSessionService sessionService = new OutlookSessionService();
+        sessionService.setCurrentSession(session);
+
+        subscriptionService = new GraphSubscriptionService();
+        ingestService = new NotificationIngestService();
+        ReflectionTestUtils.setField(ingestService, "maxDrainSize", 50);
+        GraphNotificationHandler handler = new GraphNotificationHandler();
+        ReflectionTestUtils.setField(handler, "subscriptionService", subscriptionService);
+        ReflectionTestUtils.setField(handler, "ingestService", ingestService);
+        webhook = startWebhook(handler);
+
+        ReflectionTestUtils.setField(subscriptionService, "sessionService", sessionService);
+        ReflectionTestUtils.setField(subscriptionService, "client", HttpClient.newHttpClient());
+        ReflectionTestUtils.setField(subscriptionService, "graphApiBase", stub.getBaseUrl());
+        ReflectionTestUtils.setField(subscriptionService, "enabled", true);
+        ReflectionTestUtils.setField(subscriptionService, "notificationUrl", webhookUrl());
+        ReflectionTestUtils.setField(subscriptionService, "configuredClientState", "");
+        ReflectionTestUtils.setField(subscriptionService, "lifetimeMinutes", 4200L);
+        ReflectionTestUtils.setField(subscriptionService, "renewBeforeMinutes", 60L);
+    }
+
+    @AfterEach
+    void tearDown() {
+        webhook.stop(0);
+        stub.stop();
+    }
+
+    @Test
+    void subscriptionIsCreatedAfterTheValidationHandshake() {
+        subscriptionService.maintainSubscription();
+
+        // The stub only answers 201 once the webhook echoed its validationToken as text/plain
+        assertEquals(1, stub.getSubscriptionsCreated());
+    }
+
+    @Test
+    void notificationsWithTheSubscriptionsClientStateAreQueued() throws Exception {
+        subscriptionService.maintainSubscription();
+
+        assertEquals(List.of(202), stub.notifyCreated("msg-1"));
+        // Graph may deliver the same notification twice
+        assertEquals(List.of(202), stub.notifyCreated("msg-1"));
+
+        assertEquals(1, ingestService.getQueueSize());
+    }
+
+    @Test
+    void notificationsWithAnotherClientStateAreIgnored() {
+        subscriptionService.maintainSubscription();
+
+        int status = stub.post(webhookUrl(), "sub-1", "forged-client-state", "msg-1");
+
+        assertEquals(202, status);
+        assertEquals(0, ingestService.getQueueSize());
+    }
+
+    @Test
+    void subscriptionIsRenewedAheadOfExpiry() {
+        subscriptionService.maintainSubscription();
+        subscriptionService.maintainSubscription();
+        assertEquals(0, stub.getRenewals());
+
+        ReflectionTestUtils.setField(subscriptionService, "expiresAt", Instant.now().plus(30, ChronoUnit.MINUTES));
+        subscriptionService.maintainSubscription();
+
+        assertEquals(1, stub.getRenewals());
+        Instant expiresAt = (Instant) ReflectionTestUtils.getField(subscriptionService, "expiresAt");
+        assertTrue(expiresAt.isAfter(Instant.now().plus(4000, ChronoUnit.MINUTES)));
+    }
+
+    @Test
+    void subscriptionGoneFromGraphIsRecreated() {
+        subscriptionService.maintainSubscription();
+        stub.dropSubscriptions();
+
+        ReflectionTestUtils.setField(subscriptionService, "expiresAt", Instant.now().plus(30, ChronoUnit.MINUTES));
+        subscriptionService.maintainSubscription();
+
+        assertEquals(2, stub.getSubscriptionsCreated());
+    }
+
+    /**
+     * Serves the handler the way Spring MVC maps it: validationToken query parameter, raw body
+     */
+    private static HttpServer startWebhook(GraphNotificationHandler handler) throws IOException {
+        HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/webhook/graph-notifications", exchange -> {
+            String body = new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8);
+            ResponseEntity<String> response = handler.handleGraphNotification(
+                    validationToken(exchange), body.isEmpty() ? null : body);
+            byte[] bytes = response.getBody() == null ? new byte[0] : response.getBody().getBytes(StandardCharsets.UTF_8);
+            if (response.getHeaders().getContentType() != null) {
+                exchange.getResponseHeaders().set("Content-Type", response.getHeaders().getContentType().toString());
+            }
+            exchange.sendResponseHeaders(response.getStatusCode().value(), bytes.length == 0 ? -1 : bytes.length);
+            exchange.getResponseBody().write(bytes);
+            exchange.close();
+        });
+        server.start();
+        return server;
+    }
+
+    private static String validationToken(HttpExchange exchange) {
+        String query = exchange.getRequestURI().getRawQuery();
+        if (query == null || !query.startsWith("validationToken=")) {
+            return null;
+        }
+        return URLDecoder.decode(query.substring("validationToken=".length()), StandardCharsets.UTF_8);
+    }
+
+    private String webhookUrl() {
+        return "http://localhost:" + webhook.getAddress().getPort() + "/webhook/graph-notifications";
+    }
+}